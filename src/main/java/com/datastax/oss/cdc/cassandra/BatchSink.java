@@ -0,0 +1,44 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of {@link ColumnBatch}es accumulated by {@link BatchingSink}.
+ */
+public interface BatchSink extends Closeable {
+
+    /**
+     * Writes the batch. The batch is cleared and reused after this method returns,
+     * so its contents must be written or copied before returning.
+     * When this method throws, the batch is kept and written again with the events added after it,
+     * so nothing of the batch should be written on failure.
+     *
+     * @param batch events of one table
+     * @throws IOException when failed to write
+     */
+    void write(ColumnBatch batch) throws IOException;
+
+    /**
+     * Flushes written batches.
+     *
+     * @throws IOException when failed to flush
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Makes all batches written so far durable.
+     *
+     * @throws IOException when failed to sync
+     * @see ChangeEventSink#sync()
+     */
+    default void sync() throws IOException {
+        flush();
+    }
+
+    @Override
+    default void close() throws IOException {
+        flush();
+    }
+}
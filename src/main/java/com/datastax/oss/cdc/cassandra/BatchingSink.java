@@ -0,0 +1,169 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.PartitionColumns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates events per table into {@link ColumnBatch}es, and passes them to {@link BatchSink}.
+ *
+ * A batch is passed when it reaches the batch size, when it gets older than the maximum delay,
+ * when the columns of the table change, and when the sink is flushed or closed.
+ * When the sink fails to write a batch, the batch is kept to be passed again with the events added after it,
+ * and the failure of passing batches in the background is thrown by the next write, flush or sync.
+ */
+public class BatchingSink implements ChangeEventSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingSink.class);
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final BatchSink sink;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final Map<UUID, OpenBatch> batches = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    // failure of passing batches in the background, thrown by the next call
+    private IOException failure;
+
+    public BatchingSink(BatchSink sink, int batchSize) {
+        this(sink, batchSize, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param sink sink to pass batches to
+     * @param batchSize number of events to pass the batch at
+     * @param maxDelayMillis time in milliseconds to pass the batch after its first event is added
+     */
+    public BatchingSink(BatchSink sink, int batchSize, long maxDelayMillis) {
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cdc-batching-sink");
+            t.setDaemon(true);
+            return t;
+        });
+        long tick = Math.max(10, Math.min(1000, maxDelayMillis));
+        scheduler.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void write(ChangeEvent event) throws IOException {
+        throwFailure();
+        CFMetaData metadata = Schema.instance.getCFMetaData(event.getTableId());
+        if (metadata == null) {
+            throw new IOException(String.format("Unknown table %s.%s (%s)",
+                    event.getKeyspaceName(), event.getTableName(), event.getTableId()));
+        }
+        OpenBatch batch = batches.get(metadata.cfId);
+        // columns are replaced on every schema change
+        if (batch != null && batch.columns != metadata.partitionColumns()) {
+            pass(batch);
+            batch = null;
+        }
+        if (batch == null) {
+            batch = new OpenBatch(metadata, batchSize);
+            batches.put(metadata.cfId, batch);
+        }
+        if (batch.batch.size() == 0) {
+            batch.startedAt = System.currentTimeMillis();
+        }
+        batch.batch.add(event);
+        if (batch.batch.size() >= batchSize) {
+            pass(batch);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        throwFailure();
+        for (OpenBatch batch : batches.values()) {
+            pass(batch);
+        }
+        sink.flush();
+    }
+
+    /**
+     * Passes all batches, and syncs the sink.
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        throwFailure();
+        for (OpenBatch batch : batches.values()) {
+            pass(batch);
+        }
+        sink.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        synchronized (this) {
+            try {
+                for (OpenBatch batch : batches.values()) {
+                    pass(batch);
+                }
+                batches.clear();
+            } finally {
+                sink.close();
+            }
+        }
+    }
+
+    private synchronized void tick() {
+        long now = System.currentTimeMillis();
+        try {
+            for (OpenBatch batch : batches.values()) {
+                if (batch.batch.size() > 0 && now - batch.startedAt >= maxDelayMillis) {
+                    pass(batch);
+                }
+            }
+            sink.flush();
+        } catch (IOException e) {
+            logger.error("Failed to write batch", e);
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private void throwFailure() throws IOException {
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Passes the batch to the sink, and clears it only when the sink has written it.
+     */
+    private void pass(OpenBatch batch) throws IOException {
+        if (batch.batch.size() > 0) {
+            sink.write(batch.batch);
+            batch.batch.clear();
+        }
+    }
+
+    private static class OpenBatch {
+        private final PartitionColumns columns;
+        private final ColumnBatch batch;
+        private long startedAt;
+
+        private OpenBatch(CFMetaData metadata, int capacity) {
+            this.columns = metadata.partitionColumns();
+            this.batch = new ColumnBatch(ColumnBatch.schemaOf(metadata), capacity);
+        }
+    }
+}
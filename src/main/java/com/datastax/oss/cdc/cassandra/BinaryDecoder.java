@@ -0,0 +1,180 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.io.util.DataInputPlus;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads {@link ChangeEvent}s encoded by {@link BinaryEncoder}.
+ *
+ * Decoded rows have both deserialized values and serialized values of columns.
+ */
+public class BinaryDecoder {
+
+    private final DataInputPlus in;
+    private final SchemaRegistry registry;
+    private final boolean inlineSchemas;
+    private boolean headerRead = false;
+    // records without the header, whose schemas are in the registry, are of the current version
+    private byte version = BinaryEncoder.FORMAT_VERSION;
+    private Instant watermark;
+
+    /**
+     * Creates the decoder for the stream with inline schemas.
+     */
+    public BinaryDecoder(InputStream in) {
+        this(in, new SchemaRegistry(), true);
+    }
+
+    /**
+     * Creates the decoder for records whose schemas are in the registry.
+     */
+    public BinaryDecoder(InputStream in, SchemaRegistry registry) {
+        this(in, registry, false);
+    }
+
+    private BinaryDecoder(InputStream in, SchemaRegistry registry, boolean inlineSchemas) {
+        this.in = new DataInputPlus.DataInputStreamPlus(in);
+        this.registry = registry;
+        this.inlineSchemas = inlineSchemas;
+    }
+
+    /**
+     * @return next event, or null at the end of the stream. Watermarks before the event are read and kept
+     * for {@link #getWatermark()}.
+     */
+    public ChangeEvent read() throws IOException {
+        if (inlineSchemas && !headerRead) {
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (magic != BinaryEncoder.MAGIC) {
+                throw new IOException("Not a binary encoded stream");
+            }
+            version = in.readByte();
+            if (version < 1 || version > BinaryEncoder.FORMAT_VERSION) {
+                throw new IOException("Unsupported format version " + version);
+            }
+            headerRead = true;
+        }
+        while (true) {
+            byte tag;
+            try {
+                tag = in.readByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (tag == BinaryEncoder.SCHEMA) {
+                registry.add(TableSchema.deserialize(in));
+            } else if (tag == BinaryEncoder.EVENT) {
+                return readEvent();
+            } else if (tag == BinaryEncoder.WATERMARK) {
+                watermark = Instant.ofEpochMilli(in.readVInt());
+            } else {
+                throw new IOException("Unknown record type " + tag);
+            }
+        }
+    }
+
+    /**
+     * @return the last watermark read, that all events before it have been read, or null if none is read yet
+     */
+    public Instant getWatermark() {
+        return watermark;
+    }
+
+    private ChangeEvent readEvent() throws IOException {
+        int schemaId = (int) in.readUnsignedVInt();
+        TableSchema schema = registry.get(schemaId);
+        if (schema == null) {
+            throw new IOException("Unknown schema id " + schemaId);
+        }
+        int flags = in.readByte();
+        long timestamp = in.readVInt();
+        if (version == 1) {
+            timestamp = TimeUnit.MILLISECONDS.toMicros(timestamp);
+        }
+        SequenceId sequenceId = null;
+        if ((flags & BinaryEncoder.FLAG_SEQUENCE_ID) != 0) {
+            sequenceId = new SequenceId(in.readUnsignedVInt(), in.readUnsignedVInt());
+        }
+        DefaultChangeEvent event;
+        if ((flags & BinaryEncoder.FLAG_DELETE) != 0) {
+            event = new DefaultChangeEvent(schema.getKeyspaceName(), schema.getTableName(), schema.getTableId(),
+                    timestamp, readDeletion(schema));
+        } else {
+            event = new DefaultChangeEvent(schema.getKeyspaceName(), schema.getTableName(), schema.getTableId(),
+                    timestamp, readRow(schema));
+        }
+        if ((flags & BinaryEncoder.FLAG_BEFORE_IMAGE) != 0) {
+            event = new DefaultChangeEvent(event, event.getRow(), readRow(schema));
+        }
+        event.setSequenceId(sequenceId);
+        return event;
+    }
+
+    private Row readRow(TableSchema schema) throws IOException {
+        List<TableSchema.Column> columns = schema.getColumns();
+        byte[] bitmap = new byte[(columns.size() + 7) / 8];
+        in.readFully(bitmap);
+        Map<String, Object> values = new LinkedHashMap<>();
+        Map<String, ByteBuffer> serialized = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            if ((bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                TableSchema.Column column = columns.get(i);
+                ByteBuffer value = readValue();
+                values.put(column.getName(), column.deserialize(value));
+                if (value != null) {
+                    serialized.put(column.getName(), value);
+                }
+            }
+        }
+        return new DefaultRow(values, serialized);
+    }
+
+    private Deletion readDeletion(TableSchema schema) throws IOException {
+        List<TableSchema.Column> columns = schema.getColumns();
+        ChangeEventBuilder.DeletionImpl deletion = new ChangeEventBuilder.DeletionImpl();
+        int count = (int) in.readUnsignedVInt();
+        for (int i = 0; i < count; i++) {
+            deletion.addColumn(columns.get((int) in.readUnsignedVInt()).getName());
+        }
+        count = (int) in.readUnsignedVInt();
+        for (int i = 0; i < count; i++) {
+            TableSchema.Column column = columns.get((int) in.readUnsignedVInt());
+            int flags = in.readByte();
+            Object start = column.deserialize(readValue());
+            if ((flags & BinaryEncoder.CRITERIA_EQUAL) != 0) {
+                deletion.addCriteria(Criteria.equals(column.getName(), start));
+            } else {
+                Object end = column.deserialize(readValue());
+                deletion.addCriteria(Criteria.range(column.getName(), start, end,
+                        (flags & BinaryEncoder.CRITERIA_START_INCLUSIVE) != 0,
+                        (flags & BinaryEncoder.CRITERIA_END_INCLUSIVE) != 0));
+            }
+        }
+        return deletion;
+    }
+
+    private ByteBuffer readValue() throws IOException {
+        int length = (int) in.readUnsignedVInt();
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
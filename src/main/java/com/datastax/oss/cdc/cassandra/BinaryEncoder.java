@@ -0,0 +1,209 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.DataOutputPlus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes events into compact binary records described by per-table {@link TableSchema}.
+ *
+ * Records do not carry keyspace, table or column names. Instead, each record refers to the schema by its id,
+ * and has the bitmap of the columns present followed by their values as serialized in CQL native protocol.
+ * Schemas are either written inline to the stream before the first record that uses them,
+ * or kept in the file-backed {@link SchemaRegistry} shared with readers.
+ *
+ * <pre>
+ * stream  := MAGIC FORMAT_VERSION (schema | event | watermark)*      (inline schemas)
+ *          | (event | watermark)*                                   (external registry)
+ * schema  := SCHEMA TableSchema
+ * watermark := WATERMARK timestamp_ms:vint
+ * event   := EVENT schema_id:uvint flags:byte timestamp_us:vint [sequence_id] (row | deletion) [row]
+ * sequence_id := segment_id:uvint position:uvint
+ * row     := bitmap:byte[(columns + 7) / 8] value*
+ * value   := length+1:uvint bytes                        (0 for null)
+ * deletion:= count:uvint column_index:uvint* count:uvint criteria*
+ * criteria:= column_index:uvint flags:byte (value | value value)
+ * </pre>
+ *
+ * The event timestamp is the write timestamp in microseconds. Streams of format version 1 have it in milliseconds.
+ * Records are decoded by {@link BinaryDecoder}.
+ */
+public class BinaryEncoder implements ChangeEventEncoder {
+
+    static final int MAGIC = 0x43444342; // "CDCB"
+    static final byte FORMAT_VERSION = 2;
+
+    static final byte SCHEMA = 1;
+    static final byte EVENT = 2;
+    static final byte WATERMARK = 3;
+
+    static final int FLAG_DELETE = 0x01;
+    static final int FLAG_BEFORE_IMAGE = 0x02;
+    static final int FLAG_SEQUENCE_ID = 0x04;
+
+    static final int CRITERIA_EQUAL = 0x01;
+    static final int CRITERIA_START_INCLUSIVE = 0x02;
+    static final int CRITERIA_END_INCLUSIVE = 0x04;
+
+    private final SchemaRegistry registry;
+    private final boolean inlineSchemas;
+    private final BitSet writtenSchemas = new BitSet();
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private boolean headerWritten = false;
+
+    /**
+     * Creates the encoder that writes schemas inline.
+     */
+    public BinaryEncoder() {
+        this(new SchemaRegistry(), true);
+    }
+
+    /**
+     * @param registry registry to assign schema ids
+     * @param inlineSchemas true to write schemas to the stream, false to only refer to them in the registry
+     */
+    public BinaryEncoder(SchemaRegistry registry, boolean inlineSchemas) {
+        this.registry = registry;
+        this.inlineSchemas = inlineSchemas;
+    }
+
+    @Override
+    public void encode(ChangeEvent event, OutputStream out) throws IOException {
+        CFMetaData metadata = Schema.instance.getCFMetaData(event.getTableId());
+        if (metadata == null) {
+            throw new IOException(String.format("Unknown table %s.%s (%s)",
+                    event.getKeyspaceName(), event.getTableName(), event.getTableId()));
+        }
+        TableSchema schema = registry.schemaFor(metadata);
+        buffer.clear();
+        writeHeader();
+        if (inlineSchemas) {
+            if (!writtenSchemas.get(schema.getId())) {
+                buffer.writeByte(SCHEMA);
+                schema.serialize(buffer);
+                writtenSchemas.set(schema.getId());
+            }
+        }
+        buffer.writeByte(EVENT);
+        buffer.writeUnsignedVInt(schema.getId());
+        int flags = 0;
+        if (event.getEventType() == ChangeEventType.DELETE) {
+            flags |= FLAG_DELETE;
+        }
+        if (event.getBeforeImage() != null) {
+            flags |= FLAG_BEFORE_IMAGE;
+        }
+        SequenceId sequenceId = event.getSequenceId();
+        if (sequenceId != null) {
+            flags |= FLAG_SEQUENCE_ID;
+        }
+        buffer.writeByte(flags);
+        buffer.writeVInt(event.getWriteTimestamp());
+        if (sequenceId != null) {
+            buffer.writeUnsignedVInt(sequenceId.getSegmentId());
+            buffer.writeUnsignedVInt(sequenceId.getPosition());
+        }
+        if (event.getEventType() == ChangeEventType.DELETE) {
+            writeDeletion(schema, event.getDeletion(), buffer);
+        } else {
+            writeRow(schema, event.getRow(), buffer);
+        }
+        if (event.getBeforeImage() != null) {
+            writeRow(schema, event.getBeforeImage(), buffer);
+        }
+        out.write(buffer.getData(), 0, buffer.getLength());
+    }
+
+    @Override
+    public void encodeWatermark(Instant watermark, OutputStream out) throws IOException {
+        buffer.clear();
+        writeHeader();
+        buffer.writeByte(WATERMARK);
+        buffer.writeVInt(watermark.toEpochMilli());
+        out.write(buffer.getData(), 0, buffer.getLength());
+    }
+
+    private void writeHeader() throws IOException {
+        if (inlineSchemas && !headerWritten) {
+            buffer.writeInt(MAGIC);
+            buffer.writeByte(FORMAT_VERSION);
+            headerWritten = true;
+        }
+    }
+
+    @Override
+    public String extension() {
+        return ".cdcb";
+    }
+
+    private static void writeRow(TableSchema schema, Row row, DataOutputPlus out) throws IOException {
+        List<TableSchema.Column> columns = schema.getColumns();
+        Set<String> names = row.getColumnNames();
+        Map<String, ByteBuffer> serialized = row.getSerializedColumns();
+        byte[] bitmap = new byte[(columns.size() + 7) / 8];
+        for (int i = 0; i < columns.size(); i++) {
+            if (names.contains(columns.get(i).getName())) {
+                bitmap[i >> 3] |= 1 << (i & 7);
+            }
+        }
+        out.write(bitmap);
+        for (int i = 0; i < columns.size(); i++) {
+            TableSchema.Column column = columns.get(i);
+            if ((bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                ByteBuffer value = serialized.get(column.getName());
+                writeValue(value != null ? value : column.serialize(row.getColumns().get(column.getName())), out);
+            }
+        }
+    }
+
+    private static void writeDeletion(TableSchema schema, Deletion deletion, DataOutputPlus out) throws IOException {
+        List<String> columns = deletion.getColumns();
+        out.writeUnsignedVInt(columns.size());
+        for (String column : columns) {
+            out.writeUnsignedVInt(indexOf(schema, column));
+        }
+        List<Criteria> criteria = deletion.getCriteria();
+        out.writeUnsignedVInt(criteria.size());
+        for (Criteria c : criteria) {
+            int index = indexOf(schema, c.getColumn());
+            TableSchema.Column column = schema.getColumns().get(index);
+            out.writeUnsignedVInt(index);
+            int flags = (c.isEqual() ? CRITERIA_EQUAL : 0)
+                    | (c.isStartInclusive() ? CRITERIA_START_INCLUSIVE : 0)
+                    | (c.isEndInclusive() ? CRITERIA_END_INCLUSIVE : 0);
+            out.writeByte(flags);
+            writeValue(column.serialize(c.getStartValue()), out);
+            if (!c.isEqual()) {
+                writeValue(column.serialize(c.getEndValue()), out);
+            }
+        }
+    }
+
+    private static int indexOf(TableSchema schema, String column) throws IOException {
+        int index = schema.indexOf(column);
+        if (index < 0) {
+            throw new IOException(String.format("Column %s not found in %s.%s",
+                    column, schema.getKeyspaceName(), schema.getTableName()));
+        }
+        return index;
+    }
+
+    private static void writeValue(ByteBuffer value, DataOutputPlus out) throws IOException {
+        if (value == null) {
+            out.writeUnsignedVInt(0);
+        } else {
+            out.writeUnsignedVInt(value.remaining() + 1);
+            out.write(value.duplicate());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map of primitive long keys and values with fixed capacity.
+ *
+ * Each key is only looked up within a short probe window from its home slot. When the window is full,
+ * the entry at the home slot is evicted, so the map never grows beyond its capacity and behaves like a cache.
+ * Key <code>0</code> is reserved for empty slots and is stored as <code>1</code> instead.
+ */
+class BoundedLongLongMap {
+
+    /** bytes used per entry */
+    static final int ENTRY_SIZE = 16;
+
+    private static final int PROBE_WINDOW = 8;
+
+    private final long[] keys;
+    private final long[] values;
+    private final int mask;
+    private int size;
+    private long evictedKey;
+
+    /**
+     * @param maxEntries maximum number of entries, rounded down to power of 2
+     */
+    BoundedLongLongMap(int maxEntries) {
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, PROBE_WINDOW));
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param key key to look up
+     * @param missing value to return when key is not found
+     * @return value associated with the key, or <code>missing</code>
+     */
+    long get(long key, long missing) {
+        key = key == 0 ? 1 : key;
+        int home = slot(key);
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int index = (home + i) & mask;
+            if (keys[index] == key) {
+                return values[index];
+            } else if (keys[index] == 0) {
+                return missing;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Associates value with the key.
+     *
+     * @return true if other entry was evicted to store the value
+     */
+    boolean put(long key, long value) {
+        key = key == 0 ? 1 : key;
+        int home = slot(key);
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int index = (home + i) & mask;
+            if (keys[index] == key) {
+                values[index] = value;
+                return false;
+            } else if (keys[index] == 0) {
+                keys[index] = key;
+                values[index] = value;
+                size++;
+                return false;
+            }
+        }
+        evictedKey = keys[home];
+        keys[home] = key;
+        values[home] = value;
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return key of the entry evicted by the last {@link #put(long, long)} that returned true
+     */
+    long evictedKey() {
+        return evictedKey;
+    }
+
+    /**
+     * @return home slot of the key, from <code>0</code> to {@link #capacity()} - 1
+     */
+    int homeSlot(long key) {
+        return slot(key == 0 ? 1 : key);
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,45 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Metrics of this program.
+ *
+ * Metrics are registered to the shared registry and exposed through JMX under {@value #DOMAIN} domain
+ * once {@link #startReporting()} is called.
+ */
+public final class CDCMetrics {
+
+    public static final String DOMAIN = "com.datastax.oss.cdc";
+
+    public static final MetricRegistry registry = new MetricRegistry();
+
+    private static JmxReporter reporter;
+
+    private CDCMetrics() {
+    }
+
+    /**
+     * Registers gauge with given name, replacing the gauge previously registered with the same name.
+     *
+     * @param name name of the gauge
+     * @param gauge gauge to register
+     * @return registered gauge
+     */
+    public static <T> Gauge<T> gauge(String name, Gauge<T> gauge) {
+        registry.remove(name);
+        return registry.register(name, gauge);
+    }
+
+    /**
+     * Starts exposing metrics through JMX.
+     */
+    public static synchronized void startReporting() {
+        if (reporter == null) {
+            reporter = JmxReporter.forRegistry(registry).inDomain(DOMAIN).build();
+            reporter.start();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monitors the size of the CDC directory against <code>cdc_total_space_in_mb</code>, at which Cassandra starts
+ * rejecting writes to CDC enabled tables.
+ *
+ * When the usage reaches the threshold, the monitor switches to draining mode until the usage goes 10% of the limit
+ * below the threshold. While draining, {@link ChangeDataCapture} skips optional stages and moves segments out of
+ * the CDC directory before processing them when archiving, and the projected time until the directory is full
+ * is logged as a warning.
+ *
+ * Only files in the CDC directory are counted. Cassandra also counts commit log segments with CDC data
+ * that are not moved to the CDC directory yet, so the actual headroom can be smaller.
+ */
+public class CDCSpaceMonitor implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CDCSpaceMonitor.class);
+
+    private static final long WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Path directory;
+    private final long limit;
+    private final double threshold;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long used;
+    // bytes per second, smoothed over checks
+    private volatile double growthRate;
+    private volatile boolean draining;
+    private long lastCheck;
+    private long lastWarning;
+
+    /**
+     * @param directory CDC directory
+     * @param limit <code>cdc_total_space_in_mb</code> in bytes
+     * @param threshold fraction of the limit to start draining at
+     * @param intervalMillis interval to check the size at, or 0 to check only by {@link #check()}
+     */
+    public CDCSpaceMonitor(Path directory, long limit, double threshold, long intervalMillis) {
+        this.directory = directory;
+        this.limit = limit;
+        this.threshold = threshold;
+        CDCMetrics.gauge("CDCSpace.Used", () -> used);
+        CDCMetrics.gauge("CDCSpace.Headroom", this::getHeadroom);
+        CDCMetrics.gauge("CDCSpace.GrowthRate", () -> growthRate);
+        CDCMetrics.gauge("CDCSpace.Draining", () -> draining ? 1 : 0);
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cdc-space-monitor");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::check, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * @return bytes used by the CDC directory at the last check
+     */
+    public long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return bytes left until the limit at the last check
+     */
+    public long getHeadroom() {
+        return limit - used;
+    }
+
+    /**
+     * @return growth of the CDC directory in bytes per second
+     */
+    public double getGrowthRate() {
+        return growthRate;
+    }
+
+    synchronized void check() {
+        long size;
+        try {
+            size = directorySize();
+        } catch (IOException e) {
+            logger.warn("Failed to get size of {}", directory, e);
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastCheck != 0 && now > lastCheck) {
+            double rate = (size - used) * 1e9 / (now - lastCheck);
+            growthRate = growthRate * 0.7 + rate * 0.3;
+        }
+        lastCheck = now;
+        used = size;
+
+        if (!draining && size >= limit * threshold) {
+            draining = true;
+            logger.warn("CDC directory uses {} MB, {}% of cdc_total_space_in_mb {} MB; draining",
+                    size >> 20, size * 100 / limit, limit >> 20);
+        } else if (draining && size < limit * (threshold - 0.1)) {
+            draining = false;
+            logger.info("CDC directory uses {} MB, {}% of cdc_total_space_in_mb; stopped draining", size >> 20, size * 100 / limit);
+        }
+        if (draining && growthRate > 0 && now - lastWarning >= WARNING_INTERVAL_NANOS) {
+            lastWarning = now;
+            logger.warn("CDC directory grows {} KB/s and will be full in {} seconds, when Cassandra rejects writes to CDC tables",
+                    (long) growthRate >> 10, (long) (getHeadroom() / growthRate));
+        }
+    }
+
+    private long directorySize() throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                try {
+                    size += Files.size(file);
+                } catch (NoSuchFileException e) {
+                    // processed while listing
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
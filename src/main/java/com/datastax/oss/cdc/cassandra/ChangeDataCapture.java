@@ -2,22 +2,109 @@ package com.datastax.oss.cdc.cassandra;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
-import org.apache.cassandra.db.commitlog.CommitLogReader;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogReadHandler;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 
 public class ChangeDataCapture {
 
-    private final CommitLogReader reader = new CommitLogReader();
-    private final CommitLogHandler handler = new CommitLogHandler();
+    private static final Logger logger = LoggerFactory.getLogger(ChangeDataCapture.class);
+
+    private static final String ROW_STATE_SIZE_OPTION = "row-state-size-mb";
+    private static final String SUPPRESS_UNCHANGED_OPTION = "suppress-unchanged-mb";
+    private static final String OUTPUT_DIR_OPTION = "output-dir";
+    private static final String OUTPUT_FORMAT_OPTION = "output-format";
+    private static final String OUTPUT_COMPRESSION_OPTION = "output-compression";
+    private static final String OUTPUT_LAYOUT_OPTION = "output-layout";
+    private static final String OUTPUT_MAX_FILE_SIZE_OPTION = "output-max-file-size-mb";
+    private static final String OUTPUT_ROLL_INTERVAL_OPTION = "output-roll-interval-sec";
+    private static final String OUTPUT_FLUSH_INTERVAL_OPTION = "output-flush-interval-ms";
+    private static final String OUTPUT_SYNC_INTERVAL_OPTION = "output-sync-interval-ms";
+    private static final String JOURNAL_DIR_OPTION = "journal-dir";
+    private static final String JOURNAL_MAX_SIZE_OPTION = "journal-max-size-mb";
+    private static final String JOURNAL_MAX_AGE_OPTION = "journal-max-age-hours";
+    private static final String COLUMNAR_DIR_OPTION = "columnar-dir";
+    private static final String COLUMNAR_BATCH_SIZE_OPTION = "columnar-batch-size";
+    private static final String SSTABLE_DIR_OPTION = "sstable-dir";
+    private static final String SSTABLE_BUFFER_SIZE_OPTION = "sstable-buffer-mb";
+    private static final String SSTABLE_ROLL_INTERVAL_OPTION = "sstable-roll-interval-sec";
+    private static final String SNAPSHOT_DIR_OPTION = "snapshot-dir";
+    private static final String SNAPSHOT_THREADS_OPTION = "snapshot-threads";
+    private static final String REPLAY_DIR_OPTION = "replay-dir";
+    private static final String REPLAY_TABLES_OPTION = "replay-tables";
+    private static final String REPLAY_FROM_OPTION = "replay-from";
+    private static final String REPLAY_TO_OPTION = "replay-to";
+    private static final String ARCHIVE_DIR_OPTION = "archive-dir";
+    private static final String ARCHIVE_COMPRESSION_OPTION = "archive-compression";
+    private static final String ARCHIVE_MAX_SIZE_OPTION = "archive-max-size-mb";
+    private static final String ARCHIVE_MAX_AGE_OPTION = "archive-max-age-hours";
+    private static final String DRAIN_THRESHOLD_OPTION = "drain-threshold-percent";
+    private static final String MAX_READ_RATE_OPTION = "max-read-mb-per-sec";
+    private static final String MAX_WORKERS_OPTION = "max-workers";
+    private static final String LOAD_THRESHOLD_OPTION = "load-threshold";
+    private static final String CASSANDRA_JMX_OPTION = "cassandra-jmx";
+    private static final String DEAD_LETTER_DIR_OPTION = "dead-letter-dir";
+    private static final String HEAVY_HITTERS_OPTION = "heavy-hitters";
+    private static final String HEAVY_HITTERS_INTERVAL_OPTION = "heavy-hitters-interval-sec";
+    private static final String WATERMARK_INTERVAL_OPTION = "watermark-interval-ms";
+    private static final String WATERMARK_LATENESS_OPTION = "watermark-lateness-ms";
+    private static final String EXPIRATION_FILE_OPTION = "expiration-file";
+    private static final String ANALYZE_OPTION = "analyze";
+    private static final String ANALYZE_THREADS_OPTION = "analyze-threads";
+    private static final String HELP_OPTION = "help";
+
+    private final TolerantCommitLogReader reader;
+    private final CommitLogHandler handler;
+    private final SegmentArchiver archiver;
+    private CDCSpaceMonitor spaceMonitor;
+
+    public ChangeDataCapture() {
+        this(new CommitLogHandler());
+    }
+
+    public ChangeDataCapture(CommitLogHandler handler) {
+        this(handler, null);
+    }
+
+    /**
+     * @param handler handler to process segments with
+     * @param archiver archiver to move processed segments to, or null to delete them
+     */
+    public ChangeDataCapture(CommitLogHandler handler, SegmentArchiver archiver) {
+        this(handler, archiver, new DeadLetterQueue(null));
+    }
+
+    /**
+     * @param handler handler to process segments with
+     * @param archiver archiver to move processed segments to, or null to delete them
+     * @param deadLetters queue to send mutations that fail to be read or converted to
+     */
+    public ChangeDataCapture(CommitLogHandler handler, SegmentArchiver archiver, DeadLetterQueue deadLetters) {
+        this.handler = handler;
+        this.archiver = archiver;
+        this.reader = new TolerantCommitLogReader(deadLetters);
+        handler.setDeadLetterQueue(deadLetters);
+    }
 
     public void start(Path cdcDirectory) throws InterruptedException, IOException {
         WatchService watchService = cdcDirectory.getFileSystem().newWatchService();
         WatchKey key = cdcDirectory.register(watchService, ENTRY_CREATE);
 
+        // segments created before watching started, in the order they were written
+        for (Path segment : existingSegments(cdcDirectory)) {
+            process(segment);
+        }
+
         while (true) {
             WatchKey watchKey = watchService.take();
             for (WatchEvent<?> event : watchKey.pollEvents()) {
@@ -29,27 +116,225 @@ public class ChangeDataCapture {
                 WatchEvent<Path> ev = (WatchEvent<Path>) event;
                 Path relativePath = ev.context();
                 Path absolutePath = cdcDirectory.resolve(relativePath);
-                read(absolutePath);
-                Files.delete(absolutePath);
+                // already processed if created while listing existing segments
+                if (Files.notExists(absolutePath)) {
+                    continue;
+                }
+                process(absolutePath);
             }
             key.reset();
         }
     }
 
+    static List<Path> existingSegments(Path cdcDirectory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cdcDirectory,
+                path -> CommitLogDescriptor.isValid(path.getFileName().toString()))) {
+            files.forEach(segments::add);
+        }
+        segments.sort(Comparator.comparingLong(path -> CommitLogDescriptor.fromFileName(path.getFileName().toString()).id));
+        return segments;
+    }
+
+    /**
+     * Sets the monitor of the CDC directory space, to drain the directory when it is about to be full.
+     */
+    public void setSpaceMonitor(CDCSpaceMonitor spaceMonitor) {
+        this.spaceMonitor = spaceMonitor;
+    }
+
+    /**
+     * Reads the segment, and deletes or archives it after its events are synced to the sink.
+     */
+    void process(Path segment) throws IOException {
+        boolean draining = spaceMonitor != null && spaceMonitor.isDraining();
+        handler.setDraining(draining);
+        if (archiver == null) {
+            read(segment);
+            handler.sync();
+            Files.delete(segment);
+        } else {
+            // moved out of the CDC directory first to free its space as soon as possible
+            Path file = draining ? archiver.detach(segment) : segment;
+            // index is built while reading, to be archived with the segment
+            SegmentIndex.Builder builder = new SegmentIndex.Builder(
+                    CommitLogDescriptor.fromFileName(file.getFileName().toString()).id, handler);
+            read(file, builder);
+            handler.sync();
+            archiver.archive(file, builder.build());
+        }
+    }
+
     public void read(Path absolutePath) throws IOException {
-        // the last arg tolerateTruncation is false because Cassandra has a bug that can cause infinite loop
-        // when ignoring exception
-        try {
-            reader.readCommitLogSegment(handler, absolutePath.toFile(), false);
-        } finally {
-            // TODO how to display invalid mutations
-            if (!reader.getInvalidMutations().isEmpty()) {
-                System.err.println(reader.getInvalidMutations());
+        read(absolutePath, handler);
+    }
+
+    private void read(Path absolutePath, CommitLogReadHandler handler) throws IOException {
+        // stops at the first error instead of looping over it, and quarantines the rest
+        reader.read(handler, absolutePath);
+    }
+
+    private static Options options() {
+        Options options = new Options();
+        options.addOption(null, ROW_STATE_SIZE_OPTION, true,
+                "track row state in off-heap memory of given size (MB) to emit full row images and before-images");
+        options.addOption(null, SUPPRESS_UNCHANGED_OPTION, true,
+                "drop writes that do not change values, using fingerprints of last seen values kept in memory of given size (MB)");
+        options.addOption(null, OUTPUT_DIR_OPTION, true,
+                "write events to rotated files in given directory instead of standard output");
+        options.addOption(null, OUTPUT_FORMAT_OPTION, true,
+                "format of events in output files and journal: json (default, compact), smile, cbor or binary (schema-aware compact encoding)");
+        options.addOption(null, OUTPUT_COMPRESSION_OPTION, true, "compression of output files: none (default), lz4 or snappy");
+        options.addOption(null, OUTPUT_LAYOUT_OPTION, true,
+                "directory layout of output files: flat (default), table (keyspace/table) or hour (yyyy/MM/dd/HH)");
+        options.addOption(null, OUTPUT_MAX_FILE_SIZE_OPTION, true, "size (MB) to rotate output file at, default 128");
+        options.addOption(null, OUTPUT_ROLL_INTERVAL_OPTION, true, "time (seconds) to rotate output file at, default 3600");
+        options.addOption(null, OUTPUT_FLUSH_INTERVAL_OPTION, true, "interval (ms) to flush buffered events to output file, default 1000");
+        options.addOption(null, OUTPUT_SYNC_INTERVAL_OPTION, true,
+                "interval (ms) to fsync output file, default 0 to fsync only when the file is rotated");
+        options.addOption(null, JOURNAL_DIR_OPTION, true,
+                "append events to memory-mapped journal in given directory for local consumers to tail");
+        options.addOption(null, JOURNAL_MAX_SIZE_OPTION, true,
+                "total size (MB) to keep journal files read by all tailers within, default unlimited");
+        options.addOption(null, JOURNAL_MAX_AGE_OPTION, true,
+                "time (hours) to keep journal files read by all tailers for, default unlimited");
+        options.addOption(null, COLUMNAR_DIR_OPTION, true,
+                "write events to columnar files per table in given directory, with row groups and per-column min/max statistics");
+        options.addOption(null, COLUMNAR_BATCH_SIZE_OPTION, true, "number of events in each row group of columnar files, default 10000");
+        options.addOption(null, SSTABLE_DIR_OPTION, true,
+                "write events to SSTables in given directory, to load into another cluster with sstableloader");
+        options.addOption(null, SSTABLE_BUFFER_SIZE_OPTION, true,
+                "size (MB) of rows buffered for each table before writing them as an SSTable, default 64");
+        options.addOption(null, SSTABLE_ROLL_INTERVAL_OPTION, true,
+                "time (seconds) to complete a generation of SSTables, default 600");
+        options.addOption(null, SNAPSHOT_DIR_OPTION, true,
+                "before processing CDC, emit all rows in SSTables of given table snapshot directory as updates (can be repeated)");
+        options.addOption(null, SNAPSHOT_THREADS_OPTION, true,
+                "number of token ranges of snapshot to read in parallel, default number of processors");
+        options.addOption(null, REPLAY_DIR_OPTION, true,
+                "instead of processing CDC, replay kept commit log segments in given directory using their indexes and exit");
+        options.addOption(null, REPLAY_TABLES_OPTION, true, "comma separated keyspace.table to replay, default all tables");
+        options.addOption(null, REPLAY_FROM_OPTION, true, "start of time range to replay (ISO-8601, inclusive), default unbounded");
+        options.addOption(null, REPLAY_TO_OPTION, true, "end of time range to replay (ISO-8601, exclusive), default unbounded");
+        options.addOption(null, ARCHIVE_DIR_OPTION, true,
+                "move processed segments to given directory instead of deleting them, to replay them later");
+        options.addOption(null, ARCHIVE_COMPRESSION_OPTION, true, "compression of archived segments: none, lz4 (default) or snappy");
+        options.addOption(null, ARCHIVE_MAX_SIZE_OPTION, true, "total size (MB) to keep archived segments within, default unlimited");
+        options.addOption(null, ARCHIVE_MAX_AGE_OPTION, true, "time (hours) to keep archived segments for, default unlimited");
+        options.addOption(null, DRAIN_THRESHOLD_OPTION, true,
+                "usage of cdc_total_space_in_mb (%) to start draining CDC directory at, skipping row images and unchanged value suppression, default 80");
+        options.addOption(null, MAX_READ_RATE_OPTION, true,
+                "maximum size (MB) of commit log and SSTables to read per second, lowered while the node is busy, default unlimited");
+        options.addOption(null, MAX_WORKERS_OPTION, true,
+                "maximum number of snapshot ranges to read in parallel, lowered while the node is busy, default number of snapshot threads");
+        options.addOption(null, LOAD_THRESHOLD_OPTION, true,
+                "system load average per processor over which the node is busy, default 0.7");
+        options.addOption(null, CASSANDRA_JMX_OPTION, true,
+                "host:port of Cassandra JMX to read pending compactions and write latency from, default localhost:7199, or none");
+        options.addOption(null, DEAD_LETTER_DIR_OPTION, true,
+                "write mutations that fail to be read or converted to files in given directory, default only to log them");
+        options.addOption(null, HEAVY_HITTERS_OPTION, true,
+                "log and expose through JMX given number of partitions and tables written most in each interval");
+        options.addOption(null, HEAVY_HITTERS_INTERVAL_OPTION, true, "interval (seconds) to report hot partitions at, default 60");
+        options.addOption(null, WATERMARK_INTERVAL_OPTION, true,
+                "interval (ms) to write event-time watermarks to outputs at, default none");
+        options.addOption(null, WATERMARK_LATENESS_OPTION, true,
+                "time (ms) that events can be written after later events, held back from watermarks, default 5000");
+        options.addOption(null, EXPIRATION_FILE_OPTION, true,
+                "emit deletions of rows and cells written with TTL when they expire, keeping pending expirations in given file");
+        options.addOption(null, ANALYZE_OPTION, true,
+                "instead of processing CDC, print statistics of tables in commit log segments in given directory or segment and exit");
+        options.addOption(null, ANALYZE_THREADS_OPTION, true, "number of segments to analyze in parallel, default number of processors");
+        options.addOption("h", HELP_OPTION, false, "display this help message");
+        return options;
+    }
+
+    private static ChangeEventSink createSink(CommandLine cmd) throws IOException {
+        List<ChangeEventSink> sinks = new ArrayList<>();
+        if (cmd.hasOption(OUTPUT_DIR_OPTION)) {
+            sinks.add(createFileSink(cmd));
+        }
+        if (cmd.hasOption(JOURNAL_DIR_OPTION)) {
+            Path journalDir = Paths.get(cmd.getOptionValue(JOURNAL_DIR_OPTION));
+            ChangeEventEncoder encoder;
+            if (isBinaryFormat(cmd)) {
+                // journal records are read one by one, so schemas are kept in the registry file
+                Files.createDirectories(journalDir);
+                encoder = new BinaryEncoder(SchemaRegistry.open(journalDir.resolve(EventJournal.SCHEMA_FILE)), false);
+            } else {
+                encoder = new JacksonEncoder(jacksonFormat(cmd));
             }
+            sinks.add(new EventJournal(journalDir, encoder, EventJournal.DEFAULT_FILE_SIZE, EventJournal.DEFAULT_INDEX_INTERVAL,
+                    Long.parseLong(cmd.getOptionValue(JOURNAL_MAX_SIZE_OPTION, "0")) * 1024 * 1024,
+                    TimeUnit.HOURS.toMillis(Long.parseLong(cmd.getOptionValue(JOURNAL_MAX_AGE_OPTION, "0")))));
+        }
+        if (cmd.hasOption(COLUMNAR_DIR_OPTION)) {
+            int batchSize = Integer.parseInt(cmd.getOptionValue(COLUMNAR_BATCH_SIZE_OPTION, "10000"));
+            sinks.add(new BatchingSink(new ColumnarFileSink(Paths.get(cmd.getOptionValue(COLUMNAR_DIR_OPTION))), batchSize));
+        }
+        if (cmd.hasOption(SSTABLE_DIR_OPTION)) {
+            sinks.add(new SSTableSink(Paths.get(cmd.getOptionValue(SSTABLE_DIR_OPTION)),
+                    Integer.parseInt(cmd.getOptionValue(SSTABLE_BUFFER_SIZE_OPTION, "64")),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue(SSTABLE_ROLL_INTERVAL_OPTION, "600")))));
+        }
+        if (sinks.isEmpty()) {
+            return new ConsoleSink();
+        }
+        return sinks.size() == 1 ? sinks.get(0) : new CompositeSink(sinks);
+    }
+
+    private static ChangeEventSink createFileSink(CommandLine cmd) throws IOException {
+        RotatingFileSink.Builder builder = RotatingFileSink.builder(Paths.get(cmd.getOptionValue(OUTPUT_DIR_OPTION)));
+        if (isBinaryFormat(cmd)) {
+            builder.withEncoder(BinaryEncoder::new);
+        } else {
+            JacksonEncoder.Format format = jacksonFormat(cmd);
+            builder.withEncoder(() -> new JacksonEncoder(format));
+        }
+        if (cmd.hasOption(OUTPUT_COMPRESSION_OPTION)) {
+            builder.withCompression(RotatingFileSink.Compression.valueOf(cmd.getOptionValue(OUTPUT_COMPRESSION_OPTION).toUpperCase()));
+        }
+        if (cmd.hasOption(OUTPUT_LAYOUT_OPTION)) {
+            builder.withLayout(RotatingFileSink.Layout.valueOf(cmd.getOptionValue(OUTPUT_LAYOUT_OPTION).toUpperCase()));
+        }
+        if (cmd.hasOption(OUTPUT_MAX_FILE_SIZE_OPTION)) {
+            builder.withMaxFileSize(Long.parseLong(cmd.getOptionValue(OUTPUT_MAX_FILE_SIZE_OPTION)) * 1024 * 1024);
+        }
+        if (cmd.hasOption(OUTPUT_ROLL_INTERVAL_OPTION)) {
+            builder.withRollInterval(TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue(OUTPUT_ROLL_INTERVAL_OPTION))));
         }
+        if (cmd.hasOption(OUTPUT_FLUSH_INTERVAL_OPTION)) {
+            builder.withFlushInterval(Long.parseLong(cmd.getOptionValue(OUTPUT_FLUSH_INTERVAL_OPTION)));
+        }
+        if (cmd.hasOption(OUTPUT_SYNC_INTERVAL_OPTION)) {
+            builder.withSyncInterval(Long.parseLong(cmd.getOptionValue(OUTPUT_SYNC_INTERVAL_OPTION)));
+        }
+        return builder.build();
+    }
+
+    private static boolean isBinaryFormat(CommandLine cmd) {
+        return "binary".equalsIgnoreCase(cmd.getOptionValue(OUTPUT_FORMAT_OPTION));
+    }
+
+    private static JacksonEncoder.Format jacksonFormat(CommandLine cmd) {
+        return JacksonEncoder.Format.valueOf(cmd.getOptionValue(OUTPUT_FORMAT_OPTION, "json").toUpperCase());
     }
 
     public static void main(String[] args) throws Exception {
+        Options options = options();
+        CommandLine cmd;
+        try {
+            cmd = new GnuParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("cassandra-cdc.sh [options] [cdc_location]", options);
+            System.exit(-1);
+            return;
+        }
+        if (cmd.hasOption(HELP_OPTION)) {
+            new HelpFormatter().printHelp("cassandra-cdc.sh [options] [cdc_location]", options);
+            return;
+        }
 
         // Initialize for Apache Cassandra classes
         DatabaseDescriptor.toolInitialization();
@@ -68,8 +353,8 @@ public class ChangeDataCapture {
         Path cdcLocation;
         // Use the location if it is passed to the program
         // if not specified, take the CDC location from cassandra.yaml
-        if (args.length > 0) {
-            cdcLocation = Paths.get(args[0]);
+        if (cmd.getArgs().length > 0) {
+            cdcLocation = Paths.get(cmd.getArgs()[0]);
         } else {
             cdcLocation = Paths.get(DatabaseDescriptor.getCDCLogLocation());
         }
@@ -78,8 +363,131 @@ public class ChangeDataCapture {
             System.err.println(message);
             System.exit(-1);
         }
-        ChangeDataCapture cdc = new ChangeDataCapture();
+        RowStateStore rowStateStore = null;
+        if (cmd.hasOption(ROW_STATE_SIZE_OPTION)) {
+            long capacity = Long.parseLong(cmd.getOptionValue(ROW_STATE_SIZE_OPTION)) * 1024 * 1024;
+            rowStateStore = new RowStateStore(capacity);
+        }
+        ValueFingerprints fingerprints = null;
+        if (cmd.hasOption(SUPPRESS_UNCHANGED_OPTION)) {
+            long capacity = Long.parseLong(cmd.getOptionValue(SUPPRESS_UNCHANGED_OPTION)) * 1024 * 1024;
+            fingerprints = new ValueFingerprints(capacity);
+        }
+        ChangeEventSink sink = createSink(cmd);
+        SegmentArchiver archiver = null;
+        if (cmd.hasOption(ARCHIVE_DIR_OPTION)) {
+            archiver = new SegmentArchiver(Paths.get(cmd.getOptionValue(ARCHIVE_DIR_OPTION)),
+                    RotatingFileSink.Compression.valueOf(cmd.getOptionValue(ARCHIVE_COMPRESSION_OPTION, "lz4").toUpperCase()),
+                    Long.parseLong(cmd.getOptionValue(ARCHIVE_MAX_SIZE_OPTION, "0")) * 1024 * 1024,
+                    TimeUnit.HOURS.toMillis(Long.parseLong(cmd.getOptionValue(ARCHIVE_MAX_AGE_OPTION, "0"))));
+        }
+        int threads = Integer.parseInt(cmd.getOptionValue(SNAPSHOT_THREADS_OPTION,
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        ResourceGovernor governor = null;
+        if (cmd.hasOption(MAX_READ_RATE_OPTION) || cmd.hasOption(MAX_WORKERS_OPTION)) {
+            String jmx = cmd.getOptionValue(CASSANDRA_JMX_OPTION, "localhost:7199");
+            governor = new ResourceGovernor(
+                    (long) (Double.parseDouble(cmd.getOptionValue(MAX_READ_RATE_OPTION, "0")) * 1024 * 1024),
+                    Integer.parseInt(cmd.getOptionValue(MAX_WORKERS_OPTION, String.valueOf(threads))),
+                    Double.parseDouble(cmd.getOptionValue(LOAD_THRESHOLD_OPTION, "0.7")),
+                    "none".equalsIgnoreCase(jmx) ? null : jmx, 5000);
+        }
+        DeadLetterQueue deadLetters = new DeadLetterQueue(
+                cmd.hasOption(DEAD_LETTER_DIR_OPTION) ? Paths.get(cmd.getOptionValue(DEAD_LETTER_DIR_OPTION)) : null);
+        SegmentArchiver segmentArchiver = archiver;
+        WatermarkTracker watermarks = null;
+        if (cmd.hasOption(WATERMARK_INTERVAL_OPTION)) {
+            watermarks = new WatermarkTracker(sink, Long.parseLong(cmd.getOptionValue(WATERMARK_LATENESS_OPTION, "5000")),
+                    Long.parseLong(cmd.getOptionValue(WATERMARK_INTERVAL_OPTION)));
+        }
+        WatermarkTracker watermarkTracker = watermarks;
+        ExpirationScheduler expirations = null;
+        // not for analyzing or replaying, which exit without processing CDC
+        if (cmd.hasOption(EXPIRATION_FILE_OPTION) && !cmd.hasOption(ANALYZE_OPTION) && !cmd.hasOption(REPLAY_DIR_OPTION)) {
+            expirations = new ExpirationScheduler(Paths.get(cmd.getOptionValue(EXPIRATION_FILE_OPTION)));
+        }
+        ExpirationScheduler expirationScheduler = expirations;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (watermarkTracker != null) {
+                watermarkTracker.close();
+            }
+            // written before the sink is closed
+            if (expirationScheduler != null) {
+                try {
+                    expirationScheduler.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to write expirations: " + e.getMessage());
+                }
+            }
+            try {
+                sink.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close output: " + e.getMessage());
+            }
+            try {
+                deadLetters.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close dead letters: " + e.getMessage());
+            }
+            if (segmentArchiver != null) {
+                try {
+                    segmentArchiver.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close archive: " + e.getMessage());
+                }
+            }
+        }));
+        CDCMetrics.startReporting();
+        if (cmd.hasOption(ANALYZE_OPTION)) {
+            int analyzeThreads = Integer.parseInt(cmd.getOptionValue(ANALYZE_THREADS_OPTION,
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            new SegmentAnalyzer(analyzeThreads, deadLetters).analyze(Paths.get(cmd.getOptionValue(ANALYZE_OPTION)))
+                    .print(System.out);
+            System.exit(0);
+        }
+        if (cmd.hasOption(REPLAY_DIR_OPTION)) {
+            Set<String> tables = new HashSet<>();
+            if (cmd.hasOption(REPLAY_TABLES_OPTION)) {
+                for (String table : cmd.getOptionValue(REPLAY_TABLES_OPTION).split(",")) {
+                    tables.add(table.trim());
+                }
+            }
+            Instant from = cmd.hasOption(REPLAY_FROM_OPTION) ? Instant.parse(cmd.getOptionValue(REPLAY_FROM_OPTION)) : Instant.MIN;
+            Instant to = cmd.hasOption(REPLAY_TO_OPTION) ? Instant.parse(cmd.getOptionValue(REPLAY_TO_OPTION)) : Instant.MAX;
+            long events = new SegmentReplayer(sink, tables, from, to).replay(Paths.get(cmd.getOptionValue(REPLAY_DIR_OPTION)));
+            sink.flush();
+            logger.info("Replayed {} events", events);
+            System.exit(0);
+        }
+        if (cmd.hasOption(SNAPSHOT_DIR_OPTION)) {
+            SnapshotReader snapshotReader = new SnapshotReader(sink, threads);
+            snapshotReader.setGovernor(governor);
+            if (watermarks != null) {
+                snapshotReader.setWatermarks(watermarks);
+            }
+            for (String snapshotDir : cmd.getOptionValues(SNAPSHOT_DIR_OPTION)) {
+                long highWater = snapshotReader.read(Paths.get(snapshotDir));
+                sink.flush();
+                logger.info("Emitted snapshot {} with high-water timestamp {}; "
+                        + "CDC events at or below the timestamp may already be reflected in the snapshot", snapshotDir, highWater);
+            }
+        }
+        CommitLogHandler handler = new CommitLogHandler(rowStateStore, fingerprints, sink);
+        handler.setGovernor(governor);
+        if (watermarks != null) {
+            handler.setWatermarks(watermarks);
+        }
+        handler.setExpirations(expirations);
+        if (cmd.hasOption(HEAVY_HITTERS_OPTION)) {
+            // 4 x 16384 counters of each sketch, overestimating by 0.02% of writes in the interval at most
+            handler.setHeavyHitters(new HeavyHitters(Integer.parseInt(cmd.getOptionValue(HEAVY_HITTERS_OPTION)), 16384,
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue(HEAVY_HITTERS_INTERVAL_OPTION, "60")))));
+        }
+        ChangeDataCapture cdc = new ChangeDataCapture(handler, archiver, deadLetters);
         if (Files.isDirectory(cdcLocation)) {
+            double threshold = Double.parseDouble(cmd.getOptionValue(DRAIN_THRESHOLD_OPTION, "80")) / 100;
+            cdc.setSpaceMonitor(new CDCSpaceMonitor(cdcLocation, DatabaseDescriptor.getCDCSpaceInMB() * 1024L * 1024,
+                    threshold, 1000));
             // Start watching
             cdc.start(cdcLocation);
         } else {
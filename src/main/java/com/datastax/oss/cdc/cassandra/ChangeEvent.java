@@ -3,6 +3,7 @@ package com.datastax.oss.cdc.cassandra;
 import javax.validation.constraints.NotNull;
 import java.time.Instant;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This interface represents a change made to certain row or deletion at certain timestamp.
@@ -11,7 +12,7 @@ public interface ChangeEvent extends Comparable<ChangeEvent> {
 
     @Override
     default int compareTo(ChangeEvent o) {
-        return getEventTimestamp().compareTo(o.getEventTimestamp());
+        return Long.compare(getWriteTimestamp(), o.getWriteTimestamp());
     }
 
     /**
@@ -24,6 +25,34 @@ public interface ChangeEvent extends Comparable<ChangeEvent> {
     @NotNull
     Instant getEventTimestamp();
 
+    /**
+     * Returns the write timestamp of this event as it is in Cassandra, which resolves conflicting writes
+     * within the same millisecond of {@link #getEventTimestamp()}.
+     *
+     * @return write timestamp in microseconds
+     */
+    default long getWriteTimestamp() {
+        return TimeUnit.MILLISECONDS.toMicros(getEventTimestamp().toEpochMilli());
+    }
+
+    /**
+     * Returns the time to live that the values of this update were written with.
+     *
+     * @return TTL in seconds, or 0 if the values do not expire
+     */
+    default int getTTL() {
+        return 0;
+    }
+
+    /**
+     * Returns the time when the values of this update expire, which is the time they were written at plus the TTL.
+     *
+     * @return expiration time in seconds precision, or null if the values do not expire
+     */
+    default Instant getExpirationTime() {
+        return null;
+    }
+
     /**
      * Returns the name of keyspace where this event happened
      *
@@ -69,4 +98,27 @@ public interface ChangeEvent extends Comparable<ChangeEvent> {
      * @return Row object containing changes when this event is {@link ChangeEventType#UPDATE}, else null
      */
     Row getRow();
+
+    /**
+     * Returns the state of the row before this event, when row state tracking is enabled.
+     *
+     * When row state is tracked, {@link #getRow()} of the update event also returns all known columns of the row.
+     *
+     * @return Row object containing the previous values of the row, or null if unknown
+     * @see RowStateStore
+     */
+    default Row getBeforeImage() {
+        return null;
+    }
+
+    /**
+     * Returns the position of this event in the commit log, to drop events that are replayed.
+     *
+     * @return id that increases with events read from commit log segments, or null for other events such as
+     * rows of snapshots
+     * @see SequenceId
+     */
+    default SequenceId getSequenceId() {
+        return null;
+    }
 }
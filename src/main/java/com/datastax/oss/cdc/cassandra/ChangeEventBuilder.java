@@ -5,26 +5,61 @@ import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.db.ClusteringBound;
 import org.apache.cassandra.db.LivenessInfo;
 import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.db.marshal.AbstractType;
 
-import java.time.Instant;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class ChangeEventBuilder {
     private final CFMetaData metadata;
     private final List<Column> partitionKeys = new ArrayList<>();
-    private Stack<RowEvent> rowEvents = new Stack<>();
+    private final Consumer<ChangeEvent> consumer;
+    // row being built, whose events are sorted by timestamp when the row is complete
+    private RowEvent currentRow;
     private List<ChangeEvent> parsedEvents = new ArrayList<>();
 
     /**
+     * Creates the builder that collects events to return from {@link #build(CFMetaData)}.
+     *
      * @param metadata
      */
     public ChangeEventBuilder(CFMetaData metadata) {
         this.metadata = metadata;
+        this.consumer = parsedEvents::add;
+    }
+
+    /**
+     * Creates the builder that passes events to the consumer as soon as the deletion or row is complete,
+     * so that only the events of one row are kept in memory.
+     *
+     * @param metadata
+     * @param consumer consumer of events
+     */
+    public ChangeEventBuilder(CFMetaData metadata, Consumer<ChangeEvent> consumer) {
+        this.metadata = metadata;
+        this.consumer = Objects.requireNonNull(consumer);
     }
 
     public void addPartitionKey(String name, Object value) {
-        partitionKeys.add(new Column(name, value));
+        addPartitionKey(name, value, null);
+    }
+
+    /**
+     * @param serialized serialized value of the column, or null if not available
+     */
+    public void addPartitionKey(String name, Object value, ByteBuffer serialized) {
+        partitionKeys.add(new Column(name, value, serialized, null));
+    }
+
+    /**
+     * Add partition key whose value is deserialized only when it is needed.
+     *
+     * @param type type to deserialize the value with
+     * @param serialized serialized value of the column
+     */
+    public void addSerializedPartitionKey(String name, AbstractType<?> type, ByteBuffer serialized) {
+        partitionKeys.add(new Column(name, null, serialized, type));
     }
 
     /**
@@ -35,23 +70,23 @@ public class ChangeEventBuilder {
     public void partitionIsDeletedAt(long timestamp) {
         DeletionImpl deletion = new DeletionImpl();
         for (Column c : partitionKeys) {
-            deletion.addCriteria(Criteria.equals(c.name, c.value));
+            deletion.addCriteria(Criteria.equals(c.name, c.value()));
         }
         ChangeEvent event = new DefaultChangeEvent(
                 metadata.ksName,
                 metadata.cfName,
                 metadata.cfId,
-                Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(timestamp)),
+                timestamp,
                 deletion);
-        parsedEvents.add(event);
+        consumer.accept(event);
     }
 
     public void addRangeTombstone(RangeTombstone rt) {
-        Instant timestamp = Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(rt.deletionTime().markedForDeleteAt()));
+        long timestamp = rt.deletionTime().markedForDeleteAt();
 
         DeletionImpl deletion = new DeletionImpl();
         for (Column c : partitionKeys) {
-            deletion.addCriteria(Criteria.equals(c.name, c.value));
+            deletion.addCriteria(Criteria.equals(c.name, c.value()));
         }
         ClusteringBound start = rt.deletedSlice().start();
         ClusteringBound end = rt.deletedSlice().end();
@@ -65,7 +100,7 @@ public class ChangeEventBuilder {
                 deletion.addCriteria(Criteria.range(def.name.toString(), startValue, endValue, start.isInclusive(), end.isInclusive()));
             }
         }
-        parsedEvents.add(new DefaultChangeEvent(metadata.ksName,
+        consumer.accept(new DefaultChangeEvent(metadata.ksName,
                 metadata.cfName,
                 metadata.cfId,
                 timestamp,
@@ -73,17 +108,49 @@ public class ChangeEventBuilder {
     }
 
     public void addStatic() {
-        rowEvents.add(new RowEvent(LivenessInfo.NO_TIMESTAMP));
+        finishRow();
+        currentRow = new RowEvent(LivenessInfo.NO_TIMESTAMP);
     }
 
     public void newRow(long timestamp) {
-        rowEvents.add(new RowEvent(timestamp));
+        newRow(timestamp, LivenessInfo.NO_TTL, LivenessInfo.NO_EXPIRATION_TIME);
+    }
+
+    /**
+     * Starts the row with the primary key liveness info.
+     *
+     * @param timestamp timestamp of the primary key in microseconds
+     * @param ttl TTL of the primary key in seconds, or {@link LivenessInfo#NO_TTL}
+     * @param localExpirationTime time in seconds the primary key expires at, or {@link LivenessInfo#NO_EXPIRATION_TIME}
+     */
+    public void newRow(long timestamp, int ttl, int localExpirationTime) {
+        finishRow();
+        currentRow = new RowEvent(timestamp);
+        currentRow.rowExpiration = new WriteTime(timestamp, ttl, localExpirationTime);
     }
 
     public void addClusteringColumn(String name, Object value) {
-        RowEvent currentRow = rowEvents.peek();
+        addClusteringColumn(name, value, null);
+    }
+
+    /**
+     * @param serialized serialized value of the column, or null if not available
+     */
+    public void addClusteringColumn(String name, Object value, ByteBuffer serialized) {
+        if (currentRow != null) {
+            currentRow.clusteringColumns.add(new Column(name, value, serialized, null));
+        }
+    }
+
+    /**
+     * Add clustering column whose value is deserialized only when it is needed.
+     *
+     * @param type type to deserialize the value with
+     * @param serialized serialized value of the column
+     */
+    public void addSerializedClusteringColumn(String name, AbstractType<?> type, ByteBuffer serialized) {
         if (currentRow != null) {
-            currentRow.addClusteringColumn(name, value);
+            currentRow.clusteringColumns.add(new Column(name, null, serialized, type));
         }
     }
 
@@ -95,39 +162,153 @@ public class ChangeEventBuilder {
      * @param timestamp in microseconds
      */
     public void addColumn(String name, Object value, long timestamp) {
-        RowEvent currentRow = rowEvents.peek();
+        addColumn(name, value, null, timestamp);
+    }
+
+    /**
+     * Add column name and value seen with associated timestamp.
+     *
+     * @param name name of column
+     * @param value value of column
+     * @param serialized value of column serialized in CQL native protocol, or null if not available
+     * @param timestamp in microseconds
+     */
+    public void addColumn(String name, Object value, ByteBuffer serialized, long timestamp) {
+        addColumn(name, value, serialized, timestamp, LivenessInfo.NO_TTL, LivenessInfo.NO_EXPIRATION_TIME);
+    }
+
+    /**
+     * Add column name and value written with TTL. Columns written at the same timestamp with different TTLs
+     * are emitted in separate events.
+     *
+     * @param timestamp in microseconds
+     * @param ttl TTL in seconds, or {@link LivenessInfo#NO_TTL}
+     * @param localExpirationTime time in seconds the value expires at, or {@link LivenessInfo#NO_EXPIRATION_TIME}
+     */
+    public void addColumn(String name, Object value, ByteBuffer serialized, long timestamp, int ttl, int localExpirationTime) {
         if (currentRow != null) {
-            currentRow.addColumn(name, value, timestamp);
+            currentRow.addColumn(new Column(name, value, serialized, null), new WriteTime(timestamp, ttl, localExpirationTime));
+        }
+    }
+
+    /**
+     * Add column whose value is deserialized only when it is needed.
+     *
+     * @param name name of column
+     * @param type type to deserialize the value with
+     * @param serialized value of column serialized in CQL native protocol
+     * @param timestamp in microseconds
+     */
+    public void addSerializedColumn(String name, AbstractType<?> type, ByteBuffer serialized, long timestamp) {
+        addSerializedColumn(name, type, serialized, timestamp, LivenessInfo.NO_TTL, LivenessInfo.NO_EXPIRATION_TIME);
+    }
+
+    /**
+     * Add column written with TTL, whose value is deserialized only when it is needed.
+     *
+     * @param timestamp in microseconds
+     * @param ttl TTL in seconds, or {@link LivenessInfo#NO_TTL}
+     * @param localExpirationTime time in seconds the value expires at, or {@link LivenessInfo#NO_EXPIRATION_TIME}
+     */
+    public void addSerializedColumn(String name, AbstractType<?> type, ByteBuffer serialized, long timestamp,
+                                    int ttl, int localExpirationTime) {
+        if (currentRow != null) {
+            currentRow.addColumn(new Column(name, null, serialized, type), new WriteTime(timestamp, ttl, localExpirationTime));
         }
     }
 
     public void addDeletedColumn(String name, long timestamp) {
-        RowEvent currentRow = rowEvents.peek();
         if (currentRow != null) {
             currentRow.addDeletedColumn(name, timestamp);
         }
     }
 
     public void markDeletedAt(long timestamp) {
-        RowEvent currentRow = rowEvents.peek();
         if (currentRow != null) {
             currentRow.deletedAt(timestamp);
         }
     }
 
-    public List<ChangeEvent> build(CFMetaData metadata) {
-        for (RowEvent rowEvent : rowEvents) {
-            parsedEvents.addAll(rowEvent.build(metadata, partitionKeys));
+    /**
+     * Mark the current row has the value that is the same as before.
+     * The row is not emitted when it has nothing but unchanged values.
+     */
+    public void markUnchanged() {
+        if (currentRow != null) {
+            currentRow.unchanged = true;
         }
+    }
+
+    public List<ChangeEvent> build(CFMetaData metadata) {
+        finishRow();
         return parsedEvents;
     }
 
+    /**
+     * Emits the events of the current row.
+     */
+    public void finishRow() {
+        if (currentRow != null) {
+            currentRow.build(metadata, partitionKeys).forEach(consumer);
+            currentRow = null;
+        }
+    }
+
+    /**
+     * Write timestamp and TTL of values, to group values written together into an event.
+     */
+    private static class WriteTime implements Comparable<WriteTime> {
+        // in microseconds
+        private final long timestamp;
+        private final int ttl;
+        private final int localExpirationTime;
+
+        private WriteTime(long timestamp, int ttl, int localExpirationTime) {
+            this.timestamp = timestamp;
+            this.ttl = ttl;
+            this.localExpirationTime = ttl == LivenessInfo.NO_TTL ? LivenessInfo.NO_EXPIRATION_TIME : localExpirationTime;
+        }
+
+        private DefaultChangeEvent withExpiration(DefaultChangeEvent event) {
+            if (ttl != LivenessInfo.NO_TTL) {
+                event.setExpiration(ttl, localExpirationTime);
+            }
+            return event;
+        }
+
+        @Override
+        public int compareTo(WriteTime o) {
+            int c = Long.compare(timestamp, o.timestamp);
+            if (c == 0) {
+                c = Integer.compare(ttl, o.ttl);
+            }
+            return c == 0 ? Integer.compare(localExpirationTime, o.localExpirationTime) : c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof WriteTime)) {
+                return false;
+            }
+            WriteTime that = (WriteTime) o;
+            return timestamp == that.timestamp && ttl == that.ttl && localExpirationTime == that.localExpirationTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(timestamp, ttl, localExpirationTime);
+        }
+    }
+
     private static class RowEvent {
         private long rowTimestamp;
+        // TTL of the primary key, for the event of the row with only primary key
+        private WriteTime rowExpiration;
         private final List<Column> clusteringColumns = new ArrayList<>();
-        private Map<Instant, List<Column>> columnsByTime = new HashMap<>();
-        private Map<Instant, List<String>> deletedColumnsByTime = new HashMap<>();
+        private Map<WriteTime, List<Column>> columnsByTime = new HashMap<>();
+        private Map<Long, List<String>> deletedColumnsByTime = new HashMap<>();
         private boolean deletion = false;
+        private boolean unchanged = false;
 
         public RowEvent(long timestamp) {
             this.rowTimestamp = timestamp;
@@ -138,32 +319,26 @@ public class ChangeEventBuilder {
             rowTimestamp = timestamp;
         }
 
-        private void addClusteringColumn(String name, Object value) {
-            clusteringColumns.add(new Column(name, value));
-        }
-
-        private void addColumn(String name, Object value, long timestamp) {
-            Instant ts = Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(timestamp));
-            List<Column> columns = this.columnsByTime.computeIfAbsent(ts, k -> new ArrayList<>());
-            columns.add(new Column(name, value));
+        private void addColumn(Column column, WriteTime writeTime) {
+            List<Column> columns = this.columnsByTime.computeIfAbsent(writeTime, k -> new ArrayList<>());
+            columns.add(column);
         }
 
         private void addDeletedColumn(String name, long timestamp) {
-            Instant ts = Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(timestamp));
-            List<String> columns = this.deletedColumnsByTime.computeIfAbsent(ts, k -> new ArrayList<>());
+            List<String> columns = this.deletedColumnsByTime.computeIfAbsent(timestamp, k -> new ArrayList<>());
             columns.add(name);
         }
 
         public List<ChangeEvent> build(CFMetaData metadata, List<Column> partitionKeys) {
             List<ChangeEvent> events = new ArrayList<>();
-            for (Map.Entry<Instant, Row> e : getUpdatedByTimestamp(partitionKeys).entrySet()) {
-                events.add(new DefaultChangeEvent(metadata.ksName,
+            for (Map.Entry<WriteTime, Row> e : getUpdatedByTimestamp(partitionKeys).entrySet()) {
+                events.add(e.getKey().withExpiration(new DefaultChangeEvent(metadata.ksName,
                         metadata.cfName,
                         metadata.cfId,
-                        e.getKey(),
-                        e.getValue()));
+                        e.getKey().timestamp,
+                        e.getValue())));
             }
-            for (Map.Entry<Instant, Deletion> e : getDeletionByTimestamp(partitionKeys).entrySet()) {
+            for (Map.Entry<Long, Deletion> e : getDeletionByTimestamp(partitionKeys).entrySet()) {
                 events.add(new DefaultChangeEvent(metadata.ksName,
                         metadata.cfName,
                         metadata.cfId,
@@ -171,15 +346,19 @@ public class ChangeEventBuilder {
                         e.getValue()));
             }
             // if no columns or deletions in this row, then clustering columns only change
+            if (events.isEmpty() && !deletion && unchanged) {
+                // nothing but unchanged values
+                return events;
+            }
             if (events.isEmpty()) {
-                Instant ts = Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(rowTimestamp));
+                long ts = rowTimestamp;
                 if (deletion) {
                     List<Criteria> criteria = new ArrayList<>();
                     for (Column c : partitionKeys) {
-                        criteria.add(Criteria.equals(c.name, c.value));
+                        criteria.add(Criteria.equals(c.name, c.value()));
                     }
                     for (Column c : clusteringColumns) {
-                        criteria.add(Criteria.equals(c.name, c.value));
+                        criteria.add(Criteria.equals(c.name, c.value()));
                     }
                     DeletionImpl deletion = new DeletionImpl();
                     deletion.criteria.addAll(criteria);
@@ -189,18 +368,14 @@ public class ChangeEventBuilder {
                             ts,
                             deletion));
                 } else {
-                    Map<String, Object> columns = new LinkedHashMap<>();
-                    for (Column col : partitionKeys) {
-                        columns.put(col.name, col.value);
-                    }
-                    for (Column col : clusteringColumns) {
-                        columns.put(col.name, col.value);
-                    }
-                    events.add(new DefaultChangeEvent(metadata.ksName,
+                    List<Column> primaryKeys = new ArrayList<>(partitionKeys);
+                    primaryKeys.addAll(clusteringColumns);
+                    DefaultChangeEvent event = new DefaultChangeEvent(metadata.ksName,
                             metadata.cfName,
                             metadata.cfId,
                             ts,
-                            () -> columns));
+                            toRow(primaryKeys, Collections.emptyList()));
+                    events.add(rowExpiration == null ? event : rowExpiration.withExpiration(event));
                 }
             }
 
@@ -208,17 +383,17 @@ public class ChangeEventBuilder {
             return events;
         }
 
-        public Map<Instant, Deletion> getDeletionByTimestamp(List<Column> partitionKeys) {
-            SortedMap<Instant, Deletion> map = new TreeMap<>();
+        public Map<Long, Deletion> getDeletionByTimestamp(List<Column> partitionKeys) {
+            SortedMap<Long, Deletion> map = new TreeMap<>();
 
             List<Criteria> criteria = new ArrayList<>();
             for (Column c : partitionKeys) {
-                criteria.add(Criteria.equals(c.name, c.value));
+                criteria.add(Criteria.equals(c.name, c.value()));
             }
             for (Column c : clusteringColumns) {
-                criteria.add(Criteria.equals(c.name, c.value));
+                criteria.add(Criteria.equals(c.name, c.value()));
             }
-            for (Map.Entry<Instant, List<String>> c : this.deletedColumnsByTime.entrySet()) {
+            for (Map.Entry<Long, List<String>> c : this.deletedColumnsByTime.entrySet()) {
                 DeletionImpl deletion = new DeletionImpl();
                 deletion.criteria.addAll(criteria);
                 deletion.columns.addAll(c.getValue());
@@ -227,27 +402,41 @@ public class ChangeEventBuilder {
             return map;
         }
 
-        public Map<Instant, Row> getUpdatedByTimestamp(List<Column> partitionKeys) {
-            SortedMap<Instant, Row> map = new TreeMap<>();
+        public Map<WriteTime, Row> getUpdatedByTimestamp(List<Column> partitionKeys) {
+            SortedMap<WriteTime, Row> map = new TreeMap<>();
 
             List<Column> primaryKeys = new ArrayList<>();
             primaryKeys.addAll(partitionKeys);
             primaryKeys.addAll(clusteringColumns);
-            for (Map.Entry<Instant, List<Column>> c : this.columnsByTime.entrySet()) {
-                Map<String, Object> columns = new LinkedHashMap<>();
-                for (Column col : primaryKeys) {
-                    columns.put(col.name, col.value);
-                }
-                for (Column col : c.getValue()) {
-                    columns.put(col.name, col.value);
-                }
-                map.put(c.getKey(), () -> columns);
+            for (Map.Entry<WriteTime, List<Column>> c : this.columnsByTime.entrySet()) {
+                map.put(c.getKey(), toRow(primaryKeys, c.getValue()));
             }
             return map;
         }
+
+        private static Row toRow(List<Column> primaryKeys, List<Column> regularColumns) {
+            Map<String, Object> columns = new LinkedHashMap<>();
+            Map<String, ByteBuffer> serialized = new HashMap<>();
+            Map<String, AbstractType<?>> deferred = new HashMap<>();
+            for (List<Column> list : Arrays.asList(primaryKeys, regularColumns)) {
+                for (Column col : list) {
+                    if (col.type != null) {
+                        columns.put(col.name, null);
+                        deferred.put(col.name, col.type);
+                    } else {
+                        columns.put(col.name, col.value);
+                        deferred.remove(col.name);
+                    }
+                    if (col.serialized != null) {
+                        serialized.put(col.name, col.serialized);
+                    }
+                }
+            }
+            return new DefaultRow(columns, serialized, deferred);
+        }
     }
 
-    private static class DeletionImpl implements Deletion {
+    static class DeletionImpl implements Deletion {
         private final List<String> columns = new ArrayList<>();
         private final List<Criteria> criteria = new ArrayList<>();
 
@@ -272,11 +461,24 @@ public class ChangeEventBuilder {
 
     private static class Column {
         private final String name;
-        private final Object value;
+        private Object value;
+        private final ByteBuffer serialized;
+        // type to deserialize the value with, until it is deserialized
+        private AbstractType<?> type;
 
-        private Column(String name, Object value) {
+        private Column(String name, Object value, ByteBuffer serialized, AbstractType<?> type) {
             this.name = name;
             this.value = value;
+            this.serialized = serialized;
+            this.type = type;
+        }
+
+        private Object value() {
+            if (type != null) {
+                value = type.getSerializer().deserialize(serialized);
+                type = null;
+            }
+            return value;
         }
     }
 }
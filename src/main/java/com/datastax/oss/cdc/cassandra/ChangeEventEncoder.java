@@ -0,0 +1,37 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+
+/**
+ * Encodes {@link ChangeEvent}s into a stream of bytes.
+ *
+ * An encoder instance is used for a single output stream, and can keep state of the stream
+ * such as schemas already written to it. Encoders are not thread safe.
+ */
+public interface ChangeEventEncoder {
+
+    /**
+     * Encodes the event and writes it to the stream.
+     *
+     * @param event event to encode
+     * @param out stream to write to
+     */
+    void encode(ChangeEvent event, OutputStream out) throws IOException;
+
+    /**
+     * Encodes the watermark, which readers of the stream can tell from events, and writes it to the stream.
+     * Encoders that cannot represent watermarks write nothing.
+     *
+     * @param watermark event time that all events before it have been written
+     * @param out stream to write to
+     */
+    default void encodeWatermark(Instant watermark, OutputStream out) throws IOException {
+    }
+
+    /**
+     * @return file extension of encoded stream, such as <code>.json</code>
+     */
+    String extension();
+}
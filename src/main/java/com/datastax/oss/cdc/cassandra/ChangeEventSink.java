@@ -0,0 +1,53 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Destination of {@link ChangeEvent}s produced from commit log.
+ */
+public interface ChangeEventSink extends Closeable {
+
+    /**
+     * Writes the event. The event may be buffered until {@link #flush()} or {@link #close()} is called.
+     *
+     * @param event event to write
+     * @throws IOException when failed to write
+     */
+    void write(ChangeEvent event) throws IOException;
+
+    /**
+     * Writes the watermark, that all events with timestamps before it have been written, for consumers to close
+     * windows of event time. Sinks whose output cannot carry watermarks ignore them.
+     *
+     * @param watermark event time that all events before it have been written
+     * @throws IOException when failed to write
+     * @see WatermarkTracker
+     */
+    default void writeWatermark(Instant watermark) throws IOException {
+    }
+
+    /**
+     * Flushes buffered events.
+     *
+     * @throws IOException when failed to flush
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Makes all events written so far durable, before the segments they are read from are deleted or archived.
+     * Sinks writing files recover the events synced from files left by a crash when they are created again.
+     *
+     * @throws IOException when failed to sync
+     */
+    default void sync() throws IOException {
+        flush();
+    }
+
+    @Override
+    default void close() throws IOException {
+        flush();
+    }
+}
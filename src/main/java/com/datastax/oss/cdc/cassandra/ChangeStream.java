@@ -0,0 +1,363 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Change events of a CDC directory as a reactive-streams {@link Publisher}, to embed change data capture
+ * in other programs instead of running {@link ChangeDataCapture#main(String[])}.
+ *
+ * The stream is read by its own thread from the subscription. Events are passed to the subscriber in that thread
+ * as they are converted, and the thread waits while the subscriber has no outstanding demand, so that a slow
+ * subscriber slows down reading segments instead of events being buffered. Segments are deleted or archived
+ * after all of their events have been passed to the subscriber, and the stream ends with an error when it fails
+ * to read segments. When a file of a segment is given instead of a directory, the stream completes after the segment
+ * is read, and the segment is kept.
+ *
+ * With a {@link CheckpointStore}, the sequence id of the last event passed to the subscriber is saved at an interval
+ * and when the stream ends, and events at or below the checkpoint are skipped, so that a segment read again
+ * after a restart does not pass its events twice.
+ *
+ * Commit log segments are read by the one thread of the stream, which keeps events in the order of the commit log
+ * and lets the demand of the subscriber pace reading. Snapshots are the only part read by multiple workers, whose
+ * number is set by {@link Builder#withSnapshotThreads(int)}.
+ *
+ * The stream allows only one subscriber. Cassandra classes have to be initialized and the schema loaded before
+ * subscribing, as {@link ChangeDataCapture#main(String[])} does.
+ */
+public class ChangeStream implements Publisher<ChangeEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeStream.class);
+
+    private final Path cdcLocation;
+    private final Path archiveDirectory;
+    private final Path deadLetterDirectory;
+    private final Set<String> tables;
+    private final Predicate<ChangeEvent> filter;
+    private final List<Path> snapshotDirectories;
+    private final int snapshotThreads;
+    private final long rowStateSize;
+    private final CheckpointStore checkpointStore;
+    private final long checkpointIntervalMillis;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private ChangeStream(Builder builder) {
+        this.cdcLocation = builder.cdcLocation;
+        this.archiveDirectory = builder.archiveDirectory;
+        this.deadLetterDirectory = builder.deadLetterDirectory;
+        this.tables = new HashSet<>(builder.tables);
+        this.filter = builder.filter;
+        this.snapshotDirectories = new ArrayList<>(builder.snapshotDirectories);
+        this.snapshotThreads = builder.snapshotThreads;
+        this.rowStateSize = builder.rowStateSize;
+        this.checkpointStore = builder.checkpointStore;
+        this.checkpointIntervalMillis = builder.checkpointIntervalMillis;
+    }
+
+    /**
+     * @param cdcLocation CDC directory to process segments created in, or a segment to read
+     */
+    public static Builder builder(Path cdcLocation) {
+        return new Builder(cdcLocation);
+    }
+
+    /**
+     * Starts reading the stream for the subscriber.
+     */
+    @Override
+    public void subscribe(Subscriber<? super ChangeEvent> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Change stream allows only one subscriber"));
+            return;
+        }
+        StreamSink sink = new StreamSink(subscriber);
+        Thread thread = new Thread(() -> run(sink), "cdc-capture");
+        thread.setDaemon(true);
+        sink.thread = thread;
+        subscriber.onSubscribe(sink);
+        thread.start();
+    }
+
+    private void run(StreamSink sink) {
+        DeadLetterQueue deadLetters = new DeadLetterQueue(deadLetterDirectory);
+        SegmentArchiver archiver = null;
+        RowStateStore rowStateStore = null;
+        Throwable error = null;
+        try {
+            if (checkpointStore != null) {
+                sink.checkpoint = checkpointStore.load();
+            }
+            if (archiveDirectory != null) {
+                archiver = new SegmentArchiver(archiveDirectory, RotatingFileSink.Compression.LZ4, 0, 0);
+            }
+            for (Path snapshotDirectory : snapshotDirectories) {
+                new SnapshotReader(sink, snapshotThreads).read(snapshotDirectory);
+            }
+            if (rowStateSize > 0) {
+                rowStateStore = new RowStateStore(rowStateSize);
+            }
+            CommitLogHandler handler = new CommitLogHandler(rowStateStore, null, sink);
+            ChangeDataCapture cdc = new ChangeDataCapture(handler, archiver, deadLetters);
+            if (Files.isDirectory(cdcLocation)) {
+                // returns only when interrupted
+                cdc.start(cdcLocation);
+            } else {
+                cdc.read(cdcLocation);
+            }
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            try {
+                sink.saveCheckpoint();
+            } catch (IOException e) {
+                logger.warn("Failed to save checkpoint", e);
+            }
+            try {
+                deadLetters.close();
+                if (archiver != null) {
+                    archiver.close();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to close change stream", e);
+            }
+            // frees off-heap memory of row states
+            if (rowStateStore != null) {
+                try {
+                    rowStateStore.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close row states", e);
+                }
+            }
+        }
+        sink.terminate(error);
+    }
+
+    /**
+     * Sink passing events to the subscriber, which is the subscription of the subscriber.
+     */
+    private class StreamSink implements ChangeEventSink, Subscription {
+        private final Subscriber<? super ChangeEvent> subscriber;
+        private Thread thread;
+        private long demand;
+        private boolean cancelled;
+        // error to signal instead of reading more, such as invalid request
+        private Throwable requestError;
+        private SequenceId checkpoint;
+        private SequenceId lastId;
+        private long lastSaved = System.currentTimeMillis();
+
+        private StreamSink(Subscriber<? super ChangeEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n > 0) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    notifyAll();
+                    return;
+                }
+                requestError = new IllegalArgumentException("Non-positive request " + n);
+                cancelled = true;
+                notifyAll();
+            }
+            thread.interrupt();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                notifyAll();
+            }
+            // stops waiting for segments
+            thread.interrupt();
+        }
+
+        @Override
+        public void write(ChangeEvent event) throws IOException {
+            if (!tables.isEmpty() && !tables.contains(event.getKeyspaceName() + "." + event.getTableName())) {
+                return;
+            }
+            if (filter != null && !filter.test(event)) {
+                return;
+            }
+            SequenceId id = event.getSequenceId();
+            if (checkpoint != null && id != null && id.compareTo(checkpoint) <= 0) {
+                return;
+            }
+            synchronized (this) {
+                try {
+                    while (demand == 0 && !cancelled) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Interrupted while waiting for demand");
+                }
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+            }
+            subscriber.onNext(event);
+            if (id != null) {
+                lastId = id;
+                if (checkpointStore != null && System.currentTimeMillis() - lastSaved >= checkpointIntervalMillis) {
+                    saveCheckpoint();
+                }
+            }
+        }
+
+        private void saveCheckpoint() throws IOException {
+            if (checkpointStore != null && lastId != null) {
+                checkpointStore.save(lastId);
+                lastSaved = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Signals the end of the stream, unless it is cancelled.
+         */
+        private void terminate(Throwable error) {
+            Throwable signal;
+            synchronized (this) {
+                if (requestError != null) {
+                    signal = requestError;
+                } else if (cancelled) {
+                    return;
+                } else {
+                    cancelled = true;
+                    signal = error;
+                }
+            }
+            if (signal == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(signal);
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Path cdcLocation;
+        private Path archiveDirectory;
+        private Path deadLetterDirectory;
+        private Collection<String> tables = Collections.emptySet();
+        private Predicate<ChangeEvent> filter;
+        private List<Path> snapshotDirectories = new ArrayList<>();
+        private int snapshotThreads = Runtime.getRuntime().availableProcessors();
+        private long rowStateSize;
+        private CheckpointStore checkpointStore;
+        private long checkpointIntervalMillis = 1000;
+
+        private Builder(Path cdcLocation) {
+            this.cdcLocation = Objects.requireNonNull(cdcLocation);
+        }
+
+        /**
+         * @param archiveDirectory directory to move processed segments to compressed with LZ4, instead of deleting them
+         */
+        public Builder withArchiveDirectory(Path archiveDirectory) {
+            this.archiveDirectory = Objects.requireNonNull(archiveDirectory);
+            return this;
+        }
+
+        /**
+         * @param deadLetterDirectory directory to write mutations that fail to be read or converted to
+         */
+        public Builder withDeadLetterDirectory(Path deadLetterDirectory) {
+            this.deadLetterDirectory = Objects.requireNonNull(deadLetterDirectory);
+            return this;
+        }
+
+        /**
+         * @param tables <code>keyspace.table</code> to pass events of, default all tables
+         */
+        public Builder withTables(Collection<String> tables) {
+            this.tables = Objects.requireNonNull(tables);
+            return this;
+        }
+
+        /**
+         * @param filter predicate of events to pass, which is tested in the thread reading the stream
+         */
+        public Builder withFilter(Predicate<ChangeEvent> filter) {
+            this.filter = Objects.requireNonNull(filter);
+            return this;
+        }
+
+        /**
+         * Adds the snapshot directory to pass all rows of as updates before processing CDC.
+         */
+        public Builder withSnapshot(Path snapshotDirectory) {
+            this.snapshotDirectories.add(Objects.requireNonNull(snapshotDirectory));
+            return this;
+        }
+
+        /**
+         * @param snapshotThreads number of workers reading token ranges of snapshots in parallel,
+         *                        default number of processors
+         */
+        public Builder withSnapshotThreads(int snapshotThreads) {
+            this.snapshotThreads = snapshotThreads;
+            return this;
+        }
+
+        /**
+         * @param rowStateSize maximum memory in bytes to track row states with to pass full row images, or 0
+         *                     to pass changes only
+         */
+        public Builder withRowStateSize(long rowStateSize) {
+            this.rowStateSize = rowStateSize;
+            return this;
+        }
+
+        public Builder withCheckpointStore(CheckpointStore checkpointStore) {
+            this.checkpointStore = Objects.requireNonNull(checkpointStore);
+            return this;
+        }
+
+        /**
+         * @param checkpointIntervalMillis interval to save the checkpoint at, default 1000
+         */
+        public Builder withCheckpointInterval(long checkpointIntervalMillis) {
+            this.checkpointIntervalMillis = checkpointIntervalMillis;
+            return this;
+        }
+
+        public ChangeStream build() {
+            return new ChangeStream(this);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.io.IOException;
+
+/**
+ * Store of the sequence id of the last event delivered, so that events of segments read again after a restart
+ * are not delivered twice.
+ */
+public interface CheckpointStore {
+
+    /**
+     * @return the id of the last event delivered, or null if nothing has been delivered
+     * @throws IOException when failed to read the checkpoint
+     */
+    SequenceId load() throws IOException;
+
+    /**
+     * @param id the id of the last event delivered
+     * @throws IOException when failed to write the checkpoint
+     */
+    void save(SequenceId id) throws IOException;
+}
@@ -0,0 +1,230 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputPlus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Events of one table accumulated column by column.
+ *
+ * The batch has one {@link ColumnVector} for each column of the table in {@link TableSchema} order,
+ * and vectors of event types, timestamps and sequence ids.
+ * Update events fill the columns present in the row, and delete events fill the columns of the equality criteria,
+ * so that deleted rows or partitions can be identified by their keys. Other columns are null.
+ * Before-images are not included.
+ */
+public class ColumnBatch {
+
+    private final TableSchema schema;
+    private final ColumnVector[] vectors;
+    private byte[] eventTypes;
+    private long[] timestamps;
+    // segment id of -1 for events without sequence id
+    private long[] segmentIds;
+    private long[] positions;
+    private int size;
+
+    /**
+     * @param schema schema of the table
+     * @param capacity initial number of events
+     */
+    public ColumnBatch(TableSchema schema, int capacity) {
+        this.schema = schema;
+        List<TableSchema.Column> columns = schema.getColumns();
+        this.vectors = new ColumnVector[columns.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = ColumnVector.create(columns.get(i).getType(), capacity);
+        }
+        this.eventTypes = new byte[capacity];
+        this.timestamps = new long[capacity];
+        this.segmentIds = new long[capacity];
+        this.positions = new long[capacity];
+    }
+
+    /**
+     * @return schema of the current version of the table
+     */
+    static TableSchema schemaOf(CFMetaData metadata) {
+        return new TableSchema(0, 1, metadata.ksName, metadata.cfName, metadata.cfId, TableSchema.columnsOf(metadata));
+    }
+
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ColumnVector getVector(int column) {
+        return vectors[column];
+    }
+
+    /**
+     * @return vector of the column, or null if the table does not have the column
+     */
+    public ColumnVector getVector(String column) {
+        int index = schema.indexOf(column);
+        return index < 0 ? null : vectors[index];
+    }
+
+    public ChangeEventType getEventType(int row) {
+        return ChangeEventType.values()[eventTypes[row]];
+    }
+
+    /**
+     * @return event timestamp in milliseconds since epoch
+     */
+    public long getTimestamp(int row) {
+        return timestamps[row];
+    }
+
+    /**
+     * @return sequence id of the event, or null if the event does not have it
+     */
+    public SequenceId getSequenceId(int row) {
+        return segmentIds[row] == -1 ? null : new SequenceId(segmentIds[row], positions[row]);
+    }
+
+    /**
+     * @return deserialized value of the column at the row, in the same form as {@link BinaryDecoder} returns
+     */
+    public Object getObject(int row, int column) {
+        return schema.getColumns().get(column).deserialize(vectors[column].getBytes(row));
+    }
+
+    /**
+     * Appends the event.
+     *
+     * @param event event of the table
+     */
+    public void add(ChangeEvent event) {
+        if (size == timestamps.length) {
+            eventTypes = Arrays.copyOf(eventTypes, Math.max(16, size * 2));
+            timestamps = Arrays.copyOf(timestamps, Math.max(16, size * 2));
+            segmentIds = Arrays.copyOf(segmentIds, Math.max(16, size * 2));
+            positions = Arrays.copyOf(positions, Math.max(16, size * 2));
+        }
+        eventTypes[size] = (byte) event.getEventType().ordinal();
+        timestamps[size] = event.getEventTimestamp().toEpochMilli();
+        SequenceId sequenceId = event.getSequenceId();
+        segmentIds[size] = sequenceId == null ? -1 : sequenceId.getSegmentId();
+        positions[size] = sequenceId == null ? 0 : sequenceId.getPosition();
+        List<TableSchema.Column> columns = schema.getColumns();
+        if (event.getEventType() == ChangeEventType.DELETE) {
+            ByteBuffer[] keys = new ByteBuffer[vectors.length];
+            for (Criteria criteria : event.getDeletion().getCriteria()) {
+                int index = schema.indexOf(criteria.getColumn());
+                if (index >= 0 && criteria.isEqual()) {
+                    keys[index] = columns.get(index).serialize(criteria.getStartValue());
+                }
+            }
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i].append(keys[i]);
+            }
+        } else {
+            Row row = event.getRow();
+            Set<String> names = row.getColumnNames();
+            Map<String, ByteBuffer> serialized = row.getSerializedColumns();
+            for (int i = 0; i < vectors.length; i++) {
+                String name = columns.get(i).getName();
+                ByteBuffer value = null;
+                if (names.contains(name)) {
+                    value = serialized.get(name);
+                    if (value == null) {
+                        value = columns.get(i).serialize(row.getColumns().get(name));
+                    }
+                }
+                vectors[i].append(value);
+            }
+        }
+        size++;
+    }
+
+    public void clear() {
+        for (ColumnVector vector : vectors) {
+            vector.clear();
+        }
+        size = 0;
+    }
+
+    /**
+     * @return event converted back from the row
+     */
+    public ChangeEvent getEvent(int row) {
+        Instant timestamp = Instant.ofEpochMilli(timestamps[row]);
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < vectors.length; i++) {
+            if (!vectors[i].isNull(row)) {
+                values.put(schema.getColumns().get(i).getName(), getObject(row, i));
+            }
+        }
+        DefaultChangeEvent event;
+        if (getEventType(row) == ChangeEventType.DELETE) {
+            ChangeEventBuilder.DeletionImpl deletion = new ChangeEventBuilder.DeletionImpl();
+            values.forEach((name, value) -> deletion.addCriteria(Criteria.equals(name, value)));
+            event = new DefaultChangeEvent(schema.getKeyspaceName(), schema.getTableName(), schema.getTableId(),
+                    timestamp, deletion);
+        } else {
+            event = new DefaultChangeEvent(schema.getKeyspaceName(), schema.getTableName(), schema.getTableId(),
+                    timestamp, () -> values);
+        }
+        event.setSequenceId(getSequenceId(row));
+        return event;
+    }
+
+    void serialize(DataOutputPlus out) throws IOException {
+        out.write(eventTypes, 0, size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(timestamps[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeLong(segmentIds[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeLong(positions[i]);
+        }
+        for (ColumnVector vector : vectors) {
+            vector.serialize(out);
+        }
+    }
+
+    /**
+     * @param version format version of the columnar file
+     */
+    static ColumnBatch deserialize(TableSchema schema, DataInputPlus in, int rows, int version) throws IOException {
+        ColumnBatch batch = new ColumnBatch(schema, 0);
+        batch.eventTypes = new byte[rows];
+        in.readFully(batch.eventTypes);
+        batch.timestamps = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            batch.timestamps[i] = in.readLong();
+        }
+        batch.segmentIds = new long[rows];
+        batch.positions = new long[rows];
+        if (version >= 2) {
+            for (int i = 0; i < rows; i++) {
+                batch.segmentIds[i] = in.readLong();
+            }
+            for (int i = 0; i < rows; i++) {
+                batch.positions[i] = in.readLong();
+            }
+        } else {
+            Arrays.fill(batch.segmentIds, -1);
+        }
+        for (ColumnVector vector : batch.vectors) {
+            vector.deserialize(in, rows);
+        }
+        batch.size = rows;
+        return batch;
+    }
+}
@@ -0,0 +1,456 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.marshal.*;
+import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Values of one column of {@link ColumnBatch}, stored in a typed array.
+ *
+ * Numeric, temporal and boolean columns are kept as primitives, and other columns as bytes serialized
+ * in CQL native protocol. Values are copied when appended, so that appended buffers can be reused.
+ * Minimum and maximum values are tracked as they are appended, except for collections, UDTs and tuples.
+ */
+public abstract class ColumnVector {
+
+    protected final AbstractType<?> type;
+    // type to compare values with, which is not reversed
+    private final AbstractType<?> baseType;
+    private final boolean hasStats;
+    private final BitSet nulls = new BitSet();
+    protected int size;
+    private ByteBuffer min;
+    private ByteBuffer max;
+
+    ColumnVector(AbstractType<?> type) {
+        this.type = type;
+        this.baseType = baseType(type);
+        this.hasStats = !(baseType.isCollection() || baseType instanceof TupleType);
+    }
+
+    /**
+     * @return vector for values of the type
+     */
+    static ColumnVector create(AbstractType<?> type, int capacity) {
+        AbstractType<?> base = baseType(type);
+        if (base instanceof LongType || base instanceof TimestampType || base instanceof TimeType
+                || base instanceof CounterColumnType) {
+            return new LongVector(type, capacity);
+        } else if (base instanceof Int32Type || base instanceof SimpleDateType) {
+            return new IntVector(type, capacity, 4);
+        } else if (base instanceof ShortType) {
+            return new IntVector(type, capacity, 2);
+        } else if (base instanceof ByteType) {
+            return new IntVector(type, capacity, 1);
+        } else if (base instanceof DoubleType) {
+            return new DoubleVector(type, capacity, 8);
+        } else if (base instanceof FloatType) {
+            return new DoubleVector(type, capacity, 4);
+        } else if (base instanceof BooleanType) {
+            return new BooleanVector(type);
+        }
+        return new BytesVector(type, capacity);
+    }
+
+    private static AbstractType<?> baseType(AbstractType<?> type) {
+        return type instanceof ReversedType ? ((ReversedType<?>) type).baseType : type;
+    }
+
+    public AbstractType<?> getType() {
+        return type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(int index) {
+        return nulls.get(index);
+    }
+
+    /**
+     * @return serialized value at the index, or null
+     */
+    public ByteBuffer getBytes(int index) {
+        return isNull(index) ? null : serialize(index);
+    }
+
+    /**
+     * @return the smallest value appended, or null if there is none or the type has no statistics
+     */
+    public ByteBuffer getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value appended, or null if there is none or the type has no statistics
+     */
+    public ByteBuffer getMax() {
+        return max;
+    }
+
+    /**
+     * Appends the value serialized in CQL native protocol.
+     *
+     * @param value serialized value, or null
+     */
+    public void append(ByteBuffer value) {
+        if (value == null) {
+            nulls.set(size);
+            appendNull();
+        } else {
+            appendValue(value);
+            if (hasStats) {
+                if (min == null || baseType.compare(value, min) < 0) {
+                    min = ByteBufferUtil.clone(value);
+                }
+                if (max == null || baseType.compare(value, max) > 0) {
+                    max = ByteBufferUtil.clone(value);
+                }
+            }
+        }
+        size++;
+    }
+
+    public void clear() {
+        nulls.clear();
+        size = 0;
+        min = null;
+        max = null;
+    }
+
+    abstract void appendValue(ByteBuffer value);
+
+    abstract void appendNull();
+
+    abstract ByteBuffer serialize(int index);
+
+    void serialize(DataOutputPlus out) throws IOException {
+        long[] words = nulls.toLongArray();
+        out.writeUnsignedVInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+        serializeValues(out);
+    }
+
+    void deserialize(DataInputPlus in, int rows) throws IOException {
+        clear();
+        long[] words = new long[(int) in.readUnsignedVInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        nulls.or(BitSet.valueOf(words));
+        deserializeValues(in, rows);
+        size = rows;
+        // statistics of read vectors are in the file footer, and not recomputed here
+    }
+
+    abstract void serializeValues(DataOutputPlus out) throws IOException;
+
+    abstract void deserializeValues(DataInputPlus in, int rows) throws IOException;
+
+    /**
+     * Vector of bigint, timestamp, time and counter values.
+     */
+    public static class LongVector extends ColumnVector {
+        private long[] values;
+
+        LongVector(AbstractType<?> type, int capacity) {
+            super(type);
+            this.values = new long[capacity];
+        }
+
+        public long getLong(int index) {
+            return values[index];
+        }
+
+        @Override
+        void appendValue(ByteBuffer value) {
+            ensureCapacity();
+            values[size] = value.getLong(value.position());
+        }
+
+        @Override
+        void appendNull() {
+            ensureCapacity();
+            values[size] = 0;
+        }
+
+        private void ensureCapacity() {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, values.length * 2));
+            }
+        }
+
+        @Override
+        ByteBuffer serialize(int index) {
+            return ByteBufferUtil.bytes(values[index]);
+        }
+
+        @Override
+        void serializeValues(DataOutputPlus out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeLong(values[i]);
+            }
+        }
+
+        @Override
+        void deserializeValues(DataInputPlus in, int rows) throws IOException {
+            values = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = in.readLong();
+            }
+        }
+    }
+
+    /**
+     * Vector of int, date, smallint and tinyint values.
+     */
+    public static class IntVector extends ColumnVector {
+        private final int width;
+        private int[] values;
+
+        IntVector(AbstractType<?> type, int capacity, int width) {
+            super(type);
+            this.width = width;
+            this.values = new int[capacity];
+        }
+
+        public int getInt(int index) {
+            return values[index];
+        }
+
+        @Override
+        void appendValue(ByteBuffer value) {
+            ensureCapacity();
+            switch (width) {
+                case 1:
+                    values[size] = value.get(value.position());
+                    break;
+                case 2:
+                    values[size] = value.getShort(value.position());
+                    break;
+                default:
+                    values[size] = value.getInt(value.position());
+            }
+        }
+
+        @Override
+        void appendNull() {
+            ensureCapacity();
+            values[size] = 0;
+        }
+
+        private void ensureCapacity() {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, values.length * 2));
+            }
+        }
+
+        @Override
+        ByteBuffer serialize(int index) {
+            switch (width) {
+                case 1:
+                    return ByteBufferUtil.bytes((byte) values[index]);
+                case 2:
+                    return ByteBufferUtil.bytes((short) values[index]);
+                default:
+                    return ByteBufferUtil.bytes(values[index]);
+            }
+        }
+
+        @Override
+        void serializeValues(DataOutputPlus out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(values[i]);
+            }
+        }
+
+        @Override
+        void deserializeValues(DataInputPlus in, int rows) throws IOException {
+            values = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = in.readInt();
+            }
+        }
+    }
+
+    /**
+     * Vector of double and float values.
+     */
+    public static class DoubleVector extends ColumnVector {
+        private final int width;
+        private double[] values;
+
+        DoubleVector(AbstractType<?> type, int capacity, int width) {
+            super(type);
+            this.width = width;
+            this.values = new double[capacity];
+        }
+
+        public double getDouble(int index) {
+            return values[index];
+        }
+
+        @Override
+        void appendValue(ByteBuffer value) {
+            ensureCapacity();
+            values[size] = width == 4 ? value.getFloat(value.position()) : value.getDouble(value.position());
+        }
+
+        @Override
+        void appendNull() {
+            ensureCapacity();
+            values[size] = 0;
+        }
+
+        private void ensureCapacity() {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, values.length * 2));
+            }
+        }
+
+        @Override
+        ByteBuffer serialize(int index) {
+            return width == 4 ? ByteBufferUtil.bytes((float) values[index]) : ByteBufferUtil.bytes(values[index]);
+        }
+
+        @Override
+        void serializeValues(DataOutputPlus out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(values[i]);
+            }
+        }
+
+        @Override
+        void deserializeValues(DataInputPlus in, int rows) throws IOException {
+            values = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = in.readDouble();
+            }
+        }
+    }
+
+    /**
+     * Vector of boolean values.
+     */
+    public static class BooleanVector extends ColumnVector {
+        private BitSet values = new BitSet();
+
+        BooleanVector(AbstractType<?> type) {
+            super(type);
+        }
+
+        public boolean getBoolean(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        void appendValue(ByteBuffer value) {
+            values.set(size, value.get(value.position()) != 0);
+        }
+
+        @Override
+        void appendNull() {
+            values.clear(size);
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            values.clear();
+        }
+
+        @Override
+        ByteBuffer serialize(int index) {
+            return BooleanType.instance.decompose(values.get(index));
+        }
+
+        @Override
+        void serializeValues(DataOutputPlus out) throws IOException {
+            long[] words = values.toLongArray();
+            out.writeUnsignedVInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        @Override
+        void deserializeValues(DataInputPlus in, int rows) throws IOException {
+            long[] words = new long[(int) in.readUnsignedVInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            values = BitSet.valueOf(words);
+        }
+    }
+
+    /**
+     * Vector of values of other types, kept as serialized bytes in one array.
+     */
+    public static class BytesVector extends ColumnVector {
+        private byte[] data;
+        // start of value i is offsets[i], and end is offsets[i + 1]
+        private int[] offsets;
+
+        BytesVector(AbstractType<?> type, int capacity) {
+            super(type);
+            this.data = new byte[Math.max(16, capacity * 8)];
+            this.offsets = new int[capacity + 1];
+        }
+
+        @Override
+        void appendValue(ByteBuffer value) {
+            ensureCapacity(value.remaining());
+            int start = offsets[size];
+            ByteBufferUtil.arrayCopy(value, value.position(), data, start, value.remaining());
+            offsets[size + 1] = start + value.remaining();
+        }
+
+        @Override
+        void appendNull() {
+            ensureCapacity(0);
+            offsets[size + 1] = offsets[size];
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(16, offsets.length * 2));
+            }
+            int required = offsets[size] + length;
+            if (required > data.length) {
+                data = Arrays.copyOf(data, Math.max(required, data.length * 2));
+            }
+        }
+
+        @Override
+        ByteBuffer serialize(int index) {
+            return ByteBuffer.wrap(data, offsets[index], offsets[index + 1] - offsets[index]).slice();
+        }
+
+        @Override
+        void serializeValues(DataOutputPlus out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeUnsignedVInt(offsets[i + 1] - offsets[i]);
+            }
+            out.write(data, 0, offsets[size]);
+        }
+
+        @Override
+        void deserializeValues(DataInputPlus in, int rows) throws IOException {
+            offsets = new int[rows + 1];
+            for (int i = 0; i < rows; i++) {
+                offsets[i + 1] = offsets[i] + (int) in.readUnsignedVInt();
+            }
+            data = new byte[offsets[rows]];
+            in.readFully(data);
+        }
+    }
+}
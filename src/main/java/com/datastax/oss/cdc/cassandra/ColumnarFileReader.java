@@ -0,0 +1,164 @@
+package com.datastax.oss.cdc.cassandra;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.DataInputPlus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads columnar files written by {@link ColumnarFileSink}.
+ *
+ * Only the header and the footer are read when the file is opened, and each row group is read on demand,
+ * so that row groups can be skipped by their statistics without reading them.
+ */
+public class ColumnarFileReader implements Closeable {
+
+    private final FileChannel channel;
+    private final byte version;
+    private final TableSchema schema;
+    private final List<RowGroup> rowGroups;
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private ColumnarFileReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long fileSize = channel.size();
+        ByteBuffer trailer = read(fileSize - 12, 12);
+        long footerPosition = trailer.getLong();
+        if (trailer.getInt() != ColumnarFileSink.MAGIC) {
+            throw new IOException("Not a columnar file");
+        }
+        // header ends where the first row group starts, or the footer if there is none
+        DataInputPlus header = new DataInputBuffer(read(0, (int) Math.min(footerPosition, 1 << 20)), false);
+        if (header.readInt() != ColumnarFileSink.MAGIC) {
+            throw new IOException("Not a columnar file");
+        }
+        this.version = header.readByte();
+        if (version < 1 || version > ColumnarFileSink.FORMAT_VERSION) {
+            throw new IOException("Unsupported format version " + version);
+        }
+        this.schema = TableSchema.deserialize(header);
+
+        int columns = schema.getColumns().size();
+        DataInputPlus footer = new DataInputBuffer(read(footerPosition, (int) (fileSize - 12 - footerPosition)), false);
+        int count = (int) footer.readUnsignedVInt();
+        List<RowGroup> groups = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long position = footer.readUnsignedVInt();
+            int compressedLength = (int) footer.readUnsignedVInt();
+            int length = (int) footer.readUnsignedVInt();
+            int events = (int) footer.readUnsignedVInt();
+            ByteBuffer[] min = new ByteBuffer[columns];
+            ByteBuffer[] max = new ByteBuffer[columns];
+            for (int j = 0; j < columns; j++) {
+                min[j] = readValue(footer);
+                max[j] = readValue(footer);
+            }
+            groups.add(new RowGroup(position, compressedLength, length, events, min, max));
+        }
+        this.rowGroups = Collections.unmodifiableList(groups);
+    }
+
+    public static ColumnarFileReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new ColumnarFileReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    public List<RowGroup> getRowGroups() {
+        return rowGroups;
+    }
+
+    /**
+     * Reads the events of the row group.
+     */
+    public ColumnBatch read(RowGroup rowGroup) throws IOException {
+        byte[] compressed = new byte[rowGroup.compressedLength];
+        read(rowGroup.position, rowGroup.compressedLength).get(compressed);
+        byte[] data = new byte[rowGroup.length];
+        decompressor.decompress(compressed, 0, data, 0, rowGroup.length);
+        return ColumnBatch.deserialize(schema, new DataInputBuffer(data), rowGroup.events, version);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer readValue(DataInputPlus in) throws IOException {
+        int length = (int) in.readUnsignedVInt();
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Position and statistics of a row group.
+     */
+    public static class RowGroup {
+        private final long position;
+        private final int compressedLength;
+        private final int length;
+        private final int events;
+        private final ByteBuffer[] min;
+        private final ByteBuffer[] max;
+
+        private RowGroup(long position, int compressedLength, int length, int events, ByteBuffer[] min, ByteBuffer[] max) {
+            this.position = position;
+            this.compressedLength = compressedLength;
+            this.length = length;
+            this.events = events;
+            this.min = min;
+            this.max = max;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        /**
+         * @return the smallest serialized value of the column, or null if there is none or the type has no statistics
+         */
+        public ByteBuffer getMin(int column) {
+            return min[column];
+        }
+
+        /**
+         * @return the largest serialized value of the column, or null if there is none or the type has no statistics
+         */
+        public ByteBuffer getMax(int column) {
+            return max[column];
+        }
+    }
+}
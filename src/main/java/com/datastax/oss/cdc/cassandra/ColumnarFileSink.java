@@ -0,0 +1,241 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.google.common.io.CountingOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes batches into columnar files, one directory per table (<code>keyspace/table</code>).
+ *
+ * Each batch is written as a row group, that has the event types, timestamps and each column vector
+ * compressed together with LZ4. The footer has the position, the number of events and the minimum and maximum
+ * values of each column of every row group, so that readers can skip row groups by the statistics.
+ * Files are rotated by size or time, or when the columns of the table change, and like {@link RotatingFileSink},
+ * written with temporary name and atomically renamed when closed. The sync state of each file has the footer
+ * of the row groups synced, so that files left by a crash are completed with it.
+ *
+ * <pre>
+ * file     := MAGIC FORMAT_VERSION TableSchema rowgroup* footer footer_position:long MAGIC
+ * rowgroup := LZ4(event_type:byte* timestamp_ms:long* segment_id:long* position:long* column*)
+ * column   := null_bitmap values
+ * footer   := count:uvint (position:uvint compressed_length:uvint length:uvint events:uvint (min max)*)*
+ * min, max := length+1:uvint bytes                      (0 for none)
+ * </pre>
+ *
+ * Segment ids and positions are the {@link SequenceId}s of events, with segment id -1 for events without it.
+ * Files of format version 1 do not have them.
+ *
+ * Files are read by {@link ColumnarFileReader}.
+ */
+public class ColumnarFileSink implements BatchSink {
+
+    static final int MAGIC = 0x43444343; // "CDCC"
+    static final byte FORMAT_VERSION = 2;
+    static final String EXTENSION = ".cdcc";
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    private final Path directory;
+    private final long maxFileSize;
+    private final long rollIntervalMillis;
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private final Map<UUID, OpenFile> files = new HashMap<>();
+    private long fileCount = 0;
+
+    public ColumnarFileSink(Path directory) throws IOException {
+        this(directory, 128L * 1024 * 1024, TimeUnit.HOURS.toMillis(1));
+    }
+
+    /**
+     * @param directory directory to write files to
+     * @param maxFileSize size in bytes to rotate the file at
+     * @param rollIntervalMillis time in milliseconds to rotate the file after it is opened
+     */
+    public ColumnarFileSink(Path directory, long maxFileSize, long rollIntervalMillis) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        this.maxFileSize = maxFileSize;
+        this.rollIntervalMillis = rollIntervalMillis;
+        PendingFiles.recover(directory);
+    }
+
+    @Override
+    public synchronized void write(ColumnBatch batch) throws IOException {
+        TableSchema schema = batch.getSchema();
+        OpenFile file = files.get(schema.getTableId());
+        if (file != null && !file.schema.getColumns().equals(schema.getColumns())) {
+            files.remove(schema.getTableId()).close();
+            file = null;
+        }
+        if (file == null) {
+            file = open(schema);
+            files.put(schema.getTableId(), file);
+        }
+        file.write(batch);
+        if (file.size() >= maxFileSize) {
+            files.remove(schema.getTableId()).close();
+        }
+    }
+
+    /**
+     * Closes files opened longer than the roll interval.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator<OpenFile> it = files.values().iterator();
+        while (it.hasNext()) {
+            OpenFile file = it.next();
+            if (now - file.openedAt >= rollIntervalMillis) {
+                it.remove();
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Syncs all open files and saves their footers as their sync state.
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        for (OpenFile file : files.values()) {
+            file.sync();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException error = null;
+        for (OpenFile file : files.values()) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        files.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private OpenFile open(TableSchema schema) throws IOException {
+        Path dir = directory.resolve(schema.getKeyspaceName()).resolve(schema.getTableName());
+        Files.createDirectories(dir);
+        long now = System.currentTimeMillis();
+        String name = String.format("cdc-%s-%06d%s", FILE_TIME.format(Instant.ofEpochMilli(now)), fileCount++, EXTENSION);
+        Path target = dir.resolve(name);
+        return new OpenFile(PendingFiles.temporary(target), target, schema, now);
+    }
+
+    private static void writeValue(ByteBuffer value, DataOutputStreamPlus out) throws IOException {
+        if (value == null) {
+            out.writeUnsignedVInt(0);
+        } else {
+            out.writeUnsignedVInt(value.remaining() + 1);
+            out.write(value.duplicate());
+        }
+    }
+
+    private class OpenFile {
+        private final Path temporary;
+        private final Path target;
+        private final TableSchema schema;
+        private final FileOutputStream fileOut;
+        private final CountingOutputStream counting;
+        private final DataOutputStreamPlus out;
+        private final long openedAt;
+        private final DataOutputBuffer footer = new DataOutputBuffer();
+        private int rowGroups = 0;
+
+        private OpenFile(Path temporary, Path target, TableSchema schema, long openedAt) throws IOException {
+            this.temporary = temporary;
+            this.target = target;
+            this.schema = schema;
+            this.fileOut = new FileOutputStream(temporary.toFile());
+            this.counting = new CountingOutputStream(fileOut);
+            this.out = new WrappedDataOutputStreamPlus(new BufferedOutputStream(counting, 1 << 16));
+            this.openedAt = openedAt;
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            schema.serialize(out);
+        }
+
+        private void write(ColumnBatch batch) throws IOException {
+            buffer.clear();
+            batch.serialize(buffer);
+            int length = buffer.getLength();
+            byte[] compressed = new byte[compressor.maxCompressedLength(length)];
+            int compressedLength = compressor.compress(buffer.getData(), 0, length, compressed, 0, compressed.length);
+
+            out.flush();
+            long position = counting.getCount();
+            out.write(compressed, 0, compressedLength);
+            // row group is added to the footer only when it is written, as a failed batch is written again
+            footer.writeUnsignedVInt(position);
+            footer.writeUnsignedVInt(compressedLength);
+            footer.writeUnsignedVInt(length);
+            footer.writeUnsignedVInt(batch.size());
+            for (int i = 0; i < schema.getColumns().size(); i++) {
+                writeValue(batch.getVector(i).getMin(), footer);
+                writeValue(batch.getVector(i).getMax(), footer);
+            }
+            rowGroups++;
+        }
+
+        /**
+         * @return bytes written to the file
+         */
+        private long size() {
+            return counting.getCount();
+        }
+
+        private void sync() throws IOException {
+            out.flush();
+            fileOut.getChannel().force(false);
+            PendingFiles.save(temporary, counting.getCount(), trailer());
+        }
+
+        /**
+         * @return footer of the row groups written, with the footer position and the magic
+         */
+        private byte[] trailer() throws IOException {
+            try (DataOutputBuffer trailer = new DataOutputBuffer()) {
+                trailer.writeUnsignedVInt(rowGroups);
+                trailer.write(footer.getData(), 0, footer.getLength());
+                trailer.writeLong(counting.getCount());
+                trailer.writeInt(MAGIC);
+                return trailer.toByteArray();
+            }
+        }
+
+        private void close() throws IOException {
+            try {
+                out.flush();
+                out.write(trailer());
+                out.flush();
+                fileOut.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            PendingFiles.delete(temporary);
+        }
+    }
+}
@@ -4,18 +4,251 @@ import org.apache.cassandra.db.Mutation;
 import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
 import org.apache.cassandra.db.commitlog.CommitLogReadHandler;
 import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 
+import java.io.IOError;
 import java.io.IOException;
-import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class CommitLogHandler implements CommitLogReadHandler {
+
+    private final RowStateStore rowStateStore;
+    private final ValueFingerprints fingerprints;
+    private final ChangeEventSink sink;
+    private ResourceGovernor governor;
+    private DeadLetterQueue deadLetters;
+    private HeavyHitters heavyHitters;
+    private WatermarkTracker.Source watermarks;
+    private ExpirationScheduler expirations;
+    private boolean draining;
+    // events written, to count events of each mutation
+    private int written;
+    // failure of the sink, which is not a failure of conversion
+    private RuntimeException sinkFailure;
+    // position of the events being written, to assign sequence ids
+    private CommitLogDescriptor segment;
+    private int entryLocation;
+    private int partitionIndex;
+    private int eventIndex;
+    // the largest write timestamp of mutations processed in microseconds, to advance expirations with
+    private long processedTimestamp = Long.MIN_VALUE;
+
+    public CommitLogHandler() {
+        this(null, null, new ConsoleSink());
+    }
+
+    /**
+     * @param rowStateStore store to track row state for full row images, or null to emit changes only
+     * @param fingerprints fingerprints to drop unchanged values, or null to emit all values
+     * @param sink sink to write events to
+     */
+    public CommitLogHandler(RowStateStore rowStateStore, ValueFingerprints fingerprints, ChangeEventSink sink) {
+        this.rowStateStore = rowStateStore;
+        this.fingerprints = fingerprints;
+        this.sink = Objects.requireNonNull(sink);
+    }
+
+    /**
+     * Skips optional stages, row images and dropping unchanged values, while draining the CDC directory.
+     * Row states and fingerprints are cleared when draining ends, since changes while draining were not recorded.
+     *
+     * @param draining true to skip optional stages
+     */
+    public void setDraining(boolean draining) {
+        if (this.draining && !draining) {
+            if (rowStateStore != null) {
+                rowStateStore.clear();
+            }
+            if (fingerprints != null) {
+                fingerprints.clear();
+            }
+        }
+        this.draining = draining;
+    }
+
+    /**
+     * Sets the governor to limit the bytes of mutations read per second with. Mutations are not limited
+     * while draining the CDC directory.
+     */
+    public void setGovernor(ResourceGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Sets the queue to send mutations that fail to be converted to, with the number of events of the partition
+     * already written before the failure. Without the queue, the failure stops reading the segment.
+     * Failures of the sink are not sent to the queue, and stop reading the segment.
+     */
+    public void setDeadLetterQueue(DeadLetterQueue deadLetters) {
+        this.deadLetters = deadLetters;
+    }
+
+    /**
+     * Sets the tracker to count writes and bytes of partitions with, to find hot partitions and heavy tables.
+     */
+    public void setHeavyHitters(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    /**
+     * Sets the tracker to report write timestamps of mutations to, to emit watermarks with.
+     */
+    public void setWatermarks(WatermarkTracker watermarks) {
+        this.watermarks = watermarks.open("commitlog");
+    }
+
+    /**
+     * Sets the scheduler to emit deletions of rows and cells written with TTL when they expire. The scheduler is
+     * advanced after each mutation to the event time processed, the largest write timestamp processed but not after
+     * the current time, and expirations are written as events of the mutation, after its partitions.
+     * Pending expirations are saved by {@link #sync()}.
+     */
+    public void setExpirations(ExpirationScheduler expirations) {
+        this.expirations = expirations;
+    }
+
     @Override
     public void handleMutation(Mutation m, int size, int entryLocation, CommitLogDescriptor desc) {
+        if (governor != null && !draining) {
+            governor.acquireBytes(size);
+        }
+        if (!Profiling.ENABLED) {
+            handle(m, entryLocation, desc);
+            return;
+        }
+        Profiling.MutationHandled event = new Profiling.MutationHandled();
+        event.begin();
+        int before = written;
+        handle(m, entryLocation, desc);
+        event.end();
+        if (event.shouldCommit()) {
+            event.keyspace = m.getKeyspaceName();
+            event.segmentId = desc == null ? -1 : desc.id;
+            event.position = entryLocation;
+            event.size = size;
+            event.partitions = m.getPartitionUpdates().size();
+            event.events = written - before;
+            event.commit();
+        }
+    }
+
+    private void handle(Mutation m, int entryLocation, CommitLogDescriptor desc) {
+        if (watermarks == null && expirations == null) {
+            convert(m, entryLocation, desc);
+            return;
+        }
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (PartitionUpdate partition : m.getPartitionUpdates()) {
+            minTimestamp = Math.min(minTimestamp, partition.stats().minTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, partition.maxTimestamp());
+        }
+        if (watermarks == null) {
+            convert(m, entryLocation, desc);
+        } else {
+            watermarks.begin(minTimestamp);
+            try {
+                convert(m, entryLocation, desc);
+            } finally {
+                watermarks.end(maxTimestamp);
+            }
+        }
+        if (expirations != null) {
+            expire(maxTimestamp);
+        }
+    }
+
+    private void expire(long maxTimestamp) {
+        processedTimestamp = Math.max(processedTimestamp, maxTimestamp);
+        if (processedTimestamp == Long.MIN_VALUE) {
+            return;
+        }
+        int time = (int) Math.min(FBUtilities.nowInSeconds(), TimeUnit.MICROSECONDS.toSeconds(processedTimestamp));
+        // after the partitions of the mutation, so that sequence ids keep increasing
+        partitionIndex++;
+        eventIndex = 0;
+        expirations.advance(time, this::write);
+    }
+
+    private void convert(Mutation m, int entryLocation, CommitLogDescriptor desc) {
+        this.segment = desc;
+        this.entryLocation = entryLocation;
+        this.partitionIndex = -1;
         for (PartitionUpdate partition : m.getPartitionUpdates()) {
-            PartitionParser p = new PartitionParser(partition);
-            List<ChangeEvent> events = p.toChangeEvents();
-            events.stream().map(JsonOutput::toJson).forEach(System.out::println);
+            // partitions sent to dead letters also take an index, so that ids do not change when they are replayed
+            partitionIndex++;
+            eventIndex = 0;
+            if (heavyHitters != null) {
+                heavyHitters.add(partition);
+            }
+            PartitionParser p = new PartitionParser(partition, draining ? null : fingerprints);
+            p.setExpirations(expirations);
+            // events are written as they are converted, and the events written before a failure are recorded
+            int before = written;
+            try {
+                p.toChangeEvents(this::write);
+            } catch (RuntimeException e) {
+                if (deadLetters == null || e == sinkFailure) {
+                    throw e;
+                }
+                deadLetter(m, entryLocation, desc, partition, written - before, e);
+            }
+        }
+    }
+
+    private void deadLetter(Mutation m, int entryLocation, CommitLogDescriptor desc, PartitionUpdate partition,
+                            int emittedEvents, RuntimeException e) {
+        try (DataOutputBuffer out = new DataOutputBuffer()) {
+            Mutation.serializer.serialize(m, out, desc.getMessagingVersion());
+            deadLetters.addConversion(desc.id, entryLocation, partition.metadata().cfId, partitionIndex, emittedEvents,
+                    out.getData(), out.getLength(), e);
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    private void write(ChangeEvent event) {
+        written++;
+        if (segment != null && event instanceof DefaultChangeEvent) {
+            // fails when the indexes do not fit in the id, which sends the rest of the partition to dead letters
+            ((DefaultChangeEvent) event).setSequenceId(SequenceId.of(segment.id, entryLocation, partitionIndex, eventIndex++));
+        }
+        try {
+            ChangeEvent output = rowStateStore != null && !draining ? rowStateStore.apply(event) : event;
+            if (!Profiling.ENABLED) {
+                sink.write(output);
+                return;
+            }
+            Profiling.SinkWrite profiling = new Profiling.SinkWrite();
+            profiling.begin();
+            sink.write(output);
+            profiling.end();
+            if (profiling.shouldCommit()) {
+                profiling.sink = sink.getClass().getSimpleName();
+                profiling.keyspace = event.getKeyspaceName();
+                profiling.table = event.getTableName();
+                profiling.commit();
+            }
+        } catch (IOException e) {
+            throw new IOError(e);
+        } catch (RuntimeException e) {
+            sinkFailure = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Makes events written so far durable, and saves pending expirations, before the segment they are read from
+     * is deleted or archived.
+     */
+    public void sync() throws IOException {
+        sink.sync();
+        // after the expirations emitted are synced
+        if (expirations != null) {
+            expirations.save();
         }
     }
 
@@ -0,0 +1,61 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes events to all of the given sinks.
+ */
+public class CompositeSink implements ChangeEventSink {
+
+    private final List<ChangeEventSink> sinks;
+
+    public CompositeSink(List<ChangeEventSink> sinks) {
+        this.sinks = new ArrayList<>(sinks);
+    }
+
+    @Override
+    public void write(ChangeEvent event) throws IOException {
+        for (ChangeEventSink sink : sinks) {
+            sink.write(event);
+        }
+    }
+
+    @Override
+    public void writeWatermark(Instant watermark) throws IOException {
+        for (ChangeEventSink sink : sinks) {
+            sink.writeWatermark(watermark);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (ChangeEventSink sink : sinks) {
+            sink.flush();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        for (ChangeEventSink sink : sinks) {
+            sink.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (ChangeEventSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.time.Instant;
+
+/**
+ * Prints events in JSON to standard output.
+ */
+public class ConsoleSink implements ChangeEventSink {
+
+    @Override
+    public void write(ChangeEvent event) {
+        System.out.println(JsonOutput.toJson(event));
+    }
+
+    @Override
+    public void writeWatermark(Instant watermark) {
+        System.out.println("{\"watermark\":\"" + watermark + "\"}");
+    }
+
+    @Override
+    public void flush() {
+        System.out.flush();
+    }
+}
@@ -71,6 +71,28 @@ public class Criteria {
         }
     }
 
+    /**
+     * @return start value of the range, or null if unbounded
+     */
+    public Object getStartValue() {
+        return startValue;
+    }
+
+    /**
+     * @return end value of the range, or null if unbounded
+     */
+    public Object getEndValue() {
+        return endValue;
+    }
+
+    public boolean isStartInclusive() {
+        return startInclusive;
+    }
+
+    public boolean isEndInclusive() {
+        return endInclusive;
+    }
+
     public boolean isEqual() {
         return Objects.equals(startValue, endValue);
     }
@@ -0,0 +1,211 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Keeps mutations that failed to be read or converted to events, so that processing continues with the rest of
+ * the segment and failed mutations can be inspected or replayed later.
+ *
+ * Each failure is written as a line of JSON to <code>dead-letter-&lt;segment id&gt;.json</code> in the directory,
+ * with the serialized mutation as in the commit log (base64), the position after the mutation in the segment,
+ * the table id and the exception. Without a directory, failures are only logged and counted.
+ * Failures are counted by {@link Reason} as <code>DeadLetter.*</code> metrics, and the bytes of quarantined
+ * segment tails as <code>DeadLetter.SkippedBytes</code>.
+ */
+public class DeadLetterQueue implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterQueue.class);
+
+    public enum Reason {
+        /** mutation of a table not in the schema, such as a dropped table */
+        UNKNOWN_TABLE("DeadLetter.UnknownTable"),
+        /** mutation cannot be deserialized */
+        DESERIALIZATION("DeadLetter.Deserialization"),
+        /** mutation cannot be converted to events */
+        CONVERSION("DeadLetter.Conversion"),
+        /** tail of a segment cannot be read, such as a segment torn by a crash */
+        TRUNCATED("DeadLetter.TruncatedSegments");
+
+        private final Counter counter;
+
+        Reason(String metricName) {
+            this.counter = CDCMetrics.registry.counter(metricName);
+        }
+    }
+
+    private final Counter skippedBytes = CDCMetrics.registry.counter("DeadLetter.SkippedBytes");
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Path directory;
+
+    private long segmentId = -1;
+    private OutputStream out;
+
+    /**
+     * @param directory directory to write failed mutations to, or null only to log them
+     */
+    public DeadLetterQueue(Path directory) {
+        this.directory = directory;
+    }
+
+    static Path pathOf(Path directory, long segmentId) {
+        return directory.resolve("dead-letter-" + segmentId + ".json");
+    }
+
+    static Path tailPathOf(Path directory, long segmentId, long start) {
+        return directory.resolve("dead-letter-" + segmentId + "-" + start + ".tail");
+    }
+
+    /**
+     * @param reason reason of the failure
+     * @param segmentId id of the segment the mutation is in
+     * @param position position after the mutation in the segment
+     * @param tableId id of the table that failed, or null if unknown
+     * @param mutation buffer of the serialized mutation
+     * @param length length of the serialized mutation in the buffer
+     * @param cause exception of the failure
+     */
+    public void add(Reason reason, long segmentId, int position, UUID tableId,
+                    byte[] mutation, int length, Throwable cause) throws IOException {
+        add(reason, segmentId, position, tableId, -1, 0, mutation, length, cause);
+    }
+
+    /**
+     * Adds the mutation that failed to be converted, after some events of the partition were written.
+     * The events written have the sequence ids of the partition with event indexes below the number of events
+     * written, so that they can be skipped when the mutation is replayed.
+     *
+     * @param segmentId id of the segment the mutation is in
+     * @param position position after the mutation in the segment
+     * @param tableId id of the table that failed
+     * @param partitionIndex index of the partition that failed in the mutation
+     * @param emittedEvents number of events of the partition written before the failure
+     * @param mutation buffer of the serialized mutation
+     * @param length length of the serialized mutation in the buffer
+     * @param cause exception of the failure
+     */
+    public void addConversion(long segmentId, int position, UUID tableId, int partitionIndex, int emittedEvents,
+                              byte[] mutation, int length, Throwable cause) throws IOException {
+        add(Reason.CONVERSION, segmentId, position, tableId, partitionIndex, emittedEvents, mutation, length, cause);
+    }
+
+    private synchronized void add(Reason reason, long segmentId, int position, UUID tableId, int partitionIndex,
+                                  int emittedEvents, byte[] mutation, int length, Throwable cause) throws IOException {
+        reason.counter.inc();
+        CFMetaData metadata = tableId == null ? null : Schema.instance.getCFMetaData(tableId);
+        String table = metadata == null ? String.valueOf(tableId) : metadata.ksName + "." + metadata.cfName;
+        if (reason == Reason.UNKNOWN_TABLE) {
+            // usually a dropped table, and can be many
+            logger.debug("Mutation at {} of segment {} is for unknown table {}", position, segmentId, table);
+        } else {
+            logger.warn("Failed to process mutation at {} of segment {} for table {} ({})", position, segmentId, table, reason, cause);
+        }
+        if (directory == null) {
+            return;
+        }
+        try (JsonGenerator generator = factory.createGenerator(open(segmentId))) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeStringField("reason", reason.name());
+            generator.writeNumberField("segmentId", segmentId);
+            generator.writeNumberField("position", position);
+            generator.writeStringField("tableId", tableId == null ? null : tableId.toString());
+            if (metadata != null) {
+                generator.writeStringField("keyspace", metadata.ksName);
+                generator.writeStringField("table", metadata.cfName);
+            }
+            if (partitionIndex >= 0) {
+                generator.writeNumberField("partitionIndex", partitionIndex);
+                generator.writeNumberField("emittedEvents", emittedEvents);
+            }
+            generator.writeStringField("exception", String.valueOf(cause));
+            generator.writeFieldName("mutation");
+            generator.writeBinary(mutation, 0, length);
+            generator.writeEndObject();
+        }
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * Copies the tail of the segment that was not read to <code>dead-letter-&lt;segment id&gt;-&lt;start&gt;.tail</code>,
+     * and records it as a line of JSON with the reason <code>TRUNCATED</code>.
+     *
+     * @param segmentId id of the segment
+     * @param segment segment file
+     * @param start position of the tail in the segment
+     * @param end position after the tail in the segment
+     * @param message error at the start of the tail
+     */
+    public synchronized void quarantine(long segmentId, Path segment, long start, long end, String message) throws IOException {
+        Reason.TRUNCATED.counter.inc();
+        skippedBytes.inc(end - start);
+        if (directory == null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        Path tail = tailPathOf(directory, segmentId, start);
+        try (FileChannel source = FileChannel.open(segment, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(tail, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = start;
+            while (position < end) {
+                position += source.transferTo(position, end - position, target);
+            }
+        }
+        try (JsonGenerator generator = factory.createGenerator(open(segmentId))) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeStringField("reason", Reason.TRUNCATED.name());
+            generator.writeNumberField("segmentId", segmentId);
+            generator.writeNumberField("position", start);
+            generator.writeNumberField("skippedBytes", end - start);
+            generator.writeStringField("exception", message);
+            generator.writeStringField("tail", tail.getFileName().toString());
+            generator.writeEndObject();
+        }
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * @return stream of dead letters of the segment, opened when the segment changes
+     */
+    private OutputStream open(long segmentId) throws IOException {
+        if (segmentId != this.segmentId) {
+            closeSegment();
+            Files.createDirectories(directory);
+            out = Files.newOutputStream(pathOf(directory, segmentId), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            this.segmentId = segmentId;
+        }
+        return out;
+    }
+
+    private void closeSegment() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            segmentId = -1;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+}
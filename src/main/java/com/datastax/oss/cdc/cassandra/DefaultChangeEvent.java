@@ -3,28 +3,49 @@ package com.datastax.oss.cdc.cassandra;
 import java.time.Instant;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 class DefaultChangeEvent implements ChangeEvent {
     private final String keyspace;
     private final String table;
     private final UUID tableId;
     private final Instant timestamp;
+    // in microseconds
+    private final long writeTimestamp;
     private final ChangeEventType eventType;
     private final Row row;
     private final Deletion deletion;
+    private final Row beforeImage;
+    private int ttl;
+    private Instant expirationTime;
+    // assigned when the event is written from a commit log segment
+    private SequenceId sequenceId;
 
     DefaultChangeEvent(String keyspace,
                        String table,
                        UUID tableId,
                        Instant timestamp,
                        Deletion deletion) {
+        this(keyspace, table, tableId, TimeUnit.MILLISECONDS.toMicros(timestamp.toEpochMilli()), deletion);
+    }
+
+    /**
+     * @param writeTimestamp write timestamp of the deletion in microseconds
+     */
+    DefaultChangeEvent(String keyspace,
+                       String table,
+                       UUID tableId,
+                       long writeTimestamp,
+                       Deletion deletion) {
         this.keyspace = keyspace;
         this.table = table;
         this.tableId = tableId;
-        this.timestamp = timestamp;
+        this.timestamp = toInstant(writeTimestamp);
+        this.writeTimestamp = writeTimestamp;
         this.eventType = ChangeEventType.DELETE;
         this.deletion = Objects.requireNonNull(deletion);
         this.row = null;
+        this.beforeImage = null;
     }
 
     DefaultChangeEvent(String keyspace,
@@ -32,13 +53,65 @@ class DefaultChangeEvent implements ChangeEvent {
                        UUID tableId,
                        Instant timestamp,
                        Row row) {
+        this(keyspace, table, tableId, TimeUnit.MILLISECONDS.toMicros(timestamp.toEpochMilli()), row);
+    }
+
+    /**
+     * @param writeTimestamp write timestamp of the row in microseconds
+     */
+    DefaultChangeEvent(String keyspace,
+                       String table,
+                       UUID tableId,
+                       long writeTimestamp,
+                       Row row) {
         this.keyspace = keyspace;
         this.table = table;
         this.tableId = tableId;
-        this.timestamp = timestamp;
+        this.timestamp = toInstant(writeTimestamp);
+        this.writeTimestamp = writeTimestamp;
         this.eventType = ChangeEventType.UPDATE;
         this.row = Objects.requireNonNull(row);
         this.deletion = null;
+        this.beforeImage = null;
+    }
+
+    /**
+     * Creates the copy of given event with row images.
+     *
+     * @param event event to copy
+     * @param row full after-image of the row for update event, ignored for deletion
+     * @param beforeImage state of the row before the event, or null if unknown
+     */
+    DefaultChangeEvent(ChangeEvent event, Row row, Row beforeImage) {
+        this.keyspace = event.getKeyspaceName();
+        this.table = event.getTableName();
+        this.tableId = event.getTableId();
+        this.timestamp = event.getEventTimestamp();
+        this.writeTimestamp = event.getWriteTimestamp();
+        this.eventType = event.getEventType();
+        this.row = eventType == ChangeEventType.UPDATE ? Objects.requireNonNull(row) : null;
+        this.deletion = event.getDeletion();
+        this.beforeImage = beforeImage;
+        this.sequenceId = event.getSequenceId();
+        this.ttl = event.getTTL();
+        this.expirationTime = event.getExpirationTime();
+    }
+
+    private static Instant toInstant(long micros) {
+        return Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(micros));
+    }
+
+    void setSequenceId(SequenceId sequenceId) {
+        this.sequenceId = sequenceId;
+    }
+
+    /**
+     * @param ttl TTL in seconds the values are written with
+     * @param localExpirationTime time in seconds since epoch the values expire at
+     */
+    void setExpiration(int ttl, int localExpirationTime) {
+        this.ttl = ttl;
+        this.expirationTime = Instant.ofEpochSecond(localExpirationTime);
     }
 
     @Override
@@ -46,6 +119,21 @@ class DefaultChangeEvent implements ChangeEvent {
         return timestamp;
     }
 
+    @Override
+    public long getWriteTimestamp() {
+        return writeTimestamp;
+    }
+
+    @Override
+    public int getTTL() {
+        return ttl;
+    }
+
+    @Override
+    public Instant getExpirationTime() {
+        return expirationTime;
+    }
+
     @Override
     public String getKeyspaceName() {
         return keyspace;
@@ -75,4 +163,14 @@ class DefaultChangeEvent implements ChangeEvent {
     public Row getRow() {
         return row;
     }
+
+    @Override
+    public Row getBeforeImage() {
+        return beforeImage;
+    }
+
+    @Override
+    public SequenceId getSequenceId() {
+        return sequenceId;
+    }
 }
@@ -0,0 +1,51 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+class DefaultRow implements Row {
+    private final Map<String, Object> columns;
+    private final Map<String, ByteBuffer> serializedColumns;
+    // types of columns whose values are deserialized on first access
+    private Map<String, AbstractType<?>> deferred;
+
+    DefaultRow(Map<String, Object> columns, Map<String, ByteBuffer> serializedColumns) {
+        this(columns, serializedColumns, Collections.emptyMap());
+    }
+
+    /**
+     * @param columns columns in order, with null values for deferred columns
+     * @param serializedColumns serialized values of columns
+     * @param deferred types of columns to deserialize from their serialized values when needed
+     */
+    DefaultRow(Map<String, Object> columns, Map<String, ByteBuffer> serializedColumns, Map<String, AbstractType<?>> deferred) {
+        this.columns = columns;
+        this.serializedColumns = serializedColumns;
+        this.deferred = deferred.isEmpty() ? null : deferred;
+    }
+
+    @Override
+    public synchronized Map<String, Object> getColumns() {
+        if (deferred != null) {
+            for (Map.Entry<String, AbstractType<?>> e : deferred.entrySet()) {
+                columns.put(e.getKey(), e.getValue().getSerializer().deserialize(serializedColumns.get(e.getKey())));
+            }
+            deferred = null;
+        }
+        return columns;
+    }
+
+    @Override
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getSerializedColumns() {
+        return serializedColumns;
+    }
+}
@@ -0,0 +1,442 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.io.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only journal of encoded {@link ChangeEvent}s in memory-mapped rolling files.
+ *
+ * Each event is appended once as a record with sequence number and event timestamp, and any number of
+ * {@link JournalTailer}s, in this or other processes, can read the journal at their own pace.
+ *
+ * Journal files are named after the sequence number of their first record, and preallocated to the fixed size.
+ * A record consists of payload length (4 bytes), sequence number (8 bytes), timestamp in milliseconds (8 bytes)
+ * and payload, padded to 4 bytes. The length is written after the rest of the record behind a memory fence, so that
+ * tailers in other processes that read it see the complete record, and the length of <code>-1</code> marks that
+ * the journal continues in the next file.
+ * Each journal file has the sparse index file that has the entry for every {@value #DEFAULT_INDEX_INTERVAL}th record
+ * consisting of sequence number, the maximum timestamp of the records before it, and the position in the file.
+ *
+ * With the maximum size or age, the oldest journal files are deleted when the journal is over the size or they are
+ * older than the age, once all {@link JournalTailer}s have committed offsets after them.
+ */
+public class EventJournal implements ChangeEventSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    static final String DATA_SUFFIX = ".journal";
+    static final String INDEX_SUFFIX = ".index";
+    /** name of {@link SchemaRegistry} file in the journal directory when events are encoded by {@link BinaryEncoder} */
+    public static final String SCHEMA_FILE = "schemas";
+    static final int HEADER_SIZE = 4 + 8 + 8;
+    static final int INDEX_ENTRY_SIZE = 8 + 8 + 8;
+    static final int END_OF_FILE = -1;
+    static final String TAILERS_DIRECTORY = "tailers";
+    static final String OFFSET_SUFFIX = ".offset";
+
+    /** written and read as a memory fence around record lengths */
+    private static volatile int fence;
+
+    public static final int DEFAULT_FILE_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_INDEX_INTERVAL = 256;
+
+    private final Path directory;
+    private final ChangeEventEncoder encoder;
+    private final int fileSize;
+    private final int indexInterval;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    private long fileStartSequence;
+    private FileChannel dataChannel;
+    private MappedByteBuffer data;
+    private FileChannel indexChannel;
+
+    private long nextSequence = 0;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private int recordsSinceIndex = 0;
+
+    public EventJournal(Path directory) throws IOException {
+        this(directory, new JacksonEncoder(JacksonEncoder.Format.JSON));
+    }
+
+    /**
+     * @param directory directory of journal files
+     * @param encoder encoder of events. Each record must be decodable by itself.
+     */
+    public EventJournal(Path directory, ChangeEventEncoder encoder) throws IOException {
+        this(directory, encoder, DEFAULT_FILE_SIZE, DEFAULT_INDEX_INTERVAL);
+    }
+
+    public EventJournal(Path directory, int fileSize, int indexInterval) throws IOException {
+        this(directory, new JacksonEncoder(JacksonEncoder.Format.JSON), fileSize, indexInterval);
+    }
+
+    /**
+     * Opens the journal in the directory, and continues after the last record if the journal exists.
+     *
+     * @param directory directory of journal files
+     * @param encoder encoder of events
+     * @param fileSize size of each journal file in bytes
+     * @param indexInterval number of records between index entries
+     */
+    public EventJournal(Path directory, ChangeEventEncoder encoder, int fileSize, int indexInterval) throws IOException {
+        this(directory, encoder, fileSize, indexInterval, 0, 0);
+    }
+
+    /**
+     * Opens the journal in the directory, and continues after the last record if the journal exists.
+     *
+     * @param directory directory of journal files
+     * @param encoder encoder of events
+     * @param fileSize size of each journal file in bytes
+     * @param indexInterval number of records between index entries
+     * @param maxBytes maximum size of journal files read by all tailers, or 0 for no limit
+     * @param maxAgeMillis maximum age of journal files read by all tailers, or 0 for no limit
+     */
+    public EventJournal(Path directory, ChangeEventEncoder encoder, int fileSize, int indexInterval,
+                        long maxBytes, long maxAgeMillis) throws IOException {
+        this.directory = directory;
+        this.encoder = encoder;
+        this.fileSize = fileSize;
+        this.indexInterval = indexInterval;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    @Override
+    public synchronized void write(ChangeEvent event) throws IOException {
+        // new stream for each record so that stream encoders start new document
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (Profiling.ENABLED) {
+            Profiling.Encode profiling = new Profiling.Encode();
+            profiling.begin();
+            encoder.encode(event, encoded);
+            profiling.end();
+            if (profiling.shouldCommit()) {
+                profiling.encoder = encoder.getClass().getSimpleName();
+                profiling.keyspace = event.getKeyspaceName();
+                profiling.table = event.getTableName();
+                profiling.size = encoded.size();
+                profiling.commit();
+            }
+        } else {
+            encoder.encode(event, encoded);
+        }
+        append(event.getEventTimestamp().toEpochMilli(), encoded.toByteArray());
+    }
+
+    /**
+     * Appends the watermark as a record with the timestamp of the watermark, when the encoder can encode it.
+     */
+    @Override
+    public synchronized void writeWatermark(Instant watermark) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        encoder.encodeWatermark(watermark, encoded);
+        if (encoded.size() > 0) {
+            append(watermark.toEpochMilli(), encoded.toByteArray());
+        }
+    }
+
+    /**
+     * Appends the record.
+     *
+     * @param timestamp timestamp of the record in milliseconds
+     * @param payload encoded event
+     * @return sequence number of the record
+     */
+    public synchronized long append(long timestamp, byte[] payload) throws IOException {
+        if (payload.length == 0) {
+            throw new IllegalArgumentException("Empty payload cannot be appended");
+        }
+        int recordSize = recordSize(payload.length);
+        if (recordSize + 4 > fileSize) {
+            throw new IOException(String.format("Record of %d bytes does not fit in journal file of %d bytes", recordSize, fileSize));
+        }
+        if (data == null) {
+            openFile(nextSequence);
+        } else if (data.remaining() < recordSize + 4) {
+            // leave room for the end of file marker
+            putLength(data, data.position(), END_OF_FILE);
+            closeFile();
+            openFile(nextSequence);
+            expire();
+        }
+        if (recordsSinceIndex == 0 || recordsSinceIndex >= indexInterval) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(nextSequence).putLong(maxTimestamp).putLong(data.position()).flip();
+            indexChannel.write(entry);
+            recordsSinceIndex = 0;
+        }
+        long sequence = nextSequence++;
+        int position = data.position();
+        data.position(position + 4);
+        data.putLong(sequence);
+        data.putLong(timestamp);
+        data.put(payload);
+        data.position(position + recordSize);
+        // length is written last so that readers never see incomplete record
+        putLength(data, position, payload.length);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        recordsSinceIndex++;
+        return sequence;
+    }
+
+    /**
+     * @return sequence number of the next record
+     */
+    public synchronized long nextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Forces records to the disk, and deletes journal files over the maximum size or age.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (data != null) {
+            data.force();
+            indexChannel.force(false);
+        }
+        expire();
+    }
+
+    /**
+     * Deletes the oldest journal files while the journal is over the maximum size or age, and all tailers have
+     * committed offsets after them. The current file is never deleted.
+     */
+    void expire() throws IOException {
+        if (maxBytes <= 0 && maxAgeMillis <= 0) {
+            return;
+        }
+        List<Long> files = listFiles(directory);
+        long total = 0;
+        for (long file : files) {
+            total += size(dataFile(directory, file)) + size(indexFile(directory, file));
+        }
+        long committed = minCommittedOffset(directory);
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        for (int i = 0; i + 1 < files.size(); i++) {
+            Path file = dataFile(directory, files.get(i));
+            boolean tooLarge = maxBytes > 0 && total > maxBytes;
+            boolean tooOld = maxAgeMillis > 0 && Files.getLastModifiedTime(file).toMillis() < oldest;
+            // next file starts after the last record of the file
+            if ((!tooLarge && !tooOld) || committed < files.get(i + 1)) {
+                break;
+            }
+            Path index = indexFile(directory, files.get(i));
+            total -= size(file) + size(index);
+            Files.delete(file);
+            Files.deleteIfExists(index);
+            logger.debug("Removed {} from journal", file);
+        }
+    }
+
+    private static long size(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    /**
+     * @return minimum offset committed by tailers of the journal, or {@link Long#MAX_VALUE} if there is no tailer
+     */
+    static long minCommittedOffset(Path directory) throws IOException {
+        Path tailers = directory.resolve(TAILERS_DIRECTORY);
+        if (Files.notExists(tailers)) {
+            return Long.MAX_VALUE;
+        }
+        long min = Long.MAX_VALUE;
+        try (Stream<Path> files = Files.list(tailers)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(OFFSET_SUFFIX)) {
+                    byte[] offset = Files.readAllBytes(file);
+                    min = Math.min(min, offset.length < 8 ? 0 : ByteBuffer.wrap(offset).getLong());
+                }
+            }
+        }
+        return min;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (data != null) {
+            flush();
+            closeFile();
+        }
+    }
+
+    private void openFile(long startSequence) throws IOException {
+        fileStartSequence = startSequence;
+        dataChannel = FileChannel.open(dataFile(directory, startSequence), CREATE, READ, WRITE);
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        indexChannel = FileChannel.open(indexFile(directory, startSequence), CREATE, WRITE, APPEND);
+        recordsSinceIndex = 0;
+    }
+
+    private void closeFile() throws IOException {
+        data.force();
+        FileUtils.clean(data);
+        data = null;
+        dataChannel.close();
+        indexChannel.close();
+        // age of the file for retention, as writes through the mapping may not update it
+        Files.setLastModifiedTime(dataFile(directory, fileStartSequence),
+                FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    /**
+     * Finds the end of the last journal file to continue appending.
+     */
+    private void recover() throws IOException {
+        List<Long> files = listFiles(directory);
+        if (files.isEmpty()) {
+            return;
+        }
+        long startSequence = files.get(files.size() - 1);
+        List<long[]> index = readIndex(directory, startSequence);
+        openFile(startSequence);
+        nextSequence = startSequence;
+        if (!index.isEmpty()) {
+            long[] last = index.get(index.size() - 1);
+            nextSequence = last[0];
+            maxTimestamp = last[1];
+            data.position((int) last[2]);
+        }
+        while (data.remaining() >= 4) {
+            int length = data.getInt(data.position());
+            if (length == END_OF_FILE) {
+                closeFile();
+                return;
+            } else if (length == 0) {
+                break;
+            }
+            maxTimestamp = Math.max(maxTimestamp, data.getLong(data.position() + 12));
+            data.position(data.position() + recordSize(length));
+            nextSequence++;
+            recordsSinceIndex++;
+        }
+    }
+
+    /**
+     * @return size of the record of the payload length, padded so that lengths are aligned to be written atomically
+     */
+    static int recordSize(int length) {
+        return (HEADER_SIZE + length + 3) & ~3;
+    }
+
+    /**
+     * Writes the record length at the position of the journal file after a fence, so that the rest of the record
+     * is visible to readers that read the length.
+     */
+    static void putLength(MappedByteBuffer data, int position, int length) {
+        fence();
+        data.putInt(position, length);
+    }
+
+    /**
+     * Reads the record length at the position of the journal file followed by a fence, so that the rest of the record
+     * is not read before the length.
+     */
+    static int getLength(MappedByteBuffer data, int position) {
+        int length = data.getInt(position);
+        fence();
+        return length;
+    }
+
+    /**
+     * Keeps memory accesses before and after from being reordered across it. A volatile write is not reordered with
+     * the accesses before it, and a volatile read with the accesses after it, while the two are not reordered with
+     * each other.
+     */
+    private static void fence() {
+        fence = 0;
+        int ignored = fence;
+    }
+
+    static Path dataFile(Path directory, long startSequence) {
+        return directory.resolve(String.format("%020d%s", startSequence, DATA_SUFFIX));
+    }
+
+    static Path indexFile(Path directory, long startSequence) {
+        return directory.resolve(String.format("%020d%s", startSequence, INDEX_SUFFIX));
+    }
+
+    /**
+     * @return start sequence numbers of journal files in ascending order
+     */
+    static List<Long> listFiles(Path directory) throws IOException {
+        List<Long> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(DATA_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length())))
+                    .sorted()
+                    .forEach(files::add);
+        }
+        return files;
+    }
+
+    /**
+     * @return index entries of the journal file as {sequence, max timestamp before, position}
+     */
+    static List<long[]> readIndex(Path directory, long startSequence) throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        Path file = indexFile(directory, startSequence);
+        if (Files.exists(file)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (buffer.remaining() >= INDEX_ENTRY_SIZE) {
+                entries.add(new long[]{ buffer.getLong(), buffer.getLong(), buffer.getLong() });
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Record read from the journal.
+     */
+    public static class Record {
+        private final long sequence;
+        private final long timestamp;
+        private final byte[] payload;
+
+        Record(long sequence, long timestamp, byte[] payload) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return timestamp of the event in milliseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return encoded event
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.Slice;
+import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.UUIDSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Emits <code>DELETE</code> events when rows and cells written with TTL expire, since Cassandra removes
+ * expired data without writing anything to the commit log.
+ *
+ * {@link PartitionParser} reports expiring row markers and cells of each row, and the expiration time
+ * (local deletion time) of each is kept in a {@link TimingWheel}, so that millions of pending expirations
+ * are inserted and cancelled in constant time. A later write to the row marker or the column reschedules
+ * or cancels the expiration, and deletions of the row, range or partition cancel the expirations written before them.
+ * The wheel is advanced by {@link #advance(int, Consumer)} from the thread processing mutations, to the event time
+ * processed rather than the wall clock, so that expirations are emitted after the writes before them are processed,
+ * even while processing lags behind. Expirations due are emitted as events with the expiration time as their timestamp:
+ * the deletion of the row when its row marker and all cells written with TTL have expired, and nothing without TTL
+ * was written to the row since, or the deletion of the expired columns otherwise.
+ *
+ * Pending expirations and the time of the wheel are written to the file by {@link #save()}, which is called after
+ * the events emitted so far are synced and before the segments they are read from are deleted, and on close.
+ * They are read from the file at start up, so that expirations survive restarts and crashes; segments read again
+ * after a crash schedule their expirations again. Tables dropped while the program was stopped are ignored.
+ *
+ * <pre>
+ * file := MAGIC FORMAT_VERSION time:int count:uvint row* crc32:int          (time is MIN_VALUE before the first advance)
+ * row  := table_id:uuid partition_key:bytes clustering flags:byte count:uvint expiration*
+ * clustering := size+1:uvint bytes*                         (0 for static row)
+ * expiration := has_column:boolean [column:utf] time:int timestamp:long
+ * </pre>
+ */
+public class ExpirationScheduler implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpirationScheduler.class);
+
+    private static final int MAGIC = 0x43445454; // "CDTT"
+    private static final byte FORMAT_VERSION = 2;
+
+    // time in the file of the wheel not advanced yet
+    private static final int NOT_STARTED = Integer.MIN_VALUE;
+
+    private static final int FLAG_MARKER_EXPIRED = 0x01;
+    private static final int FLAG_PINNED = 0x02;
+
+    private final Path file;
+    private TimingWheel<Expiration> wheel;
+    // false until the wheel is advanced to the event time for the first time
+    private boolean started;
+    private final Map<PartitionKey, Map<Clustering, RowExpirations>> partitions = new HashMap<>();
+
+    private final Counter scheduled = CDCMetrics.registry.counter("Expiration.Scheduled");
+    private final Counter cancelled = CDCMetrics.registry.counter("Expiration.Cancelled");
+    private final Counter emitted = CDCMetrics.registry.counter("Expiration.Events");
+
+    /**
+     * Reads pending expirations and the time of the wheel from the file if it exists.
+     *
+     * @param file file to keep pending expirations in, or null to keep them only in memory
+     * @throws IOException when failed to read the file
+     */
+    public ExpirationScheduler(Path file) throws IOException {
+        this.file = file;
+        // replaced at the first advance, unless the time is read from the file
+        this.wheel = new TimingWheel<>((int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        if (file != null && Files.exists(file)) {
+            read(file);
+            logger.info("Read {} pending expirations at {} from {}", wheel.size(),
+                    Instant.ofEpochSecond(wheel.getCurrent()), file);
+        }
+        CDCMetrics.gauge("Expiration.Pending", this::size);
+    }
+
+    /**
+     * @return number of pending expirations
+     */
+    public synchronized int size() {
+        return wheel.size();
+    }
+
+    /**
+     * Cancels expirations in the partition written at or before the deletion.
+     *
+     * @param timestamp timestamp of the deletion in microseconds
+     */
+    public synchronized void partitionDeleted(CFMetaData metadata, DecoratedKey key, long timestamp) {
+        Map<Clustering, RowExpirations> rows = partitions.get(new PartitionKey(metadata, key));
+        if (rows != null) {
+            for (RowExpirations row : new ArrayList<>(rows.values())) {
+                deleted(row, timestamp);
+            }
+        }
+    }
+
+    /**
+     * Cancels expirations in the rows of the range written at or before the deletion.
+     *
+     * @param timestamp timestamp of the deletion in microseconds
+     */
+    public synchronized void rangeDeleted(CFMetaData metadata, DecoratedKey key, Slice slice, long timestamp) {
+        Map<Clustering, RowExpirations> rows = partitions.get(new PartitionKey(metadata, key));
+        if (rows != null) {
+            for (RowExpirations row : new ArrayList<>(rows.values())) {
+                if (row.clustering != Clustering.STATIC_CLUSTERING && slice.includes(metadata.comparator, row.clustering)) {
+                    deleted(row, timestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules expirations of the row marker and cells of the row written with TTL, and cancels expirations
+     * overwritten or deleted by the row.
+     */
+    public synchronized void rowUpdated(CFMetaData metadata, DecoratedKey key, Row update) {
+        PartitionKey partitionKey = new PartitionKey(metadata, key);
+        Map<Clustering, RowExpirations> rows = partitions.get(partitionKey);
+        RowExpirations row = rows == null ? null : rows.get(update.clustering());
+        if (row == null) {
+            if (!hasExpiring(update)) {
+                return;
+            }
+            row = new RowExpirations(partitionKey, update.clustering());
+            partitions.computeIfAbsent(partitionKey, k -> new HashMap<>()).put(row.clustering, row);
+        }
+        if (!update.deletion().isLive()) {
+            deleted(row, update.deletion().time().markedForDeleteAt());
+        }
+        LivenessInfo liveness = update.primaryKeyLivenessInfo();
+        if (!liveness.isEmpty()) {
+            written(row, null, liveness.timestamp(), liveness.isExpiring() ? liveness.localExpirationTime() : -1);
+        }
+        for (ColumnData data : update) {
+            String column = data.column().name.toString();
+            if (data.column().isSimple()) {
+                Cell cell = (Cell) data;
+                if (cell.isTombstone()) {
+                    cellDeleted(row, column, cell.timestamp());
+                } else {
+                    written(row, column, cell.timestamp(), cell.isExpiring() ? cell.localDeletionTime() : -1);
+                }
+                continue;
+            }
+            ComplexColumnData complex = (ComplexColumnData) data;
+            if (!complex.complexDeletion().isLive()) {
+                cellDeleted(row, column, complex.complexDeletion().markedForDeleteAt());
+            }
+            // the collection expires when all of its elements written have expired
+            int time = 0;
+            for (Cell cell : complex) {
+                if (!cell.isExpiring()) {
+                    time = -1;
+                    break;
+                }
+                time = Math.max(time, cell.localDeletionTime());
+            }
+            if (complex.cellsCount() > 0) {
+                written(row, column, complex.maxTimestamp(), time);
+            }
+        }
+        removeIfEmpty(row);
+    }
+
+    /**
+     * Emits expirations due at or before the event time. The time does not go back, and expirations scheduled
+     * at or before the time are emitted at the next advance.
+     *
+     * @param time event time processed in seconds
+     * @param consumer consumer of expiration events, called in the calling thread
+     */
+    public void advance(int time, Consumer<ChangeEvent> consumer) {
+        List<ChangeEvent> events = new ArrayList<>();
+        synchronized (this) {
+            if (!started) {
+                start(time);
+            }
+            Map<RowExpirations, List<Expiration>> expired = new LinkedHashMap<>();
+            wheel.advance(time, e -> {
+                e.row.remove(e);
+                expired.computeIfAbsent(e.row, k -> new ArrayList<>()).add(e);
+            });
+            expired.forEach((row, expirations) -> toEvents(row, expirations, events));
+        }
+        events.forEach(consumer);
+        emitted.inc(events.size());
+    }
+
+    /**
+     * Moves the expirations scheduled before the first advance to a wheel starting at the event time.
+     */
+    private void start(int time) {
+        List<Expiration> pending = new ArrayList<>(wheel.size());
+        wheel.forEach(pending::add);
+        TimingWheel<Expiration> started = new TimingWheel<>(time);
+        for (Expiration e : pending) {
+            wheel.cancel(e);
+            started.schedule(e);
+        }
+        this.wheel = started;
+        this.started = true;
+    }
+
+    private void toEvents(RowExpirations row, List<Expiration> expirations, List<ChangeEvent> events) {
+        expirations.sort(Comparator.comparingInt(Expiration::getTime));
+        CFMetaData metadata = row.partition.metadata;
+        int i = 0;
+        while (i < expirations.size()) {
+            int time = expirations.get(i).getTime();
+            List<String> columns = new ArrayList<>();
+            for (; i < expirations.size() && expirations.get(i).getTime() == time; i++) {
+                Expiration e = expirations.get(i);
+                if (e.column == null) {
+                    row.markerExpired = true;
+                } else {
+                    columns.add(e.column);
+                }
+            }
+            // the row is deleted at the last expiration of the row
+            boolean rowExpired = i == expirations.size() && row.isEmpty() && row.markerExpired && !row.pinned;
+            if (!rowExpired && columns.isEmpty()) {
+                continue;
+            }
+            ChangeEventBuilder.DeletionImpl deletion = new ChangeEventBuilder.DeletionImpl();
+            addCriteria(row, deletion);
+            if (!rowExpired) {
+                columns.forEach(deletion::addColumn);
+            }
+            events.add(new DefaultChangeEvent(metadata.ksName, metadata.cfName, metadata.cfId,
+                    Instant.ofEpochSecond(time), deletion));
+        }
+        removeIfEmpty(row);
+    }
+
+    private static void addCriteria(RowExpirations row, ChangeEventBuilder.DeletionImpl deletion) {
+        CFMetaData metadata = row.partition.metadata;
+        ByteBuffer key = row.partition.key.getKey();
+        ByteBuffer[] components = metadata.getKeyValidator() instanceof CompositeType
+                ? ((CompositeType) metadata.getKeyValidator()).split(key) : new ByteBuffer[]{ key };
+        for (ColumnDefinition def : metadata.partitionKeyColumns()) {
+            deletion.addCriteria(Criteria.equals(def.name.toString(),
+                    def.type.getSerializer().deserialize(components[def.position()])));
+        }
+        if (row.clustering != Clustering.STATIC_CLUSTERING) {
+            for (ColumnDefinition def : metadata.clusteringColumns()) {
+                deletion.addCriteria(Criteria.equals(def.name.toString(),
+                        def.type.getSerializer().deserialize(row.clustering.get(def.position()))));
+            }
+        }
+    }
+
+    private static boolean hasExpiring(Row update) {
+        if (update.primaryKeyLivenessInfo().isExpiring()) {
+            return true;
+        }
+        for (Cell cell : update.cells()) {
+            if (cell.isExpiring()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reschedules or cancels the expiration of the row marker or column by the write.
+     *
+     * @param column column written, or null for the row marker
+     * @param time expiration time of the write in seconds, or -1 if the write does not expire
+     */
+    private void written(RowExpirations row, String column, long timestamp, int time) {
+        Expiration existing = row.get(column);
+        if (existing != null) {
+            if (existing.timestamp > timestamp) {
+                return;
+            }
+            cancel(existing);
+        }
+        if (time < 0) {
+            // the row lives as long as the value without TTL
+            row.pinned = true;
+            if (column == null) {
+                row.markerExpired = false;
+            }
+            return;
+        }
+        if (column == null) {
+            row.markerExpired = false;
+        }
+        schedule(new Expiration(row, column, time, timestamp));
+    }
+
+    private void cellDeleted(RowExpirations row, String column, long timestamp) {
+        Expiration existing = row.get(column);
+        if (existing != null && existing.timestamp <= timestamp) {
+            cancel(existing);
+        }
+    }
+
+    private void deleted(RowExpirations row, long timestamp) {
+        for (Expiration e : row.expirations()) {
+            if (e.timestamp <= timestamp) {
+                cancel(e);
+            }
+        }
+        if (row.isEmpty()) {
+            // values without TTL written before are deleted
+            row.pinned = false;
+            row.markerExpired = false;
+        }
+        removeIfEmpty(row);
+    }
+
+    private void schedule(Expiration e) {
+        e.row.put(e);
+        wheel.schedule(e);
+        scheduled.inc();
+    }
+
+    private void cancel(Expiration e) {
+        e.row.remove(e);
+        wheel.cancel(e);
+        cancelled.inc();
+    }
+
+    private void removeIfEmpty(RowExpirations row) {
+        if (!row.isEmpty()) {
+            return;
+        }
+        Map<Clustering, RowExpirations> rows = partitions.get(row.partition);
+        if (rows != null && rows.get(row.clustering) == row) {
+            rows.remove(row.clustering);
+            if (rows.isEmpty()) {
+                partitions.remove(row.partition);
+            }
+        }
+    }
+
+    /**
+     * Writes pending expirations to the file with temporary name, and atomically renames it.
+     *
+     * @throws IOException when failed to write the file
+     */
+    public void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        Path temporary = file.resolveSibling("." + file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream os = Channels.newOutputStream(channel);
+             DataOutputStreamPlus out = new WrappedDataOutputStreamPlus(
+                     new CheckedOutputStream(new BufferedOutputStream(os, 1 << 16), crc))) {
+            synchronized (this) {
+                List<RowExpirations> rows = new ArrayList<>();
+                partitions.values().forEach(r -> rows.addAll(r.values()));
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                out.writeInt(started ? wheel.getCurrent() : NOT_STARTED);
+                out.writeUnsignedVInt(rows.size());
+                for (RowExpirations row : rows) {
+                    UUIDSerializer.serializer.serialize(row.partition.metadata.cfId, out, 0);
+                    ByteBufferUtil.writeWithVIntLength(row.partition.key.getKey(), out);
+                    if (row.clustering == Clustering.STATIC_CLUSTERING) {
+                        out.writeUnsignedVInt(0);
+                    } else {
+                        out.writeUnsignedVInt(row.clustering.size() + 1);
+                        for (int i = 0; i < row.clustering.size(); i++) {
+                            ByteBufferUtil.writeWithVIntLength(row.clustering.get(i), out);
+                        }
+                    }
+                    out.writeByte((row.markerExpired ? FLAG_MARKER_EXPIRED : 0) | (row.pinned ? FLAG_PINNED : 0));
+                    List<Expiration> expirations = row.expirations();
+                    out.writeUnsignedVInt(expirations.size());
+                    for (Expiration e : expirations) {
+                        out.writeBoolean(e.column != null);
+                        if (e.column != null) {
+                            out.writeUTF(e.column);
+                        }
+                        out.writeInt(e.getTime());
+                        out.writeLong(e.timestamp);
+                    }
+                }
+            }
+            out.flush();
+            // not part of the checksum
+            new DataOutputStream(os).writeInt((int) crc.getValue());
+            // durable before the segments of the expirations are deleted
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            DataInputPlus in = new DataInputPlus.DataInputStreamPlus(new CheckedInputStream(is, crc));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an expiration file " + path);
+            }
+            byte version = in.readByte();
+            if (version != 1 && version != FORMAT_VERSION) {
+                throw new IOException("Unsupported format version " + version);
+            }
+            // files of version 1 do not have the time, and start at the first advance
+            int wheelTime = version > 1 ? in.readInt() : NOT_STARTED;
+            if (wheelTime != NOT_STARTED) {
+                wheel = new TimingWheel<>(wheelTime);
+                started = true;
+            }
+            int count = (int) in.readUnsignedVInt();
+            for (int i = 0; i < count; i++) {
+                UUID cfId = UUIDSerializer.serializer.deserialize(in, 0);
+                ByteBuffer key = ByteBufferUtil.readWithVIntLength(in);
+                int size = (int) in.readUnsignedVInt();
+                Clustering clustering = Clustering.STATIC_CLUSTERING;
+                if (size > 0) {
+                    ByteBuffer[] values = new ByteBuffer[size - 1];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = ByteBufferUtil.readWithVIntLength(in);
+                    }
+                    clustering = Clustering.make(values);
+                }
+                int flags = in.readByte();
+                int expirations = (int) in.readUnsignedVInt();
+                CFMetaData metadata = Schema.instance.getCFMetaData(cfId);
+                RowExpirations row = null;
+                if (metadata != null) {
+                    PartitionKey partitionKey = new PartitionKey(metadata, metadata.decorateKey(key));
+                    row = new RowExpirations(partitionKey, clustering);
+                    row.markerExpired = (flags & FLAG_MARKER_EXPIRED) != 0;
+                    row.pinned = (flags & FLAG_PINNED) != 0;
+                    partitions.computeIfAbsent(partitionKey, k -> new HashMap<>()).put(clustering, row);
+                }
+                for (int j = 0; j < expirations; j++) {
+                    String column = in.readBoolean() ? in.readUTF() : null;
+                    int time = in.readInt();
+                    long timestamp = in.readLong();
+                    if (row != null) {
+                        schedule(new Expiration(row, column, time, timestamp));
+                    }
+                }
+            }
+            int expected = (int) crc.getValue();
+            if (new DataInputStream(is).readInt() != expected) {
+                throw new IOException("Checksum mismatch of " + path);
+            }
+        }
+    }
+
+    /**
+     * Writes pending expirations to the file.
+     */
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    private static final class PartitionKey {
+        private final CFMetaData metadata;
+        private final DecoratedKey key;
+
+        private PartitionKey(CFMetaData metadata, DecoratedKey key) {
+            this.metadata = metadata;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PartitionKey)) {
+                return false;
+            }
+            PartitionKey that = (PartitionKey) o;
+            return metadata.cfId.equals(that.metadata.cfId) && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * metadata.cfId.hashCode() + key.hashCode();
+        }
+    }
+
+    /**
+     * Pending expirations of the row marker and columns of a row.
+     */
+    private static final class RowExpirations {
+        private final PartitionKey partition;
+        private final Clustering clustering;
+        private Expiration marker;
+        // most rows have a few columns with TTL
+        private List<Expiration> columns = Collections.emptyList();
+        // row marker has expired, so the row is deleted when the rest expire
+        private boolean markerExpired;
+        // something without TTL has been written, so the row does not expire as a whole
+        private boolean pinned;
+
+        private RowExpirations(PartitionKey partition, Clustering clustering) {
+            this.partition = partition;
+            this.clustering = clustering;
+        }
+
+        private Expiration get(String column) {
+            if (column == null) {
+                return marker;
+            }
+            for (Expiration e : columns) {
+                if (e.column.equals(column)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        private void put(Expiration e) {
+            if (e.column == null) {
+                marker = e;
+                return;
+            }
+            if (columns.isEmpty()) {
+                columns = new ArrayList<>(2);
+            }
+            columns.add(e);
+        }
+
+        private void remove(Expiration e) {
+            if (e.column == null) {
+                marker = null;
+            } else {
+                columns.remove(e);
+            }
+        }
+
+        private List<Expiration> expirations() {
+            List<Expiration> all = new ArrayList<>(columns);
+            if (marker != null) {
+                all.add(marker);
+            }
+            return all;
+        }
+
+        private boolean isEmpty() {
+            return marker == null && columns.isEmpty();
+        }
+    }
+
+    private static final class Expiration extends TimingWheel.Entry {
+        private final RowExpirations row;
+        // null for the row marker
+        private final String column;
+        private final long timestamp;
+
+        private Expiration(RowExpirations row, String column, int time, long timestamp) {
+            super(time);
+            this.row = row;
+            this.column = column;
+            this.timestamp = timestamp;
+        }
+    }
+}
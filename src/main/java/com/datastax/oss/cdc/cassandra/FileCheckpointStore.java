@@ -0,0 +1,35 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+/**
+ * Keeps the checkpoint in a file as the string form of the sequence id, replaced atomically on each save.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+
+    private final Path file;
+
+    public FileCheckpointStore(Path file) {
+        this.file = Objects.requireNonNull(file);
+    }
+
+    @Override
+    public SequenceId load() throws IOException {
+        if (Files.notExists(file)) {
+            return null;
+        }
+        return SequenceId.parse(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim());
+    }
+
+    @Override
+    public void save(SequenceId id) throws IOException {
+        Path temporary = file.resolveSibling("." + file.getFileName() + ".tmp");
+        Files.write(temporary, id.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
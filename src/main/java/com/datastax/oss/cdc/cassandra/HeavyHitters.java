@@ -0,0 +1,263 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.utils.MurmurHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Finds hot partitions and heavy tables from the partition updates read from commit logs, to tell which keys
+ * cause latency spikes of Cassandra.
+ *
+ * Writes and bytes of each (table, partition key) and bytes of each table are counted in count-min sketches,
+ * and the keys with the largest estimates are kept in heaps of the top N, so that memory stays the same
+ * however many keys are written. Estimates are never below the actual counts, and over them by at most
+ * <code>e / width</code> of the total in the interval with probability <code>1 - e^-{@value #DEPTH}</code>.
+ *
+ * The top N of each interval are logged and exposed as <code>HeavyHitters.*</code> gauges, and counts are
+ * cleared for the next interval.
+ */
+public class HeavyHitters implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeavyHitters.class);
+
+    static final int DEPTH = 4;
+
+    private final Tracker<PartitionKey> partitionWrites;
+    private final Tracker<PartitionKey> partitionBytes;
+    private final Tracker<CFMetaData> tableBytes;
+    private final ScheduledExecutorService scheduler;
+    private final long[] hash = new long[2];
+
+    private volatile List<String> topPartitionsByWrites = Collections.emptyList();
+    private volatile List<String> topPartitionsByBytes = Collections.emptyList();
+    private volatile List<String> topTablesByBytes = Collections.emptyList();
+
+    /**
+     * @param topN number of partitions and tables to report
+     * @param width counters in each row of sketches, rounded up to a power of 2
+     * @param intervalMillis interval to report at, or 0 to report only by {@link #report()}
+     */
+    public HeavyHitters(int topN, int width, long intervalMillis) {
+        int size = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.partitionWrites = new Tracker<>(topN, size);
+        this.partitionBytes = new Tracker<>(topN, size);
+        this.tableBytes = new Tracker<>(topN, size);
+        CDCMetrics.gauge("HeavyHitters.PartitionsByWrites", () -> topPartitionsByWrites);
+        CDCMetrics.gauge("HeavyHitters.PartitionsByBytes", () -> topPartitionsByBytes);
+        CDCMetrics.gauge("HeavyHitters.TablesByBytes", () -> topTablesByBytes);
+        CDCMetrics.gauge("HeavyHitters.MemoryUsed", () -> 3L * DEPTH * size * Long.BYTES);
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cdc-heavy-hitters");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Counts a write of the partition update, with its data size as bytes.
+     */
+    public synchronized void add(PartitionUpdate partition) {
+        CFMetaData metadata = partition.metadata();
+        ByteBuffer key = partition.partitionKey().getKey();
+        long tableHash = metadata.cfId.getMostSignificantBits() ^ metadata.cfId.getLeastSignificantBits();
+        MurmurHash.hash3_x64_128(key, key.position(), key.remaining(), tableHash, hash);
+        PartitionKey partitionKey = new PartitionKey(metadata, key);
+        long bytes = partition.dataSize();
+        partitionWrites.add(partitionKey, hash[0], 1);
+        partitionBytes.add(partitionKey, hash[0], bytes);
+        tableBytes.add(metadata, tableHash, bytes);
+    }
+
+    /**
+     * @return partitions written most in the current interval, as <code>keyspace.table[key]=writes</code>
+     */
+    public synchronized List<String> topPartitionsByWrites() {
+        return format(partitionWrites, PartitionKey::toString);
+    }
+
+    /**
+     * @return partitions with the most bytes written in the current interval, as <code>keyspace.table[key]=bytes</code>
+     */
+    public synchronized List<String> topPartitionsByBytes() {
+        return format(partitionBytes, PartitionKey::toString);
+    }
+
+    /**
+     * @return tables with the most bytes written in the current interval, as <code>keyspace.table=bytes</code>
+     */
+    public synchronized List<String> topTablesByBytes() {
+        return format(tableBytes, metadata -> metadata.ksName + "." + metadata.cfName);
+    }
+
+    /**
+     * Logs the top N of the current interval, exposes them as gauges and starts the next interval.
+     */
+    public synchronized void report() {
+        topPartitionsByWrites = topPartitionsByWrites();
+        topPartitionsByBytes = topPartitionsByBytes();
+        topTablesByBytes = topTablesByBytes();
+        if (partitionWrites.total > 0) {
+            logger.info("Hot partitions by writes of {}: {}", partitionWrites.total, topPartitionsByWrites);
+            logger.info("Hot partitions by bytes of {}: {}", partitionBytes.total, topPartitionsByBytes);
+            logger.info("Heavy tables by bytes: {}", topTablesByBytes);
+        }
+        partitionWrites.clear();
+        partitionBytes.clear();
+        tableBytes.clear();
+    }
+
+    private static <K> List<String> format(Tracker<K> tracker, Function<K, String> name) {
+        return tracker.top().stream()
+                .map(c -> name.apply(c.item) + "=" + c.count)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Count-min sketch with conservative update, and a min-heap of the items with the largest estimates.
+     */
+    static final class Tracker<K> {
+
+        private final long[][] counts;
+        private final int mask;
+        private final int capacity;
+        private final Map<K, Candidate<K>> candidates = new HashMap<>();
+        private final PriorityQueue<Candidate<K>> heap = new PriorityQueue<>(Comparator.comparingLong(c -> c.count));
+        private long total;
+
+        /**
+         * @param capacity number of items to keep
+         * @param width counters in each row of the sketch, power of 2
+         */
+        Tracker(int capacity, int width) {
+            this.counts = new long[DEPTH][width];
+            this.mask = width - 1;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return estimated count of the item after adding
+         */
+        long add(K item, long hash, long amount) {
+            total += amount;
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, counts[i][(h1 + i * h2) & mask]);
+            }
+            long estimate = min + amount;
+            // only the smallest counters are raised, which keeps others from overestimating
+            for (int i = 0; i < DEPTH; i++) {
+                int index = (h1 + i * h2) & mask;
+                if (counts[i][index] < estimate) {
+                    counts[i][index] = estimate;
+                }
+            }
+
+            Candidate<K> candidate = candidates.get(item);
+            if (candidate != null) {
+                heap.remove(candidate);
+                candidate.count = estimate;
+                heap.offer(candidate);
+            } else if (candidates.size() < capacity) {
+                offer(item, estimate);
+            } else if (heap.peek().count < estimate) {
+                candidates.remove(heap.poll().item);
+                offer(item, estimate);
+            }
+            return estimate;
+        }
+
+        private void offer(K item, long estimate) {
+            Candidate<K> candidate = new Candidate<>(item, estimate);
+            candidates.put(item, candidate);
+            heap.offer(candidate);
+        }
+
+        /**
+         * @return items kept, from the largest estimate
+         */
+        List<Candidate<K>> top() {
+            List<Candidate<K>> top = new ArrayList<>(heap);
+            top.sort(Comparator.comparingLong((Candidate<K> c) -> c.count).reversed());
+            return top;
+        }
+
+        void clear() {
+            for (long[] row : counts) {
+                Arrays.fill(row, 0);
+            }
+            candidates.clear();
+            heap.clear();
+            total = 0;
+        }
+    }
+
+    static final class Candidate<K> {
+        final K item;
+        long count;
+
+        Candidate(K item, long count) {
+            this.item = item;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Partition key of a table, printed as <code>keyspace.table[key]</code>.
+     */
+    private static final class PartitionKey {
+        private final CFMetaData metadata;
+        private final ByteBuffer key;
+
+        PartitionKey(CFMetaData metadata, ByteBuffer key) {
+            this.metadata = metadata;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PartitionKey)) {
+                return false;
+            }
+            PartitionKey that = (PartitionKey) o;
+            return metadata.cfId.equals(that.metadata.cfId) && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * metadata.cfId.hashCode() + key.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return metadata.ksName + "." + metadata.cfName + "[" + metadata.getKeyValidator().getString(key) + "]";
+        }
+    }
+}
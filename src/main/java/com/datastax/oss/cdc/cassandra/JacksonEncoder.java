@@ -0,0 +1,98 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+
+/**
+ * Encodes events in the structure of {@link JsonOutput} with Jackson generator of the format.
+ *
+ * The generator is kept while the encoder writes to the same stream, so that events form a sequence of
+ * root-level values in a single document stream. Smile streams have the header only once at the beginning,
+ * and share back-references of field names across events.
+ */
+public class JacksonEncoder implements ChangeEventEncoder {
+
+    public enum Format {
+        /** compact JSON, one event per line */
+        JSON(new JsonFactory(), ".json"),
+        /** binary JSON of Smile format */
+        SMILE(new SmileFactory(), ".smile"),
+        /** Concise Binary Object Representation (RFC 7049) */
+        CBOR(new CBORFactory(), ".cbor");
+
+        private final ObjectMapper mapper;
+        private final String extension;
+
+        Format(JsonFactory factory, String extension) {
+            this.mapper = new ObjectMapper(factory);
+            this.extension = extension;
+        }
+
+        /**
+         * @return mapper to read encoded events
+         */
+        public ObjectMapper mapper() {
+            return mapper;
+        }
+    }
+
+    private final Format format;
+    private OutputStream target;
+    private JsonGenerator generator;
+
+    public JacksonEncoder(Format format) {
+        this.format = format;
+    }
+
+    @Override
+    public void encode(ChangeEvent event, OutputStream out) throws IOException {
+        JsonOutput.write(event, generator(out));
+        endRecord();
+    }
+
+    /**
+     * Writes the watermark as an object with <code>watermark</code> field of the instant.
+     */
+    @Override
+    public void encodeWatermark(Instant watermark, OutputStream out) throws IOException {
+        JsonGenerator generator = generator(out);
+        generator.writeStartObject();
+        generator.writeStringField("watermark", watermark.toString());
+        generator.writeEndObject();
+        endRecord();
+    }
+
+    private JsonGenerator generator(OutputStream out) throws IOException {
+        if (out != target) {
+            generator = format.mapper.getFactory().createGenerator(out);
+            // the stream is owned by the sink, and flushed when the sink decides to
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            if (format == Format.JSON) {
+                // events are separated by new line instead
+                generator.setRootValueSeparator(null);
+            }
+            target = out;
+        }
+        return generator;
+    }
+
+    private void endRecord() throws IOException {
+        if (format == Format.JSON) {
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+    }
+
+    @Override
+    public String extension() {
+        return format.extension;
+    }
+}
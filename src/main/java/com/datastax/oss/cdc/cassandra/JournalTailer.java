@@ -0,0 +1,215 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.io.util.FileUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Reads {@link EventJournal} from the persisted offset.
+ *
+ * Each tailer has its own name, and its offset is kept in the file under <code>tailers</code> directory of
+ * the journal. The offset is the sequence number of the next record to read, and persisted when {@link #commit()}
+ * is called, so that the tailer opened with the same name continues after the last committed record.
+ * {@link EventJournal} deletes journal files with its maximum size or age only after all tailers have committed
+ * offsets after them. A tailer whose offset is before the oldest journal file, such as the new tailer of the journal
+ * whose files have been deleted, starts at the oldest file.
+ */
+public class JournalTailer implements Closeable {
+
+    private final Path directory;
+    private final FileChannel offsetChannel;
+    private final MappedByteBuffer offset;
+
+    private long nextSequence;
+    private long fileStartSequence = -1;
+    private MappedByteBuffer data;
+
+    /**
+     * @param directory directory of the journal
+     * @param name name of this tailer
+     */
+    public JournalTailer(Path directory, String name) throws IOException {
+        this.directory = directory;
+        Path offsetFile = directory.resolve(EventJournal.TAILERS_DIRECTORY).resolve(name + EventJournal.OFFSET_SUFFIX);
+        Files.createDirectories(offsetFile.getParent());
+        this.offsetChannel = FileChannel.open(offsetFile, CREATE, READ, WRITE);
+        this.offset = offsetChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        this.nextSequence = offset.getLong(0);
+        List<Long> files = EventJournal.listFiles(directory);
+        if (!files.isEmpty() && nextSequence < files.get(0)) {
+            // persisted right away so that the offset before the oldest file does not stop the journal deleting files
+            nextSequence = files.get(0);
+            commit();
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return next record, or null if there is no more record written yet
+     */
+    public EventJournal.Record next() throws IOException {
+        if (data == null && !open(nextSequence)) {
+            return null;
+        }
+        while (true) {
+            if (data.remaining() < 4) {
+                return null;
+            }
+            int position = data.position();
+            int length = EventJournal.getLength(data, position);
+            if (length == 0) {
+                return null;
+            } else if (length == EventJournal.END_OF_FILE) {
+                if (!open(nextSequence)) {
+                    return null;
+                }
+                continue;
+            }
+            data.position(position + 4);
+            long sequence = data.getLong();
+            long timestamp = data.getLong();
+            byte[] payload = new byte[length];
+            data.get(payload);
+            data.position(position + EventJournal.recordSize(length));
+            nextSequence = sequence + 1;
+            return new EventJournal.Record(sequence, timestamp, payload);
+        }
+    }
+
+    /**
+     * @return sequence number of the next record to read
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Persists the current position to the disk, so that the records read so far are not read again.
+     */
+    public void commit() {
+        offset.putLong(0, nextSequence);
+        offset.force();
+    }
+
+    /**
+     * Moves to the record of given sequence number, or to the first record of the oldest journal file if the record
+     * has been deleted.
+     */
+    public void seek(long sequence) throws IOException {
+        closeFile();
+        nextSequence = sequence;
+        open(sequence);
+    }
+
+    /**
+     * Moves to the first record whose timestamp is equal to or after the given timestamp.
+     *
+     * @param timestamp timestamp in milliseconds
+     */
+    public void seekToTimestamp(long timestamp) throws IOException {
+        // index entries have maximum timestamp of the records before them, so records before the last entry
+        // whose maximum is before the given timestamp can be skipped
+        long start = -1;
+        for (long file : EventJournal.listFiles(directory)) {
+            List<long[]> index = EventJournal.readIndex(directory, file);
+            for (long[] entry : index) {
+                if (entry[1] >= timestamp) {
+                    break;
+                }
+                start = entry[0];
+            }
+            if (!index.isEmpty() && index.get(index.size() - 1)[1] >= timestamp) {
+                break;
+            }
+        }
+        seek(Math.max(start, 0));
+        while (true) {
+            long position = data == null ? -1 : data.position();
+            long file = fileStartSequence;
+            long sequence = nextSequence;
+            EventJournal.Record record = next();
+            if (record == null) {
+                return;
+            }
+            if (record.getTimestamp() >= timestamp) {
+                // go back to the record
+                if (file != fileStartSequence) {
+                    open(sequence);
+                } else {
+                    data.position((int) position);
+                    nextSequence = sequence;
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeFile();
+        FileUtils.clean(offset);
+        offsetChannel.close();
+    }
+
+    /**
+     * Opens the journal file that contains the record of given sequence, and moves to the record.
+     * If the record has been deleted, opens the oldest file instead.
+     *
+     * @return true if the file is found
+     */
+    private boolean open(long sequence) throws IOException {
+        List<Long> files = EventJournal.listFiles(directory);
+        if (files.isEmpty()) {
+            return false;
+        }
+        long start = files.get(0);
+        for (long file : files) {
+            if (file <= sequence) {
+                start = file;
+            }
+        }
+        if ((start != sequence && start == fileStartSequence && data != null
+                && EventJournal.getLength(data, data.position()) == EventJournal.END_OF_FILE)) {
+            return false;
+        }
+        closeFile();
+        try (FileChannel channel = FileChannel.open(EventJournal.dataFile(directory, start), READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        fileStartSequence = start;
+        long current = start;
+        for (long[] entry : EventJournal.readIndex(directory, start)) {
+            if (entry[0] <= sequence) {
+                current = entry[0];
+                data.position((int) entry[2]);
+            }
+        }
+        // skip to the record
+        while (current < sequence && data.remaining() >= 4) {
+            int length = EventJournal.getLength(data, data.position());
+            if (length <= 0) {
+                break;
+            }
+            data.position(data.position() + EventJournal.recordSize(length));
+            current++;
+        }
+        nextSequence = current;
+        return true;
+    }
+
+    private void closeFile() {
+        if (data != null) {
+            FileUtils.clean(data);
+            data = null;
+        }
+    }
+}
@@ -1,68 +1,106 @@
 package com.datastax.oss.cdc.cassandra;
 
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOError;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Map;
 
 public class JsonOutput {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     public static String toJson(ChangeEvent event) {
-        StringWriter sw = new StringWriter();
-        ObjectMapper mapper = new ObjectMapper();
-        JsonFactory jsonFactory = mapper.getFactory();
+        // byte stream so that text values are written from their UTF-8 bytes
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            JsonGenerator json = jsonFactory.createGenerator(sw);
+            JsonGenerator json = MAPPER.getFactory().createGenerator(out);
             json.useDefaultPrettyPrinter();
+            write(event, json);
+            json.flush();
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
 
-            json.writeStartObject();
+    /**
+     * Writes the event as an object to the generator of any format.
+     *
+     * @param event event to write
+     * @param json generator to write to, which must have the codec to write column values
+     */
+    public static void write(ChangeEvent event, JsonGenerator json) throws IOException {
+        CFMetaData metadata = Schema.instance.getCFMetaData(event.getTableId());
+        Map<String, ValueCodec> codecs = metadata == null ? Collections.emptyMap() : ValueCodecs.forTable(metadata);
 
-            // event type
-            json.writeStringField("timestamp", event.getEventTimestamp().toString());
-            // keyspace name
-            json.writeStringField("keyspace", event.getKeyspaceName());
-            json.writeStringField("table", event.getTableName());
-            // table Id
-            json.writeStringField("table_id", event.getTableId().toString());
-            json.writeStringField("type", event.getEventType().toString().toLowerCase());
+        json.writeStartObject();
 
-            if (event.getEventType() == ChangeEventType.UPDATE) {
-                json.writeFieldName("row");
-                json.writeStartObject();
-                for (Map.Entry<String, Object> column : event.getRow().getColumns().entrySet()) {
-                    json.writeFieldName(column.getKey());
-                    json.writeObject(column.getValue());
-                }
-                json.writeEndObject();
-            } else if (event.getEventType() == ChangeEventType.DELETE) {
-                Deletion deletion = event.getDeletion();
-                if (!deletion.getColumns().isEmpty()) {
-                    json.writeFieldName("columns");
-                    json.writeStartArray();
-                    for (String col : deletion.getColumns()) {
-                        json.writeString(col);
-                    }
-                    json.writeEndArray();
-                }
-                json.writeFieldName("criteria");
-                json.writeStartObject();
-                for (Criteria c : deletion.getCriteria()) {
-                    json.writeFieldName(c.getColumn());
-                    json.writeObject(c.getCondition());
+        // event type
+        json.writeStringField("timestamp", event.getEventTimestamp().toString());
+        // keyspace name
+        json.writeStringField("keyspace", event.getKeyspaceName());
+        json.writeStringField("table", event.getTableName());
+        // table Id
+        json.writeStringField("table_id", event.getTableId().toString());
+        json.writeStringField("type", event.getEventType().toString().toLowerCase());
+        if (event.getSequenceId() != null) {
+            json.writeStringField("sequence_id", event.getSequenceId().toString());
+        }
+
+        if (event.getEventType() == ChangeEventType.UPDATE) {
+            json.writeFieldName("row");
+            writeRow(event.getRow(), codecs, json);
+        } else if (event.getEventType() == ChangeEventType.DELETE) {
+            Deletion deletion = event.getDeletion();
+            if (!deletion.getColumns().isEmpty()) {
+                json.writeFieldName("columns");
+                json.writeStartArray();
+                for (String col : deletion.getColumns()) {
+                    json.writeString(col);
                 }
-                json.writeEndObject();
+                json.writeEndArray();
+            }
+            json.writeFieldName("criteria");
+            json.writeStartObject();
+            for (Criteria c : deletion.getCriteria()) {
+                json.writeFieldName(c.getColumn());
+                json.writeObject(c.getCondition());
             }
-
             json.writeEndObject();
-            json.flush();
-            return sw.toString();
-        } catch (IOException e) {
-            throw new IOError(e);
         }
+        if (event.getBeforeImage() != null) {
+            json.writeFieldName("before");
+            writeRow(event.getBeforeImage(), codecs, json);
+        }
+
+        json.writeEndObject();
+    }
+
+    /**
+     * Writes serialized values with their codecs, and the others from deserialized values.
+     */
+    private static void writeRow(Row row, Map<String, ValueCodec> codecs, JsonGenerator json) throws IOException {
+        Map<String, ByteBuffer> serialized = row.getSerializedColumns();
+        json.writeStartObject();
+        for (String column : row.getColumnNames()) {
+            json.writeFieldName(column);
+            ByteBuffer value = serialized.get(column);
+            ValueCodec codec = value == null ? null : codecs.get(column);
+            if (codec != null) {
+                codec.write(value, json);
+            } else {
+                json.writeObject(row.getColumns().get(column));
+            }
+        }
+        json.writeEndObject();
     }
 }
@@ -4,7 +4,9 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.DeletionInfo;
+import org.apache.cassandra.db.LivenessInfo;
 import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.CollectionType;
 import org.apache.cassandra.db.marshal.CompositeType;
 import org.apache.cassandra.db.marshal.UserType;
@@ -13,58 +15,165 @@ import org.apache.cassandra.db.rows.Cell;
 import org.apache.cassandra.db.rows.ColumnData;
 import org.apache.cassandra.db.rows.ComplexColumnData;
 import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.transport.ProtocolVersion;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
  * Converts {@link PartitionUpdate} into the list of {@link ChangeEvent}.
  *
- * This class first scans contents of {@link PartitionUpdate} and collects the changes by timestamp.
- * Then, it creates each {@link ChangeEvent} for each Row / RangeTombstone at the timestamp.
+ * This class scans contents of {@link PartitionUpdate} and collects the changes of each row by timestamp.
+ * Then, it creates each {@link ChangeEvent} for each Row / RangeTombstone at the timestamp,
+ * as soon as the row is scanned.
  */
 public class PartitionParser {
 
     private final PartitionUpdate partition;
-    private final ChangeEventBuilder changeEventBuilder;
+    private ChangeEventBuilder changeEventBuilder;
+    private final ValueFingerprints fingerprints;
+    // null to inspect column types for every partition
+    private final TableConverter converter;
+    // hash of the row currently visited, used to look up fingerprints
+    private long currentRow;
+    private ExpirationScheduler expirations;
 
     public PartitionParser(PartitionUpdate partition) {
+        this(partition, null);
+    }
+
+    /**
+     * @param partition partition to convert
+     * @param fingerprints fingerprints of values seen before to drop unchanged values, or null to emit all values
+     */
+    public PartitionParser(PartitionUpdate partition, ValueFingerprints fingerprints) {
+        this(partition, fingerprints, true);
+    }
+
+    /**
+     * @param useConverters true to use {@link TableConverter} cached for the table, false to convert columns
+     *                      by inspecting their types, which is only for comparison
+     */
+    PartitionParser(PartitionUpdate partition, ValueFingerprints fingerprints, boolean useConverters) {
         Objects.requireNonNull(partition);
         this.partition = partition;
-        this.changeEventBuilder = new ChangeEventBuilder(partition.metadata());
+        this.fingerprints = fingerprints;
+        this.converter = useConverters ? TableConverter.forTable(partition.metadata()) : null;
+    }
+
+    /**
+     * Sets the scheduler to report rows and cells written with TTL, and deletions that cancel their expiration, to.
+     */
+    public void setExpirations(ExpirationScheduler expirations) {
+        this.expirations = expirations;
     }
 
     public List<ChangeEvent> toChangeEvents() {
+        List<ChangeEvent> events = new ArrayList<>();
+        toChangeEvents(events::add);
+        return events;
+    }
+
+    /**
+     * Converts the partition, passing events to the consumer row by row as they are converted.
+     *
+     * Only the events of the row being converted are buffered, to order them by timestamp,
+     * so that converting a large partition does not hold all of its events in memory.
+     *
+     * @param consumer consumer of events
+     */
+    public void toChangeEvents(Consumer<ChangeEvent> consumer) {
+        if (!Profiling.ENABLED) {
+            convert(consumer);
+            return;
+        }
+        Profiling.PartitionConversion event = new Profiling.PartitionConversion();
+        if (!event.isEnabled()) {
+            convert(consumer);
+            return;
+        }
+        int[] events = new int[1];
+        event.begin();
+        convert(e -> {
+            events[0]++;
+            consumer.accept(e);
+        });
+        event.end();
+        if (event.shouldCommit()) {
+            event.keyspace = partition.metadata().ksName;
+            event.table = partition.metadata().cfName;
+            event.size = partition.dataSize();
+            event.rows = partition.rowCount();
+            event.events = events[0];
+            event.commit();
+        }
+    }
+
+    private void convert(Consumer<ChangeEvent> consumer) {
+        changeEventBuilder = new ChangeEventBuilder(partition.metadata(), consumer);
 
         // Partition keys
         ByteBuffer[] rawPartitionKeys = getComponents(partition.metadata(), partition.partitionKey());
-        // partitionKeyColumns() returns in position order (but not explicitly stated in API doc)
-        partition.metadata()
-                .partitionKeyColumns()
-                .forEach(def ->
-                        changeEventBuilder.addPartitionKey(
-                                def.name.toString(),
-                                def.type.getSerializer().deserialize(rawPartitionKeys[def.position()])));
+        if (converter != null) {
+            for (int i = 0; i < rawPartitionKeys.length; i++) {
+                changeEventBuilder.addSerializedPartitionKey(
+                        converter.partitionKeyNames[i],
+                        converter.partitionKeyTypes[i],
+                        rawPartitionKeys[i]);
+            }
+        } else {
+            // partitionKeyColumns() returns in position order (but not explicitly stated in API doc)
+            partition.metadata()
+                    .partitionKeyColumns()
+                    .forEach(def ->
+                            changeEventBuilder.addSerializedPartitionKey(
+                                    def.name.toString(),
+                                    def.type,
+                                    rawPartitionKeys[def.position()]));
+        }
 
         // Check deletion info
         DeletionInfo deletionInfo = partition.deletionInfo();
         // Check if this is partition level deletion
         if (!deletionInfo.getPartitionDeletion().isLive()) {
             changeEventBuilder.partitionIsDeletedAt(deletionInfo.getPartitionDeletion().markedForDeleteAt());
+            if (expirations != null) {
+                expirations.partitionDeleted(partition.metadata(), partition.partitionKey(),
+                        deletionInfo.getPartitionDeletion().markedForDeleteAt());
+            }
         }
         // Range tombstones
         if (deletionInfo.hasRanges()) {
             Iterator<RangeTombstone> tombstones = deletionInfo.rangeIterator(false);
             while (tombstones.hasNext()) {
-                changeEventBuilder.addRangeTombstone(tombstones.next());
+                RangeTombstone tombstone = tombstones.next();
+                changeEventBuilder.addRangeTombstone(tombstone);
+                if (expirations != null) {
+                    expirations.rangeDeleted(partition.metadata(), partition.partitionKey(),
+                            tombstone.deletedSlice(), tombstone.deletionTime().markedForDeleteAt());
+                }
             }
         }
+        long partitionHash = 0;
+        if (fingerprints != null) {
+            if (!deletionInfo.isLive()) {
+                fingerprints.partitionDeleted(partition.metadata(), partition.partitionKey());
+            }
+            partitionHash = fingerprints.partition(partition.metadata(), partition.partitionKey());
+        }
 
         // static columns
         Row staticRow = partition.staticRow();
         if (!staticRow.isEmpty()) {
             changeEventBuilder.addStatic();
+            if (expirations != null) {
+                expirations.rowUpdated(partition.metadata(), partition.partitionKey(), staticRow);
+            }
+            if (fingerprints != null) {
+                currentRow = fingerprints.row(partitionHash, null);
+            }
             for (ColumnData cd : staticRow) {
                 visitColumn(cd);
             }
@@ -73,20 +182,44 @@ public class PartitionParser {
         if (partition.hasRows()) {
             for (Row row : partition) {
                 // new row with primary Key Liveness info
-                changeEventBuilder.newRow(row.primaryKeyLivenessInfo().timestamp());
+                LivenessInfo liveness = row.primaryKeyLivenessInfo();
+                changeEventBuilder.newRow(liveness.timestamp(), liveness.ttl(), liveness.localExpirationTime());
+                if (expirations != null) {
+                    expirations.rowUpdated(partition.metadata(), partition.partitionKey(), row);
+                }
 
                 // row deletion
                 if (!row.deletion().isLive()) {
                     changeEventBuilder.markDeletedAt(row.deletion().time().markedForDeleteAt());
                 }
+                if (fingerprints != null) {
+                    currentRow = fingerprints.row(partitionHash, row.clustering());
+                    if (!row.deletion().isLive()) {
+                        fingerprints.rowDeleted(partition.metadata(), currentRow);
+                    }
+                    if (!row.primaryKeyLivenessInfo().isEmpty()
+                            && fingerprints.isUnchanged(currentRow, row.primaryKeyLivenessInfo())) {
+                        changeEventBuilder.markUnchanged();
+                    }
+                }
 
                 // clustering columns
-                int i = 0;
-                for (ColumnDefinition def : partition.metadata().clusteringColumns()) {
-                    changeEventBuilder.addClusteringColumn(
-                            def.toString(),
-                            def.type.getSerializer().deserialize(row.clustering().get(i)));
-                    i++;
+                if (converter != null) {
+                    for (int i = 0; i < converter.clusteringNames.length; i++) {
+                        changeEventBuilder.addSerializedClusteringColumn(
+                                converter.clusteringNames[i],
+                                converter.clusteringTypes[i],
+                                row.clustering().get(i));
+                    }
+                } else {
+                    int i = 0;
+                    for (ColumnDefinition def : partition.metadata().clusteringColumns()) {
+                        changeEventBuilder.addSerializedClusteringColumn(
+                                def.toString(),
+                                def.type,
+                                row.clustering().get(i));
+                        i++;
+                    }
                 }
                 for (ColumnData cd : row) {
                     visitColumn(cd);
@@ -94,24 +227,73 @@ public class PartitionParser {
             }
         }
 
-        return changeEventBuilder.build(partition.metadata());
+        changeEventBuilder.finishRow();
     }
 
-    private void visitCell(Cell cell) {
-        ColumnDefinition col = cell.column();
-        if (cell.isTombstone()) {
-            changeEventBuilder.addDeletedColumn(col.name.toString(),
+    private void visitCell(Cell cell, String name, AbstractType<?> type) {
+        if (fingerprints != null && fingerprints.isUnchanged(currentRow, cell)) {
+            changeEventBuilder.markUnchanged();
+        } else if (cell.isTombstone()) {
+            changeEventBuilder.addDeletedColumn(name,
                     cell.timestamp());
         } else {
-            changeEventBuilder.addColumn(col.name.toString(),
-                    col.type.getSerializer().deserialize(cell.value()),
-                    cell.timestamp());
+            // deserialized only when the value is needed, since encoders write serialized values directly
+            changeEventBuilder.addSerializedColumn(name,
+                    type,
+                    cell.value(),
+                    cell.timestamp(),
+                    cell.ttl(),
+                    cell.localDeletionTime());
         }
     }
 
     private void visitColumn(ColumnData cd) {
+        if (converter == null) {
+            visitColumnInterpreted(cd);
+        } else if (cd.column().isSimple()) {
+            TableConverter.ColumnConverter columnConverter = converter.converterFor(cd.column());
+            if (columnConverter == null) {
+                visitColumnInterpreted(cd);
+            } else {
+                visitCell((Cell) cd, columnConverter.name, columnConverter.type);
+            }
+        } else {
+            TableConverter.ComplexColumnConverter columnConverter = converter.complexConverterFor(cd.column());
+            if (columnConverter == null) {
+                visitColumnInterpreted(cd);
+                return;
+            }
+            ComplexColumnData complexData = (ComplexColumnData) cd;
+            if (!complexData.complexDeletion().isLive()) {
+                changeEventBuilder.addDeletedColumn(columnConverter.name,
+                        complexData.complexDeletion().markedForDeleteAt());
+            }
+            Map<Object, Object> m = columnConverter.toMap(complexData);
+            if (!m.isEmpty()) {
+                // cells of the column written by one statement have the same TTL
+                Cell expiring = null;
+                for (Cell cell : complexData) {
+                    if (cell.isExpiring()) {
+                        expiring = cell;
+                        break;
+                    }
+                }
+                changeEventBuilder.addColumn(columnConverter.name,
+                        m,
+                        columnConverter.serialize(complexData),
+                        complexData.maxTimestamp(),
+                        expiring == null ? LivenessInfo.NO_TTL : expiring.ttl(),
+                        expiring == null ? LivenessInfo.NO_EXPIRATION_TIME : expiring.localDeletionTime());
+            }
+        }
+    }
+
+    /**
+     * Converts the column by inspecting its type, for columns without converter such as dropped columns.
+     */
+    private void visitColumnInterpreted(ColumnData cd) {
         if (cd.column().isSimple()) {
-            visitCell((Cell) cd);
+            visitCell((Cell) cd, cd.column().name.toString(), cd.column().type);
         } else {
             // Complex deletion is added when the column is deleted
             ComplexColumnData complexData = (ComplexColumnData) cd;
@@ -145,11 +327,25 @@ public class PartitionParser {
             if (!m.isEmpty()) {
                 changeEventBuilder.addColumn(complexData.column().name.toString(),
                         m,
+                        serializeComplex(complexData),
                         complexData.maxTimestamp());
             }
         }
     }
 
+    /**
+     * Serializes cells of non-frozen collection or UDT in the same format as frozen one.
+     */
+    private static ByteBuffer serializeComplex(ComplexColumnData complexData) {
+        AbstractType<?> type = complexData.column().type;
+        if (type.isCollection()) {
+            return ((CollectionType<?>) type).serializeForNativeProtocol(complexData.iterator(), ProtocolVersion.CURRENT);
+        } else if (type.isUDT()) {
+            return ((UserType) type).serializeForNativeProtocol(complexData.iterator(), ProtocolVersion.CURRENT);
+        }
+        return null;
+    }
+
     private static ByteBuffer[] getComponents(CFMetaData metadata, DecoratedKey partitionKey) {
         ByteBuffer key = partitionKey.getKey();
         if (metadata.getKeyValidator() instanceof CompositeType) {
@@ -0,0 +1,159 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sync state of output files written with temporary names, to publish them after a crash.
+ *
+ * Sinks write each file as <code>.name.tmp</code> and rename it to <code>name</code> when it is complete.
+ * When a sink syncs the temporary file before the segments of its events are deleted, it saves the length synced
+ * and the trailer to complete the file with, such as the end mark of compression or the footer, in
+ * <code>.name.tmp.sync</code>. Bytes after the length may be a partially written event, whose segment was kept,
+ * so recovery truncates the file to the length, appends the trailer and renames it to its final name.
+ * Temporary files without sync state had nothing synced, and are deleted.
+ */
+final class PendingFiles {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingFiles.class);
+
+    static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String SYNC_SUFFIX = ".sync";
+    private static final String NEW_SUFFIX = ".new";
+
+    private PendingFiles() {
+    }
+
+    /**
+     * @return temporary name of the file
+     */
+    static Path temporary(Path target) {
+        return target.resolveSibling("." + target.getFileName() + TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * @return final name of the temporary file
+     */
+    static Path target(Path temporary) {
+        String name = temporary.getFileName().toString();
+        return temporary.resolveSibling(name.substring(1, name.length() - TEMPORARY_SUFFIX.length()));
+    }
+
+    static boolean isTemporary(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(TEMPORARY_SUFFIX) && Files.isRegularFile(file);
+    }
+
+    /**
+     * Saves the sync state of the temporary file, which is synced up to the length.
+     *
+     * @param temporary temporary file synced
+     * @param length bytes of the file synced
+     * @param trailer bytes to complete the file with after the length
+     */
+    static void save(Path temporary, long length, byte[] trailer) throws IOException {
+        Path state = syncState(temporary);
+        Path next = state.resolveSibling(state.getFileName() + NEW_SUFFIX);
+        try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel))) {
+            out.writeLong(length);
+            out.writeInt(trailer.length);
+            out.write(trailer);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(next, state, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes the sync state of the temporary file, after it is completed or deleted.
+     */
+    static void delete(Path temporary) throws IOException {
+        Files.deleteIfExists(syncState(temporary));
+    }
+
+    /**
+     * Completes temporary files left by a crash in the directory and its subdirectories.
+     *
+     * @return number of files published
+     */
+    static int recover(Path directory) throws IOException {
+        if (Files.notExists(directory)) {
+            return 0;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(PendingFiles::isTemporary).collect(Collectors.toList());
+        }
+        int published = 0;
+        for (Path temporary : files) {
+            if (recoverFile(temporary)) {
+                published++;
+            }
+        }
+        // sync states of files deleted or renamed before their state
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path state : walk.filter(PendingFiles::isSyncState).collect(Collectors.toList())) {
+                Files.deleteIfExists(state);
+            }
+        }
+        return published;
+    }
+
+    private static boolean recoverFile(Path temporary) throws IOException {
+        Path state = syncState(temporary);
+        if (Files.notExists(state)) {
+            logger.info("Deleting {} that has no events synced", temporary);
+            Files.delete(temporary);
+            return false;
+        }
+        long length;
+        byte[] trailer;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(state))) {
+            length = in.readLong();
+            trailer = new byte[in.readInt()];
+            in.readFully(trailer);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            if (channel.size() < length) {
+                throw new IOException(String.format("%s is shorter than synced length %d", temporary, length));
+            }
+            channel.truncate(length);
+            ByteBuffer buffer = ByteBuffer.wrap(trailer);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, channel.size());
+            }
+            channel.force(true);
+        }
+        Path target = target(temporary);
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(state);
+        logger.info("Recovered {} synced up to {} bytes", target, length);
+        return true;
+    }
+
+    private static Path syncState(Path temporary) {
+        return temporary.resolveSibling(temporary.getFileName() + SYNC_SUFFIX);
+    }
+
+    private static boolean isSyncState(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(".") && (name.endsWith(TEMPORARY_SUFFIX + SYNC_SUFFIX)
+                || name.endsWith(TEMPORARY_SUFFIX + SYNC_SUFFIX + NEW_SUFFIX));
+    }
+}
@@ -0,0 +1,128 @@
+package com.datastax.oss.cdc.cassandra;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder events of the stages of processing, to find slow tables and stages from a recording
+ * of a production node, where profilers cannot be attached.
+ *
+ * Events cost little when no recording is running, and the stages called for each event are recorded only over
+ * a threshold by default, so that they can be left enabled. <code>conf/cdc.jfc</code> has the settings of
+ * the events together with JDK events to read them with.
+ *
+ * The event classes are loaded only when {@link #ENABLED}, that is the JVM has Flight Recorder API
+ * (Java 8u262 or later) and <code>cdc.jfr</code> system property is not <code>false</code>.
+ */
+final class Profiling {
+
+    static final boolean ENABLED = isAvailable();
+
+    private Profiling() {
+    }
+
+    private static boolean isAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("cdc.jfr", "true"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @Name("com.datastax.oss.cdc.SegmentRead")
+    @Label("Segment Read")
+    @Description("Commit log segment read from the start to the end, or to the first error")
+    @Category("Cassandra CDC")
+    @StackTrace(false)
+    static class SegmentRead extends Event {
+        @Label("Segment Id")
+        long segmentId;
+        @Label("Size")
+        @DataAmount
+        long size;
+        @Label("Skipped")
+        @Description("Bytes of the tail quarantined after an error")
+        @DataAmount
+        long skipped;
+    }
+
+    @Name("com.datastax.oss.cdc.MutationHandled")
+    @Label("Mutation Handled")
+    @Description("Mutation converted to events and written to the sink")
+    @Category("Cassandra CDC")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static class MutationHandled extends Event {
+        @Label("Keyspace")
+        String keyspace;
+        @Label("Segment Id")
+        long segmentId;
+        @Label("Position")
+        int position;
+        @Label("Size")
+        @DataAmount
+        int size;
+        @Label("Partitions")
+        int partitions;
+        @Label("Events")
+        int events;
+    }
+
+    @Name("com.datastax.oss.cdc.PartitionConversion")
+    @Label("Partition Conversion")
+    @Description("Partition update converted to events by PartitionParser")
+    @Category("Cassandra CDC")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class PartitionConversion extends Event {
+        @Label("Keyspace")
+        String keyspace;
+        @Label("Table")
+        String table;
+        @Label("Size")
+        @Description("Data size of the partition update")
+        @DataAmount
+        long size;
+        @Label("Rows")
+        int rows;
+        @Label("Events")
+        int events;
+    }
+
+    @Name("com.datastax.oss.cdc.Encode")
+    @Label("Encode")
+    @Description("Event encoded for an output file or the journal")
+    @Category("Cassandra CDC")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class Encode extends Event {
+        @Label("Encoder")
+        String encoder;
+        @Label("Keyspace")
+        String keyspace;
+        @Label("Table")
+        String table;
+        @Label("Size")
+        @Description("Encoded size before compression")
+        @DataAmount
+        long size;
+    }
+
+    @Name("com.datastax.oss.cdc.SinkWrite")
+    @Label("Sink Write")
+    @Description("Event written to the sink, including encoding and writing to outputs")
+    @Category("Cassandra CDC")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static class SinkWrite extends Event {
+        @Label("Sink")
+        String sink;
+        @Label("Keyspace")
+        String keyspace;
+        @Label("Table")
+        String table;
+    }
+}
@@ -0,0 +1,211 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the bytes read per second and the number of concurrent workers, to cap the impact on the Cassandra node
+ * this program runs next to.
+ *
+ * Limits are adjusted at each interval, in the same way as TCP congestion control: they are halved when the node
+ * is busy, and raised by half, up to the maximum, when it is idle. The node is busy when the system load average
+ * per processor is over the threshold, or when Cassandra has more than {@value #PENDING_COMPACTIONS_THRESHOLD}
+ * pending compactions or the 99th percentile of write latency is over {@value #WRITE_LATENCY_THRESHOLD_MICROS}
+ * microseconds. Cassandra metrics are read through its JMX port when it is reachable without credentials.
+ *
+ * Bytes read are counted by the mutation size in commit log segments, and by {@link RateLimiter} passed to
+ * SSTable scanners for snapshots.
+ */
+public class ResourceGovernor implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceGovernor.class);
+
+    static final int PENDING_COMPACTIONS_THRESHOLD = 32;
+    static final long WRITE_LATENCY_THRESHOLD_MICROS = 20_000;
+
+    private static final long RECONNECT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final double maxBytesPerSecond;
+    private final double minBytesPerSecond;
+    private final int maxWorkers;
+    private final double loadThreshold;
+    private final String cassandraJmx;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService scheduler;
+
+    private int workers;
+    private int activeWorkers;
+    private volatile double loadAverage;
+    private volatile long pendingCompactions = -1;
+    private volatile double writeLatency = -1;
+
+    private JMXConnector connector;
+    private long lastConnectAttempt;
+
+    /**
+     * @param maxBytesPerSecond maximum bytes read per second, or 0 for no limit
+     * @param maxWorkers maximum number of concurrent workers
+     * @param loadThreshold system load average per processor the node is busy over
+     * @param cassandraJmx <code>host:port</code> of Cassandra JMX, or null not to read Cassandra metrics
+     * @param intervalMillis interval to adjust the limits at, or 0 to adjust only by {@link #adjust(double, long, double)}
+     */
+    public ResourceGovernor(long maxBytesPerSecond, int maxWorkers, double loadThreshold, String cassandraJmx,
+                            long intervalMillis) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.minBytesPerSecond = Math.max(1, maxBytesPerSecond / 16.0);
+        this.maxWorkers = maxWorkers;
+        this.loadThreshold = loadThreshold;
+        this.cassandraJmx = cassandraJmx;
+        this.rateLimiter = maxBytesPerSecond > 0 ? RateLimiter.create(maxBytesPerSecond) : null;
+        this.workers = maxWorkers;
+        CDCMetrics.gauge("Governor.ReadRate", () -> rateLimiter == null ? 0 : rateLimiter.getRate());
+        CDCMetrics.gauge("Governor.Workers", this::getWorkers);
+        CDCMetrics.gauge("Governor.LoadAverage", () -> loadAverage);
+        CDCMetrics.gauge("Governor.PendingCompactions", () -> pendingCompactions);
+        CDCMetrics.gauge("Governor.WriteLatency99th", () -> writeLatency);
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cdc-governor");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * @return rate limiter of bytes read, or null if not limited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Waits until the bytes can be read within the current rate.
+     */
+    public void acquireBytes(int bytes) {
+        if (rateLimiter != null && bytes > 0) {
+            rateLimiter.acquire(bytes);
+        }
+    }
+
+    /**
+     * Waits until a worker can run within the current number of workers.
+     */
+    public synchronized void acquireWorker() throws InterruptedException {
+        while (activeWorkers >= workers) {
+            wait();
+        }
+        activeWorkers++;
+    }
+
+    public synchronized void releaseWorker() {
+        activeWorkers--;
+        notifyAll();
+    }
+
+    /**
+     * @return current number of concurrent workers allowed
+     */
+    public synchronized int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return current bytes per second allowed, or 0 if not limited
+     */
+    public double getBytesPerSecond() {
+        return rateLimiter == null ? 0 : rateLimiter.getRate();
+    }
+
+    private void tick() {
+        double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        loadAverage = load < 0 ? 0 : load / Runtime.getRuntime().availableProcessors();
+        readCassandraMetrics();
+        adjust(loadAverage, pendingCompactions, writeLatency);
+    }
+
+    /**
+     * Adjusts the limits to the load of the node.
+     *
+     * @param load system load average per processor
+     * @param pendingCompactions pending compactions of Cassandra, or negative if unknown
+     * @param writeLatency 99th percentile of write latency of Cassandra in microseconds, or negative if unknown
+     */
+    synchronized void adjust(double load, long pendingCompactions, double writeLatency) {
+        boolean busy = load > loadThreshold
+                || pendingCompactions > PENDING_COMPACTIONS_THRESHOLD
+                || writeLatency > WRITE_LATENCY_THRESHOLD_MICROS;
+        if (busy) {
+            workers = Math.max(1, workers / 2);
+            if (rateLimiter != null) {
+                rateLimiter.setRate(Math.max(minBytesPerSecond, rateLimiter.getRate() / 2));
+            }
+        } else if (load < loadThreshold * 0.75) {
+            workers = Math.min(maxWorkers, workers + Math.max(1, workers / 2));
+            if (rateLimiter != null) {
+                rateLimiter.setRate(Math.min(maxBytesPerSecond, rateLimiter.getRate() * 1.5));
+            }
+            notifyAll();
+        }
+    }
+
+    private void readCassandraMetrics() {
+        if (cassandraJmx == null) {
+            return;
+        }
+        try {
+            if (connector == null) {
+                if (System.nanoTime() - lastConnectAttempt < RECONNECT_INTERVAL_NANOS && lastConnectAttempt != 0) {
+                    return;
+                }
+                lastConnectAttempt = System.nanoTime();
+                connector = JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + cassandraJmx + "/jmxrmi"));
+            }
+            MBeanServerConnection connection = connector.getMBeanServerConnection();
+            pendingCompactions = ((Number) connection.getAttribute(
+                    new ObjectName("org.apache.cassandra.metrics:type=Compaction,name=PendingTasks"), "Value")).longValue();
+            writeLatency = ((Number) connection.getAttribute(
+                    new ObjectName("org.apache.cassandra.metrics:type=ClientRequest,scope=Write,name=Latency"), "99thPercentile")).doubleValue();
+        } catch (Exception e) {
+            logger.debug("Cassandra metrics are not available from {}", cassandraJmx, e);
+            pendingCompactions = -1;
+            writeLatency = -1;
+            closeConnector();
+        }
+    }
+
+    private void closeConnector() {
+        if (connector != null) {
+            try {
+                connector.close();
+            } catch (IOException e) {
+                // already broken
+            }
+            connector = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        closeConnector();
+    }
+}
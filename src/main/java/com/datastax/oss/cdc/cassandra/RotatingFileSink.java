@@ -0,0 +1,468 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.google.common.io.CountingOutputStream;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Writes events into files that are rotated by size or time, optionally compressed.
+ *
+ * Each file is written with temporary name starting with <code>.</code> and ending with <code>.tmp</code>,
+ * and atomically renamed to its final name when it is closed, so that consumers never see partially written files.
+ * Buffered events are flushed to the file at the flush interval, and the file is synced to disk
+ * at the sync interval and always before it is renamed.
+ *
+ * {@link #sync()} syncs open files and saves their {@link PendingFiles sync state}, so that files left
+ * with temporary names by a crash are completed up to the last sync when the sink is created again.
+ *
+ * Watermarks are written to open files, and at the start of files opened after them. Directories that have
+ * no open file, such as tables without writes since their last file was closed, have all of their events in
+ * completed files, and get the watermark in <code>_watermark</code> file of the directory instead.
+ */
+public class RotatingFileSink implements ChangeEventSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(RotatingFileSink.class);
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter HOUR_DIRECTORY = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH").withZone(ZoneOffset.UTC);
+
+    static final String WATERMARK_FILE = "_watermark";
+
+    private static final int LZ4_BLOCK_SIZE = 1 << 16;
+    // default seed of LZ4BlockOutputStream checksums
+    private static final int LZ4_SEED = 0x9747b28c;
+
+    public enum Compression {
+        NONE(""),
+        /** LZ4 block format of lz4-java, readable with <code>LZ4BlockInputStream</code> */
+        LZ4(".lz4"),
+        /** Snappy framing format */
+        SNAPPY(".sz");
+
+        private final String extension;
+
+        Compression(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return extension of compressed files, or empty string for no compression
+         */
+        String extension() {
+            return extension;
+        }
+
+        OutputStream wrap(OutputStream out) throws IOException {
+            switch (this) {
+                case LZ4:
+                    // flushes the block being compressed too, so that the file can be completed at a flush
+                    return new LZ4BlockOutputStream(out, LZ4_BLOCK_SIZE, LZ4Factory.fastestInstance().fastCompressor(),
+                            XXHashFactory.fastestInstance().newStreamingHash32(LZ4_SEED).asChecksum(), true);
+                case SNAPPY:
+                    return new SnappyFramedOutputStream(out);
+                default:
+                    return new BufferedOutputStream(out, 1 << 16);
+            }
+        }
+
+        /**
+         * @return bytes to complete the compressed stream with after a flush
+         */
+        byte[] trailer() throws IOException {
+            if (this != LZ4) {
+                return new byte[0];
+            }
+            ByteArrayOutputStream endMark = new ByteArrayOutputStream();
+            LZ4BlockOutputStream out = (LZ4BlockOutputStream) wrap(endMark);
+            out.finish();
+            return endMark.toByteArray();
+        }
+
+        InputStream wrap(InputStream in) throws IOException {
+            switch (this) {
+                case LZ4:
+                    return new LZ4BlockInputStream(in);
+                case SNAPPY:
+                    return new SnappyFramedInputStream(in);
+                default:
+                    return new BufferedInputStream(in, 1 << 16);
+            }
+        }
+    }
+
+    public enum Layout {
+        /** all files in the output directory */
+        FLAT,
+        /** <code>keyspace/table</code> directory per table */
+        TABLE,
+        /** <code>yyyy/MM/dd/HH</code> directory per hour in UTC */
+        HOUR
+    }
+
+    private final Path directory;
+    private final Supplier<ChangeEventEncoder> encoder;
+    private final Compression compression;
+    private final Layout layout;
+    private final long maxFileSize;
+    private final long rollIntervalMillis;
+    private final long flushIntervalMillis;
+    private final long syncIntervalMillis;
+
+    private final Map<Path, OpenFile> files = new HashMap<>();
+    // directories files have been written to, to write watermarks to when they have no open file
+    private final Set<Path> directories = new HashSet<>();
+    private final ScheduledExecutorService scheduler;
+    private long fileCount = 0;
+    private Instant watermark;
+
+    private RotatingFileSink(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.encoder = builder.encoder;
+        this.compression = builder.compression;
+        this.layout = builder.layout;
+        this.maxFileSize = builder.maxFileSize;
+        this.rollIntervalMillis = builder.rollIntervalMillis;
+        this.flushIntervalMillis = builder.flushIntervalMillis;
+        this.syncIntervalMillis = builder.syncIntervalMillis;
+        int recovered = PendingFiles.recover(directory);
+        if (recovered > 0) {
+            logger.info("Recovered {} files in {}", recovered, directory);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cdc-file-sink");
+            t.setDaemon(true);
+            return t;
+        });
+        long tick = Math.max(10, Math.min(1000, flushIntervalMillis));
+        scheduler.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    @Override
+    public synchronized void write(ChangeEvent event) throws IOException {
+        Path dir = directoryFor(event, System.currentTimeMillis());
+        OpenFile file = files.get(dir);
+        if (file == null) {
+            file = open(dir);
+            files.put(dir, file);
+        }
+        file.write(event);
+        if (file.size() >= maxFileSize) {
+            files.remove(dir).close();
+        }
+    }
+
+    /**
+     * Writes the watermark to all open files, and to the watermark file of directories without an open file.
+     * Files opened later start with the watermark.
+     */
+    @Override
+    public synchronized void writeWatermark(Instant watermark) throws IOException {
+        this.watermark = watermark;
+        for (OpenFile file : files.values()) {
+            file.writeWatermark(watermark);
+        }
+        for (Path dir : directories) {
+            if (!files.containsKey(dir)) {
+                writeWatermarkFile(dir, watermark);
+            }
+        }
+    }
+
+    /**
+     * Replaces the watermark file of the directory atomically.
+     */
+    private static void writeWatermarkFile(Path dir, Instant watermark) throws IOException {
+        Path target = dir.resolve(WATERMARK_FILE);
+        Path temporary = PendingFiles.temporary(target);
+        Files.write(temporary, watermark.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return watermark in the watermark file of the directory, or null if it has none
+     */
+    public static Instant readWatermark(Path dir) throws IOException {
+        Path file = dir.resolve(WATERMARK_FILE);
+        if (Files.notExists(file)) {
+            return null;
+        }
+        return Instant.parse(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim());
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        for (OpenFile file : files.values()) {
+            file.flush();
+        }
+    }
+
+    /**
+     * Syncs all open files and saves their sync state.
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        for (OpenFile file : files.values()) {
+            file.sync();
+            PendingFiles.save(file.temporary, file.size(), compression.trailer());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        synchronized (this) {
+            IOException error = null;
+            for (OpenFile file : files.values()) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            files.clear();
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private synchronized void tick() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, OpenFile>> it = files.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, OpenFile> entry = it.next();
+            OpenFile file = entry.getValue();
+            try {
+                boolean pastHour = layout == Layout.HOUR && !entry.getKey().equals(directoryFor(null, now));
+                if (now - file.openedAt >= rollIntervalMillis || pastHour) {
+                    it.remove();
+                    if (pastHour) {
+                        // no more events are written to the directory
+                        directories.remove(entry.getKey());
+                    }
+                    file.close();
+                    continue;
+                }
+                if (now - file.lastFlush >= flushIntervalMillis) {
+                    file.flush();
+                }
+                if (syncIntervalMillis > 0 && now - file.lastSync >= syncIntervalMillis) {
+                    file.sync();
+                }
+            } catch (IOException e) {
+                logger.error("Failed to flush {}", file.target, e);
+            }
+        }
+    }
+
+    private Path directoryFor(ChangeEvent event, long now) {
+        switch (layout) {
+            case TABLE:
+                return directory.resolve(event.getKeyspaceName()).resolve(event.getTableName());
+            case HOUR:
+                return directory.resolve(HOUR_DIRECTORY.format(Instant.ofEpochMilli(now)));
+            default:
+                return directory;
+        }
+    }
+
+    private OpenFile open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long now = System.currentTimeMillis();
+        ChangeEventEncoder fileEncoder = encoder.get();
+        String name = String.format("cdc-%s-%06d%s%s", FILE_TIME.format(Instant.ofEpochMilli(now)), fileCount++,
+                fileEncoder.extension(), compression.extension);
+        Path target = dir.resolve(name);
+        OpenFile file = new OpenFile(PendingFiles.temporary(target), target, fileEncoder, now);
+        directories.add(dir);
+        if (watermark != null) {
+            file.writeWatermark(watermark);
+        }
+        return file;
+    }
+
+    private class OpenFile {
+        private final Path temporary;
+        private final Path target;
+        private final FileOutputStream fileOut;
+        private final CountingOutputStream counting;
+        private final OutputStream out;
+        // bytes encoded before compression, only when profiling
+        private final CountingOutputStream encoded;
+        private final ChangeEventEncoder encoder;
+        private final long openedAt;
+        private long lastFlush;
+        private long lastSync;
+        private boolean dirty = false;
+
+        private OpenFile(Path temporary, Path target, ChangeEventEncoder encoder, long openedAt) throws IOException {
+            this.temporary = temporary;
+            this.target = target;
+            this.fileOut = new FileOutputStream(temporary.toFile());
+            this.counting = new CountingOutputStream(fileOut);
+            this.encoded = Profiling.ENABLED ? new CountingOutputStream(compression.wrap(counting)) : null;
+            this.out = encoded != null ? encoded : compression.wrap(counting);
+            this.encoder = encoder;
+            this.openedAt = openedAt;
+            this.lastFlush = openedAt;
+            this.lastSync = openedAt;
+        }
+
+        private void write(ChangeEvent event) throws IOException {
+            if (encoded != null) {
+                Profiling.Encode profiling = new Profiling.Encode();
+                long before = encoded.getCount();
+                profiling.begin();
+                encoder.encode(event, out);
+                profiling.end();
+                if (profiling.shouldCommit()) {
+                    profiling.encoder = encoder.getClass().getSimpleName();
+                    profiling.keyspace = event.getKeyspaceName();
+                    profiling.table = event.getTableName();
+                    profiling.size = encoded.getCount() - before;
+                    profiling.commit();
+                }
+            } else {
+                encoder.encode(event, out);
+            }
+            dirty = true;
+        }
+
+        private void writeWatermark(Instant watermark) throws IOException {
+            encoder.encodeWatermark(watermark, out);
+            dirty = true;
+        }
+
+        /**
+         * @return bytes written to the file
+         */
+        private long size() {
+            return counting.getCount();
+        }
+
+        private void flush() throws IOException {
+            if (dirty) {
+                out.flush();
+                dirty = false;
+            }
+            lastFlush = System.currentTimeMillis();
+        }
+
+        private void sync() throws IOException {
+            flush();
+            fileOut.getChannel().force(false);
+            lastSync = System.currentTimeMillis();
+        }
+
+        private void close() throws IOException {
+            try {
+                // finishes compression and flushes remaining bytes before sync
+                out.flush();
+                if (out instanceof LZ4BlockOutputStream) {
+                    ((LZ4BlockOutputStream) out).finish();
+                }
+                fileOut.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            PendingFiles.delete(temporary);
+        }
+    }
+
+    public static class Builder {
+        private final Path directory;
+        private Supplier<ChangeEventEncoder> encoder = () -> new JacksonEncoder(JacksonEncoder.Format.JSON);
+        private Compression compression = Compression.NONE;
+        private Layout layout = Layout.FLAT;
+        private long maxFileSize = 128L * 1024 * 1024;
+        private long rollIntervalMillis = TimeUnit.HOURS.toMillis(1);
+        private long flushIntervalMillis = 1000;
+        private long syncIntervalMillis = 0;
+
+        private Builder(Path directory) {
+            this.directory = Objects.requireNonNull(directory);
+        }
+
+        /**
+         * @param encoder creates the encoder for each file
+         */
+        public Builder withEncoder(Supplier<ChangeEventEncoder> encoder) {
+            this.encoder = Objects.requireNonNull(encoder);
+            return this;
+        }
+
+        public Builder withCompression(Compression compression) {
+            this.compression = Objects.requireNonNull(compression);
+            return this;
+        }
+
+        public Builder withLayout(Layout layout) {
+            this.layout = Objects.requireNonNull(layout);
+            return this;
+        }
+
+        /**
+         * @param maxFileSize size in bytes to rotate the file at
+         */
+        public Builder withMaxFileSize(long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        /**
+         * @param rollIntervalMillis time in milliseconds to rotate the file after it is opened
+         */
+        public Builder withRollInterval(long rollIntervalMillis) {
+            this.rollIntervalMillis = rollIntervalMillis;
+            return this;
+        }
+
+        /**
+         * @param flushIntervalMillis interval in milliseconds to flush buffered events to the file
+         */
+        public Builder withFlushInterval(long flushIntervalMillis) {
+            this.flushIntervalMillis = flushIntervalMillis;
+            return this;
+        }
+
+        /**
+         * @param syncIntervalMillis interval in milliseconds to sync the file to disk, 0 to sync only when closing
+         */
+        public Builder withSyncInterval(long syncIntervalMillis) {
+            this.syncIntervalMillis = syncIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Builds the sink, completing files left in the directory by a crash.
+         */
+        public RotatingFileSink build() throws IOException {
+            return new RotatingFileSink(this);
+        }
+    }
+}
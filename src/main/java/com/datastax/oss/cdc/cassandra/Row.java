@@ -1,7 +1,10 @@
 package com.datastax.oss.cdc.cassandra;
 
 import javax.validation.constraints.NotNull;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Object that contains
@@ -15,4 +18,29 @@ public interface Row {
      */
     @NotNull
     Map<String, Object> getColumns();
+
+    /**
+     * Get names of columns in this Row, in the same order as {@link #getColumns()}.
+     *
+     * Unlike {@link #getColumns()}, this does not require the values to be deserialized.
+     *
+     * @return column names
+     */
+    @NotNull
+    default Set<String> getColumnNames() {
+        return getColumns().keySet();
+    }
+
+    /**
+     * Get serialized values of columns in this Row, as they are serialized in CQL native protocol.
+     *
+     * Values of non-frozen collections and UDTs are serialized in the same way as frozen ones.
+     * Columns whose serialized value is not available are not included.
+     *
+     * @return serialized values by column name
+     */
+    @NotNull
+    default Map<String, ByteBuffer> getSerializedColumns() {
+        return Collections.emptyMap();
+    }
 }
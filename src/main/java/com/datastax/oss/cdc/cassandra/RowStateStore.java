@@ -0,0 +1,532 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.CQL3Type;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.caffinitas.ohc.CacheSerializer;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Local store of the latest known state of each CQL row, used to emit full row images.
+ *
+ * The store is updated from every {@link ChangeEvent} passed to {@link #apply(ChangeEvent)}, and returns the event
+ * with the full after-image as its row and the previous state as {@link ChangeEvent#getBeforeImage()}.
+ * Nothing is read from Cassandra, so images only contain what this process has seen since the store was created.
+ *
+ * Row states are kept off-heap in the same OHC cache implementation Cassandra uses for its row cache,
+ * keyed by table id + primary key bytes, and the least recently used rows are evicted once the capacity is reached.
+ * Partition deletions and range tombstones are not expanded to each row. Instead, the partition keeps
+ * the latest timestamp of such deletions, and row values older than that are treated as unknown.
+ * Values and deletions are resolved by their write timestamps in microseconds, as Cassandra does.
+ */
+public class RowStateStore implements Closeable {
+
+    private static final byte PARTITION_KEY = 0;
+    private static final byte STATIC_ROW_KEY = 1;
+    private static final byte ROW_KEY = 2;
+
+    private final OHCache<ByteBuffer, RowState> cache;
+
+    /**
+     * @param capacity maximum off-heap memory used by the store in bytes
+     */
+    public RowStateStore(long capacity) {
+        this.cache = OHCacheBuilder.<ByteBuffer, RowState>newBuilder()
+                .keySerializer(KeySerializer.instance)
+                .valueSerializer(RowStateSerializer.instance)
+                .capacity(capacity)
+                .build();
+    }
+
+    /**
+     * Updates the row state from the given event, and returns the event with row images.
+     *
+     * @param event change event to apply
+     * @return change event carrying the full after-image and the before-image of the row
+     */
+    public ChangeEvent apply(ChangeEvent event) {
+        CFMetaData metadata = Schema.instance.getCFMetaData(event.getTableId());
+        if (metadata == null) {
+            return event;
+        }
+        long timestamp = event.getWriteTimestamp();
+        if (event.getEventType() == ChangeEventType.UPDATE) {
+            Map<String, Object> columns = event.getRow().getColumns();
+            ByteBuffer partitionKey = partitionKey(metadata, columns);
+            ByteBuffer rowKey = rowKey(metadata, partitionKey, columns);
+            if (rowKey == null) {
+                return event;
+            }
+            RowState state = current(partitionKey, rowKey);
+            Row before = state == null ? null : state.image(metadata, columns);
+            if (state == null) {
+                state = new RowState();
+            }
+            for (Map.Entry<String, Object> column : columns.entrySet()) {
+                ColumnDefinition def = metadata.getColumnDefinition(ByteBufferUtil.bytes(column.getKey()));
+                if (def != null && !def.isPrimaryKeyColumn()) {
+                    state.update(column.getKey(), column.getValue(), timestamp, def.type.isMultiCell());
+                }
+            }
+            cache.put(rowKey, state);
+            Row after = state.image(metadata, columns);
+            return new DefaultChangeEvent(event, after == null ? event.getRow() : after, before);
+        } else {
+            Deletion deletion = event.getDeletion();
+            Map<String, Object> criteria = new LinkedHashMap<>();
+            for (Criteria c : deletion.getCriteria()) {
+                if (!c.isEqual()) {
+                    break;
+                }
+                criteria.put(c.getColumn(), c.getCondition());
+            }
+            ByteBuffer partitionKey = partitionKey(metadata, criteria);
+            if (partitionKey == null) {
+                return event;
+            }
+            ByteBuffer rowKey = rowKey(metadata, partitionKey, criteria);
+            if (rowKey == null || (criteria.size() < deletion.getCriteria().size())
+                    || (deletion.getColumns().isEmpty() && rowKey.get(0) == STATIC_ROW_KEY && !metadata.clusteringColumns().isEmpty())) {
+                // partition deletion or range tombstone
+                RowState marker = cache.get(partitionKey);
+                if (marker == null) {
+                    marker = new RowState();
+                }
+                marker.delete(timestamp);
+                cache.put(partitionKey, marker);
+                return event;
+            }
+
+            RowState state = current(partitionKey, rowKey);
+            Row before = state == null ? null : state.image(metadata, criteria);
+            if (state == null) {
+                state = new RowState();
+            }
+            if (deletion.getColumns().isEmpty()) {
+                state.delete(timestamp);
+            } else {
+                for (String column : deletion.getColumns()) {
+                    state.update(column, null, timestamp, false);
+                }
+            }
+            cache.put(rowKey, state);
+            return new DefaultChangeEvent(event, null, before);
+        }
+    }
+
+    /**
+     * @return number of rows and partitions currently held in the store
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Forgets all row states, when rows may have changed without being applied.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.close();
+    }
+
+    /**
+     * Returns the current state of the row, with values shadowed by partition level deletions removed.
+     */
+    private RowState current(ByteBuffer partitionKey, ByteBuffer rowKey) {
+        RowState state = cache.get(rowKey);
+        if (state != null) {
+            RowState marker = cache.get(partitionKey);
+            if (marker != null) {
+                state.delete(marker.deletedAt);
+            }
+        }
+        return state;
+    }
+
+    private static ByteBuffer partitionKey(CFMetaData metadata, Map<String, Object> values) {
+        try (DataOutputBuffer out = new DataOutputBuffer()) {
+            out.writeByte(PARTITION_KEY);
+            out.writeLong(metadata.cfId.getMostSignificantBits());
+            out.writeLong(metadata.cfId.getLeastSignificantBits());
+            if (!writeComponents(metadata.partitionKeyColumns(), values, out)) {
+                return null;
+            }
+            return out.asNewBuffer();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * Returns the key of the row, or the static row when none of the clustering columns are given.
+     */
+    private static ByteBuffer rowKey(CFMetaData metadata, ByteBuffer partitionKey, Map<String, Object> values) {
+        if (partitionKey == null) {
+            return null;
+        }
+        try (DataOutputBuffer out = new DataOutputBuffer()) {
+            ByteBuffer prefix = partitionKey.duplicate();
+            prefix.get();
+            boolean hasClustering = metadata.clusteringColumns().stream()
+                    .anyMatch(def -> values.containsKey(def.name.toString()));
+            out.writeByte(hasClustering ? ROW_KEY : STATIC_ROW_KEY);
+            out.write(prefix);
+            if (hasClustering && !writeComponents(metadata.clusteringColumns(), values, out)) {
+                return null;
+            }
+            return out.asNewBuffer();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean writeComponents(List<ColumnDefinition> columns, Map<String, Object> values, DataOutputBuffer out) throws IOException {
+        for (ColumnDefinition def : columns) {
+            Object value = values.get(def.name.toString());
+            if (value == null) {
+                return false;
+            }
+            ByteBufferUtil.writeWithShortLength(((AbstractType<Object>) def.type).decompose(value), out);
+        }
+        return true;
+    }
+
+    /**
+     * Latest known values of the regular and static columns of the row, with their timestamp in microseconds.
+     */
+    private static class RowState {
+        private long deletedAt = Long.MIN_VALUE;
+        private final Map<String, Value> columns = new LinkedHashMap<>();
+        // serialized state, computed once for the size and the serialization of a put
+        private byte[] serialized;
+
+        private void update(String column, Object value, long timestamp, boolean merge) {
+            Value current = columns.get(column);
+            if (current != null && current.timestamp > timestamp) {
+                return;
+            }
+            if (merge && current != null && current.value instanceof Map && value instanceof Map) {
+                Map<Object, Object> merged = new LinkedHashMap<>((Map<?, ?>) current.value);
+                merged.putAll((Map<?, ?>) value);
+                value = merged;
+            }
+            columns.put(column, new Value(value, timestamp));
+            serialized = null;
+        }
+
+        private void delete(long timestamp) {
+            if (timestamp > deletedAt) {
+                deletedAt = timestamp;
+                columns.values().removeIf(v -> v.timestamp <= timestamp);
+                serialized = null;
+            }
+        }
+
+        /**
+         * Returns the visible columns of this row with its primary key, or null if no column value is known.
+         */
+        private Row image(CFMetaData metadata, Map<String, Object> primaryKey) {
+            Map<String, Object> image = new LinkedHashMap<>();
+            for (ColumnDefinition def : metadata.primaryKeyColumns()) {
+                String name = def.name.toString();
+                if (primaryKey.containsKey(name)) {
+                    image.put(name, primaryKey.get(name));
+                }
+            }
+            int keys = image.size();
+            for (Map.Entry<String, Value> e : columns.entrySet()) {
+                if (e.getValue().value != null) {
+                    image.put(e.getKey(), e.getValue().value);
+                }
+            }
+            if (image.size() == keys) {
+                return null;
+            }
+            return () -> image;
+        }
+    }
+
+    private static class Value {
+        private final Object value;
+        private final long timestamp;
+
+        private Value(Object value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class KeySerializer implements CacheSerializer<ByteBuffer> {
+        private static final KeySerializer instance = new KeySerializer();
+
+        @Override
+        public void serialize(ByteBuffer key, ByteBuffer buf) {
+            buf.put(key.duplicate());
+        }
+
+        @Override
+        public ByteBuffer deserialize(ByteBuffer buf) {
+            ByteBuffer key = ByteBuffer.allocate(buf.remaining());
+            key.put(buf).flip();
+            return key;
+        }
+
+        @Override
+        public int serializedSize(ByteBuffer key) {
+            return key.remaining();
+        }
+    }
+
+    /**
+     * Serializes row state with a compact tagged encoding of the Java values produced by the type serializers.
+     * Values of other types, such as durations, are serialized by the native CQL type of their Java class with
+     * the name of the type, so that they are read back as the same Java values.
+     */
+    private static class RowStateSerializer implements CacheSerializer<RowState> {
+        private static final RowStateSerializer instance = new RowStateSerializer();
+
+        private static final byte NULL = 0;
+        private static final byte STRING = 1;
+        private static final byte INT = 2;
+        private static final byte LONG = 3;
+        private static final byte SHORT = 4;
+        private static final byte BYTE = 5;
+        private static final byte BOOLEAN = 6;
+        private static final byte FLOAT = 7;
+        private static final byte DOUBLE = 8;
+        private static final byte DECIMAL = 9;
+        private static final byte VARINT = 10;
+        private static final byte UUID_VALUE = 11;
+        private static final byte DATE = 12;
+        private static final byte INET = 13;
+        private static final byte BYTES = 14;
+        private static final byte MAP = 15;
+        private static final byte LIST = 16;
+        private static final byte SET = 17;
+        private static final byte OTHER = 18;
+
+        @Override
+        public void serialize(RowState state, ByteBuffer buf) {
+            buf.put(bytes(state));
+        }
+
+        @Override
+        public RowState deserialize(ByteBuffer buf) {
+            try (DataInputStream in = new DataInputStream(ByteBufferUtil.inputStream(buf))) {
+                RowState state = new RowState();
+                state.deletedAt = in.readLong();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    String name = readString(in);
+                    long timestamp = in.readLong();
+                    state.columns.put(name, new Value(readValue(in), timestamp));
+                }
+                return state;
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+        }
+
+        @Override
+        public int serializedSize(RowState state) {
+            return bytes(state).length;
+        }
+
+        private static byte[] bytes(RowState state) {
+            if (state.serialized == null) {
+                state.serialized = toBytes(state);
+            }
+            return state.serialized;
+        }
+
+        private static byte[] toBytes(RowState state) {
+            try (DataOutputBuffer out = new DataOutputBuffer()) {
+                out.writeLong(state.deletedAt);
+                out.writeInt(state.columns.size());
+                for (Map.Entry<String, Value> e : state.columns.entrySet()) {
+                    writeString(e.getKey(), out);
+                    out.writeLong(e.getValue().timestamp);
+                    writeValue(e.getValue().value, out);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void writeValue(Object value, DataOutputPlus out) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value, out);
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof BigDecimal) {
+                out.writeByte(DECIMAL);
+                writeString(value.toString(), out);
+            } else if (value instanceof BigInteger) {
+                out.writeByte(VARINT);
+                writeString(value.toString(), out);
+            } else if (value instanceof UUID) {
+                out.writeByte(UUID_VALUE);
+                out.writeLong(((UUID) value).getMostSignificantBits());
+                out.writeLong(((UUID) value).getLeastSignificantBits());
+            } else if (value instanceof Date) {
+                out.writeByte(DATE);
+                out.writeLong(((Date) value).getTime());
+            } else if (value instanceof InetAddress) {
+                out.writeByte(INET);
+                byte[] address = ((InetAddress) value).getAddress();
+                out.writeByte(address.length);
+                out.write(address);
+            } else if (value instanceof ByteBuffer) {
+                out.writeByte(BYTES);
+                ByteBufferUtil.writeWithLength((ByteBuffer) value, out);
+            } else if (value instanceof Map) {
+                out.writeByte(MAP);
+                out.writeInt(((Map<?, ?>) value).size());
+                for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                    writeValue(e.getKey(), out);
+                    writeValue(e.getValue(), out);
+                }
+            } else if (value instanceof Collection) {
+                out.writeByte(value instanceof Set ? SET : LIST);
+                out.writeInt(((Collection<?>) value).size());
+                for (Object element : (Collection<?>) value) {
+                    writeValue(element, out);
+                }
+            } else {
+                CQL3Type.Native type = nativeType(value);
+                out.writeByte(OTHER);
+                writeString(type.name(), out);
+                ByteBufferUtil.writeWithLength(((AbstractType<Object>) type.getType()).decompose(value), out);
+            }
+        }
+
+        /**
+         * @return native CQL type whose serializer produces values of the class of the given value
+         */
+        private static CQL3Type.Native nativeType(Object value) {
+            for (CQL3Type.Native type : CQL3Type.Native.values()) {
+                if (type.getType().getSerializer().getType() == value.getClass()) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("No CQL type of value of " + value.getClass());
+        }
+
+        /**
+         * Writes the string as length prefixed UTF-8 bytes, which unlike {@link DataOutput#writeUTF(String)}
+         * is not limited to 64KB.
+         */
+        private static void writeString(String value, DataOutputPlus out) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static Object readValue(DataInputStream in) throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString(in);
+                case INT:
+                    return in.readInt();
+                case LONG:
+                    return in.readLong();
+                case SHORT:
+                    return in.readShort();
+                case BYTE:
+                    return in.readByte();
+                case BOOLEAN:
+                    return in.readBoolean();
+                case FLOAT:
+                    return in.readFloat();
+                case DOUBLE:
+                    return in.readDouble();
+                case DECIMAL:
+                    return new BigDecimal(readString(in));
+                case VARINT:
+                    return new BigInteger(readString(in));
+                case UUID_VALUE:
+                    return new UUID(in.readLong(), in.readLong());
+                case DATE:
+                    return new Date(in.readLong());
+                case INET:
+                    byte[] address = new byte[in.readByte()];
+                    in.readFully(address);
+                    return InetAddress.getByAddress(address);
+                case BYTES:
+                    return ByteBufferUtil.readWithLength(in);
+                case MAP:
+                    int mapSize = in.readInt();
+                    Map<Object, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < mapSize; i++) {
+                        map.put(readValue(in), readValue(in));
+                    }
+                    return map;
+                case LIST:
+                case SET:
+                    int size = in.readInt();
+                    Collection<Object> collection = tag == SET ? new LinkedHashSet<>() : new ArrayList<>();
+                    for (int i = 0; i < size; i++) {
+                        collection.add(readValue(in));
+                    }
+                    return collection;
+                case OTHER:
+                    CQL3Type.Native type = CQL3Type.Native.valueOf(readString(in));
+                    return type.getType().compose(ByteBufferUtil.readWithLength(in));
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.marshal.ListType;
+import org.apache.cassandra.db.marshal.MapType;
+import org.apache.cassandra.db.marshal.SetType;
+import org.apache.cassandra.db.marshal.UserType;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.BufferCell;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.CellPath;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTableTxnWriter;
+import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.serializers.CollectionSerializer;
+import org.apache.cassandra.service.ActiveRepairService;
+import org.apache.cassandra.transport.ProtocolVersion;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.UUIDGen;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes events into SSTables, to load them into another cluster with <code>sstableloader</code>.
+ *
+ * Events are written into a generation directory that is rolled at the roll interval. Each generation is written
+ * to the temporary directory starting with <code>.</code> and ending with <code>.tmp</code>, and atomically
+ * renamed when all of its SSTables are complete, so that <code>directory/generation/keyspace/table</code>
+ * can be passed to <code>sstableloader</code> as it appears.
+ * Each table has a writer that buffers partitions in memory up to the buffer size and then writes them sorted
+ * as an SSTable. {@link #sync()} writes the buffered partitions, so that generations left by a crash are completed
+ * with the SSTables synced, and unfinished SSTables removed, when the sink is created again.
+ *
+ * Events are converted back to partition updates with the write timestamps and TTLs of the events.
+ * Non-frozen collections and UDTs are written as cells appended to the column, after the tombstone of the previous
+ * value when it is replaced, and new list elements get new cell paths. Column deletions are written as cell
+ * tombstones, row deletions as row tombstones, partition deletions as partition tombstones, and range deletions
+ * as range tombstones. Tombstones are written with the current time as their local deletion time.
+ * Rows are written with the primary key liveness info only when the event has only the primary key, as events do not
+ * tell rows inserted from rows updated. Events of counter tables cannot be written, and are skipped and counted.
+ */
+public class SSTableSink implements ChangeEventSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(SSTableSink.class);
+
+    private static final DateTimeFormatter GENERATION_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    private final Counter skipped = CDCMetrics.registry.counter("SSTableSink.Skipped");
+
+    private final Path directory;
+    private final long bufferSize;
+    private final long rollIntervalMillis;
+    private final Map<UUID, TableWriter> tables = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private Path generation;
+    private long generationStartedAt;
+
+    public SSTableSink(Path directory) throws IOException {
+        this(directory, 64, TimeUnit.MINUTES.toMillis(10));
+    }
+
+    /**
+     * @param directory directory to write generations of SSTables to
+     * @param bufferSizeInMB size (MB) of partitions to buffer for each table before writing them as an SSTable
+     * @param rollIntervalMillis time in milliseconds to complete the generation after it is started
+     */
+    public SSTableSink(Path directory, int bufferSizeInMB, long rollIntervalMillis) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        this.bufferSize = bufferSizeInMB * 1024L * 1024L;
+        this.rollIntervalMillis = rollIntervalMillis;
+        recover();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cdc-sstable-sink");
+            t.setDaemon(true);
+            return t;
+        });
+        long tick = Math.max(10, Math.min(1000, rollIntervalMillis));
+        scheduler.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void write(ChangeEvent event) throws IOException {
+        CFMetaData metadata = Schema.instance.getCFMetaData(event.getTableId());
+        if (metadata == null) {
+            throw new IOException(String.format("Unknown table %s.%s (%s)",
+                    event.getKeyspaceName(), event.getTableName(), event.getTableId()));
+        }
+        if (metadata.isCounter()) {
+            skip(event, "counter table");
+            return;
+        }
+        TableWriter writer = tables.get(metadata.cfId);
+        // columns are replaced on every schema change
+        if (writer != null && writer.columns != metadata.partitionColumns()) {
+            tables.remove(metadata.cfId).close();
+            writer = null;
+        }
+        if (writer == null) {
+            writer = new TableWriter(metadata, generation());
+            tables.put(metadata.cfId, writer);
+        }
+        if (event.getEventType() == ChangeEventType.DELETE) {
+            writer.delete(event);
+        } else {
+            writer.update(event);
+        }
+        if (writer.bufferedBytes >= bufferSize) {
+            writer.writeSSTable();
+        }
+    }
+
+    /**
+     * Completes the current generation.
+     */
+    public synchronized void roll() throws IOException {
+        if (generation == null) {
+            return;
+        }
+        Path temporary = generation;
+        try {
+            closeWriters();
+        } finally {
+            generation = null;
+        }
+        Files.move(temporary, PendingFiles.target(temporary), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the partitions buffered so far into SSTables of the current generation.
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        closeWriters();
+    }
+
+    private void closeWriters() throws IOException {
+        IOException error = null;
+        for (TableWriter writer : tables.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        tables.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Completes generations left by a crash with their complete SSTables, removing SSTables being written.
+     */
+    private void recover() throws IOException {
+        if (Files.notExists(directory)) {
+            return;
+        }
+        List<Path> generations;
+        try (Stream<Path> files = Files.list(directory)) {
+            generations = files.filter(f -> f.getFileName().toString().startsWith(".")
+                    && f.getFileName().toString().endsWith(PendingFiles.TEMPORARY_SUFFIX) && Files.isDirectory(f))
+                    .collect(Collectors.toList());
+        }
+        for (Path temporary : generations) {
+            List<Path> tableDirectories;
+            try (Stream<Path> files = Files.walk(temporary, 2)) {
+                tableDirectories = files.filter(f -> temporary.relativize(f).getNameCount() == 2 && Files.isDirectory(f))
+                        .collect(Collectors.toList());
+            }
+            boolean complete = false;
+            for (Path tableDirectory : tableDirectories) {
+                for (File file : LifecycleTransaction.getFiles(tableDirectory, (f, type) -> type != Directories.FileType.FINAL,
+                        Directories.OnTxnErr.IGNORE)) {
+                    Files.deleteIfExists(file.toPath());
+                }
+                try (Stream<Path> files = Files.list(tableDirectory)) {
+                    complete |= files.anyMatch(f -> f.getFileName().toString().endsWith("-Data.db"));
+                }
+            }
+            if (complete) {
+                Files.move(temporary, PendingFiles.target(temporary), StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Recovered SSTables in {}", PendingFiles.target(temporary));
+            } else {
+                logger.info("Deleting {} that has no SSTables synced", temporary);
+                FileUtils.deleteRecursive(temporary.toFile());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        roll();
+    }
+
+    private synchronized void tick() {
+        if (generation != null && System.currentTimeMillis() - generationStartedAt >= rollIntervalMillis) {
+            try {
+                roll();
+            } catch (IOException e) {
+                logger.error("Failed to complete SSTables in {}", directory, e);
+            }
+        }
+    }
+
+    private Path generation() throws IOException {
+        if (generation == null) {
+            generationStartedAt = System.currentTimeMillis();
+            generation = PendingFiles.temporary(directory.resolve(GENERATION_TIME.format(Instant.ofEpochMilli(generationStartedAt))));
+            Files.createDirectories(generation);
+        }
+        return generation;
+    }
+
+    private void skip(ChangeEvent event, String reason) {
+        skipped.inc();
+        logger.debug("Skipped event of {}.{} at {}: {}", event.getKeyspaceName(), event.getTableName(),
+                event.getEventTimestamp(), reason);
+    }
+
+    /**
+     * @param collection collection serialized in the same way as frozen value
+     * @param valuesPerElement number of values of each element, 2 for maps
+     * @return values of the elements in order
+     */
+    private static List<ByteBuffer> elements(ByteBuffer collection, int valuesPerElement) {
+        ByteBuffer input = collection.duplicate();
+        int size = CollectionSerializer.readCollectionSize(input, ProtocolVersion.CURRENT) * valuesPerElement;
+        List<ByteBuffer> elements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add(CollectionSerializer.readValue(input, ProtocolVersion.CURRENT));
+        }
+        return elements;
+    }
+
+    /**
+     * Writer of a table, that converts events to partition updates and buffers them sorted by partition key.
+     */
+    private class TableWriter {
+        private final CFMetaData metadata;
+        private final PartitionColumns columns;
+        private final File tableDirectory;
+        private final Map<String, TableSchema.Column> schemaColumns = new HashMap<>();
+        private final SortedMap<DecoratedKey, PartitionUpdate> partitions = new TreeMap<>();
+        private long bufferedBytes;
+        private int nextGeneration;
+
+        private TableWriter(CFMetaData metadata, Path generation) throws IOException {
+            this.metadata = metadata;
+            this.columns = metadata.partitionColumns();
+            Path tableDirectory = generation.resolve(metadata.ksName).resolve(metadata.cfName);
+            Files.createDirectories(tableDirectory);
+            this.tableDirectory = tableDirectory.toFile();
+            for (TableSchema.Column column : TableSchema.columnsOf(metadata)) {
+                schemaColumns.put(column.getName(), column);
+            }
+            // SSTables written before sync have the generations before
+            try (Stream<Path> files = Files.list(tableDirectory)) {
+                nextGeneration = files.filter(f -> f.getFileName().toString().endsWith("-Data.db"))
+                        .mapToInt(f -> Descriptor.fromFilename(f.toString()).generation)
+                        .max().orElse(0) + 1;
+            }
+        }
+
+        private void update(ChangeEvent event) {
+            Row row = event.getRow();
+            Set<String> names = row.getColumnNames();
+            boolean isStatic = !hasAll(names, metadata.clusteringColumns());
+            Map<String, ByteBuffer> keys = new HashMap<>();
+            for (ColumnDefinition def : metadata.primaryKeyColumns()) {
+                if (names.contains(def.name.toString())) {
+                    keys.put(def.name.toString(), serialized(row, def.name.toString()));
+                }
+            }
+            long timestamp = event.getWriteTimestamp();
+            int ttl = event.getTTL();
+            int localExpirationTime = event.getExpirationTime() == null
+                    ? LivenessInfo.NO_EXPIRATION_TIME : (int) event.getExpirationTime().getEpochSecond();
+            int nowInSec = FBUtilities.nowInSeconds();
+
+            org.apache.cassandra.db.rows.Row.Builder builder = BTreeRow.unsortedBuilder(nowInSec);
+            builder.newRow(isStatic ? Clustering.STATIC_CLUSTERING : clustering(keys, metadata.clusteringColumns().size()));
+            if (!isStatic && names.size() == metadata.partitionKeyColumns().size() + metadata.clusteringColumns().size()) {
+                builder.addPrimaryKeyLivenessInfo(ttl == LivenessInfo.NO_TTL
+                        ? LivenessInfo.create(timestamp, nowInSec)
+                        : LivenessInfo.withExpirationTime(timestamp, ttl, localExpirationTime));
+            }
+            for (ColumnDefinition def : isStatic ? columns.statics : columns.regulars) {
+                String name = def.name.toString();
+                ByteBuffer value = names.contains(name) ? serialized(row, name) : null;
+                if (value != null) {
+                    addCells(builder, def, value, timestamp, ttl, localExpirationTime);
+                }
+            }
+            add(partitionKey(keys), builder.build());
+        }
+
+        private void delete(ChangeEvent event) {
+            Deletion deletion = event.getDeletion();
+            Map<String, ByteBuffer> keys = new HashMap<>();
+            Criteria range = null;
+            for (Criteria criteria : deletion.getCriteria()) {
+                if (criteria.isEqual() && criteria.getStartValue() != null) {
+                    keys.put(criteria.getColumn(), schemaColumns.get(criteria.getColumn()).serialize(criteria.getStartValue()));
+                } else if (range == null) {
+                    range = criteria;
+                } else {
+                    skip(event, "deletion of multiple ranges");
+                    return;
+                }
+            }
+            if (!hasAll(keys.keySet(), metadata.partitionKeyColumns())) {
+                skip(event, "deletion without partition key");
+                return;
+            }
+            DecoratedKey key = partitionKey(keys);
+            int nowInSec = FBUtilities.nowInSeconds();
+            DeletionTime deletionTime = new DeletionTime(event.getWriteTimestamp(), nowInSec);
+            List<ByteBuffer> prefix = new ArrayList<>();
+            for (ColumnDefinition def : metadata.clusteringColumns()) {
+                if (!keys.containsKey(def.name.toString())) {
+                    break;
+                }
+                prefix.add(keys.get(def.name.toString()));
+            }
+            int clusteringSize = metadata.clusteringColumns().size();
+
+            if (range != null) {
+                if (prefix.size() >= clusteringSize
+                        || !metadata.clusteringColumns().get(prefix.size()).name.toString().equals(range.getColumn())) {
+                    skip(event, "range deletion of " + range.getColumn());
+                    return;
+                }
+                TableSchema.Column column = schemaColumns.get(range.getColumn());
+                Slice slice = Slice.make(
+                        bound(prefix, column.serialize(range.getStartValue()), range.isStartInclusive(), true),
+                        bound(prefix, column.serialize(range.getEndValue()), range.isEndInclusive(), false));
+                add(key, new RangeTombstone(slice, deletionTime));
+            } else if (!deletion.getColumns().isEmpty()) {
+                boolean isStatic = prefix.size() < clusteringSize;
+                org.apache.cassandra.db.rows.Row.Builder builder = BTreeRow.unsortedBuilder(nowInSec);
+                builder.newRow(isStatic ? Clustering.STATIC_CLUSTERING : clustering(keys, clusteringSize));
+                for (String name : deletion.getColumns()) {
+                    ColumnDefinition def = metadata.getColumnDefinition(ByteBufferUtil.bytes(name));
+                    if (def == null || def.isStatic() != isStatic) {
+                        skip(event, "deletion of unknown column " + name);
+                        return;
+                    }
+                    if (def.isSimple()) {
+                        builder.addCell(BufferCell.tombstone(def, event.getWriteTimestamp(), nowInSec));
+                    } else {
+                        builder.addComplexDeletion(def, deletionTime);
+                    }
+                }
+                add(key, builder.build());
+            } else if (prefix.size() == clusteringSize) {
+                add(key, BTreeRow.emptyDeletedRow(clustering(keys, clusteringSize),
+                        org.apache.cassandra.db.rows.Row.Deletion.regular(deletionTime)));
+            } else if (prefix.isEmpty()) {
+                partition(key).addPartitionDeletion(deletionTime);
+                bufferedBytes += DeletionTime.serializer.serializedSize(deletionTime);
+            } else {
+                ByteBuffer[] values = prefix.toArray(new ByteBuffer[0]);
+                add(key, new RangeTombstone(Slice.make(ClusteringBound.inclusiveStartOf(values),
+                        ClusteringBound.inclusiveEndOf(values)), deletionTime));
+            }
+        }
+
+        /**
+         * Adds the cells of the column value, serialized in the same way as frozen value for complex columns.
+         */
+        private void addCells(org.apache.cassandra.db.rows.Row.Builder builder, ColumnDefinition def, ByteBuffer value,
+                              long timestamp, int ttl, int localExpirationTime) {
+            if (def.isSimple()) {
+                builder.addCell(cell(def, timestamp, ttl, localExpirationTime, value, null));
+            } else if (def.type instanceof ListType) {
+                for (ByteBuffer element : elements(value, 1)) {
+                    CellPath path = CellPath.create(ByteBuffer.wrap(UUIDGen.getTimeUUIDBytes()));
+                    builder.addCell(cell(def, timestamp, ttl, localExpirationTime, element, path));
+                }
+            } else if (def.type instanceof SetType) {
+                for (ByteBuffer element : elements(value, 1)) {
+                    builder.addCell(cell(def, timestamp, ttl, localExpirationTime, ByteBufferUtil.EMPTY_BYTE_BUFFER,
+                            CellPath.create(element)));
+                }
+            } else if (def.type instanceof MapType) {
+                List<ByteBuffer> elements = elements(value, 2);
+                for (int i = 0; i + 1 < elements.size(); i += 2) {
+                    builder.addCell(cell(def, timestamp, ttl, localExpirationTime, elements.get(i + 1),
+                            CellPath.create(elements.get(i))));
+                }
+            } else if (def.type instanceof UserType) {
+                ByteBuffer[] fields = ((UserType) def.type).split(value);
+                for (int i = 0; i < fields.length; i++) {
+                    // fields not set are left as they are
+                    if (fields[i] != null) {
+                        builder.addCell(cell(def, timestamp, ttl, localExpirationTime, fields[i],
+                                CellPath.create(ByteBufferUtil.bytes((short) i))));
+                    }
+                }
+            }
+        }
+
+        private Cell cell(ColumnDefinition def, long timestamp, int ttl, int localExpirationTime, ByteBuffer value, CellPath path) {
+            return ttl == LivenessInfo.NO_TTL
+                    ? BufferCell.live(def, timestamp, value, path)
+                    : BufferCell.expiring(def, timestamp, ttl, localExpirationTime, value, path);
+        }
+
+        private ByteBuffer serialized(Row row, String name) {
+            ByteBuffer value = row.getSerializedColumns().get(name);
+            return value != null ? value : schemaColumns.get(name).serialize(row.getColumns().get(name));
+        }
+
+        private DecoratedKey partitionKey(Map<String, ByteBuffer> keys) {
+            List<ColumnDefinition> partitionKeys = metadata.partitionKeyColumns();
+            if (partitionKeys.size() == 1) {
+                return metadata.decorateKey(keys.get(partitionKeys.get(0).name.toString()));
+            }
+            Object[] components = new Object[partitionKeys.size()];
+            for (ColumnDefinition def : partitionKeys) {
+                components[def.position()] = keys.get(def.name.toString());
+            }
+            return metadata.decorateKey(CFMetaData.serializePartitionKey(
+                    metadata.getKeyValidatorAsClusteringComparator().make(components)));
+        }
+
+        private Clustering clustering(Map<String, ByteBuffer> keys, int size) {
+            ByteBuffer[] values = new ByteBuffer[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = keys.get(metadata.clusteringColumns().get(i).name.toString());
+            }
+            return Clustering.make(values);
+        }
+
+        /**
+         * @return bound of the range after the prefix, or of the prefix if the range is unbounded
+         */
+        private ClusteringBound bound(List<ByteBuffer> prefix, ByteBuffer value, boolean inclusive, boolean start) {
+            List<ByteBuffer> values = new ArrayList<>(prefix);
+            if (value != null) {
+                values.add(value);
+            }
+            return ClusteringBound.create(ClusteringBound.boundKind(start, value == null || inclusive),
+                    values.toArray(new ByteBuffer[0]));
+        }
+
+        private boolean hasAll(Collection<String> names, List<ColumnDefinition> columns) {
+            for (ColumnDefinition def : columns) {
+                if (!names.contains(def.name.toString())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private PartitionUpdate partition(DecoratedKey key) {
+            PartitionUpdate update = partitions.get(key);
+            if (update == null) {
+                update = new PartitionUpdate(metadata, key, columns, 1);
+                partitions.put(key, update);
+                bufferedBytes += key.getKey().remaining();
+            }
+            return update;
+        }
+
+        private void add(DecoratedKey key, org.apache.cassandra.db.rows.Row row) {
+            partition(key).add(row);
+            bufferedBytes += row.dataSize();
+        }
+
+        private void add(DecoratedKey key, RangeTombstone tombstone) {
+            partition(key).add(tombstone);
+            bufferedBytes += tombstone.deletedSlice().start().dataSize() + tombstone.deletedSlice().end().dataSize()
+                    + DeletionTime.serializer.serializedSize(tombstone.deletionTime());
+        }
+
+        /**
+         * Writes the buffered partitions as an SSTable.
+         */
+        private void writeSSTable() throws IOException {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            Descriptor descriptor = new Descriptor(tableDirectory, metadata.ksName, metadata.cfName, nextGeneration++,
+                    SSTableFormat.Type.current());
+            try (SSTableTxnWriter writer = SSTableTxnWriter.create(metadata, descriptor, partitions.size(),
+                    ActiveRepairService.UNREPAIRED_SSTABLE, 0, SerializationHeader.makeWithoutStats(metadata),
+                    Collections.emptyList())) {
+                for (PartitionUpdate update : partitions.values()) {
+                    writer.append(update.unfilteredIterator());
+                }
+                writer.finish(false);
+            } catch (RuntimeException e) {
+                throw new IOException("Failed to write " + descriptor, e);
+            } finally {
+                partitions.clear();
+                bufferedBytes = 0;
+            }
+        }
+
+        private void close() throws IOException {
+            writeSSTable();
+        }
+    }
+}
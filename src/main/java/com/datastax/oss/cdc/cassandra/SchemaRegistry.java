@@ -0,0 +1,150 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.PartitionColumns;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Assigns ids to {@link TableSchema}s, so that encoded records only carry a small table id.
+ *
+ * The registry is either kept in memory, for streams that carry their schemas inline, or backed by a file
+ * that is shared with readers of encoded records. The file is the sequence of schemas each prefixed by its
+ * length, and only appended to, so that readers can reload it when they see an unknown id.
+ */
+public class SchemaRegistry {
+
+    private final Path file;
+    private final List<TableSchema> schemas = new ArrayList<>();
+    private final Map<UUID, Latest> latest = new HashMap<>();
+    private long loadedBytes = 0;
+
+    /**
+     * Creates in-memory registry.
+     */
+    public SchemaRegistry() {
+        this.file = null;
+    }
+
+    private SchemaRegistry(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the registry backed by the file, loading schemas already registered.
+     *
+     * @param file registry file, created when the first schema is registered
+     */
+    public static SchemaRegistry open(Path file) throws IOException {
+        SchemaRegistry registry = new SchemaRegistry(file);
+        registry.load();
+        return registry;
+    }
+
+    /**
+     * Returns the schema of the current version of the table, registering it when the table is new
+     * or its columns have changed.
+     */
+    public synchronized TableSchema schemaFor(CFMetaData metadata) throws IOException {
+        Latest current = latest.get(metadata.cfId);
+        // columns are replaced on every schema change
+        if (current != null && current.columns == metadata.partitionColumns()) {
+            return current.schema;
+        }
+        List<TableSchema.Column> columns = TableSchema.columnsOf(metadata);
+        if (current != null && current.schema.getColumns().equals(columns)) {
+            latest.put(metadata.cfId, new Latest(metadata.partitionColumns(), current.schema));
+            return current.schema;
+        }
+        TableSchema schema = new TableSchema(schemas.size(),
+                current == null ? 1 : current.schema.getVersion() + 1,
+                metadata.ksName,
+                metadata.cfName,
+                metadata.cfId,
+                columns);
+        if (file != null) {
+            append(schema);
+        }
+        add(schema);
+        latest.put(metadata.cfId, new Latest(metadata.partitionColumns(), schema));
+        return schema;
+    }
+
+    /**
+     * @return schema of the id, or null if not registered
+     */
+    public synchronized TableSchema get(int id) throws IOException {
+        if (id >= schemas.size() && file != null) {
+            // registered after the file was loaded
+            load();
+        }
+        return id < schemas.size() ? schemas.get(id) : null;
+    }
+
+    /**
+     * Adds the schema read from other source, such as inline schemas of encoded stream.
+     */
+    synchronized void add(TableSchema schema) {
+        while (schemas.size() <= schema.getId()) {
+            schemas.add(null);
+        }
+        schemas.set(schema.getId(), schema);
+        Latest current = latest.get(schema.getTableId());
+        if (current == null || current.schema.getVersion() < schema.getVersion()) {
+            latest.put(schema.getTableId(), new Latest(null, schema));
+        }
+    }
+
+    private void append(TableSchema schema) throws IOException {
+        try (DataOutputBuffer buffer = new DataOutputBuffer()) {
+            schema.serialize(buffer);
+            ByteBuffer bytes = buffer.asNewBuffer();
+            ByteBuffer record = ByteBuffer.allocate(4 + bytes.remaining());
+            record.putInt(bytes.remaining()).put(bytes).flip();
+            try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, APPEND)) {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                channel.force(false);
+            }
+            loadedBytes += record.limit();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        bytes.position((int) loadedBytes);
+        // incomplete record at the end is read again on next load
+        while (bytes.remaining() >= 4 && bytes.remaining() - 4 >= bytes.getInt(bytes.position())) {
+            int length = bytes.getInt();
+            ByteBuffer record = bytes.slice();
+            record.limit(length);
+            add(TableSchema.deserialize(new DataInputBuffer(record, false)));
+            bytes.position(bytes.position() + length);
+            loadedBytes = bytes.position();
+        }
+    }
+
+    private static class Latest {
+        // columns of CFMetaData the schema is created from, to detect schema changes cheaply
+        private final PartitionColumns columns;
+        private final TableSchema schema;
+
+        private Latest(PartitionColumns columns, TableSchema schema) {
+            this.columns = columns;
+            this.schema = schema;
+        }
+    }
+}
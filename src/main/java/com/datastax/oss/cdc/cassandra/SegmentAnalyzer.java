@@ -0,0 +1,377 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogReadHandler;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.db.rows.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Aggregates statistics of tables from commit log segments for capacity planning, without converting mutations
+ * to events.
+ *
+ * Segments are read in parallel, each by its own {@link TolerantCommitLogReader}, and statistics of the segments
+ * are merged into a single {@link Report}. Bytes are the sizes of mutations in segments; a mutation of multiple
+ * tables is split between them by the data size of their partitions, so that the bytes of tables add up to
+ * the bytes of segments.
+ */
+public class SegmentAnalyzer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentAnalyzer.class);
+
+    private final int threads;
+    private final DeadLetterQueue deadLetters;
+
+    /**
+     * @param threads number of segments to read in parallel
+     * @param deadLetters queue to send mutations that fail to be read to
+     */
+    public SegmentAnalyzer(int threads, DeadLetterQueue deadLetters) {
+        this.threads = threads;
+        this.deadLetters = Objects.requireNonNull(deadLetters);
+    }
+
+    /**
+     * Analyzes the segments in the directory, or the segment if a file is given. Compressed segments
+     * are decompressed into a temporary directory while they are read.
+     *
+     * @param path directory of commit log segments, or a segment
+     * @return statistics of all segments
+     * @throws IOException when failed to read segments
+     */
+    public Report analyze(Path path) throws IOException {
+        List<Path> segments = Files.isDirectory(path) ? SegmentArchiver.segments(path) : Collections.singletonList(path);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "cdc-analyzer-" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Future<Report>> futures = new ArrayList<>();
+            for (Path segment : segments) {
+                futures.add(executor.submit(() -> analyzeSegment(segment)));
+            }
+            Report report = new Report();
+            for (Future<Report> future : futures) {
+                report.merge(future.get());
+            }
+            return report;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof IOError && e.getCause().getCause() instanceof IOException) {
+                throw (IOException) e.getCause().getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    Report analyzeSegment(Path segment) throws IOException {
+        Path file = segment;
+        Path temporary = null;
+        try {
+            if (SegmentArchiver.compressionOf(segment) != RotatingFileSink.Compression.NONE) {
+                temporary = SegmentArchiver.decompress(segment);
+                file = temporary;
+            }
+            Report report = new Report();
+            report.segments = 1;
+            report.skippedBytes = new TolerantCommitLogReader(deadLetters).read(new Handler(report), file);
+            logger.debug("Analyzed {}", segment);
+            return report;
+        } finally {
+            if (temporary != null) {
+                Files.delete(temporary);
+                Files.delete(temporary.getParent());
+            }
+        }
+    }
+
+    /**
+     * Adds statistics of mutations to the report of a segment.
+     */
+    private static class Handler implements CommitLogReadHandler {
+        private final Report report;
+
+        private Handler(Report report) {
+            this.report = report;
+        }
+
+        @Override
+        public void handleMutation(Mutation m, int size, int entryLocation, CommitLogDescriptor desc) {
+            report.mutations++;
+            report.bytes += size;
+            Collection<PartitionUpdate> updates = m.getPartitionUpdates();
+            long dataSize = 0;
+            if (updates.size() > 1) {
+                for (PartitionUpdate update : updates) {
+                    dataSize += update.dataSize();
+                }
+            }
+            long remaining = size;
+            int i = 0;
+            for (PartitionUpdate update : updates) {
+                long bytes;
+                if (++i == updates.size()) {
+                    bytes = remaining;
+                } else if (dataSize > 0) {
+                    bytes = size * update.dataSize() / dataSize;
+                } else {
+                    bytes = size / updates.size();
+                }
+                remaining -= bytes;
+                report.table(update.metadata()).add(update, bytes);
+            }
+        }
+
+        @Override
+        public boolean shouldSkipSegmentOnError(CommitLogReadException e) {
+            return false;
+        }
+
+        @Override
+        public void handleUnrecoverableError(CommitLogReadException e) throws IOException {
+            throw e;
+        }
+    }
+
+    /**
+     * Statistics of segments, and of tables in them.
+     */
+    public static class Report {
+        private final Map<String, TableStats> tables = new HashMap<>();
+        private int segments;
+        private long mutations;
+        private long bytes;
+        private long skippedBytes;
+
+        private TableStats table(CFMetaData metadata) {
+            return tables.computeIfAbsent(metadata.ksName + "." + metadata.cfName,
+                    name -> new TableStats(metadata.ksName, metadata.cfName));
+        }
+
+        void merge(Report other) {
+            segments += other.segments;
+            mutations += other.mutations;
+            bytes += other.bytes;
+            skippedBytes += other.skippedBytes;
+            other.tables.forEach((name, stats) -> tables.merge(name, stats, TableStats::merge));
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public long getMutations() {
+            return mutations;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return bytes of torn tails of segments that were not read
+         */
+        public long getSkippedBytes() {
+            return skippedBytes;
+        }
+
+        /**
+         * @return statistics of tables by <code>keyspace.table</code>
+         */
+        public Map<String, TableStats> getTables() {
+            return Collections.unmodifiableMap(tables);
+        }
+
+        /**
+         * Prints the totals, and the statistics of tables from the most bytes.
+         */
+        public void print(PrintStream out) {
+            out.printf("Segments: %d, mutations: %d, bytes: %d, skipped bytes: %d%n", segments, mutations, bytes, skippedBytes);
+            out.printf("%-40s %12s %14s %7s %12s %12s %10s %10s %10s %10s %-27s %-27s%n",
+                    "table", "mutations", "bytes", "share", "rows", "cells", "partition", "range", "row", "cell",
+                    "min timestamp", "max timestamp");
+            out.printf("%-40s %12s %14s %7s %12s %12s %10s %10s %10s %10s%n",
+                    "", "", "", "", "", "", "deletions", "tombstones", "deletions", "tombstones");
+            tables.values().stream()
+                    .sorted(Comparator.comparingLong(TableStats::getBytes).reversed())
+                    .forEach(t -> out.printf("%-40s %12d %14d %6.2f%% %12d %12d %10d %10d %10d %10d %-27s %-27s%n",
+                            t.keyspace + "." + t.table, t.mutations, t.bytes, bytes == 0 ? 0 : t.bytes * 100.0 / bytes,
+                            t.rows, t.cells, t.partitionDeletions, t.rangeTombstones, t.rowDeletions, t.cellTombstones,
+                            toInstant(t.minTimestamp), toInstant(t.maxTimestamp)));
+        }
+
+        private static Instant toInstant(long micros) {
+            return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000), Math.floorMod(micros, 1_000_000) * 1000);
+        }
+    }
+
+    /**
+     * Statistics of partition updates of one table.
+     */
+    public static class TableStats {
+        private final String keyspace;
+        private final String table;
+        private long mutations;
+        private long bytes;
+        private long rows;
+        private long cells;
+        private long partitionDeletions;
+        private long rangeTombstones;
+        private long rowDeletions;
+        private long cellTombstones;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        TableStats(String keyspace, String table) {
+            this.keyspace = keyspace;
+            this.table = table;
+        }
+
+        void add(PartitionUpdate update, long bytes) {
+            mutations++;
+            this.bytes += bytes;
+            if (!update.partitionLevelDeletion().isLive()) {
+                partitionDeletions++;
+            }
+            rangeTombstones += update.deletionInfo().rangeCount();
+            if (!update.staticRow().isEmpty()) {
+                add(update.staticRow());
+            }
+            for (Row row : update) {
+                add(row);
+            }
+            minTimestamp = Math.min(minTimestamp, update.stats().minTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, update.maxTimestamp());
+        }
+
+        private void add(Row row) {
+            rows++;
+            if (!row.deletion().isLive()) {
+                rowDeletions++;
+            }
+            for (ColumnData data : row) {
+                if (data.column().isComplex()) {
+                    ComplexColumnData complex = (ComplexColumnData) data;
+                    // collection overwritten or deleted as a whole
+                    if (!complex.complexDeletion().isLive()) {
+                        cellTombstones++;
+                    }
+                    for (Cell cell : complex) {
+                        add(cell);
+                    }
+                } else {
+                    add((Cell) data);
+                }
+            }
+        }
+
+        private void add(Cell cell) {
+            cells++;
+            if (cell.isTombstone()) {
+                cellTombstones++;
+            }
+        }
+
+        TableStats merge(TableStats other) {
+            mutations += other.mutations;
+            bytes += other.bytes;
+            rows += other.rows;
+            cells += other.cells;
+            partitionDeletions += other.partitionDeletions;
+            rangeTombstones += other.rangeTombstones;
+            rowDeletions += other.rowDeletions;
+            cellTombstones += other.cellTombstones;
+            minTimestamp = Math.min(minTimestamp, other.minTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, other.maxTimestamp);
+            return this;
+        }
+
+        public String getKeyspace() {
+            return keyspace;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * @return number of partition updates of the table
+         */
+        public long getMutations() {
+            return mutations;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getCells() {
+            return cells;
+        }
+
+        public long getPartitionDeletions() {
+            return partitionDeletions;
+        }
+
+        public long getRangeTombstones() {
+            return rangeTombstones;
+        }
+
+        public long getRowDeletions() {
+            return rowDeletions;
+        }
+
+        /**
+         * @return deleted cells, and collections deleted or overwritten as a whole
+         */
+        public long getCellTombstones() {
+            return cellTombstones;
+        }
+
+        /**
+         * @return the smallest write timestamp in microseconds
+         */
+        public long getMinTimestamp() {
+            return minTimestamp;
+        }
+
+        /**
+         * @return the largest write timestamp in microseconds
+         */
+        public long getMaxTimestamp() {
+            return maxTimestamp;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves processed commit log segments out of the CDC directory into an archive directory, instead of deleting them,
+ * so that they can be replayed by {@link SegmentReplayer}.
+ *
+ * Segments are hard linked into the archive directory and unlinked from the CDC directory right away,
+ * which frees the space counted against <code>cdc_total_space_in_mb</code> without copying.
+ * They are then compressed on a single low priority thread, together with the index built while they were read.
+ * When the archive directory is on another file system, segments are compressed from the CDC directory,
+ * and removed from it after that.
+ *
+ * After each segment is archived, the oldest segments are removed until the archive is within
+ * the maximum size and age.
+ */
+public class SegmentArchiver implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentArchiver.class);
+
+    private final Counter archived = CDCMetrics.registry.counter("Archive.Segments");
+    private final Counter expired = CDCMetrics.registry.counter("Archive.Expired");
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Path directory;
+    private final RotatingFileSink.Compression compression;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final ExecutorService executor;
+
+    /**
+     * @param directory archive directory
+     * @param compression compression of archived segments
+     * @param maxBytes maximum total size of the archive, or 0 for no limit
+     * @param maxAgeMillis maximum age of archived segments, or 0 for no limit
+     */
+    public SegmentArchiver(Path directory, RotatingFileSink.Compression compression, long maxBytes, long maxAgeMillis)
+            throws IOException {
+        this.directory = directory;
+        this.compression = compression;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        Files.createDirectories(directory);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cdc-archive");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        CDCMetrics.gauge("Archive.Pending", pending::get);
+
+        // segments linked before the last stop but not compressed yet
+        if (compression != RotatingFileSink.Compression.NONE) {
+            for (Path segment : segments(directory)) {
+                if (compressionOf(segment) == RotatingFileSink.Compression.NONE) {
+                    submit(segment, segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return name of the segment without the extension of compression
+     */
+    static String segmentName(Path file) {
+        String name = file.getFileName().toString();
+        RotatingFileSink.Compression compression = compressionOf(file);
+        return name.substring(0, name.length() - compression.extension().length());
+    }
+
+    static RotatingFileSink.Compression compressionOf(Path file) {
+        String name = file.getFileName().toString();
+        for (RotatingFileSink.Compression compression : RotatingFileSink.Compression.values()) {
+            if (compression != RotatingFileSink.Compression.NONE && name.endsWith(compression.extension())) {
+                return compression;
+            }
+        }
+        return RotatingFileSink.Compression.NONE;
+    }
+
+    /**
+     * @return segments in the directory, compressed or not, in the order they were written
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                path -> CommitLogDescriptor.isValid(segmentName(path)))) {
+            files.forEach(segments::add);
+        }
+        segments.sort(Comparator.comparingLong(path -> CommitLogDescriptor.fromFileName(segmentName(path)).id));
+        return segments;
+    }
+
+    /**
+     * Decompresses the archived segment into a temporary directory.
+     *
+     * @return decompressed segment with the original name, to be removed with its directory by the caller
+     */
+    static Path decompress(Path archived) throws IOException {
+        Path segment = Files.createTempDirectory("cdc-replay").resolve(segmentName(archived));
+        try (InputStream in = compressionOf(archived).wrap(Files.newInputStream(archived))) {
+            Files.copy(in, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Hard links the segment into the archive directory and removes it from the CDC directory,
+     * to free space of the CDC directory before the segment is processed.
+     *
+     * @param segment segment in the CDC directory
+     * @return linked segment in the archive directory, or the given segment if it cannot be linked
+     */
+    public Path detach(Path segment) {
+        Path target = directory.resolve(segment.getFileName());
+        if (segment.equals(target)) {
+            return segment;
+        }
+        try {
+            // left from a previous run that stopped before the segment was removed from the CDC directory
+            Files.deleteIfExists(target);
+            Files.createLink(target, segment);
+            Files.delete(segment);
+            return target;
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.debug("Cannot link {} to {}, copying", segment, target, e);
+            return segment;
+        }
+    }
+
+    /**
+     * Removes the processed segment from the CDC directory, and archives it with its index.
+     *
+     * @param segment processed segment in the CDC directory, or detached by {@link #detach(Path)}
+     * @param index index of the segment
+     * @throws IOException when failed to write the index
+     */
+    public void archive(Path segment, SegmentIndex index) throws IOException {
+        Path target = directory.resolve(segment.getFileName());
+        index.write(SegmentIndex.pathOf(target));
+        Path source = detach(segment);
+        if (source.equals(target) && compression == RotatingFileSink.Compression.NONE) {
+            archived.inc();
+            executor.execute(this::expire);
+        } else {
+            submit(source, target);
+        }
+    }
+
+    private void submit(Path source, Path target) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                store(source, target);
+                archived.inc();
+            } catch (IOException e) {
+                logger.error("Failed to archive {}", source, e);
+            } finally {
+                pending.decrementAndGet();
+            }
+            expire();
+        });
+    }
+
+    private void store(Path source, Path target) throws IOException {
+        Path file = target.resolveSibling(target.getFileName() + compression.extension());
+        Path temporary = target.resolveSibling("." + file.getFileName() + ".tmp");
+        try (OutputStream out = compression.wrap(Files.newOutputStream(temporary))) {
+            Files.copy(source, out);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(source);
+    }
+
+    /**
+     * Removes the oldest segments and their indexes while the archive is over the maximum size or age.
+     */
+    void expire() {
+        if (maxBytes <= 0 && maxAgeMillis <= 0) {
+            return;
+        }
+        try {
+            List<Path> segments = segments(directory);
+            long total = 0;
+            for (Path segment : segments) {
+                total += size(segment) + size(SegmentIndex.pathOf(segment));
+            }
+            long oldest = System.currentTimeMillis() - maxAgeMillis;
+            for (Path segment : segments) {
+                boolean tooLarge = maxBytes > 0 && total > maxBytes;
+                boolean tooOld = maxAgeMillis > 0 && Files.getLastModifiedTime(segment).toMillis() < oldest;
+                if (!tooLarge && !tooOld) {
+                    break;
+                }
+                Path index = SegmentIndex.pathOf(segment);
+                total -= size(segment) + size(index);
+                Files.delete(segment);
+                Files.deleteIfExists(index);
+                expired.inc();
+                logger.debug("Removed {} from archive", segment);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to remove old segments from {}", directory, e);
+        }
+    }
+
+    private static long size(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    /**
+     * Waits for segments being compressed.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("{} segments are not archived yet", pending.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
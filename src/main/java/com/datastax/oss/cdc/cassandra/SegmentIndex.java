@@ -0,0 +1,385 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogReadHandler;
+import org.apache.cassandra.db.commitlog.CommitLogReader;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.UUIDSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Summary of a commit log segment, written as a sidecar file next to the segment
+ * (<code>CommitLog-6-123.log</code> has <code>CommitLog-6-123.idx</code>).
+ *
+ * For each table in the segment, the index has the number and total size of mutations, the range of write timestamps
+ * and the range of positions of its mutations, so that replaying a table or a time range can skip segments
+ * without the table or the time range, and start reading the rest at the first mutation of the table.
+ * Sizes are of whole mutations, which are counted for each table they contain.
+ *
+ * <pre>
+ * index := MAGIC FORMAT_VERSION segment_id:long mutations:uvint bytes:uvint count:uvint table* crc32:int
+ * table := id:uuid keyspace:utf table:utf mutations:uvint bytes:uvint min_timestamp:long max_timestamp:long
+ *          start_position:uvint end_position:uvint first_mutation:uvint last_mutation:uvint
+ * </pre>
+ *
+ * The start position is the end of the mutation before the first mutation of the table, where
+ * {@link CommitLogReader} can start reading, and mutations are numbered from 0 in the order in the segment.
+ */
+public class SegmentIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentIndex.class);
+
+    static final int MAGIC = 0x43444349; // "CDCI"
+    static final byte FORMAT_VERSION = 1;
+    static final String EXTENSION = ".idx";
+
+    private final long segmentId;
+    private final int mutations;
+    private final long bytes;
+    private final Map<UUID, TableEntry> tables;
+
+    SegmentIndex(long segmentId, int mutations, long bytes, Map<UUID, TableEntry> tables) {
+        this.segmentId = segmentId;
+        this.mutations = mutations;
+        this.bytes = bytes;
+        this.tables = Collections.unmodifiableMap(tables);
+    }
+
+    /**
+     * @return path of the index of the segment, which may be compressed by {@link SegmentArchiver}
+     */
+    public static Path pathOf(Path segment) {
+        String name = SegmentArchiver.segmentName(segment);
+        return segment.resolveSibling(name.substring(0, name.lastIndexOf('.')) + EXTENSION);
+    }
+
+    /**
+     * Reads the index of the segment, or builds it by reading the segment and writes it if there is no valid index.
+     *
+     * @param segment commit log segment, not compressed
+     * @return index of the segment
+     * @throws IOException when failed to read the segment
+     */
+    public static SegmentIndex load(Path segment) throws IOException {
+        SegmentIndex index = find(segment);
+        if (index == null) {
+            index = build(segment);
+            index.tryWrite(pathOf(segment));
+        }
+        return index;
+    }
+
+    /**
+     * @param segment commit log segment, which may be compressed
+     * @return index of the segment, or null if there is no valid index
+     */
+    public static SegmentIndex find(Path segment) {
+        Path path = pathOf(segment);
+        if (Files.notExists(path)) {
+            return null;
+        }
+        try {
+            SegmentIndex index = read(path);
+            if (index.segmentId == CommitLogDescriptor.fromFileName(SegmentArchiver.segmentName(segment)).id) {
+                return index;
+            }
+            logger.warn("Index {} is not of segment {}", path, segment);
+        } catch (IOException e) {
+            logger.warn("Failed to read index {}", path, e);
+        }
+        return null;
+    }
+
+    /**
+     * Builds the index by reading the segment without converting mutations.
+     *
+     * @param segment commit log segment, not compressed
+     */
+    public static SegmentIndex build(Path segment) throws IOException {
+        Builder builder = new Builder(CommitLogDescriptor.fromFileName(segment.getFileName().toString()).id, null);
+        new CommitLogReader().readCommitLogSegment(builder, segment.toFile(), false);
+        return builder.build();
+    }
+
+    public static SegmentIndex read(Path path) throws IOException {
+        byte[] data = Files.readAllBytes(path);
+        if (data.length < 9) {
+            throw new IOException("Not a segment index");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) {
+            throw new IOException("Checksum mismatch");
+        }
+        DataInputPlus in = new DataInputBuffer(data);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a segment index");
+        }
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported format version " + version);
+        }
+        long segmentId = in.readLong();
+        int mutations = (int) in.readUnsignedVInt();
+        long bytes = in.readUnsignedVInt();
+        int count = (int) in.readUnsignedVInt();
+        Map<UUID, TableEntry> tables = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            TableEntry entry = new TableEntry(UUIDSerializer.serializer.deserialize(in, 0), in.readUTF(), in.readUTF());
+            entry.mutations = (int) in.readUnsignedVInt();
+            entry.bytes = in.readUnsignedVInt();
+            entry.minTimestamp = in.readLong();
+            entry.maxTimestamp = in.readLong();
+            entry.startPosition = (int) in.readUnsignedVInt();
+            entry.endPosition = (int) in.readUnsignedVInt();
+            entry.firstMutation = (int) in.readUnsignedVInt();
+            entry.lastMutation = (int) in.readUnsignedVInt();
+            tables.put(entry.id, entry);
+        }
+        return new SegmentIndex(segmentId, mutations, bytes, tables);
+    }
+
+    /**
+     * Writes the index with temporary name, and atomically renames it.
+     */
+    public void write(Path path) throws IOException {
+        try (DataOutputBuffer out = new DataOutputBuffer()) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(segmentId);
+            out.writeUnsignedVInt(mutations);
+            out.writeUnsignedVInt(bytes);
+            out.writeUnsignedVInt(tables.size());
+            for (TableEntry entry : tables.values()) {
+                UUIDSerializer.serializer.serialize(entry.id, out, 0);
+                out.writeUTF(entry.keyspace);
+                out.writeUTF(entry.table);
+                out.writeUnsignedVInt(entry.mutations);
+                out.writeUnsignedVInt(entry.bytes);
+                out.writeLong(entry.minTimestamp);
+                out.writeLong(entry.maxTimestamp);
+                out.writeUnsignedVInt(entry.startPosition);
+                out.writeUnsignedVInt(entry.endPosition);
+                out.writeUnsignedVInt(entry.firstMutation);
+                out.writeUnsignedVInt(entry.lastMutation);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(out.getData(), 0, out.getLength());
+            out.writeInt((int) crc.getValue());
+
+            Path temporary = path.resolveSibling("." + path.getFileName() + ".tmp");
+            Files.write(temporary, Arrays.copyOf(out.getData(), out.getLength()));
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Writes the index, or logs a warning if failed, since the index can be built again from the segment.
+     */
+    void tryWrite(Path path) {
+        try {
+            write(path);
+        } catch (IOException e) {
+            logger.warn("Failed to write index {}", path, e);
+        }
+    }
+
+    public long getSegmentId() {
+        return segmentId;
+    }
+
+    public int getMutations() {
+        return mutations;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return entries of tables in the segment, by table id
+     */
+    public Map<UUID, TableEntry> getTables() {
+        return tables;
+    }
+
+    /**
+     * @return the smallest write timestamp in microseconds, or {@link Long#MAX_VALUE} if the segment is empty
+     */
+    public long getMinTimestamp() {
+        return tables.values().stream().mapToLong(TableEntry::getMinTimestamp).min().orElse(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the largest write timestamp in microseconds, or {@link Long#MIN_VALUE} if the segment is empty
+     */
+    public long getMaxTimestamp() {
+        return tables.values().stream().mapToLong(TableEntry::getMaxTimestamp).max().orElse(Long.MIN_VALUE);
+    }
+
+    /**
+     * Mutations of one table in the segment.
+     */
+    public static class TableEntry {
+        private final UUID id;
+        private final String keyspace;
+        private final String table;
+        private int mutations;
+        private long bytes;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private int startPosition;
+        private int endPosition;
+        private int firstMutation;
+        private int lastMutation;
+
+        TableEntry(UUID id, String keyspace, String table) {
+            this.id = id;
+            this.keyspace = keyspace;
+            this.table = table;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public String getKeyspace() {
+            return keyspace;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public int getMutations() {
+            return mutations;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the smallest write timestamp in microseconds
+         */
+        public long getMinTimestamp() {
+            return minTimestamp;
+        }
+
+        /**
+         * @return the largest write timestamp in microseconds
+         */
+        public long getMaxTimestamp() {
+            return maxTimestamp;
+        }
+
+        /**
+         * @return position to start reading the first mutation of the table from
+         */
+        public int getStartPosition() {
+            return startPosition;
+        }
+
+        /**
+         * @return end position of the last mutation of the table
+         */
+        public int getEndPosition() {
+            return endPosition;
+        }
+
+        public int getFirstMutation() {
+            return firstMutation;
+        }
+
+        public int getLastMutation() {
+            return lastMutation;
+        }
+
+        /**
+         * @return true if the table has writes in the time range in microseconds, from inclusive to exclusive
+         */
+        public boolean overlaps(long fromMicros, long toMicros) {
+            return minTimestamp < toMicros && maxTimestamp >= fromMicros;
+        }
+    }
+
+    /**
+     * Builds the index of a segment from the mutations read, and passes them to the delegate if any.
+     */
+    public static class Builder implements CommitLogReadHandler {
+        private final long segmentId;
+        private final CommitLogReadHandler delegate;
+        private final Map<UUID, TableEntry> tables = new LinkedHashMap<>();
+        private int mutations;
+        private long bytes;
+        // end of the last mutation read, where the next mutation starts
+        private int lastPosition;
+
+        /**
+         * @param segmentId id of the segment to read
+         * @param delegate handler to pass mutations to, or null to only build the index
+         */
+        public Builder(long segmentId, CommitLogReadHandler delegate) {
+            this.segmentId = segmentId;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void handleMutation(Mutation m, int size, int entryLocation, CommitLogDescriptor desc) {
+            for (PartitionUpdate update : m.getPartitionUpdates()) {
+                CFMetaData metadata = update.metadata();
+                TableEntry entry = tables.get(metadata.cfId);
+                if (entry == null) {
+                    entry = new TableEntry(metadata.cfId, metadata.ksName, metadata.cfName);
+                    entry.startPosition = lastPosition;
+                    entry.firstMutation = mutations;
+                    tables.put(metadata.cfId, entry);
+                }
+                entry.mutations++;
+                entry.bytes += size;
+                entry.minTimestamp = Math.min(entry.minTimestamp, update.stats().minTimestamp);
+                entry.maxTimestamp = Math.max(entry.maxTimestamp, update.maxTimestamp());
+                entry.endPosition = entryLocation;
+                entry.lastMutation = mutations;
+            }
+            mutations++;
+            bytes += size;
+            lastPosition = entryLocation;
+            if (delegate != null) {
+                delegate.handleMutation(m, size, entryLocation, desc);
+            }
+        }
+
+        @Override
+        public boolean shouldSkipSegmentOnError(CommitLogReadException e) throws IOException {
+            return delegate != null && delegate.shouldSkipSegmentOnError(e);
+        }
+
+        @Override
+        public void handleUnrecoverableError(CommitLogReadException e) throws IOException {
+            if (delegate != null) {
+                delegate.handleUnrecoverableError(e);
+            } else {
+                throw e;
+            }
+        }
+
+        public SegmentIndex build() {
+            return new SegmentIndex(segmentId, mutations, bytes, new LinkedHashMap<>(tables));
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogReadHandler;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays events of given tables and time range from a directory of kept commit log segments,
+ * such as the archive directory of {@link SegmentArchiver}.
+ *
+ * Each segment is looked up in its {@link SegmentIndex}, which is built and written next to the segment
+ * if it does not exist yet. Segments without the tables in the time range are skipped without reading them,
+ * and other segments are read from the start position to the end position of the tables,
+ * with {@link TolerantCommitLogReader} that logs and skips mutations and segment tails that cannot be read.
+ * Only the partitions of the tables in the time range are converted, and only the events in the time range are written.
+ */
+public class SegmentReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentReplayer.class);
+
+    private final Counter readSegments = CDCMetrics.registry.counter("Replay.ReadSegments");
+    private final Counter skippedSegments = CDCMetrics.registry.counter("Replay.SkippedSegments");
+
+    private final ChangeEventSink sink;
+    private final DeadLetterQueue deadLetters = new DeadLetterQueue(null);
+    private final Set<String> tables;
+    private final Instant from;
+    private final Instant to;
+    private final long fromMicros;
+    private final long toMicros;
+    private long events;
+
+    /**
+     * @param sink sink to write events to
+     * @param tables tables to replay as <code>keyspace.table</code>, or empty to replay all tables
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     */
+    public SegmentReplayer(ChangeEventSink sink, Set<String> tables, Instant from, Instant to) {
+        this.sink = Objects.requireNonNull(sink);
+        this.tables = tables;
+        this.from = from;
+        this.to = to;
+        this.fromMicros = toMicros(from);
+        this.toMicros = toMicros(to);
+    }
+
+    private static long toMicros(Instant instant) {
+        if (instant.equals(Instant.MIN)) {
+            return Long.MIN_VALUE;
+        } else if (instant.equals(Instant.MAX)) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.SECONDS.toMicros(instant.getEpochSecond()) + TimeUnit.NANOSECONDS.toMicros(instant.getNano());
+    }
+
+    /**
+     * Replays the segments in the directory, oldest first. Compressed segments are decompressed into
+     * a temporary directory, only when they have the tables in the time range.
+     *
+     * @param directory directory of commit log segments
+     * @return number of events written
+     * @throws IOException when failed to read segments or to write events
+     */
+    public long replay(Path directory) throws IOException {
+        long before = events;
+        for (Path segment : SegmentArchiver.segments(directory)) {
+            replaySegment(segment);
+        }
+        return events - before;
+    }
+
+    void replaySegment(Path segment) throws IOException {
+        SegmentIndex index = SegmentIndex.find(segment);
+        if (index != null && !select(index)) {
+            skip(segment);
+            return;
+        }
+        Path file = segment;
+        Path temporary = null;
+        try {
+            if (SegmentArchiver.compressionOf(segment) != RotatingFileSink.Compression.NONE) {
+                temporary = SegmentArchiver.decompress(segment);
+                file = temporary;
+            }
+            if (index == null) {
+                index = SegmentIndex.build(file);
+                index.tryWrite(SegmentIndex.pathOf(segment));
+                if (!select(index)) {
+                    skip(segment);
+                    return;
+                }
+            }
+            read(file, index);
+        } finally {
+            if (temporary != null) {
+                Files.delete(temporary);
+                Files.delete(temporary.getParent());
+            }
+        }
+    }
+
+    private boolean select(SegmentIndex index) {
+        for (SegmentIndex.TableEntry entry : index.getTables().values()) {
+            if (matches(entry.getKeyspace(), entry.getTable()) && entry.overlaps(fromMicros, toMicros)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skip(Path segment) {
+        logger.debug("Skipping {}", segment);
+        skippedSegments.inc();
+    }
+
+    private void read(Path segment, SegmentIndex index) throws IOException {
+        Set<UUID> matching = new HashSet<>();
+        int start = Integer.MAX_VALUE;
+        int end = 0;
+        for (SegmentIndex.TableEntry entry : index.getTables().values()) {
+            if (matches(entry.getKeyspace(), entry.getTable()) && entry.overlaps(fromMicros, toMicros)) {
+                matching.add(entry.getId());
+                start = Math.min(start, entry.getStartPosition());
+                end = Math.max(end, entry.getEndPosition());
+            }
+        }
+        readSegments.inc();
+        try {
+            new TolerantCommitLogReader(deadLetters).read(new Handler(matching), segment, start, end);
+        } catch (IOError e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private boolean matches(String keyspace, String table) {
+        return tables.isEmpty() || tables.contains(keyspace + "." + table);
+    }
+
+    private void write(ChangeEvent event) {
+        Instant timestamp = event.getEventTimestamp();
+        if (timestamp.isBefore(from) || !timestamp.isBefore(to)) {
+            return;
+        }
+        try {
+            sink.write(event);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+        events++;
+    }
+
+    private class Handler implements CommitLogReadHandler {
+        private final Set<UUID> tableIds;
+
+        private Handler(Set<UUID> tableIds) {
+            this.tableIds = tableIds;
+        }
+
+        @Override
+        public void handleMutation(Mutation m, int size, int entryLocation, CommitLogDescriptor desc) {
+            for (PartitionUpdate update : m.getPartitionUpdates()) {
+                if (tableIds.contains(update.metadata().cfId)
+                        && update.stats().minTimestamp < toMicros && update.maxTimestamp() >= fromMicros) {
+                    new PartitionParser(update).toChangeEvents(SegmentReplayer.this::write);
+                }
+            }
+        }
+
+        @Override
+        public boolean shouldSkipSegmentOnError(CommitLogReadException e) {
+            return false;
+        }
+
+        @Override
+        public void handleUnrecoverableError(CommitLogReadException e) throws IOException {
+            throw e;
+        }
+    }
+}
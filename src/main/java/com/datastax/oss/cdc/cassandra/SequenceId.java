@@ -0,0 +1,113 @@
+package com.datastax.oss.cdc.cassandra;
+
+/**
+ * Position of an event in the commit log, which increases with every event written from commit log segments,
+ * so that consumers can drop events replayed at or below the highest id they have applied.
+ *
+ * The id is the segment id and the position in the segment, which has the end of the mutation in the segment
+ * in the upper 32 bits, the index of the partition in the mutation in the next {@value #PARTITION_BITS} bits,
+ * and the index of the event in the partition in the lower {@value #EVENT_BITS} bits.
+ * Its string form is 32 hexadecimal digits, which sort in the same order as ids.
+ * A partition with more than 2^{@value #EVENT_BITS} events, or a mutation with more than 2^{@value #PARTITION_BITS}
+ * partitions (one for each table of the keyspace), does not fit in the id. {@link CommitLogHandler} sends the events
+ * that do not fit to {@link DeadLetterQueue} as a failed conversion, instead of stopping reading the segment.
+ *
+ * Events dropped as unchanged values do not take an index, so the ids of events of the same partition can differ
+ * between runs with different options, while they compare the same with ids of other mutations.
+ */
+public final class SequenceId implements Comparable<SequenceId> {
+
+    static final int PARTITION_BITS = 12;
+    static final int EVENT_BITS = 20;
+
+    private final long segmentId;
+    private final long position;
+
+    /**
+     * @param segmentId id of the commit log segment
+     * @param position position of the event in the segment
+     */
+    public SequenceId(long segmentId, long position) {
+        this.segmentId = segmentId;
+        this.position = position;
+    }
+
+    /**
+     * @param segmentId id of the commit log segment
+     * @param entryLocation end of the mutation in the segment
+     * @param partitionIndex index of the partition in the mutation
+     * @param eventIndex index of the event in the partition
+     * @throws IllegalArgumentException if the indexes do not fit in their bits
+     */
+    public static SequenceId of(long segmentId, int entryLocation, int partitionIndex, int eventIndex) {
+        if (partitionIndex >>> PARTITION_BITS != 0 || eventIndex >>> EVENT_BITS != 0) {
+            throw new IllegalArgumentException(String.format("Partition %d or event %d out of range at %d in segment %d",
+                    partitionIndex, eventIndex, entryLocation, segmentId));
+        }
+        return new SequenceId(segmentId, (long) entryLocation << 32 | (long) partitionIndex << EVENT_BITS | eventIndex);
+    }
+
+    /**
+     * @param id id in the form of {@link #toString()}
+     */
+    public static SequenceId parse(String id) {
+        if (id.length() != 32) {
+            throw new IllegalArgumentException("Invalid sequence id " + id);
+        }
+        return new SequenceId(Long.parseUnsignedLong(id.substring(0, 16), 16), Long.parseUnsignedLong(id.substring(16), 16));
+    }
+
+    public long getSegmentId() {
+        return segmentId;
+    }
+
+    /**
+     * @return position of the event in the segment
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return end of the mutation in the segment
+     */
+    public int getEntryLocation() {
+        return (int) (position >>> 32);
+    }
+
+    public int getPartitionIndex() {
+        return (int) (position >>> EVENT_BITS) & ((1 << PARTITION_BITS) - 1);
+    }
+
+    public int getEventIndex() {
+        return (int) position & ((1 << EVENT_BITS) - 1);
+    }
+
+    @Override
+    public int compareTo(SequenceId o) {
+        int c = Long.compareUnsigned(segmentId, o.segmentId);
+        return c != 0 ? c : Long.compareUnsigned(position, o.position);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SequenceId)) {
+            return false;
+        }
+        SequenceId that = (SequenceId) o;
+        return segmentId == that.segmentId && position == that.position;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(segmentId) + Long.hashCode(position);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", segmentId, position);
+    }
+}
@@ -0,0 +1,250 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.partitions.PartitionIterator;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterators;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.RowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterators;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.FBUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Emits the current state of a table from its SSTables, such as a <code>nodetool snapshot</code> directory,
+ * as {@link ChangeEventType#UPDATE} events.
+ *
+ * The token ring is split into ranges that are read in parallel. Each range is read from all SSTables and
+ * merged, so that data deleted or overwritten in another SSTable is not emitted, and tombstones and expired cells
+ * are dropped. Each row is converted by {@link PartitionParser} one at a time, and events keep
+ * the write timestamps of their cells.
+ *
+ * The high-water timestamp returned is the largest write timestamp in the SSTables. All writes at or before
+ * the snapshot are in the SSTables, and writes after it are in commit log segments that reach the CDC directory
+ * later, so that processing the CDC directory after the snapshot continues without a gap.
+ * Events of those segments with timestamps at or below the high-water timestamp may already be reflected
+ * in the snapshot.
+ */
+public class SnapshotReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotReader.class);
+
+    private static final UnfilteredPartitionIterators.MergeListener NO_LISTENER = new UnfilteredPartitionIterators.MergeListener() {
+        @Override
+        public UnfilteredRowIterators.MergeListener getRowMergeListener(DecoratedKey partitionKey, List<UnfilteredRowIterator> versions) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final Counter emitted = CDCMetrics.registry.counter("Snapshot.Events");
+
+    private final ChangeEventSink sink;
+    private final int threads;
+    private ResourceGovernor governor;
+    private WatermarkTracker watermarks;
+
+    /**
+     * @param sink sink to write events to
+     * @param threads number of token ranges to read in parallel
+     */
+    public SnapshotReader(ChangeEventSink sink, int threads) {
+        this.sink = sink;
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the governor to limit the bytes read from SSTables per second and the ranges read in parallel with.
+     * The number of threads is the maximum.
+     */
+    public void setGovernor(ResourceGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Sets the tracker to hold the watermark with while a snapshot is read, since its rows are not
+     * in the order of their timestamps.
+     */
+    public void setWatermarks(WatermarkTracker watermarks) {
+        this.watermarks = watermarks;
+    }
+
+    /**
+     * Emits all rows in the SSTables of the directory.
+     *
+     * @param directory directory of SSTables of a table, such as <code>data/keyspace/table-id/snapshots/tag</code>
+     * @return high-water timestamp in microseconds, or {@link Long#MIN_VALUE} if there is no SSTable
+     * @throws IOException when failed to read SSTables or to write events
+     */
+    public long read(Path directory) throws IOException {
+        List<SSTableReader> readers = open(directory);
+        if (readers.isEmpty()) {
+            logger.warn("No SSTable found in {}", directory);
+            return Long.MIN_VALUE;
+        }
+        WatermarkTracker.Source source = watermarks == null ? null : watermarks.open(directory.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "cdc-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CFMetaData metadata = readers.get(0).metadata;
+            int nowInSec = FBUtilities.nowInSeconds();
+            List<Future<?>> futures = new ArrayList<>();
+            // more ranges than threads, so that threads are kept busy when the data is not evenly distributed
+            for (Range<Token> range : split(metadata.partitioner, threads * 4)) {
+                futures.add(executor.submit(() -> {
+                    if (governor == null) {
+                        readRange(metadata, readers, range, nowInSec);
+                        return null;
+                    }
+                    governor.acquireWorker();
+                    try {
+                        readRange(metadata, readers, range, nowInSec);
+                    } finally {
+                        governor.releaseWorker();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() instanceof IOError ? e.getCause().getCause() : e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading " + directory, e);
+                }
+            }
+            return readers.stream().mapToLong(SSTableReader::getMaxTimestamp).max().getAsLong();
+        } finally {
+            executor.shutdownNow();
+            if (source != null) {
+                source.close();
+            }
+            for (SSTableReader reader : readers) {
+                reader.selfRef().release();
+            }
+        }
+    }
+
+    private static List<SSTableReader> open(Path directory) throws IOException {
+        List<Path> dataFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            dataFiles = files.filter(f -> f.getFileName().toString().endsWith("-Data.db")).sorted().collect(Collectors.toList());
+        }
+        List<SSTableReader> readers = new ArrayList<>();
+        try {
+            for (Path dataFile : dataFiles) {
+                Descriptor descriptor = Descriptor.fromFilename(dataFile.toString());
+                CFMetaData metadata = Schema.instance.getCFMetaData(descriptor.ksname, descriptor.cfname);
+                if (metadata == null) {
+                    throw new IOException(String.format("Unknown table %s.%s of %s", descriptor.ksname, descriptor.cfname, dataFile));
+                }
+                readers.add(SSTableReader.openNoValidation(descriptor, metadata));
+            }
+        } catch (IOException | RuntimeException e) {
+            readers.forEach(reader -> reader.selfRef().release());
+            throw e;
+        }
+        return readers;
+    }
+
+    /**
+     * @return ranges that cover the whole ring, split by the midpoint into at least the given number
+     */
+    static List<Range<Token>> split(IPartitioner partitioner, int count) {
+        Token minimum = partitioner.getMinimumToken();
+        List<Range<Token>> ranges = Collections.singletonList(new Range<>(minimum, minimum));
+        while (ranges.size() < count) {
+            List<Range<Token>> split = new ArrayList<>(ranges.size() * 2);
+            for (Range<Token> range : ranges) {
+                Token midpoint = partitioner.midpoint(range.left, range.right);
+                if (midpoint.equals(range.left) || midpoint.equals(range.right)) {
+                    // too small to split
+                    split.add(range);
+                } else {
+                    split.add(new Range<>(range.left, midpoint));
+                    split.add(new Range<>(midpoint, range.right));
+                }
+            }
+            if (split.size() == ranges.size()) {
+                break;
+            }
+            ranges = split;
+        }
+        return ranges;
+    }
+
+    private void readRange(CFMetaData metadata, List<SSTableReader> readers, Range<Token> range, int nowInSec) {
+        List<ISSTableScanner> scanners = new ArrayList<>(readers.size());
+        try {
+            List<Range<Token>> normalized = Range.normalize(Collections.singleton(range));
+            for (SSTableReader reader : readers) {
+                scanners.add(reader.getScanner(normalized, governor == null ? null : governor.getRateLimiter()));
+            }
+            UnfilteredPartitionIterator merged = UnfilteredPartitionIterators.merge(scanners, nowInSec, NO_LISTENER);
+            try (PartitionIterator partitions = UnfilteredPartitionIterators.filter(merged, nowInSec)) {
+                while (partitions.hasNext()) {
+                    try (RowIterator partition = partitions.next()) {
+                        if (!partition.staticRow().isEmpty()) {
+                            emit(PartitionUpdate.singleRowUpdate(metadata, partition.partitionKey(), partition.staticRow()));
+                        }
+                        while (partition.hasNext()) {
+                            Row row = partition.next();
+                            emit(PartitionUpdate.singleRowUpdate(metadata, partition.partitionKey(), row));
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (ISSTableScanner scanner : scanners) {
+                scanner.close();
+            }
+        }
+    }
+
+    private void emit(PartitionUpdate update) {
+        new PartitionParser(update).toChangeEvents(event -> {
+            if (event.getEventType() != ChangeEventType.UPDATE) {
+                return;
+            }
+            try {
+                // sinks are shared with the threads reading other ranges
+                synchronized (sink) {
+                    sink.write(event);
+                }
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+            emitted.inc();
+        });
+    }
+}
@@ -0,0 +1,227 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.PartitionColumns;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.CollectionType;
+import org.apache.cassandra.db.marshal.UserType;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.serializers.TypeSerializer;
+import org.apache.cassandra.transport.ProtocolVersion;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converters of columns of a table used by {@link PartitionParser}, prepared once from the table metadata.
+ *
+ * Names, types and serializers of each column are resolved when the converter is created, so that converting
+ * a partition only calls the converter of each column instead of inspecting the column type and creating
+ * mapping functions for every complex column of every partition.
+ * Converters are cached by table id, and created again when the columns of the table change.
+ * Simple and complex columns have separate converters, so that cells of complex columns are only converted by
+ * converters of complex columns.
+ * Values of a complex column are converted to a new map for every row, as the map is kept by the change event.
+ * The map is sized from the number of cells, so that it is never resized while converting.
+ */
+class TableConverter {
+
+    private static final Map<UUID, TableConverter> CACHE = new ConcurrentHashMap<>();
+
+    private final PartitionColumns columns;
+    private final Map<ColumnDefinition, ColumnConverter> converters = new IdentityHashMap<>();
+    private final Map<ColumnDefinition, ComplexColumnConverter> complexConverters = new IdentityHashMap<>();
+    final String[] partitionKeyNames;
+    final AbstractType<?>[] partitionKeyTypes;
+    final String[] clusteringNames;
+    final AbstractType<?>[] clusteringTypes;
+
+    TableConverter(CFMetaData metadata) {
+        this.columns = metadata.partitionColumns();
+        List<ColumnDefinition> partitionKeys = metadata.partitionKeyColumns();
+        partitionKeyNames = new String[partitionKeys.size()];
+        partitionKeyTypes = new AbstractType<?>[partitionKeys.size()];
+        for (ColumnDefinition def : partitionKeys) {
+            partitionKeyNames[def.position()] = def.name.toString();
+            partitionKeyTypes[def.position()] = def.type;
+        }
+        List<ColumnDefinition> clusterings = metadata.clusteringColumns();
+        clusteringNames = new String[clusterings.size()];
+        clusteringTypes = new AbstractType<?>[clusterings.size()];
+        for (ColumnDefinition def : clusterings) {
+            clusteringNames[def.position()] = def.name.toString();
+            clusteringTypes[def.position()] = def.type;
+        }
+        for (ColumnDefinition def : columns) {
+            if (def.isSimple()) {
+                converters.put(def, new ColumnConverter(def));
+            } else {
+                complexConverters.put(def, createComplex(def));
+            }
+        }
+    }
+
+    /**
+     * @return converter of the current version of the table
+     */
+    static TableConverter forTable(CFMetaData metadata) {
+        TableConverter converter = CACHE.get(metadata.cfId);
+        // columns are replaced on every schema change
+        if (converter == null || converter.columns != metadata.partitionColumns()) {
+            converter = new TableConverter(metadata);
+            CACHE.put(metadata.cfId, converter);
+        }
+        return converter;
+    }
+
+    /**
+     * @return converter of the simple column, or null if the column is not a simple column in the table metadata,
+     * such as dropped column
+     */
+    ColumnConverter converterFor(ColumnDefinition def) {
+        return converters.get(def);
+    }
+
+    /**
+     * @return converter of the complex column, or null if the column is not a complex column in the table metadata,
+     * such as dropped column
+     */
+    ComplexColumnConverter complexConverterFor(ColumnDefinition def) {
+        return complexConverters.get(def);
+    }
+
+    private static ComplexColumnConverter createComplex(ColumnDefinition def) {
+        if (def.type.isCollection()) {
+            return new CollectionConverter(def);
+        } else if (def.type.isUDT()) {
+            return new UserTypeConverter(def);
+        }
+        return new ComplexConverter(def);
+    }
+
+    /**
+     * Converter of simple column.
+     */
+    static class ColumnConverter {
+        final String name;
+        final AbstractType<?> type;
+
+        ColumnConverter(ColumnDefinition def) {
+            this.name = def.name.toString();
+            this.type = def.type;
+        }
+    }
+
+    /**
+     * Converter of complex column.
+     */
+    abstract static class ComplexColumnConverter extends ColumnConverter {
+
+        ComplexColumnConverter(ColumnDefinition def) {
+            super(def);
+        }
+
+        /**
+         * @return values of cells of the complex column, by cell path
+         */
+        abstract Map<Object, Object> toMap(ComplexColumnData data);
+
+        /**
+         * @return empty map of the capacity to hold all cells of the complex column without resizing
+         */
+        static Map<Object, Object> newMap(ComplexColumnData data) {
+            int cells = data.cellsCount();
+            return cells == 0 ? Collections.emptyMap() : new HashMap<>(cells * 4 / 3 + 1);
+        }
+
+        /**
+         * @return cells of the complex column serialized in the same way as frozen value, or null if the column
+         * has no frozen form
+         */
+        ByteBuffer serialize(ComplexColumnData data) {
+            return null;
+        }
+    }
+
+    private static class ComplexConverter extends ComplexColumnConverter {
+        private final TypeSerializer<?> serializer;
+
+        private ComplexConverter(ColumnDefinition def) {
+            super(def);
+            this.serializer = def.type.getSerializer();
+        }
+
+        @Override
+        Map<Object, Object> toMap(ComplexColumnData data) {
+            Map<Object, Object> values = newMap(data);
+            for (Cell cell : data) {
+                values.put(name, serializer.deserialize(cell.value()));
+            }
+            return values;
+        }
+    }
+
+    private static class CollectionConverter extends ComplexColumnConverter {
+        private final CollectionType<?> collectionType;
+        private final TypeSerializer<?> keySerializer;
+        private final TypeSerializer<?> valueSerializer;
+
+        private CollectionConverter(ColumnDefinition def) {
+            super(def);
+            this.collectionType = (CollectionType<?>) def.type;
+            this.keySerializer = collectionType.nameComparator().getSerializer();
+            this.valueSerializer = collectionType.valueComparator().getSerializer();
+        }
+
+        @Override
+        Map<Object, Object> toMap(ComplexColumnData data) {
+            Map<Object, Object> values = newMap(data);
+            for (Cell cell : data) {
+                values.put(keySerializer.deserialize(cell.path().get(0)), valueSerializer.deserialize(cell.value()));
+            }
+            return values;
+        }
+
+        @Override
+        ByteBuffer serialize(ComplexColumnData data) {
+            return collectionType.serializeForNativeProtocol(data.iterator(), ProtocolVersion.CURRENT);
+        }
+    }
+
+    private static class UserTypeConverter extends ComplexColumnConverter {
+        private final UserType userType;
+        private final TypeSerializer<Short> fieldIdSerializer;
+        private final String[] fieldNames;
+        private final TypeSerializer<?>[] fieldSerializers;
+
+        private UserTypeConverter(ColumnDefinition def) {
+            super(def);
+            this.userType = (UserType) def.type;
+            this.fieldIdSerializer = userType.nameComparator().getSerializer();
+            this.fieldNames = new String[userType.size()];
+            this.fieldSerializers = new TypeSerializer<?>[userType.size()];
+            for (int i = 0; i < userType.size(); i++) {
+                fieldNames[i] = userType.fieldNameAsString(i);
+                fieldSerializers[i] = userType.fieldType(i).getSerializer();
+            }
+        }
+
+        @Override
+        Map<Object, Object> toMap(ComplexColumnData data) {
+            Map<Object, Object> values = newMap(data);
+            for (Cell cell : data) {
+                short fieldId = fieldIdSerializer.deserialize(cell.path().get(0));
+                values.put(fieldNames[fieldId], fieldSerializers[fieldId].deserialize(cell.value()));
+            }
+            return values;
+        }
+
+        @Override
+        ByteBuffer serialize(ComplexColumnData data) {
+            return userType.serializeForNativeProtocol(data.iterator(), ProtocolVersion.CURRENT);
+        }
+    }
+}
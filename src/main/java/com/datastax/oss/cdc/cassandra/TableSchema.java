@@ -0,0 +1,204 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.marshal.*;
+import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.serializers.TypeSerializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Record schema of a table version used by {@link BinaryEncoder}.
+ *
+ * Columns are numbered in the order of partition keys, clustering columns, then static and regular columns.
+ * Each schema has the id unique in its {@link SchemaRegistry}, and the version that is incremented
+ * whenever the columns of the table change.
+ * Non-frozen collections and UDTs are described by their frozen type, since their values are
+ * serialized in the same way as frozen ones.
+ */
+public class TableSchema {
+
+    private final int id;
+    private final int version;
+    private final String keyspace;
+    private final String table;
+    private final UUID tableId;
+    private final List<Column> columns;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    TableSchema(int id, int version, String keyspace, String table, UUID tableId, List<Column> columns) {
+        this.id = id;
+        this.version = version;
+        this.keyspace = keyspace;
+        this.table = table;
+        this.tableId = tableId;
+        this.columns = Collections.unmodifiableList(columns);
+        for (int i = 0; i < columns.size(); i++) {
+            indexes.put(columns.get(i).name, i);
+        }
+    }
+
+    /**
+     * @return columns of the table in record order
+     */
+    static List<Column> columnsOf(CFMetaData metadata) {
+        List<Column> columns = new ArrayList<>();
+        Iterator<ColumnDefinition> it = metadata.allColumnsInSelectOrder();
+        while (it.hasNext()) {
+            ColumnDefinition def = it.next();
+            columns.add(new Column(def.name.toString(), def.kind, def.type.freeze()));
+        }
+        return columns;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getKeyspaceName() {
+        return keyspace;
+    }
+
+    public String getTableName() {
+        return table;
+    }
+
+    public UUID getTableId() {
+        return tableId;
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return index of the column, or -1 if the table does not have the column
+     */
+    public int indexOf(String column) {
+        return indexes.getOrDefault(column, -1);
+    }
+
+    void serialize(DataOutputPlus out) throws IOException {
+        out.writeUnsignedVInt(id);
+        out.writeUnsignedVInt(version);
+        out.writeUTF(keyspace);
+        out.writeUTF(table);
+        out.writeLong(tableId.getMostSignificantBits());
+        out.writeLong(tableId.getLeastSignificantBits());
+        out.writeUnsignedVInt(columns.size());
+        for (Column column : columns) {
+            out.writeUTF(column.name);
+            out.writeByte(column.kind.ordinal());
+            out.writeUTF(column.type.toString());
+        }
+    }
+
+    static TableSchema deserialize(DataInputPlus in) throws IOException {
+        int id = (int) in.readUnsignedVInt();
+        int version = (int) in.readUnsignedVInt();
+        String keyspace = in.readUTF();
+        String table = in.readUTF();
+        UUID tableId = new UUID(in.readLong(), in.readLong());
+        int size = (int) in.readUnsignedVInt();
+        List<Column> columns = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = in.readUTF();
+            ColumnDefinition.Kind kind = ColumnDefinition.Kind.values()[in.readByte()];
+            columns.add(new Column(name, kind, TypeParser.parse(in.readUTF())));
+        }
+        return new TableSchema(id, version, keyspace, table, tableId, columns);
+    }
+
+    public static class Column {
+        private final String name;
+        private final ColumnDefinition.Kind kind;
+        private final AbstractType<?> type;
+
+        Column(String name, ColumnDefinition.Kind kind, AbstractType<?> type) {
+            this.name = name;
+            this.kind = kind;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ColumnDefinition.Kind getKind() {
+            return kind;
+        }
+
+        public AbstractType<?> getType() {
+            return type;
+        }
+
+        /**
+         * Serializes the column value as it is returned from {@link Row#getColumns()}.
+         *
+         * Values of non-frozen sets and lists are accepted in the form of map as
+         * {@link PartitionParser} emits them.
+         */
+        @SuppressWarnings("unchecked")
+        public ByteBuffer serialize(Object value) {
+            if (value == null) {
+                return null;
+            }
+            if (type instanceof UserType && value instanceof Map) {
+                UserType ut = (UserType) type;
+                ByteBuffer[] components = new ByteBuffer[ut.size()];
+                for (int i = 0; i < ut.size(); i++) {
+                    Object field = ((Map<?, ?>) value).get(ut.fieldNameAsString(i));
+                    components[i] = field == null ? null : ((TypeSerializer<Object>) ut.fieldType(i).getSerializer()).serialize(field);
+                }
+                return TupleType.buildValue(components);
+            } else if (type instanceof SetType && value instanceof Map) {
+                value = new LinkedHashSet<>(((Map<?, ?>) value).keySet());
+            } else if (type instanceof ListType && value instanceof Map) {
+                value = new ArrayList<>(((Map<?, ?>) value).values());
+            }
+            return ((TypeSerializer<Object>) type.getSerializer()).serialize(value);
+        }
+
+        /**
+         * Deserializes the column value, in the same form as {@link PartitionParser} emits except for
+         * non-frozen sets and lists.
+         */
+        public Object deserialize(ByteBuffer value) {
+            if (value == null) {
+                return null;
+            }
+            if (type instanceof UserType) {
+                UserType ut = (UserType) type;
+                ByteBuffer[] components = ut.split(value);
+                Map<String, Object> fields = new HashMap<>();
+                for (int i = 0; i < components.length; i++) {
+                    fields.put(ut.fieldNameAsString(i),
+                            components[i] == null ? null : ut.fieldType(i).getSerializer().deserialize(components[i]));
+                }
+                return fields;
+            }
+            return type.getSerializer().deserialize(value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Column column = (Column) o;
+            return name.equals(column.name) && kind == column.kind && type.equals(column.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, kind, type);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.datastax.oss.cdc.cassandra;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel of entries due at times in seconds, which inserts and cancels entries in constant time
+ * regardless of the number of entries pending.
+ *
+ * The wheel has {@value #LEVELS} levels of {@value #SLOTS} slots. An entry is put in the level of the highest
+ * {@value #SLOT_BITS}-bit digit its time differs from the current time in, and in the slot of that digit of its time.
+ * When the current time reaches the start of a slot of upper level, the entries of the slot are moved to lower
+ * levels, so each entry is moved at most {@value #LEVELS} times before it is due. Entries are intrusive linked list
+ * nodes, so that the wheel allocates nothing per entry.
+ *
+ * This class is not thread safe.
+ */
+class TimingWheel<E extends TimingWheel.Entry> {
+
+    static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    // covers 32 bits of seconds
+    static final int LEVELS = 6;
+
+    /**
+     * Entry of the wheel, which is in one slot at a time.
+     */
+    static class Entry {
+        private final int time;
+        private Entry prev;
+        private Entry next;
+
+        /**
+         * @param time time the entry is due in seconds
+         */
+        Entry(int time) {
+            this.time = time;
+        }
+
+        int getTime() {
+            return time;
+        }
+
+        /**
+         * @return true if the entry is in a wheel
+         */
+        boolean isScheduled() {
+            return prev != null;
+        }
+    }
+
+    // sentinels of slots, with entries due at or before the current time in the last one
+    private final Entry[] slots = new Entry[LEVELS * SLOTS + 1];
+    private final Entry due;
+    private int current;
+    private int size;
+
+    /**
+     * @param current current time in seconds
+     */
+    TimingWheel(int current) {
+        for (int i = 0; i < slots.length; i++) {
+            Entry sentinel = new Entry(0);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            slots[i] = sentinel;
+        }
+        this.due = slots[LEVELS * SLOTS];
+        this.current = current;
+    }
+
+    /**
+     * Adds the entry, which is due at the next {@link #advance(int, Consumer)} if its time has passed.
+     *
+     * @throws IllegalStateException if the entry is already scheduled
+     */
+    void schedule(E entry) {
+        if (entry.isScheduled()) {
+            throw new IllegalStateException("Entry is already scheduled");
+        }
+        insert(entry);
+        size++;
+    }
+
+    /**
+     * Removes the entry if it is scheduled.
+     *
+     * @return true if the entry was scheduled
+     */
+    boolean cancel(E entry) {
+        if (!entry.isScheduled()) {
+            return false;
+        }
+        unlink(entry);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the current time, passing entries due at or before the time to the consumer in the order of time.
+     * The consumer can schedule and cancel entries.
+     *
+     * @param now current time in seconds
+     * @param consumer consumer of entries due
+     */
+    void advance(int now, Consumer<? super E> consumer) {
+        expire(due, consumer);
+        while (current - now < 0) {
+            current++;
+            // move entries of upper slots starting at the time down, from the highest level
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((current & ((1 << SLOT_BITS * level) - 1)) == 0) {
+                    cascade(slots[level * SLOTS + slot(current, level)]);
+                }
+            }
+            expire(slots[slot(current, 0)], consumer);
+            // entries of upper slots due at the time
+            expire(due, consumer);
+        }
+    }
+
+    int getCurrent() {
+        return current;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Passes all entries scheduled to the consumer, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(Consumer<? super E> consumer) {
+        for (Entry sentinel : slots) {
+            for (Entry e = sentinel.next; e != sentinel; e = e.next) {
+                consumer.accept((E) e);
+            }
+        }
+    }
+
+    private void insert(Entry entry) {
+        Entry sentinel;
+        if (entry.time - current <= 0) {
+            sentinel = due;
+        } else {
+            int level = (31 - Integer.numberOfLeadingZeros(entry.time ^ current)) / SLOT_BITS;
+            sentinel = slots[level * SLOTS + slot(entry.time, level)];
+        }
+        entry.prev = sentinel.prev;
+        entry.next = sentinel;
+        sentinel.prev.next = entry;
+        sentinel.prev = entry;
+    }
+
+    private void cascade(Entry sentinel) {
+        Entry e = sentinel.next;
+        sentinel.next = sentinel;
+        sentinel.prev = sentinel;
+        while (e != sentinel) {
+            Entry next = e.next;
+            insert(e);
+            e = next;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expire(Entry sentinel, Consumer<? super E> consumer) {
+        while (sentinel.next != sentinel) {
+            Entry e = sentinel.next;
+            unlink(e);
+            size--;
+            consumer.accept((E) e);
+        }
+    }
+
+    private static void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private static int slot(int time, int level) {
+        return (time >>> SLOT_BITS * level) & (SLOTS - 1);
+    }
+}
@@ -0,0 +1,219 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.UnknownColumnFamilyException;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
+import org.apache.cassandra.db.commitlog.CommitLogReadHandler;
+import org.apache.cassandra.db.commitlog.CommitLogReader;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.SerializationHelper;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.utils.JVMStabilityInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads commit log segments, and sends mutations that cannot be deserialized to {@link DeadLetterQueue}
+ * instead of stopping at them.
+ *
+ * {@link CommitLogReader} counts mutations of unknown tables in a map that is never cleared, and saves mutations
+ * that fail to be deserialized to temporary files before reporting them as unrecoverable errors.
+ * This reader handles both as dead letters with the bytes of the mutation and continues.
+ *
+ * Segments with a torn tail, such as the last segment written before a node crashed, are read by
+ * {@link #read(CommitLogReadHandler, Path)} up to the last valid mutation, and the rest is quarantined.
+ */
+public class TolerantCommitLogReader extends CommitLogReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(TolerantCommitLogReader.class);
+
+    private final DeadLetterQueue deadLetters;
+    // position after the last mutation read in the current segment, dead letters included
+    private int lastPosition;
+    // position after the last mutation to read in the current segment
+    private int endPosition;
+
+    public TolerantCommitLogReader(DeadLetterQueue deadLetters) {
+        this.deadLetters = deadLetters;
+    }
+
+    /**
+     * Reads the segment until the end or the first error of sync sections or mutations.
+     *
+     * When {@link CommitLogReadHandler#handleUnrecoverableError(CommitLogReadException)} returns, Cassandra
+     * reads the same sync marker again forever, so that reading is stopped at the first error by a watchdog
+     * around the handler. The watchdog also stops reading if the handler is called again after the error,
+     * when the reader does not terminate as requested.
+     *
+     * The tail from the end of the last valid mutation to the last non-zero byte of the segment is quarantined
+     * by {@link DeadLetterQueue#quarantine(long, Path, long, long, String)}.
+     *
+     * @return bytes of the tail skipped, or 0 if the whole segment is read
+     * @throws IOException when failed to read the segment, or to quarantine the tail
+     */
+    public long read(CommitLogReadHandler handler, Path segment) throws IOException {
+        return read(handler, segment, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the mutations of the segment that end after the start position and at or before the end position,
+     * such as the range of positions of a table in {@link SegmentIndex}, in the same way as
+     * {@link #read(CommitLogReadHandler, Path)}.
+     *
+     * @param startPosition position to start reading from, which is the end of a mutation or 0
+     * @param endPosition end position of the last mutation to read
+     * @return bytes of the tail skipped, or 0 if the segment is read up to the end position
+     * @throws IOException when failed to read the segment, or to quarantine the tail
+     */
+    public long read(CommitLogReadHandler handler, Path segment, int startPosition, int endPosition) throws IOException {
+        if (!Profiling.ENABLED) {
+            return readSegment(handler, segment, startPosition, endPosition);
+        }
+        Profiling.SegmentRead event = new Profiling.SegmentRead();
+        event.begin();
+        long skipped = readSegment(handler, segment, startPosition, endPosition);
+        event.end();
+        if (event.shouldCommit()) {
+            event.segmentId = CommitLogDescriptor.fromFileName(segment.getFileName().toString()).id;
+            event.size = Files.size(segment);
+            event.skipped = skipped;
+            event.commit();
+        }
+        return skipped;
+    }
+
+    private long readSegment(CommitLogReadHandler handler, Path segment, int startPosition, int endPosition) throws IOException {
+        Watchdog watchdog = new Watchdog(handler);
+        long segmentId = CommitLogDescriptor.fromFileName(segment.getFileName().toString()).id;
+        lastPosition = startPosition;
+        this.endPosition = endPosition;
+        try {
+            readCommitLogSegment(watchdog, segment.toFile(), new CommitLogPosition(segmentId, startPosition),
+                    ALL_MUTATIONS, true);
+        } catch (StopReading e) {
+            // error recorded by the watchdog, or the end position reached
+        }
+        if (watchdog.error == null) {
+            return 0;
+        }
+        long start = lastPosition;
+        long end = dataEnd(segment, start);
+        logger.warn("Stopped reading {} at {}: {}; skipped {} bytes", segment, start, watchdog.error.getMessage(), end - start);
+        if (end > start) {
+            deadLetters.quarantine(segmentId, segment, start, end, watchdog.error.getMessage());
+        }
+        return end - start;
+    }
+
+    /**
+     * @return position after the last non-zero byte of the file, since segments are preallocated with zeros,
+     * or the given position if there is none after it
+     */
+    static long dataEnd(Path file, long from) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long end = channel.size();
+            while (end > from) {
+                long start = Math.max(from, end - buffer.capacity());
+                buffer.clear().limit((int) (end - start));
+                while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+                    // read the whole chunk
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) != 0) {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return from;
+        }
+    }
+
+    @Override
+    protected void readMutation(CommitLogReadHandler handler, byte[] inputBuffer, int size, CommitLogPosition minPosition,
+                                int entryLocation, CommitLogDescriptor desc) throws IOException {
+        if (entryLocation > endPosition) {
+            throw new StopReading();
+        }
+        Mutation mutation;
+        try (DataInputBuffer in = new DataInputBuffer(inputBuffer, 0, size)) {
+            mutation = Mutation.serializer.deserialize(in, desc.getMessagingVersion(), SerializationHelper.Flag.LOCAL);
+            for (PartitionUpdate update : mutation.getPartitionUpdates()) {
+                update.validate();
+            }
+        } catch (UnknownColumnFamilyException e) {
+            deadLetters.add(DeadLetterQueue.Reason.UNKNOWN_TABLE, desc.id, entryLocation, e.cfId, inputBuffer, size, e);
+            lastPosition = entryLocation;
+            return;
+        } catch (Throwable t) {
+            JVMStabilityInspector.inspectThrowable(t);
+            deadLetters.add(DeadLetterQueue.Reason.DESERIALIZATION, desc.id, entryLocation, null, inputBuffer, size, t);
+            lastPosition = entryLocation;
+            return;
+        }
+        handler.handleMutation(mutation, size, entryLocation, desc);
+        lastPosition = entryLocation;
+    }
+
+    /**
+     * Stops reading a segment from the handler. Used only for control flow, so it has neither a message nor
+     * a stack trace.
+     */
+    private static class StopReading extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Records the progress of reading, and stops reading at the first error.
+     */
+    private class Watchdog implements CommitLogReadHandler {
+
+        private final CommitLogReadHandler handler;
+        private CommitLogReadException error;
+
+        Watchdog(CommitLogReadHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean shouldSkipSegmentOnError(CommitLogReadException e) {
+            if (error != null) {
+                // the reader did not terminate with the last error
+                throw new StopReading();
+            }
+            error = e;
+            // terminates reading the segment
+            return true;
+        }
+
+        @Override
+        public void handleUnrecoverableError(CommitLogReadException e) {
+            if (error == null) {
+                error = e;
+            }
+            throw new StopReading();
+        }
+
+        @Override
+        public void handleMutation(Mutation m, int size, int entryLocation, CommitLogDescriptor desc) {
+            if (error != null) {
+                // mutations after the error are in the quarantined tail
+                throw new StopReading();
+            }
+            handler.handleMutation(m, size, entryLocation, desc);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes serialized value of certain Cassandra type to Jackson generator without deserializing it to Java object.
+ *
+ * @see ValueCodecs
+ */
+@FunctionalInterface
+public interface ValueCodec {
+
+    /**
+     * Writes the value.
+     *
+     * @param value value serialized in CQL native protocol. Position of the buffer is not changed.
+     * @param out generator to write to
+     */
+    void write(ByteBuffer value, JsonGenerator out) throws IOException;
+}
@@ -0,0 +1,357 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.PartitionColumns;
+import org.apache.cassandra.db.marshal.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link ValueCodec}s keyed by Cassandra type.
+ *
+ * Codecs produce the same output as writing the deserialized value with Jackson, except that
+ * frozen UDTs are written as objects and tuples as arrays instead of base64 encoded bytes.
+ * Non-frozen sets and lists, whose values in {@link Row#getColumns()} have the shape of the map of cells,
+ * and types without a codec, such as counter, inet and duration, have no codec and should be written
+ * from their deserialized values.
+ */
+public final class ValueCodecs {
+
+    private static final Map<AbstractType<?>, ValueCodec> BASE_CODECS = new ConcurrentHashMap<>();
+    // derived codecs, empty when the type has no codec
+    private static final Map<AbstractType<?>, Optional<ValueCodec>> CODECS = new ConcurrentHashMap<>();
+    private static final Map<UUID, TableCodecs> TABLES = new ConcurrentHashMap<>();
+
+    static {
+        register(Int32Type.instance, ValueCodecs::writeInt);
+        register(SimpleDateType.instance, ValueCodecs::writeInt);
+        register(LongType.instance, ValueCodecs::writeLong);
+        register(TimeType.instance, ValueCodecs::writeLong);
+        register(TimestampType.instance, ValueCodecs::writeLong);
+        register(ShortType.instance, (value, out) -> {
+            if (isNull(value, out)) return;
+            out.writeNumber(value.getShort(value.position()));
+        });
+        register(ByteType.instance, (value, out) -> {
+            if (isNull(value, out)) return;
+            out.writeNumber(value.get(value.position()));
+        });
+        register(FloatType.instance, (value, out) -> {
+            if (isNull(value, out)) return;
+            out.writeNumber(value.getFloat(value.position()));
+        });
+        register(DoubleType.instance, (value, out) -> {
+            if (isNull(value, out)) return;
+            out.writeNumber(value.getDouble(value.position()));
+        });
+        register(BooleanType.instance, (value, out) -> {
+            if (isNull(value, out)) return;
+            out.writeBoolean(value.get(value.position()) != 0);
+        });
+        register(DecimalType.instance, (value, out) -> {
+            if (isNull(value, out)) return;
+            out.writeNumber(DecimalType.instance.compose(value));
+        });
+        register(IntegerType.instance, (value, out) -> {
+            if (isNull(value, out)) return;
+            out.writeNumber(IntegerType.instance.compose(value));
+        });
+        register(UTF8Type.instance, ValueCodecs::writeUTF8);
+        register(AsciiType.instance, ValueCodecs::writeUTF8);
+        register(UUIDType.instance, ValueCodecs::writeUUID);
+        register(TimeUUIDType.instance, ValueCodecs::writeUUID);
+        register(LexicalUUIDType.instance, ValueCodecs::writeUUID);
+        register(BytesType.instance, ValueCodecs::writeBytes);
+    }
+
+    private ValueCodecs() {
+    }
+
+    /**
+     * Registers the codec of the type, replacing the existing one.
+     */
+    public static void register(AbstractType<?> type, ValueCodec codec) {
+        BASE_CODECS.put(type, codec);
+        CODECS.clear();
+        TABLES.clear();
+    }
+
+    /**
+     * Returns codecs of the columns of the table, that write values of {@link Row#getSerializedColumns()}.
+     *
+     * @return codecs by column name. Columns without codec are not included.
+     */
+    public static Map<String, ValueCodec> forTable(CFMetaData metadata) {
+        TableCodecs codecs = TABLES.get(metadata.cfId);
+        // columns are replaced on every schema change
+        if (codecs == null || codecs.columns != metadata.partitionColumns()) {
+            codecs = new TableCodecs(metadata);
+            TABLES.put(metadata.cfId, codecs);
+        }
+        return codecs.codecs;
+    }
+
+    /**
+     * Returns the codec of the type.
+     *
+     * @param type type of the column, or the frozen type for values of non-frozen collections and UDTs
+     * @return codec of the type, or null if not available
+     */
+    public static ValueCodec codecFor(AbstractType<?> type) {
+        Optional<ValueCodec> codec = CODECS.get(type);
+        if (codec == null) {
+            // codecs are created outside of computeIfAbsent since it recurses into element types
+            codec = Optional.ofNullable(create(type));
+            CODECS.put(type, codec);
+        }
+        return codec.orElse(null);
+    }
+
+    private static ValueCodec create(AbstractType<?> type) {
+        if (type instanceof ReversedType) {
+            return codecFor(((ReversedType<?>) type).baseType);
+        }
+        ValueCodec base = BASE_CODECS.get(type);
+        if (base != null) {
+            return base;
+        }
+        if (type instanceof MapType) {
+            MapType<?, ?> mapType = (MapType<?, ?>) type;
+            FieldNameCodec keys = fieldNameCodecFor(mapType.getKeysType());
+            ValueCodec values = codecFor(mapType.getValuesType());
+            return keys == null || values == null ? null : mapCodec(keys, values);
+        } else if ((type instanceof SetType || type instanceof ListType) && !type.isMultiCell()) {
+            AbstractType<?> elementType = type instanceof SetType
+                    ? ((SetType<?>) type).getElementsType()
+                    : ((ListType<?>) type).getElementsType();
+            ValueCodec elements = codecFor(elementType);
+            return elements == null ? null : arrayCodec(elements);
+        } else if (type instanceof UserType) {
+            return userTypeCodec((UserType) type);
+        } else if (type instanceof TupleType) {
+            return tupleCodec((TupleType) type);
+        }
+        return null;
+    }
+
+    private static ValueCodec mapCodec(FieldNameCodec keys, ValueCodec values) {
+        return (value, out) -> {
+            if (isNull(value, out)) return;
+            ByteBuffer input = value.duplicate();
+            int size = input.getInt();
+            out.writeStartObject();
+            for (int i = 0; i < size; i++) {
+                out.writeFieldName(keys.toFieldName(readElement(input)));
+                ByteBuffer element = readElement(input);
+                if (element == null) {
+                    out.writeNull();
+                } else {
+                    values.write(element, out);
+                }
+            }
+            out.writeEndObject();
+        };
+    }
+
+    private static ValueCodec arrayCodec(ValueCodec elements) {
+        return (value, out) -> {
+            if (isNull(value, out)) return;
+            ByteBuffer input = value.duplicate();
+            int size = input.getInt();
+            out.writeStartArray();
+            for (int i = 0; i < size; i++) {
+                ByteBuffer element = readElement(input);
+                if (element == null) {
+                    out.writeNull();
+                } else {
+                    elements.write(element, out);
+                }
+            }
+            out.writeEndArray();
+        };
+    }
+
+    private static ValueCodec userTypeCodec(UserType type) {
+        ValueCodec[] fields = new ValueCodec[type.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = codecFor(type.fieldType(i));
+            if (fields[i] == null) {
+                return null;
+            }
+        }
+        // fields not set in non-frozen UDT are not written, as the map of cells does not have them
+        boolean skipNull = type.isMultiCell();
+        return (value, out) -> {
+            if (isNull(value, out)) return;
+            ByteBuffer input = value.duplicate();
+            out.writeStartObject();
+            for (int i = 0; i < fields.length && input.hasRemaining(); i++) {
+                ByteBuffer field = readElement(input);
+                if (field == null && skipNull) {
+                    continue;
+                }
+                out.writeFieldName(type.fieldNameAsString(i));
+                if (field == null) {
+                    out.writeNull();
+                } else {
+                    fields[i].write(field, out);
+                }
+            }
+            out.writeEndObject();
+        };
+    }
+
+    private static ValueCodec tupleCodec(TupleType type) {
+        ValueCodec[] components = new ValueCodec[type.size()];
+        for (int i = 0; i < components.length; i++) {
+            components[i] = codecFor(type.type(i));
+            if (components[i] == null) {
+                return null;
+            }
+        }
+        return (value, out) -> {
+            if (isNull(value, out)) return;
+            ByteBuffer input = value.duplicate();
+            out.writeStartArray();
+            for (int i = 0; i < components.length && input.hasRemaining(); i++) {
+                ByteBuffer component = readElement(input);
+                if (component == null) {
+                    out.writeNull();
+                } else {
+                    components[i].write(component, out);
+                }
+            }
+            out.writeEndArray();
+        };
+    }
+
+    /**
+     * Map keys are written as field names in the same way as Jackson writes keys, by their string representation.
+     * Keys whose string representation differs from Jackson's, such as timestamp and blob, are not supported.
+     */
+    private static FieldNameCodec fieldNameCodecFor(AbstractType<?> type) {
+        if (type instanceof ReversedType) {
+            type = ((ReversedType<?>) type).baseType;
+        }
+        if (type instanceof UTF8Type || type instanceof AsciiType) {
+            return value -> value == null ? "null" : decodeUTF8(value);
+        } else if (type instanceof Int32Type || type instanceof LongType || type instanceof ShortType
+                || type instanceof ByteType || type instanceof FloatType || type instanceof DoubleType
+                || type instanceof BooleanType || type instanceof DecimalType || type instanceof IntegerType
+                || type instanceof SimpleDateType || type instanceof TimeType
+                || type instanceof UUIDType || type instanceof TimeUUIDType || type instanceof LexicalUUIDType) {
+            AbstractType<?> keyType = type;
+            return value -> String.valueOf(value == null ? null : keyType.getSerializer().deserialize(value));
+        }
+        return null;
+    }
+
+    private static class TableCodecs {
+        private final PartitionColumns columns;
+        private final Map<String, ValueCodec> codecs;
+
+        private TableCodecs(CFMetaData metadata) {
+            this.columns = metadata.partitionColumns();
+            Map<String, ValueCodec> codecs = new HashMap<>();
+            for (ColumnDefinition def : metadata.allColumns()) {
+                AbstractType<?> type = def.type;
+                if (type.isMultiCell() && (type instanceof SetType || type instanceof ListType)) {
+                    continue;
+                }
+                ValueCodec codec = codecFor(type.freeze());
+                if (codec != null) {
+                    codecs.put(def.name.toString(), codec);
+                }
+            }
+            this.codecs = Collections.unmodifiableMap(codecs);
+        }
+    }
+
+    @FunctionalInterface
+    private interface FieldNameCodec {
+        String toFieldName(ByteBuffer value);
+    }
+
+    /**
+     * Reads length-prefixed element of collection, tuple or UDT.
+     *
+     * @return the element, or null if the length is negative
+     */
+    private static ByteBuffer readElement(ByteBuffer input) {
+        int length = input.getInt();
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer element = input.duplicate();
+        element.limit(element.position() + length);
+        input.position(input.position() + length);
+        return element;
+    }
+
+    /**
+     * Writes null for empty value, which is deserialized to null for fixed size types.
+     */
+    private static boolean isNull(ByteBuffer value, JsonGenerator out) throws IOException {
+        if (value.hasRemaining()) {
+            return false;
+        }
+        out.writeNull();
+        return true;
+    }
+
+    private static void writeInt(ByteBuffer value, JsonGenerator out) throws IOException {
+        if (isNull(value, out)) return;
+        out.writeNumber(value.getInt(value.position()));
+    }
+
+    private static void writeLong(ByteBuffer value, JsonGenerator out) throws IOException {
+        if (isNull(value, out)) return;
+        out.writeNumber(value.getLong(value.position()));
+    }
+
+    private static void writeUTF8(ByteBuffer value, JsonGenerator out) throws IOException {
+        if (value.hasArray()) {
+            out.writeUTF8String(value.array(), value.arrayOffset() + value.position(), value.remaining());
+        } else {
+            out.writeString(decodeUTF8(value));
+        }
+    }
+
+    private static String decodeUTF8(ByteBuffer value) {
+        if (value.hasArray()) {
+            return new String(value.array(), value.arrayOffset() + value.position(), value.remaining(), StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+    }
+
+    private static void writeUUID(ByteBuffer value, JsonGenerator out) throws IOException {
+        if (isNull(value, out)) return;
+        if (out.canWriteBinaryNatively()) {
+            // as Jackson writes UUID in binary formats
+            writeBytes(value, out);
+        } else {
+            out.writeString(new UUID(value.getLong(value.position()), value.getLong(value.position() + 8)).toString());
+        }
+    }
+
+    private static void writeBytes(ByteBuffer value, JsonGenerator out) throws IOException {
+        if (value.hasArray()) {
+            out.writeBinary(Base64Variants.getDefaultVariant(),
+                    value.array(), value.arrayOffset() + value.position(), value.remaining());
+        } else {
+            out.writeBinary(new ByteBufferBackedInputStream(value.duplicate()), value.remaining());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.utils.MurmurHash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps 64-bit fingerprint of the last seen value per (table, primary key, column) to detect writes
+ * that do not change anything.
+ *
+ * Fingerprints are kept in {@link BoundedLongLongMap} whose size is capped, so forgetting a value only causes
+ * the next write to be treated as a change. Cell tombstones and row deletions overwrite fingerprints,
+ * and partition deletions and range tombstones move the partition to new epoch so that fingerprints
+ * recorded before them are never matched again.
+ * Epochs are kept in another capped map. Partitions without an epoch take the generation of the home slot of their
+ * epoch in that map, and evicting an epoch moves the generation of its slot, so the evicted partition never goes
+ * back to fingerprints before its deletion. This forgets fingerprints of the other partitions without an epoch in
+ * the same slot, but not of the rest.
+ * Writes with TTL are always treated as a change because they update the expiration of the value.
+ * Only simple columns and row liveness are fingerprinted. Cells of complex columns, such as non-frozen collections
+ * and user types, are always emitted.
+ */
+public class ValueFingerprints {
+
+    private static final long DELETED = 0x5f0e3dd1c0ffee11L;
+    private static final long ROW_MARKER = 0x3c6ef372fe94f82bL;
+    private static final long STATIC_ROW = 0x1f83d9abfb41bd6bL;
+    private static final long EPOCH = 0x5be0cd19137e2179L;
+
+    private final BoundedLongLongMap fingerprints;
+    private final BoundedLongLongMap epochs;
+    // epoch of partitions without an entry in epochs, by home slot of their entry
+    private final long[] generations;
+    private long nextEpoch = 1;
+
+    private final Counter hits = CDCMetrics.registry.counter("UnchangedValues.Hits");
+    private final Counter misses = CDCMetrics.registry.counter("UnchangedValues.Misses");
+    private final Counter evictions = CDCMetrics.registry.counter("UnchangedValues.Evictions");
+    private final Counter resets = CDCMetrics.registry.counter("UnchangedValues.Resets");
+
+    /**
+     * @param capacity maximum memory used for fingerprints in bytes
+     */
+    public ValueFingerprints(long capacity) {
+        int entries = (int) Math.min(capacity / BoundedLongLongMap.ENTRY_SIZE, 1 << 30);
+        this.fingerprints = new BoundedLongLongMap(entries);
+        this.epochs = new BoundedLongLongMap(entries / 16);
+        this.generations = new long[epochs.capacity()];
+        CDCMetrics.gauge("UnchangedValues.Size", fingerprints::size);
+        CDCMetrics.gauge("UnchangedValues.MemoryUsed",
+                () -> (long) (fingerprints.capacity() + epochs.capacity()) * BoundedLongLongMap.ENTRY_SIZE
+                        + (long) generations.length * 8);
+    }
+
+    /**
+     * Returns the hash of the partition to derive row hashes from.
+     */
+    public synchronized long partition(CFMetaData metadata, DecoratedKey key) {
+        long hash = partitionHash(metadata, key);
+        long epochKey = mix(hash, EPOCH);
+        return mix(hash, epochs.get(epochKey, generations[epochs.homeSlot(epochKey)]));
+    }
+
+    /**
+     * Invalidates fingerprints of all rows in the partition, on partition deletion or range tombstone.
+     */
+    public synchronized void partitionDeleted(CFMetaData metadata, DecoratedKey key) {
+        long hash = partitionHash(metadata, key);
+        if (epochs.put(mix(hash, EPOCH), nextEpoch++)) {
+            // evicted partition would go back to the generation it had before the deletion
+            generations[epochs.homeSlot(epochs.evictedKey())] = nextEpoch++;
+            resets.inc();
+        }
+    }
+
+    /**
+     * Forgets all fingerprints, when values may have changed without being recorded.
+     */
+    public synchronized void clear() {
+        fingerprints.clear();
+        epochs.clear();
+        resets.inc();
+    }
+
+    /**
+     * @param partition hash returned by {@link #partition(CFMetaData, DecoratedKey)}
+     * @param clustering clustering of the row, or null for static row
+     * @return hash of the row
+     */
+    public long row(long partition, Clustering clustering) {
+        if (clustering == null) {
+            return mix(partition, STATIC_ROW);
+        }
+        long hash = partition;
+        for (int i = 0; i < clustering.size(); i++) {
+            hash = mix(hash, hash(clustering.get(i)));
+        }
+        return hash;
+    }
+
+    /**
+     * Invalidates fingerprints of all columns of the row, on row deletion.
+     */
+    public synchronized void rowDeleted(CFMetaData metadata, long row) {
+        for (ColumnDefinition def : metadata.partitionColumns()) {
+            put(mix(row, hash(def.name.bytes)), DELETED);
+        }
+        put(mix(row, ROW_MARKER), DELETED);
+    }
+
+    /**
+     * Records the primary key liveness of the row and returns if it is the same as before.
+     */
+    public synchronized boolean isUnchanged(long row, LivenessInfo liveness) {
+        long fingerprint = liveness.isExpiring() ? mix(ROW_MARKER, liveness.localExpirationTime()) : ROW_MARKER;
+        return record(mix(row, ROW_MARKER), fingerprint, !liveness.isExpiring());
+    }
+
+    /**
+     * Records the value of the cell and returns if it is the same as before.
+     */
+    public synchronized boolean isUnchanged(long row, Cell cell) {
+        long key = mix(row, hash(cell.column().name.bytes));
+        if (cell.isTombstone()) {
+            return record(key, DELETED, true);
+        } else if (cell.isExpiring()) {
+            return record(key, mix(hash(cell.value()), cell.localDeletionTime()), false);
+        } else {
+            return record(key, hash(cell.value()), true);
+        }
+    }
+
+    private boolean record(long key, long fingerprint, boolean canSuppress) {
+        boolean unchanged = canSuppress && fingerprints.get(key, ~fingerprint) == fingerprint;
+        if (unchanged) {
+            hits.inc();
+        } else {
+            misses.inc();
+            put(key, fingerprint);
+        }
+        return unchanged;
+    }
+
+    private void put(long key, long fingerprint) {
+        if (fingerprints.put(key, fingerprint)) {
+            evictions.inc();
+        }
+    }
+
+    private static long partitionHash(CFMetaData metadata, DecoratedKey key) {
+        return mix(mix(metadata.cfId.getMostSignificantBits(), metadata.cfId.getLeastSignificantBits()),
+                hash(key.getKey()));
+    }
+
+    private static long hash(ByteBuffer value) {
+        long[] result = new long[2];
+        MurmurHash.hash3_x64_128(value, value.position(), value.remaining(), 0, result);
+        return result[0];
+    }
+
+    /**
+     * Combines two hashes with MurmurHash3 finalizer.
+     */
+    private static long mix(long h, long v) {
+        long k = h * 31 + v;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
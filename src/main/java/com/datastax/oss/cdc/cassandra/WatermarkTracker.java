@@ -0,0 +1,198 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.codahale.metrics.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Tracks event time that all events before it have been written, and emits it as watermarks through the sink
+ * and to listeners, so that consumers can close windows of event time and free their memory.
+ *
+ * Each {@link Source} of events, such as the commit log handler or a snapshot being read, reports the range of
+ * write timestamps of each mutation it writes. The watermark of a source is the largest timestamp written minus
+ * the allowed lateness, but below the smallest timestamp of the mutation being written, so that no watermark
+ * is emitted in the middle of a mutation. A source that has not written anything, such as a snapshot whose rows
+ * come in token order rather than time order, holds the watermark until it is closed. The watermark is the minimum
+ * of all open sources, and is emitted at each interval when it advances.
+ *
+ * Mutations read after the watermark passed their timestamps, such as writes with client timestamps or from
+ * a node with a lagging clock, are counted as <code>Watermark.LateMutations</code>.
+ */
+public class WatermarkTracker implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatermarkTracker.class);
+
+    private final ChangeEventSink sink;
+    private final long allowedLatenessMicros;
+    private final Set<Source> sources = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<Instant>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter lateMutations = CDCMetrics.registry.counter("Watermark.LateMutations");
+
+    // the last watermark emitted in microseconds
+    private volatile long emitted = Long.MIN_VALUE;
+
+    /**
+     * @param sink sink to write watermarks to
+     * @param allowedLatenessMillis time that events can be written after later events
+     * @param intervalMillis interval to emit the watermark at, or 0 to emit only by {@link #emit()}
+     */
+    public WatermarkTracker(ChangeEventSink sink, long allowedLatenessMillis, long intervalMillis) {
+        this.sink = sink;
+        this.allowedLatenessMicros = TimeUnit.MILLISECONDS.toMicros(allowedLatenessMillis);
+        CDCMetrics.gauge("Watermark.Lag", () -> emitted == Long.MIN_VALUE
+                ? -1 : System.currentTimeMillis() - TimeUnit.MICROSECONDS.toMillis(emitted));
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cdc-watermark");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::tryEmit, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Adds the listener called with each watermark emitted, after it is written to the sink.
+     */
+    public void addListener(Consumer<Instant> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Opens the source of events, which holds the watermark until it reports the first mutation, or is closed.
+     *
+     * @param name name of the source for logging
+     */
+    public Source open(String name) {
+        Source source = new Source(name);
+        sources.add(source);
+        return source;
+    }
+
+    /**
+     * @return the last watermark emitted, or null if none is emitted yet
+     */
+    public Instant getWatermark() {
+        long watermark = emitted;
+        return watermark == Long.MIN_VALUE ? null : toInstant(watermark);
+    }
+
+    /**
+     * @return watermark of the open sources in microseconds, or {@link Long#MIN_VALUE} if it is held or there is no source
+     */
+    long current() {
+        long watermark = Long.MAX_VALUE;
+        for (Source source : sources) {
+            watermark = Math.min(watermark, source.watermark());
+        }
+        return watermark == Long.MAX_VALUE ? Long.MIN_VALUE : watermark;
+    }
+
+    /**
+     * Writes the watermark to the sink and calls listeners, if it has advanced since the last one.
+     *
+     * @return true if the watermark is emitted
+     * @throws IOException when failed to write the watermark
+     */
+    public synchronized boolean emit() throws IOException {
+        long watermark = current();
+        // events have timestamps in milliseconds
+        if (watermark == Long.MIN_VALUE
+                || Math.floorDiv(watermark, 1000) <= Math.floorDiv(emitted, 1000)) {
+            return false;
+        }
+        emitted = watermark;
+        Instant instant = toInstant(watermark);
+        sink.writeWatermark(instant);
+        for (Consumer<Instant> listener : listeners) {
+            listener.accept(instant);
+        }
+        return true;
+    }
+
+    private void tryEmit() {
+        try {
+            emit();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to emit watermark", e);
+        }
+    }
+
+    private static Instant toInstant(long micros) {
+        return Instant.ofEpochMilli(Math.floorDiv(micros, 1000));
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Source of events that reports the timestamps of the mutations it writes.
+     */
+    public class Source implements Closeable {
+        private final String name;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private long inFlight = Long.MAX_VALUE;
+
+        private Source(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Holds the watermark below the mutation until {@link #end(long)} is called.
+         *
+         * @param minTimestamp the smallest write timestamp of the mutation in microseconds
+         */
+        public synchronized void begin(long minTimestamp) {
+            inFlight = minTimestamp;
+            if (minTimestamp < emitted) {
+                lateMutations.inc();
+            }
+        }
+
+        /**
+         * Releases the mutation begun, whose events have been written.
+         *
+         * @param maxTimestamp the largest write timestamp of the mutation in microseconds
+         */
+        public synchronized void end(long maxTimestamp) {
+            inFlight = Long.MAX_VALUE;
+            this.maxTimestamp = Math.max(this.maxTimestamp, maxTimestamp);
+        }
+
+        synchronized long watermark() {
+            if (maxTimestamp == Long.MIN_VALUE) {
+                return Long.MIN_VALUE;
+            }
+            long watermark = maxTimestamp - allowedLatenessMicros;
+            return inFlight == Long.MAX_VALUE ? watermark : Math.min(watermark, inFlight - 1);
+        }
+
+        /**
+         * Stops holding the watermark.
+         */
+        @Override
+        public void close() {
+            sources.remove(this);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.Schema;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.datastax.oss.cdc.cassandra.ChangeEventType.DELETE;
+import static com.datastax.oss.cdc.cassandra.ChangeEventType.UPDATE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for schema-aware binary encoding")
+class BinaryEncoderTest extends CqlToChangeEventTest {
+
+    private static List<ChangeEvent> roundTrip(List<ChangeEvent> events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = new BinaryEncoder();
+        for (ChangeEvent event : events) {
+            encoder.encode(event, out);
+        }
+        BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(out.toByteArray()));
+        List<ChangeEvent> decoded = new ArrayList<>();
+        ChangeEvent event;
+        while ((event = decoder.read()) != null) {
+            decoded.add(event);
+        }
+        return decoded;
+    }
+
+    @Test
+    @DisplayName("Update with simple and collection columns is decoded")
+    void testUpdate() throws IOException {
+        List<ChangeEvent> events = run("INSERT INTO my_table (key, ck, col1, col2, col3, col4) "
+                + "VALUES ('key', 1, 42, {'a': 1, 'b': 2}, {'x', 'y'}, [3, 4]) USING TIMESTAMP 1500000000123456");
+        List<ChangeEvent> decoded = roundTrip(events);
+
+        assertEquals(events.size(), decoded.size());
+        ChangeEvent update = decoded.get(decoded.size() - 1);
+        assertEquals(UPDATE, update.getEventType());
+        assertEquals("binary_encoder_test", update.getKeyspaceName());
+        assertEquals("my_table", update.getTableName());
+        assertEquals(events.get(events.size() - 1).getTableId(), update.getTableId());
+        assertEquals(events.get(events.size() - 1).getEventTimestamp(), update.getEventTimestamp());
+        assertEquals(1500000000123456L, update.getWriteTimestamp());
+
+        Map<String, Object> columns = update.getRow().getColumns();
+        assertEquals("key", columns.get("key"));
+        assertEquals(1, columns.get("ck"));
+        assertEquals(42, columns.get("col1"));
+        Map<String, Integer> map = new HashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        assertEquals(map, columns.get("col2"));
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), columns.get("col3"));
+        assertEquals(Arrays.asList(3, 4), columns.get("col4"));
+    }
+
+    @Test
+    @DisplayName("Deletions with equality and range criteria are decoded")
+    void testDeletion() throws IOException {
+        List<ChangeEvent> events = new ArrayList<>();
+        events.addAll(run("DELETE col1 FROM my_table WHERE key = 'key' AND ck = 1"));
+        events.addAll(run("DELETE FROM my_table WHERE key = 'key' AND ck > 1 AND ck <= 5"));
+        List<ChangeEvent> decoded = roundTrip(events);
+
+        assertEquals(2, decoded.size());
+        Deletion deletion = decoded.get(0).getDeletion();
+        assertEquals(DELETE, decoded.get(0).getEventType());
+        assertEquals(Collections.singletonList("col1"), deletion.getColumns());
+        assertEquals("key", deletion.getCriteria().get(0).getCondition());
+        assertEquals(1, deletion.getCriteria().get(1).getCondition());
+
+        Criteria range = decoded.get(1).getDeletion().getCriteria().get(1);
+        assertEquals("ck", range.getColumn());
+        assertEquals("(1, 5]", range.getCondition());
+    }
+
+    @Test
+    @DisplayName("Binary records are smaller than JSON")
+    void testSize() throws IOException {
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        BinaryEncoder binaryEncoder = new BinaryEncoder();
+        JacksonEncoder jsonEncoder = new JacksonEncoder(JacksonEncoder.Format.JSON);
+        for (int i = 0; i < 100; i++) {
+            for (ChangeEvent event : run("UPDATE my_table SET col1 = " + i + " WHERE key = 'key" + i + "' AND ck = " + i)) {
+                binaryEncoder.encode(event, binary);
+                jsonEncoder.encode(event, json);
+            }
+        }
+        assertTrue(binary.size() * 3 < json.size(),
+                String.format("binary %d bytes, json %d bytes", binary.size(), json.size()));
+    }
+
+    @Test
+    @DisplayName("Records refer to schemas in the shared registry file")
+    void testRegistryFile(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("schemas");
+        BinaryEncoder encoder = new BinaryEncoder(SchemaRegistry.open(file), false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(run("UPDATE my_table SET col1 = 1 WHERE key = 'key' AND ck = 1").get(0), out);
+
+        // registry opened afterwards by the reader
+        SchemaRegistry registry = SchemaRegistry.open(file);
+        ChangeEvent event = new BinaryDecoder(new ByteArrayInputStream(out.toByteArray()), registry).read();
+        assertEquals(1, event.getRow().getColumns().get("col1"));
+        assertEquals(1, registry.get(0).getVersion());
+
+        // same schema is reused when the registry is reopened by the writer
+        TableSchema schema = SchemaRegistry.open(file).schemaFor(Schema.instance.getCFMetaData(event.getTableId()));
+        assertEquals(0, schema.getId());
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList(
+                "CREATE TABLE my_table (key text, ck int, col1 int, col2 map<text, int>, col3 set<text>, col4 list<int>, "
+                        + "PRIMARY KEY (key, ck))");
+    }
+}
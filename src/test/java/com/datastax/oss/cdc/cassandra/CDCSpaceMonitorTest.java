@@ -0,0 +1,41 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for monitoring CDC directory space")
+class CDCSpaceMonitorTest {
+
+    @Test
+    @DisplayName("Draining starts at the threshold and stops 10% below it")
+    void testDraining(@TempDir Path dir) throws IOException {
+        CDCSpaceMonitor monitor = new CDCSpaceMonitor(dir, 10_000, 0.5, 0);
+        Files.write(dir.resolve("CommitLog-6-1.log"), new byte[3000]);
+        monitor.check();
+        assertFalse(monitor.isDraining());
+        assertEquals(7000, monitor.getHeadroom());
+
+        Files.write(dir.resolve("CommitLog-6-2.log"), new byte[2000]);
+        monitor.check();
+        assertTrue(monitor.isDraining());
+        assertTrue(monitor.getGrowthRate() > 0);
+
+        Files.delete(dir.resolve("CommitLog-6-2.log"));
+        Files.write(dir.resolve("CommitLog-6-1.log"), new byte[4500]);
+        monitor.check();
+        assertTrue(monitor.isDraining());
+
+        Files.write(dir.resolve("CommitLog-6-1.log"), new byte[3500]);
+        monitor.check();
+        assertFalse(monitor.isDraining());
+        assertEquals(3500, monitor.getUsed());
+        monitor.close();
+    }
+}
@@ -0,0 +1,150 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for change stream with backpressure")
+class ChangeStreamTest extends CqlToChangeEventTest {
+
+    private static final String KEYSPACE = "change_stream_test";
+
+    @Test
+    @DisplayName("Events are passed as requested, and skipped up to the checkpoint")
+    void testStream(@TempDir Path dir) throws Exception {
+        Path segment = writeSegment(dir, "tbl", 5);
+        FileCheckpointStore checkpoints = new FileCheckpointStore(dir.resolve("checkpoint"));
+        ChangeStream stream = ChangeStream.builder(segment)
+                .withTables(Collections.singleton(KEYSPACE + ".tbl"))
+                .withCheckpointStore(checkpoints)
+                .build();
+        TestSubscriber subscriber = new TestSubscriber();
+        stream.subscribe(subscriber);
+        Subscription subscription = subscriber.subscription.poll(10, TimeUnit.SECONDS);
+
+        subscription.request(2);
+        assertNotNull(subscriber.events.poll(10, TimeUnit.SECONDS));
+        assertNotNull(subscriber.events.poll(10, TimeUnit.SECONDS));
+        // no more events without demand
+        assertNull(subscriber.events.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, subscriber.done.getCount());
+
+        subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertEquals(3, subscriber.events.size());
+        assertNotNull(checkpoints.load());
+
+        // only one subscriber
+        TestSubscriber second = new TestSubscriber();
+        stream.subscribe(second);
+        assertTrue(second.done.await(10, TimeUnit.SECONDS));
+        assertTrue(second.error instanceof IllegalStateException);
+
+        // all events are at or below the checkpoint
+        TestSubscriber resumed = new TestSubscriber();
+        ChangeStream.builder(segment)
+                .withTables(Collections.singleton(KEYSPACE + ".tbl"))
+                .withCheckpointStore(checkpoints)
+                .build()
+                .subscribe(resumed);
+        resumed.subscription.poll(10, TimeUnit.SECONDS).request(Long.MAX_VALUE);
+        assertTrue(resumed.done.await(10, TimeUnit.SECONDS));
+        assertTrue(resumed.events.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Cancelling stops the stream without signals, and invalid requests fail it")
+    void testCancel(@TempDir Path dir) throws Exception {
+        Path segment = writeSegment(dir, "tbl2", 3);
+        TestSubscriber subscriber = new TestSubscriber();
+        ChangeStream.builder(segment)
+                .withFilter(e -> e.getKeyspaceName().equals(KEYSPACE) && e.getTableName().equals("tbl2"))
+                .build()
+                .subscribe(subscriber);
+        Subscription subscription = subscriber.subscription.poll(10, TimeUnit.SECONDS);
+        subscription.request(1);
+        assertNotNull(subscriber.events.poll(10, TimeUnit.SECONDS));
+        subscription.cancel();
+        subscription.request(1);
+        assertFalse(subscriber.done.await(500, TimeUnit.MILLISECONDS));
+        assertTrue(subscriber.events.isEmpty());
+
+        TestSubscriber invalid = new TestSubscriber();
+        ChangeStream.builder(segment).build().subscribe(invalid);
+        invalid.subscription.poll(10, TimeUnit.SECONDS).request(0);
+        assertTrue(invalid.done.await(10, TimeUnit.SECONDS));
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+    }
+
+    /**
+     * Writes mutations to the commit log, and copies its segment into the directory.
+     */
+    private Path writeSegment(Path dir, String table, int rows) throws IOException {
+        CommitLogPosition position = null;
+        for (int i = 0; i < rows; i++) {
+            for (PartitionUpdate update : toPartitionUpdates("INSERT INTO " + table + " (id, val) VALUES (" + i + ", 'a')")) {
+                CommitLogPosition added = CommitLog.instance.add(new Mutation(update));
+                position = position == null ? added : position;
+            }
+        }
+        CommitLog.instance.sync(true);
+        String name = new CommitLogDescriptor(position.segmentId, null, null).fileName();
+        Path segment = dir.resolve(name);
+        Files.copy(new File(DatabaseDescriptor.getCommitLogLocation(), name).toPath(), segment);
+        return segment;
+    }
+
+    private static class TestSubscriber implements Subscriber<ChangeEvent> {
+        private final LinkedBlockingQueue<Subscription> subscription = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<ChangeEvent> events = new LinkedBlockingQueue<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription.add(s);
+        }
+
+        @Override
+        public void onNext(ChangeEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList("CREATE TABLE tbl (id int PRIMARY KEY, val text)",
+                "CREATE TABLE tbl2 (id int PRIMARY KEY, val text)");
+    }
+}
@@ -0,0 +1,144 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for columnar batches and files")
+class ColumnarFileSinkTest extends CqlToChangeEventTest {
+
+    private static List<Path> files(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    @DisplayName("Columns are accumulated into typed vectors")
+    void testBatch() {
+        List<ChangeEvent> events = run("INSERT INTO my_table (key, ck, c_int, c_bigint, c_double, c_boolean, c_text, c_map) "
+                + "VALUES ('key', 1, 42, 9223372036854775807, 1.5, true, 'text', {'a': 1})");
+        // the last event is the update, after the deletion of the previous map
+        ChangeEvent update = events.get(events.size() - 1);
+        ChangeEvent delete = run("DELETE FROM my_table WHERE key = 'key' AND ck = 2").get(0);
+        ColumnBatch batch = new ColumnBatch(ColumnBatch.schemaOf(Schema.instance.getCFMetaData(update.getTableId())), 1);
+        batch.add(update);
+        batch.add(delete);
+
+        assertEquals(2, batch.size());
+        assertEquals(ChangeEventType.UPDATE, batch.getEventType(0));
+        assertEquals(ChangeEventType.DELETE, batch.getEventType(1));
+        assertEquals(update.getEventTimestamp().toEpochMilli(), batch.getTimestamp(0));
+        assertEquals(42, ((ColumnVector.IntVector) batch.getVector("c_int")).getInt(0));
+        assertEquals(Long.MAX_VALUE, ((ColumnVector.LongVector) batch.getVector("c_bigint")).getLong(0));
+        assertEquals(1.5, ((ColumnVector.DoubleVector) batch.getVector("c_double")).getDouble(0));
+        assertTrue(((ColumnVector.BooleanVector) batch.getVector("c_boolean")).getBoolean(0));
+        assertEquals("text", batch.getObject(0, batch.getSchema().indexOf("c_text")));
+        assertEquals(Collections.singletonMap("a", 1), batch.getObject(0, batch.getSchema().indexOf("c_map")));
+
+        // deletion has only the keys of its criteria
+        assertEquals(2, batch.getObject(1, batch.getSchema().indexOf("ck")));
+        assertTrue(batch.getVector("c_int").isNull(1));
+        assertEquals(1, ((ColumnVector.IntVector) batch.getVector("ck")).getInt(0));
+        assertEquals(Int32Type.instance.decompose(1), batch.getVector("ck").getMin());
+        assertEquals(Int32Type.instance.decompose(2), batch.getVector("ck").getMax());
+        // no statistics for collections
+        assertNull(batch.getVector("c_map").getMin());
+    }
+
+    @Test
+    @DisplayName("Batches are written as row groups with statistics")
+    void testFile(@TempDir Path dir) throws IOException {
+        List<ChangeEvent> events = new ArrayList<>();
+        try (BatchingSink sink = new BatchingSink(new ColumnarFileSink(dir), 10)) {
+            for (int i = 0; i < 25; i++) {
+                for (ChangeEvent event : run("UPDATE my_table SET c_int = " + i + ", c_text = 'text" + i
+                        + "' WHERE key = 'key' AND ck = " + i)) {
+                    events.add(event);
+                    sink.write(event);
+                }
+            }
+            ChangeEvent delete = run("DELETE FROM my_table WHERE key = 'key'").get(0);
+            events.add(delete);
+            sink.write(delete);
+        }
+
+        List<Path> files = files(dir);
+        assertEquals(1, files.size());
+        assertEquals(dir.resolve("columnar_file_sink_test").resolve("my_table"), files.get(0).getParent());
+        assertTrue(files.get(0).getFileName().toString().endsWith(".cdcc"));
+
+        try (ColumnarFileReader reader = ColumnarFileReader.open(files.get(0))) {
+            TableSchema schema = reader.getSchema();
+            assertEquals("my_table", schema.getTableName());
+            List<ColumnarFileReader.RowGroup> rowGroups = reader.getRowGroups();
+            assertEquals(3, rowGroups.size());
+            assertEquals(10, rowGroups.get(0).getEvents());
+            assertEquals(6, rowGroups.get(2).getEvents());
+
+            int cInt = schema.indexOf("c_int");
+            assertEquals(Int32Type.instance.decompose(10), rowGroups.get(1).getMin(cInt));
+            assertEquals(Int32Type.instance.decompose(19), rowGroups.get(1).getMax(cInt));
+            int cText = schema.indexOf("c_text");
+            assertEquals(UTF8Type.instance.decompose("text0"), rowGroups.get(0).getMin(cText));
+            assertEquals(UTF8Type.instance.decompose("text9"), rowGroups.get(0).getMax(cText));
+
+            int index = 0;
+            for (ColumnarFileReader.RowGroup rowGroup : rowGroups) {
+                ColumnBatch batch = reader.read(rowGroup);
+                for (int i = 0; i < batch.size(); i++) {
+                    ChangeEvent expected = events.get(index++);
+                    ChangeEvent actual = batch.getEvent(i);
+                    assertEquals(expected.getEventType(), actual.getEventType());
+                    assertEquals(expected.getEventTimestamp(), actual.getEventTimestamp());
+                    if (expected.getEventType() == ChangeEventType.UPDATE) {
+                        assertEquals(expected.getRow().getColumns(), actual.getRow().getColumns());
+                    } else {
+                        assertEquals("key", actual.getDeletion().getCriteria().get(0).getCondition());
+                    }
+                }
+            }
+            assertEquals(events.size(), index);
+        }
+    }
+
+    @Test
+    @DisplayName("Batch failed to be written is kept and written again")
+    void testFailure() throws IOException {
+        List<Integer> written = new ArrayList<>();
+        boolean[] failing = { true };
+        BatchSink failingSink = batch -> {
+            if (failing[0]) {
+                throw new IOException("failed");
+            }
+            written.add(batch.size());
+        };
+        try (BatchingSink sink = new BatchingSink(failingSink, 2)) {
+            ChangeEvent event = run("UPDATE my_table SET c_int = 1 WHERE key = 'key' AND ck = 1").get(0);
+            sink.write(event);
+            assertThrows(IOException.class, () -> sink.write(event));
+            assertThrows(IOException.class, sink::flush);
+            failing[0] = false;
+            sink.write(event);
+            assertEquals(Collections.singletonList(3), written);
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE my_table (key text, ck int, c_int int, c_bigint bigint, "
+                + "c_double double, c_boolean boolean, c_text text, c_map map<text, int>, PRIMARY KEY (key, ck))");
+    }
+}
@@ -5,7 +5,9 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
 import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.schema.KeyspaceMetadata;
@@ -13,39 +15,45 @@ import org.apache.cassandra.schema.KeyspaceParams;
 import org.apache.cassandra.schema.Tables;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.utils.Pair;
-import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public abstract class CqlToChangeEventTest {
 
-    private static final String TEST_DIR = "./test_dir";
-
     private ClientState client;
 
+    /**
+     * Initializes Cassandra once for all test classes in the JVM, with the commit log and other data in a temporary
+     * directory deleted when the JVM exits. A JUnit temporary directory is deleted after each test class,
+     * while Cassandra keeps writing commit log segments to the directory it is initialized with.
+     */
     @BeforeAll
     public static void initialize() {
-        System.setProperty("cassandra.storagedir", System.getProperty("cassandra.storagedir", TEST_DIR));
         if (!DatabaseDescriptor.isToolInitialized()) {
+            if (System.getProperty("cassandra.storagedir") == null) {
+                File testDir;
+                try {
+                    testDir = Files.createTempDirectory("cdc-test").toFile();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> FileUtils.deleteRecursive(testDir)));
+                System.setProperty("cassandra.storagedir", testDir.getPath());
+            }
             DatabaseDescriptor.toolInitialization();
             Keyspace.setInitialized();
         }
     }
 
-    @AfterAll
-    public static void clearSchema() {
-        File testDir = new File(TEST_DIR);
-        if (testDir.exists()) {
-            testDir.delete();
-        }
-    }
-
     @BeforeEach
     public void setUp() {
         // keyspace name is test class name converted to snake case
@@ -79,6 +87,22 @@ public abstract class CqlToChangeEventTest {
      * @param timestamp timestamp that the CQL is executed in microseconds
      */
     protected List<ChangeEvent> run(String cql, long timestamp) {
+        return toPartitionUpdates(cql, timestamp).stream()
+                .map(PartitionParser::new)
+                .collect(ArrayList::new, (l, p) -> l.addAll(p.toChangeEvents()), ArrayList::addAll);
+    }
+
+    protected List<PartitionUpdate> toPartitionUpdates(String cql) {
+        return toPartitionUpdates(cql, System.currentTimeMillis());
+    }
+
+    /**
+     * Converts given CQL string to {@link Mutation}s, and returns their {@link PartitionUpdate}s.
+     *
+     * @param cql CQL statement to convert
+     * @param timestamp timestamp that the CQL is executed in microseconds
+     */
+    protected List<PartitionUpdate> toPartitionUpdates(String cql, long timestamp) {
         System.out.println(cql);
         return CQLUtil.toMutation(cql, client, timestamp).stream()
                 .map(rawMutation -> {
@@ -95,8 +119,7 @@ public abstract class CqlToChangeEventTest {
                 })
                 .peek(System.out::println)
                 .flatMap(mutation -> mutation.getPartitionUpdates().stream())
-                .map(PartitionParser::new)
-                .collect(ArrayList::new, (l, p) -> l.addAll(p.toChangeEvents()), ArrayList::addAll);
+                .collect(Collectors.toList());
     }
 
     abstract List<String> createTableStatement();
@@ -0,0 +1,134 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.BufferCell;
+import org.apache.cassandra.db.rows.CellPath;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for dead letters of mutations that fail to be read or converted")
+class DeadLetterQueueTest extends CqlToChangeEventTest {
+
+    private static final String KEYSPACE = "dead_letter_queue_test";
+
+    private static List<JsonNode> deadLetters(Path dir, long segmentId) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        List<JsonNode> records = new ArrayList<>();
+        for (String line : Files.readAllLines(DeadLetterQueue.pathOf(dir, segmentId))) {
+            records.add(mapper.readTree(line));
+        }
+        return records;
+    }
+
+    @Test
+    @DisplayName("Mutation that fails to be converted is written to dead letters with the events written before")
+    void testConversion(@TempDir Path dir) throws IOException {
+        CFMetaData metadata = Schema.instance.getCFMetaData(KEYSPACE, "tbl");
+        ColumnDefinition column = metadata.getColumnDefinition(ByteBufferUtil.bytes("m"));
+        org.apache.cassandra.db.rows.Row.Builder builder = BTreeRow.unsortedBuilder(FBUtilities.nowInSeconds());
+        builder.newRow(Clustering.EMPTY);
+        // map key of 3 bytes for int
+        builder.addCell(BufferCell.live(column, 1L, ByteBufferUtil.bytes("value"), CellPath.create(ByteBuffer.wrap(new byte[3]))));
+        PartitionUpdate update = new PartitionUpdate(metadata, metadata.decorateKey(Int32Type.instance.decompose(1)),
+                metadata.partitionColumns(), 1);
+        // written before the row fails
+        update.addPartitionDeletion(new DeletionTime(0L, FBUtilities.nowInSeconds()));
+        update.add(builder.build());
+
+        List<ChangeEvent> events = new ArrayList<>();
+        DeadLetterQueue queue = new DeadLetterQueue(dir);
+        CommitLogHandler handler = new CommitLogHandler(null, null, events::add);
+        handler.setDeadLetterQueue(queue);
+        CommitLogDescriptor desc = new CommitLogDescriptor(1, null, null);
+        handler.handleMutation(new Mutation(update), 0, 100, desc);
+        assertEquals(1, events.size());
+        assertEquals(ChangeEventType.DELETE, events.get(0).getEventType());
+
+        toPartitionUpdates("UPDATE tbl SET m[1] = 'a' WHERE id = 2")
+                .forEach(p -> handler.handleMutation(new Mutation(p), 0, 200, desc));
+        assertEquals(2, events.size());
+        queue.close();
+
+        List<JsonNode> records = deadLetters(dir, 1);
+        assertEquals(1, records.size());
+        JsonNode record = records.get(0);
+        assertEquals("CONVERSION", record.get("reason").asText());
+        assertEquals(100, record.get("position").asInt());
+        assertEquals(metadata.cfId.toString(), record.get("tableId").asText());
+        assertEquals("tbl", record.get("table").asText());
+        assertEquals(0, record.get("partitionIndex").asInt());
+        assertEquals(1, record.get("emittedEvents").asInt());
+        assertTrue(record.get("exception").asText().contains("Exception"));
+        Mutation mutation = Mutation.serializer.deserialize(new DataInputBuffer(record.get("mutation").binaryValue()),
+                MessagingService.current_version);
+        assertEquals(update.partitionKey(), mutation.key());
+    }
+
+    @Test
+    @DisplayName("Mutation of unknown table is written to dead letters and the rest of the segment is read")
+    void testUnknownTable(@TempDir Path dir) throws IOException {
+        // not loaded to the schema
+        CFMetaData dropped = CFMetaData.compile("CREATE TABLE dropped (id int PRIMARY KEY, val int)", KEYSPACE);
+        org.apache.cassandra.db.rows.Row.Builder builder = BTreeRow.unsortedBuilder(FBUtilities.nowInSeconds());
+        builder.newRow(Clustering.EMPTY);
+        builder.addCell(BufferCell.live(dropped.getColumnDefinition(ByteBufferUtil.bytes("val")), 1L, Int32Type.instance.decompose(1)));
+        CommitLogPosition position = CommitLog.instance.add(new Mutation(PartitionUpdate.singleRowUpdate(dropped,
+                dropped.decorateKey(Int32Type.instance.decompose(1)), builder.build())));
+        for (PartitionUpdate update : toPartitionUpdates("UPDATE tbl SET m[1] = 'a' WHERE id = 3")) {
+            CommitLog.instance.add(new Mutation(update));
+        }
+        CommitLog.instance.sync(true);
+        String name = new CommitLogDescriptor(position.segmentId, null, null).fileName();
+        Path segment = Files.copy(new File(DatabaseDescriptor.getCommitLogLocation(), name).toPath(), dir.resolve(name));
+
+        List<ChangeEvent> events = new ArrayList<>();
+        Path deadLetterDir = dir.resolve("dead");
+        DeadLetterQueue queue = new DeadLetterQueue(deadLetterDir);
+        new ChangeDataCapture(new CommitLogHandler(null, null, events::add), null, queue).read(segment);
+        queue.close();
+
+        List<ChangeEvent> inserted = events.stream()
+                .filter(e -> e.getKeyspaceName().equals(KEYSPACE) && e.getTableName().equals("tbl"))
+                .collect(Collectors.toList());
+        assertEquals(1, inserted.size());
+        List<JsonNode> records = deadLetters(deadLetterDir, position.segmentId).stream()
+                .filter(r -> r.get("tableId").asText().equals(dropped.cfId.toString()))
+                .collect(Collectors.toList());
+        assertEquals(1, records.size());
+        assertEquals("UNKNOWN_TABLE", records.get(0).get("reason").asText());
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE tbl (id int PRIMARY KEY, m map<int, text>)");
+    }
+}
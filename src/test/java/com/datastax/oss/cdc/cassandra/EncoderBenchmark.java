@@ -0,0 +1,80 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares size and throughput of event encodings.
+ *
+ * Run with <code>org.openjdk.jmh.Main EncoderBenchmark</code> on the test classpath.
+ * Encoded bytes per event are printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncoderBenchmark extends CqlToChangeEventTest {
+
+    private static final int EVENTS = 2000;
+
+    @Param({"json", "smile", "cbor", "binary"})
+    public String format;
+
+    private List<ChangeEvent> events;
+    private Supplier<ChangeEventEncoder> encoders;
+    private ChangeEventEncoder encoder;
+    private CountingOutputStream out;
+    private long encodedEvents;
+
+    @Setup
+    public void prepare() {
+        initialize();
+        setUp();
+        events = new ArrayList<>();
+        for (int i = 0; i < EVENTS / 2; i++) {
+            events.addAll(run(String.format("UPDATE my_table SET col1 = %d, col2 = 'value %d', col3 = %d "
+                    + "WHERE key = 'key %d' AND ck = %d", i, i, i * 1000L, i % 100, i)));
+            events.addAll(run(String.format("UPDATE map_table SET col1 = col1 + {'a': %d, 'b': %d} "
+                    + "WHERE key = 'key %d'", i, i + 1, i)));
+        }
+        if ("binary".equals(format)) {
+            encoders = BinaryEncoder::new;
+        } else {
+            JacksonEncoder.Format jacksonFormat = JacksonEncoder.Format.valueOf(format.toUpperCase());
+            encoders = () -> new JacksonEncoder(jacksonFormat);
+        }
+        encoder = encoders.get();
+        out = new CountingOutputStream(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void encode() throws IOException {
+        for (ChangeEvent event : events) {
+            encoder.encode(event, out);
+        }
+        encodedEvents += events.size();
+    }
+
+    @TearDown
+    public void report() {
+        System.out.printf("%n%s: %.1f bytes/event%n", format, (double) out.getCount() / encodedEvents);
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList(
+                "CREATE TABLE my_table (key text, ck int, col1 int, col2 text, col3 bigint, PRIMARY KEY (key, ck))",
+                "CREATE TABLE map_table (key text PRIMARY KEY, col1 map<text, int>)");
+    }
+}
@@ -0,0 +1,184 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for memory-mapped event journal and tailers")
+class EventJournalTest {
+
+    // small files to test rolling
+    private static final int FILE_SIZE = 1024;
+    private static final int INDEX_INTERVAL = 4;
+
+    private static byte[] payload(int i) {
+        return ("event-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(EventJournal.Record record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Tailers read records across files independently")
+    void testIndependentTailers(@TempDir Path dir) throws IOException {
+        try (EventJournal journal = new EventJournal(dir, FILE_SIZE, INDEX_INTERVAL)) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, journal.append(1000 + i, payload(i)));
+            }
+        }
+        assertTrue(EventJournal.listFiles(dir).size() > 1, "should roll to multiple files");
+
+        try (JournalTailer tailer1 = new JournalTailer(dir, "tailer1");
+             JournalTailer tailer2 = new JournalTailer(dir, "tailer2")) {
+            for (int i = 0; i < 100; i++) {
+                EventJournal.Record record = tailer1.next();
+                assertEquals(i, record.getSequence());
+                assertEquals(1000 + i, record.getTimestamp());
+                assertEquals("event-" + i, read(record));
+            }
+            assertNull(tailer1.next());
+            assertEquals("event-0", read(tailer2.next()));
+        }
+    }
+
+    @Test
+    @DisplayName("Tailer continues from committed offset")
+    void testCommittedOffset(@TempDir Path dir) throws IOException {
+        try (EventJournal journal = new EventJournal(dir, FILE_SIZE, INDEX_INTERVAL)) {
+            for (int i = 0; i < 50; i++) {
+                journal.append(i, payload(i));
+            }
+            try (JournalTailer tailer = new JournalTailer(dir, "tailer")) {
+                for (int i = 0; i < 30; i++) {
+                    tailer.next();
+                }
+                tailer.commit();
+                tailer.next();
+            }
+            try (JournalTailer tailer = new JournalTailer(dir, "tailer")) {
+                assertEquals("event-30", read(tailer.next()));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Reopened journal continues sequence and tailer sees new records")
+    void testReopen(@TempDir Path dir) throws IOException {
+        try (EventJournal journal = new EventJournal(dir, FILE_SIZE, INDEX_INTERVAL)) {
+            for (int i = 0; i < 45; i++) {
+                journal.append(i, payload(i));
+            }
+        }
+        try (EventJournal journal = new EventJournal(dir, FILE_SIZE, INDEX_INTERVAL);
+             JournalTailer tailer = new JournalTailer(dir, "tailer")) {
+            assertEquals(45, journal.nextSequence());
+            tailer.seek(40);
+            for (int i = 40; i < 45; i++) {
+                assertEquals("event-" + i, read(tailer.next()));
+            }
+            assertNull(tailer.next());
+            journal.append(45, payload(45));
+            assertEquals("event-45", read(tailer.next()));
+        }
+    }
+
+    @Test
+    @DisplayName("Seek to the first record at or after timestamp")
+    void testSeekToTimestamp(@TempDir Path dir) throws IOException {
+        try (EventJournal journal = new EventJournal(dir, FILE_SIZE, INDEX_INTERVAL)) {
+            for (int i = 0; i < 100; i++) {
+                journal.append(i * 10, payload(i));
+            }
+        }
+        try (JournalTailer tailer = new JournalTailer(dir, "tailer")) {
+            tailer.seekToTimestamp(555);
+            EventJournal.Record record = tailer.next();
+            assertEquals(56, record.getSequence());
+            assertEquals(560, record.getTimestamp());
+        }
+    }
+
+    @Test
+    @DisplayName("Files over the maximum size are deleted after all tailers have read them")
+    void testRetention(@TempDir Path dir) throws IOException {
+        try (EventJournal journal = new EventJournal(dir, new JacksonEncoder(JacksonEncoder.Format.JSON),
+                FILE_SIZE, INDEX_INTERVAL, FILE_SIZE, 0);
+             JournalTailer fast = new JournalTailer(dir, "fast");
+             JournalTailer slow = new JournalTailer(dir, "slow")) {
+            for (int i = 0; i < 100; i++) {
+                journal.append(i, payload(i));
+            }
+            int files = EventJournal.listFiles(dir).size();
+            assertTrue(files > 2);
+            while (fast.next() != null) {
+                fast.commit();
+            }
+            journal.flush();
+            // slow tailer has not read any file
+            assertEquals(files, EventJournal.listFiles(dir).size());
+
+            while (slow.getNextSequence() < 50) {
+                slow.next();
+            }
+            slow.commit();
+            journal.flush();
+            List<Long> remaining = EventJournal.listFiles(dir);
+            assertTrue(remaining.size() < files);
+            assertTrue(remaining.get(0) <= 50);
+            assertEquals("event-50", read(slow.next()));
+        }
+    }
+
+    @Test
+    @DisplayName("Tailers created after files are deleted start at the oldest file")
+    void testTailerAfterRetention(@TempDir Path dir) throws IOException {
+        try (EventJournal journal = new EventJournal(dir, new JacksonEncoder(JacksonEncoder.Format.JSON),
+                FILE_SIZE, INDEX_INTERVAL, FILE_SIZE, 0)) {
+            try (JournalTailer tailer = new JournalTailer(dir, "first")) {
+                for (int i = 0; i < 100; i++) {
+                    journal.append(i, payload(i));
+                }
+                while (tailer.next() != null) {
+                    tailer.commit();
+                }
+            }
+            journal.flush();
+            long oldest = EventJournal.listFiles(dir).get(0);
+            assertTrue(oldest > 0);
+
+            try (JournalTailer tailer = new JournalTailer(dir, "second")) {
+                // offset is moved to the oldest file so that it does not keep files from being deleted
+                assertEquals(oldest, EventJournal.minCommittedOffset(dir));
+                EventJournal.Record record = tailer.next();
+                assertNotNull(record);
+                assertEquals(oldest, record.getSequence());
+                assertEquals("event-" + oldest, read(record));
+
+                tailer.seek(0);
+                assertEquals(oldest, tailer.next().getSequence());
+
+                for (int i = 100; i < 200; i++) {
+                    journal.append(i, payload(i));
+                }
+                while (tailer.next() != null) {
+                    tailer.commit();
+                }
+            }
+            try (JournalTailer tailer = new JournalTailer(dir, "first")) {
+                while (tailer.next() != null) {
+                    tailer.commit();
+                }
+            }
+            journal.flush();
+            assertTrue(EventJournal.listFiles(dir).get(0) > oldest);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for expiration of rows and cells written with TTL")
+class ExpirationSchedulerTest extends CqlToChangeEventTest {
+
+    @Test
+    @DisplayName("Entries are due in the order of time, across levels of the wheel")
+    void testTimingWheel() {
+        int start = 1_580_000_000;
+        TimingWheel<TimingWheel.Entry> wheel = new TimingWheel<>(start);
+        Random random = new Random(42);
+        List<TimingWheel.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            // up to 2^20 seconds ahead, and some already due
+            TimingWheel.Entry entry = new TimingWheel.Entry(start + random.nextInt(1 << 20) - 100);
+            entries.add(entry);
+            wheel.schedule(entry);
+        }
+        Set<TimingWheel.Entry> cancelled = new HashSet<>();
+        for (int i = 0; i < entries.size(); i += 3) {
+            assertTrue(wheel.cancel(entries.get(i)));
+            cancelled.add(entries.get(i));
+        }
+        assertFalse(wheel.cancel(entries.get(0)));
+        assertEquals(entries.size() - cancelled.size(), wheel.size());
+
+        List<TimingWheel.Entry> due = new ArrayList<>();
+        int now = start;
+        while (wheel.size() > 0) {
+            now += 1 + random.nextInt(5000);
+            int time = now;
+            wheel.advance(now, e -> {
+                assertTrue(e.getTime() <= time);
+                due.add(e);
+            });
+            assertEquals(now, wheel.getCurrent());
+            for (TimingWheel.Entry e : entries) {
+                if (e.isScheduled()) {
+                    assertTrue(e.getTime() > now);
+                }
+            }
+        }
+        assertEquals(entries.size() - cancelled.size(), due.size());
+        for (int i = 1; i < due.size(); i++) {
+            // in the order of time within an advance, and across advances
+            assertTrue(due.get(i - 1).getTime() <= due.get(i).getTime() || due.get(i).getTime() <= start,
+                    due.get(i - 1).getTime() + " > " + due.get(i).getTime());
+        }
+        assertTrue(due.stream().noneMatch(cancelled::contains));
+    }
+
+    @Test
+    @DisplayName("Rows and columns are deleted when they expire, unless overwritten or deleted")
+    void testExpiration() throws IOException {
+        List<ChangeEvent> events = Collections.synchronizedList(new ArrayList<>());
+        try (ExpirationScheduler expirations = new ExpirationScheduler(null)) {
+            parse(expirations, "INSERT INTO tbl (id, ck, val) VALUES (1, 1, 1) USING TTL 100");
+            // not expiring as a whole, since val2 does not expire
+            parse(expirations, "INSERT INTO tbl (id, ck, val) VALUES (2, 1, 1) USING TTL 100");
+            parse(expirations, "UPDATE tbl SET val2 = 2 WHERE id = 2 AND ck = 1");
+            // overwritten
+            parse(expirations, "UPDATE tbl USING TTL 100 SET val = 1 WHERE id = 3 AND ck = 1");
+            parse(expirations, "UPDATE tbl SET val = 2 WHERE id = 3 AND ck = 1");
+            // deleted
+            parse(expirations, "INSERT INTO tbl (id, ck, val) VALUES (4, 1, 1) USING TTL 100");
+            parse(expirations, "DELETE FROM tbl WHERE id = 4");
+            parse(expirations, "INSERT INTO tbl (id, ck, val) VALUES (5, 1, 1) USING TTL 100");
+            parse(expirations, "DELETE FROM tbl WHERE id = 5 AND ck > 0");
+            // expires later
+            parse(expirations, "UPDATE tbl USING TTL 10000 SET val2 = 1 WHERE id = 6 AND ck = 1");
+            assertEquals(5, expirations.size());
+
+            int now = (int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            expirations.advance(now + 200, events::add);
+            assertEquals(1, expirations.size());
+            assertEquals(2, events.size(), events.toString());
+            Map<Object, ChangeEvent> byId = events.stream().collect(Collectors.toMap(
+                    e -> e.getDeletion().getCriteria().get(0).getCondition(), e -> e));
+
+            ChangeEvent row = byId.get(1);
+            assertEquals(ChangeEventType.DELETE, row.getEventType());
+            assertEquals("tbl", row.getTableName());
+            assertTrue(row.getDeletion().getColumns().isEmpty());
+            assertEquals(Arrays.asList("id", "ck"), row.getDeletion().getCriteria().stream()
+                    .map(Criteria::getColumn).collect(Collectors.toList()));
+            assertEquals(1, row.getDeletion().getCriteria().get(1).getCondition());
+            assertTrue(row.getEventTimestamp().isAfter(Instant.ofEpochSecond(now + 90)));
+
+            assertEquals(Collections.singletonList("val"), byId.get(2).getDeletion().getColumns());
+        }
+    }
+
+    @Test
+    @DisplayName("Pending expirations are kept in the file across restarts")
+    void testPersistence(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("expirations.db");
+        List<ChangeEvent> events = Collections.synchronizedList(new ArrayList<>());
+        try (ExpirationScheduler expirations = new ExpirationScheduler(file)) {
+            parse(expirations, "INSERT INTO tbl (id, ck, val) VALUES (11, 1, 1) USING TTL 100");
+            parse(expirations, "UPDATE tbl USING TTL 200 SET val2 = 1 WHERE id = 12 AND ck = 1");
+            parse(expirations, "UPDATE tbl USING TTL 200 SET s = 1 WHERE id = 13");
+        }
+        try (ExpirationScheduler expirations = new ExpirationScheduler(file)) {
+            assertEquals(4, expirations.size());
+            expirations.advance((int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 300, events::add);
+            assertEquals(0, expirations.size());
+        }
+        assertEquals(3, events.size(), events.toString());
+        assertEquals(Arrays.asList(11, 12, 13), events.stream()
+                .map(e -> e.getDeletion().getCriteria().get(0).getCondition()).sorted().collect(Collectors.toList()));
+        ChangeEvent staticColumn = events.stream()
+                .filter(e -> e.getDeletion().getCriteria().get(0).getCondition().equals(13)).findFirst().get();
+        assertEquals(1, staticColumn.getDeletion().getCriteria().size());
+        assertEquals(Collections.singletonList("s"), staticColumn.getDeletion().getColumns());
+    }
+
+    @Test
+    @DisplayName("Expirations are emitted by the handler as the event time processed passes them")
+    void testHandler(@TempDir Path dir) throws IOException, InterruptedException {
+        List<ChangeEvent> events = new ArrayList<>();
+        CommitLogHandler handler = new CommitLogHandler(null, null, events::add);
+        Path file = dir.resolve("expirations.db");
+        ExpirationScheduler expirations = new ExpirationScheduler(file);
+        handler.setExpirations(expirations);
+        CommitLogDescriptor desc = new CommitLogDescriptor(42, null, null);
+        long now = System.currentTimeMillis();
+        for (PartitionUpdate update : toPartitionUpdates("INSERT INTO tbl (id, ck, val) VALUES (21, 1, 1) USING TTL 1", now)) {
+            handler.handleMutation(new Mutation(update), 0, 100, desc);
+        }
+        Thread.sleep(2100);
+        // event time is not advanced by the wall clock
+        assertEquals(1, events.size());
+        handler.sync();
+        assertTrue(Files.exists(file));
+
+        for (PartitionUpdate update : toPartitionUpdates("INSERT INTO tbl (id, ck, val) VALUES (22, 1, 1)", now + 3000)) {
+            handler.handleMutation(new Mutation(update), 0, 200, desc);
+        }
+        assertEquals(3, events.size(), events.toString());
+        ChangeEvent expired = events.get(2);
+        assertEquals(ChangeEventType.DELETE, expired.getEventType());
+        assertEquals(21, expired.getDeletion().getCriteria().get(0).getCondition());
+        assertEquals(SequenceId.of(42, 200, 1, 0), expired.getSequenceId());
+        assertTrue(events.get(1).getSequenceId().compareTo(expired.getSequenceId()) < 0);
+        assertEquals(0, expirations.size());
+    }
+
+    private void parse(ExpirationScheduler expirations, String cql) {
+        for (PartitionUpdate update : toPartitionUpdates(cql)) {
+            PartitionParser parser = new PartitionParser(update);
+            parser.setExpirations(expirations);
+            parser.toChangeEvents();
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList(
+                "CREATE TABLE tbl (id int, ck int, val int, val2 int, s int static, PRIMARY KEY (id, ck))");
+    }
+}
@@ -0,0 +1,76 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for finding hot partitions and heavy tables")
+class HeavyHittersTest extends CqlToChangeEventTest {
+
+    private static final String KEYSPACE = "heavy_hitters_test";
+
+    @Test
+    @DisplayName("Hot partitions are found among many keys with a small sketch")
+    void testHotPartitions() {
+        HeavyHitters heavyHitters = new HeavyHitters(3, 256, 0);
+        List<PartitionUpdate> hot = toPartitionUpdates("INSERT INTO tbl (id, val) VALUES ('hot', 'a')");
+        List<PartitionUpdate> warm = toPartitionUpdates("INSERT INTO tbl (id, val) VALUES ('warm', 'a')");
+        List<PartitionUpdate> large = toPartitionUpdates("INSERT INTO blobs (id, val) VALUES (1, 0x"
+                + String.join("", Collections.nCopies(10000, "ff")) + ")");
+        for (int i = 0; i < 2000; i++) {
+            toPartitionUpdates("INSERT INTO tbl (id, val) VALUES ('cold" + i + "', 'a')").forEach(heavyHitters::add);
+            if (i % 10 == 0) {
+                hot.forEach(heavyHitters::add);
+                hot.forEach(heavyHitters::add);
+                warm.forEach(heavyHitters::add);
+            }
+        }
+        large.forEach(heavyHitters::add);
+
+        List<String> byWrites = heavyHitters.topPartitionsByWrites();
+        assertEquals(3, byWrites.size());
+        assertTrue(byWrites.get(0).startsWith(KEYSPACE + ".tbl[hot]="), byWrites.toString());
+        assertTrue(byWrites.get(1).startsWith(KEYSPACE + ".tbl[warm]="), byWrites.toString());
+        // estimates are never below the actual counts
+        assertTrue(Long.parseLong(byWrites.get(0).split("=")[1]) >= 400);
+        assertTrue(Long.parseLong(byWrites.get(1).split("=")[1]) >= 200);
+
+        assertTrue(heavyHitters.topPartitionsByBytes().get(0).startsWith(KEYSPACE + ".blobs[1]="));
+        List<String> tables = heavyHitters.topTablesByBytes();
+        assertEquals(2, tables.size());
+
+        heavyHitters.report();
+        assertTrue(heavyHitters.topPartitionsByWrites().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Estimates are not below the actual counts, and top items have the largest counts")
+    void testTracker() {
+        HeavyHitters.Tracker<Integer> tracker = new HeavyHitters.Tracker<>(5, 1024);
+        Map<Integer, Long> actual = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // skewed towards small items
+            int item = (int) Math.floor(Math.pow(random.nextDouble(), 4) * 10000);
+            long estimate = tracker.add(item, item * 0x9E3779B97F4A7C15L, 1);
+            long count = actual.merge(item, 1L, Long::sum);
+            assertTrue(estimate >= count);
+        }
+        List<HeavyHitters.Candidate<Integer>> top = tracker.top();
+        assertEquals(5, top.size());
+        assertEquals(Integer.valueOf(0), top.get(0).item);
+        for (HeavyHitters.Candidate<Integer> candidate : top) {
+            assertTrue(candidate.item < 10, String.valueOf(candidate.item));
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList("CREATE TABLE tbl (id text PRIMARY KEY, val text)",
+                "CREATE TABLE blobs (id int PRIMARY KEY, val blob)");
+    }
+}
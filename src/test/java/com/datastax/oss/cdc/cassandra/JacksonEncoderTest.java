@@ -0,0 +1,79 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for JSON, Smile and CBOR encoders")
+class JacksonEncoderTest extends CqlToChangeEventTest {
+
+    private List<ChangeEvent> events() {
+        List<ChangeEvent> events = new ArrayList<>();
+        events.addAll(run("INSERT INTO my_table (key, col1, col2) VALUES ('key', 1, {'a': 2})"));
+        events.addAll(run("DELETE col1 FROM my_table WHERE key = 'key'"));
+        return events;
+    }
+
+    @Test
+    @DisplayName("Events in a stream are read back as root-level values")
+    void testStream() throws IOException {
+        List<ChangeEvent> events = events();
+        for (JacksonEncoder.Format format : JacksonEncoder.Format.values()) {
+            assertStream(format, events);
+        }
+    }
+
+    private static void assertStream(JacksonEncoder.Format format, List<ChangeEvent> events) throws IOException {
+        JacksonEncoder encoder = new JacksonEncoder(format);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ChangeEvent event : events) {
+            encoder.encode(event, out);
+        }
+
+        List<JsonNode> nodes;
+        try (MappingIterator<JsonNode> it = format.mapper().readerFor(JsonNode.class).readValues(out.toByteArray())) {
+            nodes = it.readAll();
+        }
+        assertEquals(events.size(), nodes.size());
+        JsonNode update = nodes.get(events.size() - 2);
+        assertEquals("update", update.get("type").asText());
+        assertEquals("key", update.get("row").get("key").asText());
+        assertEquals(1, update.get("row").get("col1").asInt());
+        assertEquals(2, update.get("row").get("col2").get("a").asInt());
+        JsonNode delete = nodes.get(events.size() - 1);
+        assertEquals("delete", delete.get("type").asText());
+        assertEquals("col1", delete.get("columns").get(0).asText());
+        assertEquals("key", delete.get("criteria").get("key").asText());
+    }
+
+    @Test
+    @DisplayName("Compact JSON has one event per line")
+    void testJsonLines() throws IOException {
+        List<ChangeEvent> events = events();
+        JacksonEncoder encoder = new JacksonEncoder(JacksonEncoder.Format.JSON);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ChangeEvent event : events) {
+            encoder.encode(event, out);
+        }
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(events.size(), lines.length);
+        for (String line : lines) {
+            assertTrue(line.startsWith("{") && line.endsWith("}"), line);
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE my_table (key text PRIMARY KEY, col1 int, col2 map<text, int>)");
+    }
+}
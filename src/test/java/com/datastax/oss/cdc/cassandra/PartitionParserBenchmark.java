@@ -0,0 +1,59 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares conversion of partitions with per-table converters against inspecting column types.
+ *
+ * Run with <code>org.openjdk.jmh.Main PartitionParserBenchmark</code> on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionParserBenchmark extends CqlToChangeEventTest {
+
+    private static final int PARTITIONS = 1000;
+
+    @Param({"true", "false"})
+    public boolean useConverters;
+
+    private List<PartitionUpdate> partitions;
+
+    @Setup
+    public void prepare() {
+        initialize();
+        setUp();
+        partitions = new ArrayList<>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.addAll(toPartitionUpdates(String.format("UPDATE my_table SET col1 = %d, col2 = 'value %d', "
+                    + "col3 = col3 + {'a': %d, 'b': %d}, col4 = col4 + {'x', 'y'}, col5 = col5 + [1, 2] "
+                    + "WHERE key = 'key %d' AND ck = %d", i, i, i, i, i, i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTITIONS)
+    public void toChangeEvents(Blackhole blackhole) {
+        for (PartitionUpdate partition : partitions) {
+            for (ChangeEvent event : new PartitionParser(partition, null, useConverters).toChangeEvents()) {
+                blackhole.consume(event.getRow());
+            }
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE my_table (key text, ck int, col1 int, col2 text, "
+                + "col3 map<text, int>, col4 set<text>, col5 list<int>, PRIMARY KEY (key, ck))");
+    }
+}
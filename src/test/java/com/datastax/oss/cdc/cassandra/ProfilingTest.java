@@ -0,0 +1,54 @@
+package com.datastax.oss.cdc.cassandra;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for Flight Recorder events")
+class ProfilingTest extends CqlToChangeEventTest {
+
+    private static final String KEYSPACE = "profiling_test";
+
+    @Test
+    @DisplayName("Conversion of a partition is recorded with its table and counts")
+    void testPartitionConversion(@TempDir Path dir) throws IOException {
+        assertTrue(Profiling.ENABLED);
+        Path file = dir.resolve("test.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.datastax.oss.cdc.PartitionConversion").withThreshold(Duration.ZERO);
+            recording.start();
+            assertEquals(2, run("BEGIN BATCH INSERT INTO tbl (id, ck, val) VALUES (1, 1, 1); "
+                    + "INSERT INTO tbl (id, ck, val) VALUES (1, 2, 2); APPLY BATCH").size());
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals("com.datastax.oss.cdc.PartitionConversion"))
+                .filter(e -> KEYSPACE.equals(e.getString("keyspace")))
+                .collect(Collectors.toList());
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("tbl", event.getString("table"));
+        assertEquals(2, event.getInt("rows"));
+        assertEquals(2, event.getInt("events"));
+        assertTrue(event.getLong("size") > 0);
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList("CREATE TABLE tbl (id int, ck int, val int, PRIMARY KEY (id, ck))");
+    }
+}
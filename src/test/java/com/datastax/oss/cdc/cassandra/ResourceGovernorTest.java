@@ -0,0 +1,68 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for limiting resources by load of the node")
+class ResourceGovernorTest {
+
+    @Test
+    @DisplayName("Limits are halved while busy and raised up to the maximum while idle")
+    void testAdjust() {
+        ResourceGovernor governor = new ResourceGovernor(16 * 1024 * 1024, 8, 0.7, null, 0);
+        assertEquals(8, governor.getWorkers());
+        assertEquals(16 * 1024 * 1024, governor.getBytesPerSecond(), 1);
+
+        governor.adjust(1.0, -1, -1);
+        assertEquals(4, governor.getWorkers());
+        assertEquals(8 * 1024 * 1024, governor.getBytesPerSecond(), 1);
+
+        for (int i = 0; i < 3; i++) {
+            governor.adjust(0.1, ResourceGovernor.PENDING_COMPACTIONS_THRESHOLD + 1, -1);
+            governor.adjust(0.1, -1, ResourceGovernor.WRITE_LATENCY_THRESHOLD_MICROS + 1);
+        }
+        assertEquals(1, governor.getWorkers(), "not below one worker");
+        assertEquals(1024 * 1024, governor.getBytesPerSecond(), 1, "not below 1/16 of the maximum");
+
+        // between 75% of the threshold and the threshold
+        governor.adjust(0.6, -1, -1);
+        assertEquals(1, governor.getWorkers());
+
+        for (int i = 0; i < 10; i++) {
+            governor.adjust(0.1, -1, -1);
+        }
+        assertEquals(8, governor.getWorkers());
+        assertEquals(16 * 1024 * 1024, governor.getBytesPerSecond(), 1);
+        governor.close();
+    }
+
+    @Test
+    @DisplayName("Workers wait while the limit is reached")
+    void testWorkers() throws InterruptedException {
+        ResourceGovernor governor = new ResourceGovernor(0, 2, 0.7, null, 0);
+        assertNull(governor.getRateLimiter());
+        governor.adjust(1.0, -1, -1);
+        governor.acquireWorker();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread worker = new Thread(() -> {
+            try {
+                governor.acquireWorker();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        worker.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        governor.releaseWorker();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        worker.join();
+        governor.close();
+    }
+}
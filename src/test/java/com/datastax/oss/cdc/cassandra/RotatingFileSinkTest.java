@@ -0,0 +1,175 @@
+package com.datastax.oss.cdc.cassandra;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xerial.snappy.SnappyFramedInputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for writing events to rotated files")
+class RotatingFileSinkTest {
+
+    private static ChangeEvent event(String keyspace, String table, int value) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("key", "key" + value);
+        columns.put("value", value);
+        return new DefaultChangeEvent(keyspace, table, UUID.randomUUID(), Instant.now(), () -> columns);
+    }
+
+    private static List<Path> files(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String read(Path file, InputStreamFactory factory) throws IOException {
+        try (InputStream in = factory.open(Files.newInputStream(file));
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private interface InputStreamFactory {
+        InputStream open(InputStream in) throws IOException;
+    }
+
+    @Test
+    @DisplayName("Files are not visible with final name until closed")
+    void testAtomicRename(@TempDir Path dir) throws IOException {
+        RotatingFileSink sink = RotatingFileSink.builder(dir).build();
+        sink.write(event("ks", "table", 1));
+        sink.flush();
+
+        List<Path> files = files(dir);
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).getFileName().toString().endsWith(".tmp"));
+
+        sink.close();
+        files = files(dir);
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).getFileName().toString().endsWith(".json"));
+        assertTrue(read(files.get(0), in -> in).contains("\"key1\""));
+    }
+
+    @Test
+    @DisplayName("Files are rotated by size")
+    void testRotateBySize(@TempDir Path dir) throws IOException {
+        try (RotatingFileSink sink = RotatingFileSink.builder(dir).withMaxFileSize(1).build()) {
+            for (int i = 0; i < 3; i++) {
+                sink.write(event("ks", "table", i));
+                // size is checked after data reaches the file
+                sink.flush();
+            }
+        }
+        assertTrue(files(dir).size() >= 2);
+    }
+
+    @Test
+    @DisplayName("LZ4 compressed files in table layout")
+    void testLZ4TableLayout(@TempDir Path dir) throws IOException {
+        try (RotatingFileSink sink = RotatingFileSink.builder(dir)
+                .withCompression(RotatingFileSink.Compression.LZ4)
+                .withLayout(RotatingFileSink.Layout.TABLE)
+                .build()) {
+            sink.write(event("ks", "table1", 1));
+            sink.write(event("ks", "table2", 2));
+        }
+        List<Path> files = files(dir);
+        assertEquals(2, files.size());
+        assertEquals(dir.resolve("ks").resolve("table1"), files.get(0).getParent());
+        assertTrue(files.get(0).getFileName().toString().endsWith(".json.lz4"));
+        assertTrue(read(files.get(0), LZ4BlockInputStream::new).contains("\"table1\""));
+        assertTrue(read(files.get(1), LZ4BlockInputStream::new).contains("\"table2\""));
+    }
+
+    @Test
+    @DisplayName("Snappy compressed files")
+    void testSnappy(@TempDir Path dir) throws IOException {
+        try (RotatingFileSink sink = RotatingFileSink.builder(dir)
+                .withCompression(RotatingFileSink.Compression.SNAPPY)
+                .withSyncInterval(1)
+                .build()) {
+            for (int i = 0; i < 100; i++) {
+                sink.write(event("ks", "table", i));
+            }
+        }
+        List<Path> files = files(dir);
+        assertEquals(1, files.size());
+        String content = read(files.get(0), SnappyFramedInputStream::new);
+        assertTrue(content.contains("\"key0\""));
+        assertTrue(content.contains("\"key99\""));
+    }
+
+    @Test
+    @DisplayName("Watermarks are written to open files, new files and directories without open files")
+    void testWatermark(@TempDir Path dir) throws IOException {
+        Instant watermark = Instant.parse("2020-01-01T10:00:00.123Z");
+        String line = "{\"watermark\":\"2020-01-01T10:00:00.123Z\"}";
+        Path table1 = dir.resolve("ks").resolve("table1");
+        Path table2 = dir.resolve("ks").resolve("table2");
+        try (RotatingFileSink sink = RotatingFileSink.builder(dir).withLayout(RotatingFileSink.Layout.TABLE)
+                .withMaxFileSize(1).build()) {
+            sink.write(event("ks", "table1", 1));
+            sink.flush();
+            // rotated by size, and table1 has no open file
+            sink.write(event("ks", "table1", 2));
+            sink.write(event("ks", "table2", 3));
+            sink.writeWatermark(watermark);
+            assertEquals(watermark, RotatingFileSink.readWatermark(table1));
+            assertNull(RotatingFileSink.readWatermark(table2));
+
+            sink.write(event("ks", "table1", 4));
+        }
+        List<Path> files1 = files(table1).stream()
+                .filter(f -> !f.getFileName().toString().equals(RotatingFileSink.WATERMARK_FILE))
+                .collect(Collectors.toList());
+        assertEquals(2, files1.size());
+        // opened after the watermark
+        assertTrue(read(files1.get(1), in -> in).startsWith(line));
+        assertTrue(read(files(table2).get(0), in -> in).contains(line));
+    }
+
+    @Test
+    @DisplayName("Files left by a crash are completed with the events synced")
+    void testRecovery(@TempDir Path dir) throws IOException {
+        RotatingFileSink crashed = RotatingFileSink.builder(dir)
+                .withCompression(RotatingFileSink.Compression.LZ4)
+                .build();
+        crashed.write(event("ks", "table", 1));
+        crashed.sync();
+        // written after the sync, as if its segment was kept
+        crashed.write(event("ks", "table", 2));
+        crashed.flush();
+
+        RotatingFileSink.builder(dir).withCompression(RotatingFileSink.Compression.LZ4).build().close();
+        List<Path> files = files(dir);
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).getFileName().toString().endsWith(".json.lz4"));
+        String content = read(files.get(0), LZ4BlockInputStream::new);
+        assertTrue(content.contains("\"key1\""));
+        assertFalse(content.contains("\"key2\""));
+
+        // nothing synced
+        crashed = RotatingFileSink.builder(dir.resolve("unsynced")).build();
+        crashed.write(event("ks", "table", 3));
+        crashed.flush();
+        RotatingFileSink.builder(dir.resolve("unsynced")).build().close();
+        assertTrue(files(dir.resolve("unsynced")).isEmpty());
+    }
+}
@@ -0,0 +1,183 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.cql3.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.datastax.oss.cdc.cassandra.ChangeEventType.DELETE;
+import static com.datastax.oss.cdc.cassandra.ChangeEventType.UPDATE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for full row images built from the row state store")
+class RowStateStoreTest extends CqlToChangeEventTest {
+
+    private RowStateStore store;
+
+    @BeforeEach
+    void createStore() {
+        store = new RowStateStore(16 * 1024 * 1024);
+    }
+
+    @AfterEach
+    void closeStore() throws IOException {
+        store.close();
+    }
+
+    private List<ChangeEvent> apply(String cql) {
+        return run(cql).stream().map(store::apply).collect(Collectors.toList());
+    }
+
+    @Test
+    @DisplayName("Update emits full after-image and before-image")
+    void testUpdateAfterInsert() {
+        apply("INSERT INTO my_table (key, col1, col2) VALUES ('key', 1, 'a') USING TIMESTAMP 1000");
+        List<ChangeEvent> events = apply("UPDATE my_table USING TIMESTAMP 2000 SET col1 = 2 WHERE key = 'key'");
+        events.stream().map(JsonOutput::toJson).forEach(System.out::println);
+
+        assertEquals(1, events.size());
+        ChangeEvent event = events.get(0);
+        assertEquals(UPDATE, event.getEventType());
+
+        Map<String, Object> after = event.getRow().getColumns();
+        assertEquals("key", after.get("key"));
+        assertEquals(2, after.get("col1"));
+        assertEquals("a", after.get("col2"));
+
+        Map<String, Object> before = event.getBeforeImage().getColumns();
+        assertEquals("key", before.get("key"));
+        assertEquals(1, before.get("col1"));
+        assertEquals("a", before.get("col2"));
+    }
+
+    @Test
+    @DisplayName("First insert has no before-image")
+    void testFirstInsert() {
+        List<ChangeEvent> events = apply("INSERT INTO my_table (key, col1) VALUES ('new_key', 1)");
+
+        assertEquals(1, events.size());
+        assertNull(events.get(0).getBeforeImage());
+        assertEquals(1, events.get(0).getRow().getColumns().get("col1"));
+    }
+
+    @Test
+    @DisplayName("Older update does not overwrite newer value")
+    void testOutOfOrderUpdate() {
+        apply("INSERT INTO my_table (key, col1) VALUES ('ooo', 2) USING TIMESTAMP 2000");
+        List<ChangeEvent> events = apply("UPDATE my_table USING TIMESTAMP 1000 SET col1 = 1, col2 = 'b' WHERE key = 'ooo'");
+
+        Map<String, Object> after = events.get(0).getRow().getColumns();
+        assertEquals(2, after.get("col1"));
+        assertEquals("b", after.get("col2"));
+    }
+
+    @Test
+    @DisplayName("Row deletion carries before-image and clears state")
+    void testDeleteRow() {
+        apply("INSERT INTO cluster_table (key, cl1, val) VALUES ('key', 1, 10) USING TIMESTAMP 1000");
+        List<ChangeEvent> events = apply("DELETE FROM cluster_table USING TIMESTAMP 2000 WHERE key = 'key' AND cl1 = 1");
+
+        assertEquals(1, events.size());
+        assertEquals(DELETE, events.get(0).getEventType());
+        assertEquals(10, events.get(0).getBeforeImage().getColumns().get("val"));
+
+        events = apply("INSERT INTO cluster_table (key, cl1) VALUES ('key', 1) USING TIMESTAMP 3000");
+        assertNull(events.get(0).getBeforeImage());
+    }
+
+    @Test
+    @DisplayName("Partition deletion shadows older rows")
+    void testDeletePartition() {
+        apply("INSERT INTO cluster_table (key, cl1, val) VALUES ('pkey', 1, 10) USING TIMESTAMP 1000");
+        apply("DELETE FROM cluster_table USING TIMESTAMP 2000 WHERE key = 'pkey'");
+        List<ChangeEvent> events = apply("UPDATE cluster_table USING TIMESTAMP 3000 SET val = 20 WHERE key = 'pkey' AND cl1 = 1");
+
+        assertNull(events.get(0).getBeforeImage());
+        assertEquals(20, events.get(0).getRow().getColumns().get("val"));
+    }
+
+    @Test
+    @DisplayName("Writes are resolved in microseconds")
+    void testSameMillisecond() {
+        apply("INSERT INTO my_table (key, col1, col2) VALUES ('micros', 1, 'a') USING TIMESTAMP 5000100");
+        apply("DELETE FROM my_table USING TIMESTAMP 5000200 WHERE key = 'micros'");
+        List<ChangeEvent> events = apply("INSERT INTO my_table (key, col1) VALUES ('micros', 2) USING TIMESTAMP 5000300");
+        assertNull(events.get(0).getBeforeImage());
+        assertEquals(2, events.get(0).getRow().getColumns().get("col1"));
+
+        events = apply("UPDATE my_table USING TIMESTAMP 5000250 SET col1 = 3, col2 = 'b' WHERE key = 'micros'");
+        Map<String, Object> after = events.get(0).getRow().getColumns();
+        assertEquals(2, after.get("col1"));
+        assertEquals("b", after.get("col2"));
+    }
+
+    @Test
+    @DisplayName("Values longer than 64KB are kept")
+    void testLongValue() {
+        String value = String.join("", Collections.nCopies(70000, "\u00e9"));
+        apply("INSERT INTO my_table (key, col2) VALUES ('long', '" + value + "')");
+        List<ChangeEvent> events = apply("UPDATE my_table SET col1 = 1 WHERE key = 'long'");
+        assertEquals(value, events.get(0).getRow().getColumns().get("col2"));
+        assertEquals(value, events.get(0).getBeforeImage().getColumns().get("col2"));
+    }
+
+    @Test
+    @DisplayName("Map updates are merged into after-image")
+    void testMapMerge() {
+        apply("UPDATE map_table USING TIMESTAMP 1000 SET col1 = col1 + {'a': 1} WHERE key = 'key'");
+        List<ChangeEvent> events = apply("UPDATE map_table USING TIMESTAMP 2000 SET col1 = col1 + {'b': 2} WHERE key = 'key'");
+
+        Map<?, ?> after = (Map<?, ?>) events.get(0).getRow().getColumns().get("col1");
+        assertEquals(1, after.get("a"));
+        assertEquals(2, after.get("b"));
+    }
+
+    @Test
+    @DisplayName("Values of other types are read back as the same Java values")
+    void testDuration() {
+        apply("INSERT INTO duration_table (key, col1, col2) VALUES ('key', 1h30m, [1d, 2mo]) USING TIMESTAMP 1000");
+        List<ChangeEvent> events = apply("UPDATE duration_table USING TIMESTAMP 2000 SET col3 = 1 WHERE key = 'key'");
+
+        Map<String, Object> before = events.get(0).getBeforeImage().getColumns();
+        assertEquals(Duration.from("1h30m"), before.get("col1"));
+        assertEquals(Arrays.asList(Duration.from("1d"), Duration.from("2mo")), before.get("col2"));
+        Map<String, Object> after = events.get(0).getRow().getColumns();
+        assertEquals(Duration.from("1h30m"), after.get("col1"));
+        assertEquals(1, after.get("col3"));
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList(
+                "CREATE TABLE my_table (" +
+                "  key text PRIMARY KEY," +
+                "  col1 int, " +
+                "  col2 text " +
+                ")",
+                "CREATE TABLE cluster_table (" +
+                "  key text," +
+                "  cl1 int, " +
+                "  val int, " +
+                "  PRIMARY KEY ((key), cl1)" +
+                ")",
+                "CREATE TABLE map_table (" +
+                "  key text PRIMARY KEY," +
+                "  col1 map<text, int> " +
+                ")",
+                "CREATE TABLE duration_table (" +
+                "  key text PRIMARY KEY," +
+                "  col1 duration, " +
+                "  col2 frozen<list<duration>>, " +
+                "  col3 int " +
+                ")"
+        );
+    }
+}
@@ -0,0 +1,142 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.filter.ColumnFilter;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for writing events into SSTables")
+class SSTableSinkTest extends CqlToChangeEventTest {
+
+    /**
+     * Reads all SSTables of the table in the directory, and converts their partitions to events.
+     */
+    private static List<ChangeEvent> readSSTables(Path tableDirectory, CFMetaData metadata) throws IOException {
+        List<Path> dataFiles;
+        try (Stream<Path> files = Files.list(tableDirectory)) {
+            dataFiles = files.filter(f -> f.toString().endsWith("-Data.db")).collect(Collectors.toList());
+        }
+        assertFalse(dataFiles.isEmpty());
+        List<ChangeEvent> events = new ArrayList<>();
+        for (Path dataFile : dataFiles) {
+            Descriptor descriptor = Descriptor.fromFilename(dataFile.toString());
+            SSTableReader reader = SSTableReader.openNoValidation(descriptor, metadata);
+            try (ISSTableScanner scanner = reader.getScanner()) {
+                while (scanner.hasNext()) {
+                    try (UnfilteredRowIterator partition = scanner.next()) {
+                        events.addAll(new PartitionParser(PartitionUpdate.fromIterator(partition, ColumnFilter.all(metadata)))
+                                .toChangeEvents());
+                    }
+                }
+            } finally {
+                reader.selfRef().release();
+            }
+        }
+        return events;
+    }
+
+    @Test
+    @DisplayName("Updates and deletions are written into the completed generation")
+    void testWrite(@TempDir Path dir) throws IOException {
+        List<ChangeEvent> events = new ArrayList<>();
+        events.addAll(run("INSERT INTO my_table (key, ck, col1, col2) VALUES ('key', 1, 1, {'a': 1})"));
+        events.addAll(run("INSERT INTO my_table (key, ck) VALUES ('key', 2)"));
+        events.addAll(run("UPDATE my_table SET st = 10 WHERE key = 'key'"));
+        events.addAll(run("DELETE col1 FROM my_table WHERE key = 'key' AND ck = 3"));
+        events.addAll(run("DELETE FROM my_table WHERE key = 'key' AND ck > 5"));
+        events.addAll(run("INSERT INTO my_table (key, ck, col1) VALUES ('key', 4, 4) USING TTL 3600"));
+        events.addAll(run("DELETE FROM my_table WHERE key = 'key' AND ck = 6"));
+        events.addAll(run("DELETE FROM my_table WHERE key = 'other'"));
+
+        SSTableSink sink = new SSTableSink(dir);
+        for (ChangeEvent event : events) {
+            sink.write(event);
+        }
+        // nothing is visible until the generation is completed
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.allMatch(f -> f.getFileName().toString().startsWith(".")));
+        }
+        sink.close();
+
+        List<Path> generations;
+        try (Stream<Path> files = Files.list(dir)) {
+            generations = files.collect(Collectors.toList());
+        }
+        assertEquals(1, generations.size());
+        assertFalse(generations.get(0).getFileName().toString().startsWith("."));
+        Path tableDirectory = generations.get(0).resolve(events.get(0).getKeyspaceName()).resolve("my_table");
+        assertTrue(Files.isDirectory(tableDirectory));
+
+        CFMetaData metadata = Schema.instance.getCFMetaData(events.get(0).getTableId());
+        List<ChangeEvent> written = readSSTables(tableDirectory, metadata);
+        Map<String, Object> row1 = null;
+        boolean key2 = false;
+        boolean staticRow = false;
+        boolean col1Deleted = false;
+        boolean rowDeleted = false;
+        boolean rangeDeleted = false;
+        boolean partitionDeleted = false;
+        for (ChangeEvent event : written) {
+            if (event.getEventType() == ChangeEventType.UPDATE) {
+                Map<String, Object> columns = event.getRow().getColumns();
+                if (Integer.valueOf(1).equals(columns.get("ck"))) {
+                    row1 = columns;
+                } else if (Integer.valueOf(2).equals(columns.get("ck"))) {
+                    key2 = true;
+                } else if (Integer.valueOf(4).equals(columns.get("ck"))) {
+                    assertEquals(3600, event.getTTL());
+                    assertNotNull(event.getExpirationTime());
+                } else if (columns.containsKey("st")) {
+                    staticRow = true;
+                    assertEquals(10, columns.get("st"));
+                }
+            } else if (event.getDeletion().getColumns().contains("col1")) {
+                col1Deleted = true;
+            } else {
+                List<Criteria> criteria = event.getDeletion().getCriteria();
+                if ("other".equals(criteria.get(0).getStartValue())) {
+                    partitionDeleted = criteria.size() == 1;
+                } else if (criteria.size() == 2 && criteria.get(1).isEqual()) {
+                    rowDeleted = Integer.valueOf(6).equals(criteria.get(1).getStartValue());
+                } else if (criteria.size() == 2) {
+                    rangeDeleted = Integer.valueOf(5).equals(criteria.get(1).getStartValue())
+                            && !criteria.get(1).isStartInclusive();
+                }
+            }
+            // written with the same write timestamp as the event read from the commit log
+            assertTrue(events.stream().anyMatch(e -> e.getWriteTimestamp() == event.getWriteTimestamp()));
+        }
+        assertNotNull(row1);
+        assertEquals(1, row1.get("col1"));
+        assertEquals(Collections.singletonMap("a", 1), row1.get("col2"));
+        assertTrue(key2);
+        assertTrue(staticRow);
+        assertTrue(col1Deleted);
+        assertTrue(rowDeleted);
+        assertTrue(rangeDeleted);
+        assertTrue(partitionDeleted);
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE my_table (key text, ck int, st int static, col1 int, "
+                + "col2 map<text, int>, PRIMARY KEY (key, ck))");
+    }
+}
@@ -0,0 +1,81 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for statistics of tables in commit log segments")
+class SegmentAnalyzerTest extends CqlToChangeEventTest {
+
+    private static final String KEYSPACE = "segment_analyzer_test";
+
+    @Test
+    @DisplayName("Rows, cells, deletions and timestamps of a table are counted")
+    void testAnalyze(@TempDir Path dir) throws IOException {
+        List<String> statements = Arrays.asList(
+                "INSERT INTO tbl (id, ck, val) VALUES (1, 1, 1)",
+                "UPDATE tbl SET val = null WHERE id = 1 AND ck = 2",
+                "DELETE FROM tbl WHERE id = 1 AND ck = 3",
+                "DELETE FROM tbl WHERE id = 2",
+                "DELETE FROM tbl WHERE id = 3 AND ck > 5",
+                "INSERT INTO tbl (id, ck, m) VALUES (4, 1, {1: 1})");
+        CommitLogPosition position = null;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < statements.size(); i++) {
+            for (PartitionUpdate update : toPartitionUpdates(statements.get(i), 1_000_000L + i)) {
+                CommitLogPosition added = CommitLog.instance.add(new Mutation(update));
+                position = position == null ? added : position;
+                minTimestamp = Math.min(minTimestamp, update.stats().minTimestamp);
+                maxTimestamp = Math.max(maxTimestamp, update.maxTimestamp());
+            }
+        }
+        CommitLog.instance.sync(true);
+        String name = new CommitLogDescriptor(position.segmentId, null, null).fileName();
+        Files.copy(new File(DatabaseDescriptor.getCommitLogLocation(), name).toPath(), dir.resolve(name));
+
+        SegmentAnalyzer.Report report = new SegmentAnalyzer(2, new DeadLetterQueue(null)).analyze(dir);
+        assertEquals(1, report.getSegments());
+        assertEquals(0, report.getSkippedBytes());
+        // other tests may have written to the segment before
+        assertEquals(report.getBytes(), report.getTables().values().stream().mapToLong(SegmentAnalyzer.TableStats::getBytes).sum());
+
+        SegmentAnalyzer.TableStats stats = report.getTables().get(KEYSPACE + ".tbl");
+        assertEquals(6, stats.getMutations());
+        assertEquals(4, stats.getRows());
+        assertEquals(3, stats.getCells());
+        assertEquals(1, stats.getPartitionDeletions());
+        assertEquals(1, stats.getRangeTombstones());
+        assertEquals(1, stats.getRowDeletions());
+        // null value, and map overwritten by insert
+        assertEquals(2, stats.getCellTombstones());
+        assertEquals(minTimestamp, stats.getMinTimestamp());
+        assertEquals(maxTimestamp, stats.getMaxTimestamp());
+        assertTrue(stats.getBytes() > 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        report.print(new PrintStream(out, true));
+        assertTrue(out.toString().contains(KEYSPACE + ".tbl"));
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE tbl (id int, ck int, val int, m map<int, int>, PRIMARY KEY (id, ck))");
+    }
+}
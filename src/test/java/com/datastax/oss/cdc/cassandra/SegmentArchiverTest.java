@@ -0,0 +1,86 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for archiving processed segments")
+class SegmentArchiverTest {
+
+    private static Path segment(Path dir, long id, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(id).nextBytes(data);
+        return Files.write(dir.resolve("CommitLog-6-" + id + ".log"), data);
+    }
+
+    private static SegmentIndex index(long id) {
+        return new SegmentIndex(id, 0, 0, new LinkedHashMap<>());
+    }
+
+    @Test
+    @DisplayName("Segments are removed from the CDC directory and compressed with their indexes")
+    void testArchive(@TempDir Path dir) throws IOException {
+        Path cdc = Files.createDirectory(dir.resolve("cdc_raw"));
+        Path archive = dir.resolve("archive");
+        Path segment = segment(cdc, 1, 100_000);
+        byte[] data = Files.readAllBytes(segment);
+
+        SegmentArchiver archiver = new SegmentArchiver(archive, RotatingFileSink.Compression.LZ4, 0, 0);
+        archiver.archive(segment, index(1));
+        assertTrue(Files.notExists(segment));
+        archiver.close();
+
+        List<Path> archived = SegmentArchiver.segments(archive);
+        assertEquals(Collections.singletonList(archive.resolve("CommitLog-6-1.log.lz4")), archived);
+        assertEquals(1, SegmentIndex.find(archived.get(0)).getSegmentId());
+
+        Path decompressed = SegmentArchiver.decompress(archived.get(0));
+        assertEquals("CommitLog-6-1.log", decompressed.getFileName().toString());
+        assertArrayEquals(data, Files.readAllBytes(decompressed));
+        Files.delete(decompressed);
+        Files.delete(decompressed.getParent());
+    }
+
+    @Test
+    @DisplayName("Uncompressed segments left from the last run are compressed")
+    void testResume(@TempDir Path dir) throws IOException {
+        segment(dir, 1, 1000);
+        SegmentArchiver archiver = new SegmentArchiver(dir, RotatingFileSink.Compression.SNAPPY, 0, 0);
+        archiver.close();
+        assertEquals(Collections.singletonList(dir.resolve("CommitLog-6-1.log.sz")), SegmentArchiver.segments(dir));
+    }
+
+    @Test
+    @DisplayName("Oldest segments are removed over the maximum size or age")
+    void testExpire(@TempDir Path dir) throws IOException {
+        for (long id = 1; id <= 5; id++) {
+            segment(dir, id, 1000);
+            index(id).write(SegmentIndex.pathOf(dir.resolve("CommitLog-6-" + id + ".log")));
+        }
+        long indexSize = Files.size(dir.resolve("CommitLog-6-1.idx"));
+        SegmentArchiver archiver = new SegmentArchiver(dir, RotatingFileSink.Compression.NONE, 3 * (1000 + indexSize), 0);
+        archiver.expire();
+        archiver.close();
+        List<Path> segments = SegmentArchiver.segments(dir);
+        assertEquals(Arrays.asList(dir.resolve("CommitLog-6-3.log"), dir.resolve("CommitLog-6-4.log"), dir.resolve("CommitLog-6-5.log")),
+                segments);
+        assertTrue(Files.notExists(dir.resolve("CommitLog-6-1.idx")));
+
+        Files.setLastModifiedTime(dir.resolve("CommitLog-6-3.log"),
+                FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+        archiver = new SegmentArchiver(dir, RotatingFileSink.Compression.NONE, 0, TimeUnit.HOURS.toMillis(1));
+        archiver.expire();
+        archiver.close();
+        assertEquals(Arrays.asList(dir.resolve("CommitLog-6-4.log"), dir.resolve("CommitLog-6-5.log")),
+                SegmentArchiver.segments(dir));
+    }
+}
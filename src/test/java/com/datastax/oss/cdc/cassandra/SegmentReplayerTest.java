@@ -0,0 +1,193 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
+import org.apache.cassandra.db.commitlog.CommitLogReadHandler;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for indexing and replaying commit log segments")
+class SegmentReplayerTest extends CqlToChangeEventTest {
+
+    private static final long START = 1_000_000_000L;
+
+    private static class CollectingSink implements ChangeEventSink {
+        private final List<ChangeEvent> events = new ArrayList<>();
+
+        @Override
+        public void write(ChangeEvent event) {
+            events.add(event);
+        }
+    }
+
+    // segment is written once, since tests in the same JVM write to the same commit log segment
+    private static Path written;
+
+    /**
+     * Writes 50 inserts to table1 and then 50 inserts to table2 to the commit log, each 1 second apart,
+     * and copies the segment to the directory.
+     *
+     * @return copied segment
+     */
+    private Path writeSegment(Path dir) throws IOException {
+        if (written == null) {
+            CommitLogPosition position = null;
+            for (String table : Arrays.asList("table1", "table2")) {
+                for (int i = 0; i < 50; i++) {
+                    long timestamp = START + TimeUnit.SECONDS.toMillis(table.equals("table1") ? i : 50 + i);
+                    String cql = "INSERT INTO " + table + " (key, col1) VALUES ('key" + i + "', " + i + ")";
+                    for (PartitionUpdate update : toPartitionUpdates(cql, timestamp)) {
+                        CommitLogPosition added = CommitLog.instance.add(new Mutation(update));
+                        if (position == null) {
+                            position = added;
+                        }
+                    }
+                }
+            }
+            CommitLog.instance.sync(true);
+            String name = new CommitLogDescriptor(position.segmentId, null, null).fileName();
+            Path copy = Files.createTempDirectory("segment").resolve(name);
+            Files.copy(new File(DatabaseDescriptor.getCommitLogLocation(), name).toPath(), copy);
+            copy.toFile().deleteOnExit();
+            copy.getParent().toFile().deleteOnExit();
+            written = copy;
+        }
+        return Files.copy(written, dir.resolve(written.getFileName()));
+    }
+
+    @Test
+    @DisplayName("Index has positions and timestamps of each table")
+    void testIndex(@TempDir Path dir) throws IOException {
+        Path segment = writeSegment(dir);
+        SegmentIndex index = SegmentIndex.load(segment);
+        assertTrue(Files.exists(SegmentIndex.pathOf(segment)));
+
+        // other tests may have written to the segment before
+        List<SegmentIndex.TableEntry> entries = new ArrayList<>();
+        for (SegmentIndex.TableEntry entry : index.getTables().values()) {
+            if (entry.getKeyspace().equals(keyspace())) {
+                entries.add(entry);
+            }
+        }
+        assertEquals(2, entries.size());
+        SegmentIndex.TableEntry table1 = entries.get(0);
+        SegmentIndex.TableEntry table2 = entries.get(1);
+        assertEquals("table1", table1.getTable());
+        assertEquals(50, table1.getMutations());
+        assertEquals(table1.getFirstMutation() + 49, table1.getLastMutation());
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(START), table1.getMinTimestamp());
+        assertEquals(TimeUnit.MILLISECONDS.toMicros(START + 49_000), table1.getMaxTimestamp());
+        assertEquals("table2", table2.getTable());
+        assertEquals(table1.getLastMutation() + 1, table2.getFirstMutation());
+        assertEquals(table1.getEndPosition(), table2.getStartPosition());
+        assertEquals(table1.getBytes(), table2.getBytes());
+
+        // written index is read back
+        SegmentIndex read = SegmentIndex.read(SegmentIndex.pathOf(segment));
+        assertEquals(index.getSegmentId(), read.getSegmentId());
+        assertEquals(index.getMutations(), read.getMutations());
+        SegmentIndex.TableEntry readTable2 = read.getTables().get(table2.getId());
+        assertEquals(table2.getStartPosition(), readTable2.getStartPosition());
+        assertEquals(table2.getEndPosition(), readTable2.getEndPosition());
+        assertEquals(table2.getMinTimestamp(), readTable2.getMinTimestamp());
+        assertEquals(table2.getMaxTimestamp(), readTable2.getMaxTimestamp());
+    }
+
+    @Test
+    @DisplayName("Only events of the table in the time range are replayed")
+    void testReplay(@TempDir Path dir) throws IOException {
+        writeSegment(dir);
+        String keyspace = keyspace();
+
+        CollectingSink sink = new CollectingSink();
+        long events = new SegmentReplayer(sink, Collections.singleton(keyspace + ".table2"), Instant.MIN, Instant.MAX).replay(dir);
+        assertEquals(50, events);
+        assertTrue(sink.events.stream().allMatch(event -> event.getTableName().equals("table2")));
+
+        sink = new CollectingSink();
+        Instant from = Instant.ofEpochMilli(START + 10_000);
+        Instant to = Instant.ofEpochMilli(START + 20_000);
+        new SegmentReplayer(sink, new HashSet<>(Arrays.asList(keyspace + ".table1", keyspace + ".table2")), from, to).replay(dir);
+        assertEquals(10, sink.events.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("table1", sink.events.get(i).getTableName());
+            assertEquals("key" + (10 + i), sink.events.get(i).getRow().getColumns().get("key"));
+        }
+
+        // no table in the time range
+        long skipped = CDCMetrics.registry.counter("Replay.SkippedSegments").getCount();
+        sink = new CollectingSink();
+        new SegmentReplayer(sink, Collections.singleton(keyspace + ".table2"), from, to).replay(dir);
+        assertTrue(sink.events.isEmpty());
+        assertEquals(skipped + 1, CDCMetrics.registry.counter("Replay.SkippedSegments").getCount());
+    }
+
+    @Test
+    @DisplayName("Segments are read between the positions of the tables")
+    void testReadPositions(@TempDir Path dir) throws IOException {
+        Path segment = writeSegment(dir);
+        SegmentIndex.TableEntry table1 = SegmentIndex.load(segment).getTables().values().stream()
+                .filter(entry -> entry.getKeyspace().equals(keyspace()) && entry.getTable().equals("table1"))
+                .findFirst().get();
+        List<Integer> positions = new ArrayList<>();
+        new TolerantCommitLogReader(new DeadLetterQueue(null)).read(new CommitLogReadHandler() {
+            @Override
+            public boolean shouldSkipSegmentOnError(CommitLogReadException e) {
+                return false;
+            }
+
+            @Override
+            public void handleUnrecoverableError(CommitLogReadException e) {
+            }
+
+            @Override
+            public void handleMutation(Mutation m, int size, int entryLocation, CommitLogDescriptor desc) {
+                positions.add(entryLocation);
+            }
+        }, segment, table1.getStartPosition(), table1.getEndPosition());
+        // mutations of table1 only, whatever other tables were written to the segment
+        assertEquals(50, positions.size());
+        assertEquals(table1.getEndPosition(), (int) positions.get(49));
+    }
+
+    @Test
+    @DisplayName("Compressed segments in the archive are replayed")
+    void testReplayArchive(@TempDir Path dir) throws IOException {
+        Path cdc = Files.createDirectory(dir.resolve("cdc_raw"));
+        Path archive = dir.resolve("archive");
+        Path segment = writeSegment(cdc);
+        SegmentArchiver archiver = new SegmentArchiver(archive, RotatingFileSink.Compression.LZ4, 0, 0);
+        archiver.archive(segment, SegmentIndex.build(segment));
+        archiver.close();
+
+        CollectingSink sink = new CollectingSink();
+        long events = new SegmentReplayer(sink, Collections.singleton(keyspace() + ".table1"), Instant.MIN, Instant.MAX).replay(archive);
+        assertEquals(50, events);
+    }
+
+    private String keyspace() {
+        return getClass().getSimpleName().replaceAll("(.)(\\p{Upper})", "$1_$2").toLowerCase();
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList(
+                "CREATE TABLE table1 (key text PRIMARY KEY, col1 int)",
+                "CREATE TABLE table2 (key text PRIMARY KEY, col1 int)");
+    }
+}
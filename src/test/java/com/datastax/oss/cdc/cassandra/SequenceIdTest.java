@@ -0,0 +1,94 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for sequence ids of events")
+class SequenceIdTest extends CqlToChangeEventTest {
+
+    @Test
+    @DisplayName("Ids keep their parts, and sort in the same order as their string forms")
+    void testOrder() {
+        SequenceId id = SequenceId.of(1580000000000L, 12345, 3, 7);
+        assertEquals(1580000000000L, id.getSegmentId());
+        assertEquals(12345, id.getEntryLocation());
+        assertEquals(3, id.getPartitionIndex());
+        assertEquals(7, id.getEventIndex());
+        assertEquals(id, SequenceId.parse(id.toString()));
+
+        List<SequenceId> ids = Arrays.asList(
+                SequenceId.of(1, 100, 0, 0),
+                SequenceId.of(1, 100, 0, 1),
+                SequenceId.of(1, 100, 1, 0),
+                SequenceId.of(1, 200, 0, 0),
+                SequenceId.of(2, 50, 0, 0),
+                SequenceId.of(2, Integer.MAX_VALUE, (1 << SequenceId.PARTITION_BITS) - 1, (1 << SequenceId.EVENT_BITS) - 1));
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0);
+            assertTrue(ids.get(i - 1).toString().compareTo(ids.get(i).toString()) < 0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> SequenceId.of(1, 100, 0, 1 << SequenceId.EVENT_BITS));
+    }
+
+    @Test
+    @DisplayName("Events of mutations get increasing ids that are kept by encoders")
+    void testHandler() throws IOException {
+        List<ChangeEvent> events = new ArrayList<>();
+        CommitLogHandler handler = new CommitLogHandler(null, null, events::add);
+        CommitLogDescriptor desc = new CommitLogDescriptor(42, null, null);
+        int location = 100;
+        for (String cql : Arrays.asList(
+                "BEGIN BATCH INSERT INTO tbl (id, ck, val) VALUES (1, 1, 1); INSERT INTO tbl (id, ck, val) VALUES (1, 2, 2); APPLY BATCH",
+                "INSERT INTO tbl (id, ck, val) VALUES (2, 1, 1)",
+                "DELETE FROM tbl WHERE id = 3")) {
+            for (PartitionUpdate update : toPartitionUpdates(cql)) {
+                handler.handleMutation(new Mutation(update), 0, location, desc);
+                location += 100;
+            }
+        }
+        assertEquals(4, events.size());
+        assertEquals(SequenceId.of(42, 100, 0, 0), events.get(0).getSequenceId());
+        assertEquals(SequenceId.of(42, 100, 0, 1), events.get(1).getSequenceId());
+        assertEquals(SequenceId.of(42, 200, 0, 0), events.get(2).getSequenceId());
+        assertEquals(SequenceId.of(42, 300, 0, 0), events.get(3).getSequenceId());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = new BinaryEncoder();
+        for (ChangeEvent event : events) {
+            encoder.encode(event, out);
+        }
+        BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(out.toByteArray()));
+        for (ChangeEvent event : events) {
+            assertEquals(event.getSequenceId(), decoder.read().getSequenceId());
+        }
+
+        assertEquals(events.get(3).getSequenceId().toString(),
+                new ObjectMapper().readTree(JsonOutput.toJson(events.get(3))).get("sequence_id").asText());
+
+        ColumnBatch batch = new ColumnBatch(ColumnBatch.schemaOf(Schema.instance.getCFMetaData(events.get(0).getTableId())), 1);
+        events.forEach(batch::add);
+        batch.add(run("INSERT INTO tbl (id, ck, val) VALUES (4, 1, 1)").get(0));
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(events.get(i).getSequenceId(), batch.getEvent(i).getSequenceId());
+        }
+        // not read from commit log
+        assertNull(batch.getSequenceId(events.size()));
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE tbl (id int, ck int, val int, PRIMARY KEY (id, ck))");
+    }
+}
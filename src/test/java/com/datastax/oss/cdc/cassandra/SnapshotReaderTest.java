@@ -0,0 +1,93 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for emitting table state from SSTables")
+class SnapshotReaderTest extends CqlToChangeEventTest {
+
+    private static class CollectingSink implements ChangeEventSink {
+        private final List<ChangeEvent> events = new ArrayList<>();
+
+        @Override
+        public void write(ChangeEvent event) {
+            events.add(event);
+        }
+    }
+
+    /**
+     * @return table directory of SSTables written from the CQL statements, each statement into its own SSTable
+     */
+    private Path writeSSTables(Path dir, String... statements) throws IOException {
+        SSTableSink sink = new SSTableSink(dir);
+        String keyspace = null;
+        for (String cql : statements) {
+            for (ChangeEvent event : run(cql)) {
+                keyspace = event.getKeyspaceName();
+                sink.write(event);
+            }
+            sink.sync();
+        }
+        sink.close();
+        try (Stream<Path> generations = Files.list(dir)) {
+            return generations.findFirst().get().resolve(keyspace).resolve("my_table");
+        }
+    }
+
+    @Test
+    @DisplayName("Rows are merged across SSTables and read in parallel")
+    void testRead(@TempDir Path dir) throws IOException {
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            statements.add("INSERT INTO my_table (key, ck, col1) VALUES ('key" + i + "', 1, " + i + ") USING TIMESTAMP 1000000000");
+        }
+        statements.add("UPDATE my_table USING TIMESTAMP 2000000000 SET col1 = 100 WHERE key = 'key0' AND ck = 1");
+        statements.add("DELETE col1 FROM my_table USING TIMESTAMP 3000000000 WHERE key = 'key1' AND ck = 1");
+        Path tableDirectory = writeSSTables(dir, statements.toArray(new String[0]));
+
+        CollectingSink sink = new CollectingSink();
+        long highWater = new SnapshotReader(sink, 4).read(tableDirectory);
+
+        Map<String, Object> col1ByKey = new HashMap<>();
+        for (ChangeEvent event : sink.events) {
+            assertEquals(ChangeEventType.UPDATE, event.getEventType());
+            Map<String, Object> columns = event.getRow().getColumns();
+            assertNull(col1ByKey.put((String) columns.get("key"), columns.get("col1")), "emitted twice: " + columns);
+        }
+        assertEquals(49, col1ByKey.size());
+        assertEquals(100, col1ByKey.get("key0"));
+        assertFalse(col1ByKey.containsKey("key1"));
+        assertEquals(49, col1ByKey.get("key49"));
+        assertEquals(3000000000L, highWater);
+    }
+
+    @Test
+    @DisplayName("Ranges cover the whole ring")
+    void testSplit() {
+        List<Range<Token>> ranges = SnapshotReader.split(Murmur3Partitioner.instance, 16);
+        assertEquals(16, ranges.size());
+        Token minimum = Murmur3Partitioner.instance.getMinimumToken();
+        assertEquals(minimum, ranges.get(0).left);
+        assertEquals(minimum, ranges.get(15).right);
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals(ranges.get(i - 1).right, ranges.get(i).left);
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE my_table (key text, ck int, col1 int, PRIMARY KEY (key, ck))");
+    }
+}
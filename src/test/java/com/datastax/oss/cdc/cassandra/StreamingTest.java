@@ -0,0 +1,98 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for streaming events row by row")
+class StreamingTest extends CqlToChangeEventTest {
+
+    /**
+     * Fingerprints counting rows visited, to know how much of the partition has been iterated.
+     */
+    private static class RowCounter extends ValueFingerprints {
+        private int rows;
+
+        private RowCounter() {
+            super(1024 * 1024);
+        }
+
+        @Override
+        public long row(long partition, Clustering clustering) {
+            rows++;
+            return super.row(partition, clustering);
+        }
+    }
+
+    @Test
+    @DisplayName("Events of large partition are passed before the rest of the partition is iterated")
+    void testLargePartition() {
+        StringBuilder batch = new StringBuilder("BEGIN UNLOGGED BATCH ");
+        for (int i = 0; i < 1000; i++) {
+            batch.append("INSERT INTO my_table (key, ck, col1) VALUES ('key', ").append(i).append(", ").append(i).append(");");
+        }
+        batch.append("APPLY BATCH");
+        List<PartitionUpdate> partitions = toPartitionUpdates(batch.toString());
+        assertEquals(1, partitions.size());
+
+        RowCounter counter = new RowCounter();
+        List<ChangeEvent> streamed = new ArrayList<>();
+        // rows visited when each event is passed
+        List<Integer> visited = new ArrayList<>();
+        new PartitionParser(partitions.get(0), counter).toChangeEvents(event -> {
+            streamed.add(event);
+            visited.add(counter.rows);
+        });
+
+        assertEquals(1000, streamed.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, streamed.get(i).getRow().getColumns().get("ck"));
+            // only the row of the event has been visited
+            assertEquals(i + 1, (int) visited.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("Deletions, static and regular rows are streamed in order")
+    void testMixedPartition() {
+        List<PartitionUpdate> partitions = new ArrayList<>();
+        for (String cql : Arrays.asList(
+                "DELETE FROM my_table WHERE key = 'key' AND ck > 1 AND ck <= 5",
+                "UPDATE my_table SET st = 1, col1 = 2 WHERE key = 'key' AND ck = 1",
+                "DELETE col1 FROM my_table WHERE key = 'key' AND ck = 2")) {
+            partitions.addAll(toPartitionUpdates(cql));
+        }
+        PartitionUpdate merged = PartitionUpdate.merge(partitions);
+
+        RowCounter counter = new RowCounter();
+        List<ChangeEvent> streamed = new ArrayList<>();
+        List<Integer> visited = new ArrayList<>();
+        new PartitionParser(merged, counter).toChangeEvents(event -> {
+            streamed.add(event);
+            visited.add(counter.rows);
+        });
+
+        // range deletion before any row, then each row as it is visited
+        assertEquals(4, streamed.size());
+        assertEquals(ChangeEventType.DELETE, streamed.get(0).getEventType());
+        assertEquals(0, (int) visited.get(0));
+        assertEquals(1, streamed.get(1).getRow().getColumns().get("st"));
+        assertEquals(1, (int) visited.get(1));
+        assertEquals(2, streamed.get(2).getRow().getColumns().get("col1"));
+        assertEquals(2, (int) visited.get(2));
+        assertEquals(ChangeEventType.DELETE, streamed.get(3).getEventType());
+        assertEquals(3, (int) visited.get(3));
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList("CREATE TABLE my_table (key text, ck int, st int static, col1 int, PRIMARY KEY (key, ck))");
+    }
+}
@@ -0,0 +1,62 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for per-table converters")
+class TableConverterTest extends CqlToChangeEventTest {
+
+    @Test
+    @DisplayName("Converters produce the same events as inspecting column types")
+    void testSameAsInterpreted() {
+        List<PartitionUpdate> partitions = toPartitionUpdates("BEGIN UNLOGGED BATCH "
+                + "INSERT INTO my_table (key, ck, col1, col2, col3, col4) VALUES ('key', 1, 'a', {'x': 1}, {'s'}, [1, 2]); "
+                + "UPDATE my_table SET col2['y'] = 2, col3 = col3 - {'s'} WHERE key = 'key' AND ck = 2; "
+                + "DELETE col1 FROM my_table WHERE key = 'key' AND ck = 3; "
+                + "APPLY BATCH");
+        for (PartitionUpdate partition : partitions) {
+            List<ChangeEvent> expected = new PartitionParser(partition, null, false).toChangeEvents();
+            List<ChangeEvent> actual = new PartitionParser(partition, null, true).toChangeEvents();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(JsonOutput.toJson(expected.get(i)), JsonOutput.toJson(actual.get(i)));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Converter is cached by table, and created again when columns change")
+    void testCache() {
+        PartitionUpdate partition = toPartitionUpdates("INSERT INTO my_table (key, ck, col1) VALUES ('key', 1, 'a')").get(0);
+        CFMetaData metadata = partition.metadata();
+        TableConverter converter = TableConverter.forTable(metadata);
+        assertSame(converter, TableConverter.forTable(metadata));
+        assertEquals("col1", converter.converterFor(metadata.getColumnDefinition(
+                ByteBufferUtil.bytes("col1"))).name);
+        // simple and complex columns only have converters of their kind
+        assertNull(converter.complexConverterFor(metadata.getColumnDefinition(ByteBufferUtil.bytes("col1"))));
+        assertNull(converter.converterFor(metadata.getColumnDefinition(ByteBufferUtil.bytes("col2"))));
+        assertEquals("col2", converter.complexConverterFor(metadata.getColumnDefinition(
+                ByteBufferUtil.bytes("col2"))).name);
+
+        // copy has new columns as altered table does
+        CFMetaData altered = metadata.copy();
+        TableConverter regenerated = TableConverter.forTable(altered);
+        assertNotSame(converter, regenerated);
+        assertSame(regenerated, TableConverter.forTable(altered));
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE my_table (key text, ck int, col1 text, col2 map<text, int>, "
+                + "col3 set<text>, col4 list<int>, PRIMARY KEY (key, ck))");
+    }
+}
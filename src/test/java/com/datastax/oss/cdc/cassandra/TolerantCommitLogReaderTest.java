@@ -0,0 +1,136 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for reading segments with a torn tail")
+class TolerantCommitLogReaderTest extends CqlToChangeEventTest {
+
+    private static final String KEYSPACE = "tolerant_commit_log_reader_test";
+
+    /**
+     * @return positions after each mutation of the inserts
+     */
+    private List<CommitLogPosition> insert(int from, int count) {
+        List<CommitLogPosition> positions = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            for (PartitionUpdate update : toPartitionUpdates("INSERT INTO tbl (id, val) VALUES (" + i + ", " + i + ")")) {
+                positions.add(CommitLog.instance.add(new Mutation(update)));
+            }
+        }
+        return positions;
+    }
+
+    private static Path copySegment(CommitLogPosition position, Path dir) throws IOException {
+        String name = new CommitLogDescriptor(position.segmentId, null, null).fileName();
+        return Files.copy(new File(DatabaseDescriptor.getCommitLogLocation(), name).toPath(), dir.resolve(name));
+    }
+
+    private static void corrupt(Path segment, int from, int to) throws IOException {
+        byte[] data = Files.readAllBytes(segment);
+        for (int i = from; i < to; i++) {
+            data[i] ^= (byte) 0xFF;
+        }
+        Files.write(segment, data);
+    }
+
+    /**
+     * @return ids of the rows read, within the range of ids the test inserted since tests share the segment
+     */
+    private List<Integer> read(Path segment, Path deadLetterDir, int from, int to, long[] skipped) throws IOException {
+        List<ChangeEvent> events = new ArrayList<>();
+        DeadLetterQueue queue = new DeadLetterQueue(deadLetterDir);
+        TolerantCommitLogReader reader = new TolerantCommitLogReader(queue);
+        skipped[0] = reader.read(new CommitLogHandler(null, null, events::add), segment);
+        queue.close();
+        return events.stream()
+                .filter(e -> e.getKeyspaceName().equals(KEYSPACE))
+                .map(e -> (Integer) e.getRow().getColumns().get("id"))
+                .filter(id -> id >= from && id < to)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    @DisplayName("Mutations before a corrupted mutation are read and the rest is quarantined")
+    void testCorruptedMutation(@TempDir Path dir) throws IOException {
+        List<CommitLogPosition> positions = insert(0, 5);
+        CommitLog.instance.sync(true);
+        Path segment = copySegment(positions.get(0), dir);
+        byte[] original = Files.readAllBytes(segment);
+        // in the body of the 4th mutation, before its checksum
+        corrupt(segment, positions.get(3).position - 6, positions.get(3).position - 5);
+
+        long[] skipped = new long[1];
+        Path deadLetterDir = dir.resolve("dead");
+        assertEquals(Arrays.asList(0, 1, 2), read(segment, deadLetterDir, 0, 10, skipped));
+
+        int start = positions.get(2).position;
+        int end = positions.get(4).position;
+        // up to the checksum of the last mutation, which can end with zeros
+        assertTrue(skipped[0] <= end - start && skipped[0] > end - start - 4, String.valueOf(skipped[0]));
+        Path tail = DeadLetterQueue.tailPathOf(deadLetterDir, positions.get(0).segmentId, start);
+        assertEquals(skipped[0], Files.size(tail));
+        byte[] expected = Arrays.copyOfRange(original, start, start + (int) skipped[0]);
+        expected[positions.get(3).position - 6 - start] ^= (byte) 0xFF;
+        assertArrayEquals(expected, Files.readAllBytes(tail));
+        assertTrue(Files.readAllLines(DeadLetterQueue.pathOf(deadLetterDir, positions.get(0).segmentId)).get(0)
+                .contains("\"skippedBytes\":" + skipped[0]));
+    }
+
+    @Test
+    @DisplayName("Sync section with a corrupted marker stops reading instead of looping")
+    void testCorruptedSyncMarker(@TempDir Path dir) throws IOException {
+        List<CommitLogPosition> first = insert(10, 3);
+        CommitLog.instance.sync(true);
+        List<CommitLogPosition> second = insert(13, 3);
+        CommitLog.instance.sync(true);
+        Path segment = copySegment(first.get(0), dir);
+        // sync marker of the second section is right after the first section
+        int marker = first.get(2).position;
+        corrupt(segment, marker, marker + 8);
+
+        long[] skipped = new long[1];
+        assertEquals(Arrays.asList(10, 11, 12), read(segment, dir.resolve("dead"), 10, 20, skipped));
+        assertTrue(skipped[0] > second.get(2).position - marker - 4);
+    }
+
+    @Test
+    @DisplayName("Whole segment is read without skipping")
+    void testComplete(@TempDir Path dir) throws IOException {
+        List<CommitLogPosition> positions = insert(20, 3);
+        CommitLog.instance.sync(true);
+        Path segment = copySegment(positions.get(0), dir);
+
+        long[] skipped = new long[1];
+        assertEquals(Arrays.asList(20, 21, 22), read(segment, dir.resolve("dead"), 20, 30, skipped));
+        assertEquals(0, skipped[0]);
+        // dead letters of other tests in the segment can be there, but no tail
+        if (Files.exists(dir.resolve("dead"))) {
+            try (Stream<Path> files = Files.list(dir.resolve("dead"))) {
+                assertFalse(files.anyMatch(f -> f.toString().endsWith(".tail")));
+            }
+        }
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE tbl (id int PRIMARY KEY, val int)");
+    }
+}
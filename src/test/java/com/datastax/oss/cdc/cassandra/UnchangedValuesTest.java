@@ -0,0 +1,136 @@
+package com.datastax.oss.cdc.cassandra;
+
+import org.apache.cassandra.db.Mutation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.datastax.oss.cdc.cassandra.ChangeEventType.DELETE;
+import static com.datastax.oss.cdc.cassandra.ChangeEventType.UPDATE;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for dropping writes that do not change values")
+class UnchangedValuesTest extends CqlToChangeEventTest {
+
+    private ValueFingerprints fingerprints;
+
+    @BeforeEach
+    void createFingerprints() {
+        fingerprints = new ValueFingerprints(1024 * 1024);
+    }
+
+    private List<ChangeEvent> runWithFingerprints(String cql) {
+        List<ChangeEvent> events = new ArrayList<>();
+        toPartitionUpdates(cql).forEach(p -> events.addAll(new PartitionParser(p, fingerprints).toChangeEvents()));
+        events.stream().map(JsonOutput::toJson).forEach(System.out::println);
+        return events;
+    }
+
+    @Test
+    @DisplayName("Re-upsert of the same row is dropped")
+    void testSameUpsert() {
+        assertEquals(1, runWithFingerprints("INSERT INTO my_table (key, col1, col2) VALUES ('key', 1, 'a')").size());
+        assertEquals(0, runWithFingerprints("INSERT INTO my_table (key, col1, col2) VALUES ('key', 1, 'a')").size());
+        assertEquals(0, runWithFingerprints("UPDATE my_table SET col1 = 1 WHERE key = 'key'").size());
+    }
+
+    @Test
+    @DisplayName("Only changed columns are emitted")
+    void testPartialChange() {
+        runWithFingerprints("INSERT INTO my_table (key, col1, col2) VALUES ('partial', 1, 'a')");
+        List<ChangeEvent> events = runWithFingerprints("UPDATE my_table SET col1 = 2, col2 = 'a' WHERE key = 'partial'");
+
+        assertEquals(1, events.size());
+        Map<String, Object> columns = events.get(0).getRow().getColumns();
+        assertEquals(UPDATE, events.get(0).getEventType());
+        assertEquals(2, columns.get("col1"));
+        assertFalse(columns.containsKey("col2"));
+    }
+
+    @Test
+    @DisplayName("Same value after deletion is emitted")
+    void testUpsertAfterDelete() {
+        runWithFingerprints("INSERT INTO my_table (key, col1) VALUES ('deleted', 1)");
+        List<ChangeEvent> events = runWithFingerprints("DELETE FROM my_table WHERE key = 'deleted'");
+        assertEquals(DELETE, events.get(0).getEventType());
+        assertEquals(1, runWithFingerprints("INSERT INTO my_table (key, col1) VALUES ('deleted', 1)").size());
+    }
+
+    @Test
+    @DisplayName("Same value after range deletion is emitted")
+    void testUpsertAfterRangeDelete() {
+        runWithFingerprints("INSERT INTO cluster_table (key, cl1, val) VALUES ('range', 1, 10)");
+        assertEquals(0, runWithFingerprints("INSERT INTO cluster_table (key, cl1, val) VALUES ('range', 1, 10)").size());
+        runWithFingerprints("DELETE FROM cluster_table WHERE key = 'range' AND cl1 > 0");
+        assertEquals(1, runWithFingerprints("INSERT INTO cluster_table (key, cl1, val) VALUES ('range', 1, 10)").size());
+    }
+
+    @Test
+    @DisplayName("Writes with TTL are always emitted")
+    void testTTL() {
+        runWithFingerprints("INSERT INTO my_table (key, col1) VALUES ('ttl', 1) USING TTL 1000");
+        assertEquals(1, runWithFingerprints("INSERT INTO my_table (key, col1) VALUES ('ttl', 1) USING TTL 1000").size());
+    }
+
+    @Test
+    @DisplayName("Writes while draining are emitted, and fingerprints are cleared after draining")
+    void testDraining() {
+        List<ChangeEvent> events = new ArrayList<>();
+        CommitLogHandler handler = new CommitLogHandler(null, fingerprints, events::add);
+        Consumer<String> handle = cql -> toPartitionUpdates(cql)
+                .forEach(p -> handler.handleMutation(new Mutation(p), 0, 0, null));
+
+        handle.accept("INSERT INTO my_table (key, col1) VALUES ('draining', 1)");
+        handler.setDraining(true);
+        handle.accept("INSERT INTO my_table (key, col1) VALUES ('draining', 1)");
+        handle.accept("INSERT INTO my_table (key, col1) VALUES ('draining', 2)");
+        assertEquals(3, events.size());
+
+        // not suppressed by the fingerprint of 1 recorded before draining
+        handler.setDraining(false);
+        handle.accept("INSERT INTO my_table (key, col1) VALUES ('draining', 1)");
+        assertEquals(4, events.size());
+        handle.accept("INSERT INTO my_table (key, col1) VALUES ('draining', 1)");
+        assertEquals(4, events.size());
+    }
+
+    @Test
+    @DisplayName("Upsert after delete is emitted after the epoch of the partition is evicted")
+    void testEvictedEpoch() {
+        // room for 8 epochs
+        fingerprints = new ValueFingerprints(16 * 128);
+        runWithFingerprints("INSERT INTO my_table (key, col1) VALUES ('evicted', 1)");
+        runWithFingerprints("DELETE FROM my_table WHERE key = 'evicted'");
+        for (int i = 0; i < 200; i++) {
+            toPartitionUpdates("DELETE FROM my_table WHERE key = 'other" + i + "'")
+                    .forEach(p -> new PartitionParser(p, fingerprints).toChangeEvents());
+        }
+
+        List<ChangeEvent> events = runWithFingerprints("INSERT INTO my_table (key, col1) VALUES ('evicted', 1)");
+        assertEquals(1, events.size());
+        assertEquals(1, events.get(0).getRow().getColumns().get("col1"));
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Arrays.asList(
+                "CREATE TABLE my_table (" +
+                "  key text PRIMARY KEY," +
+                "  col1 int, " +
+                "  col2 text " +
+                ")",
+                "CREATE TABLE cluster_table (" +
+                "  key text," +
+                "  cl1 int, " +
+                "  val int, " +
+                "  PRIMARY KEY ((key), cl1)" +
+                ")"
+        );
+    }
+}
@@ -0,0 +1,96 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.cassandra.db.marshal.InetAddressType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for type-specialized value codecs")
+class ValueCodecsTest extends CqlToChangeEventTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ChangeEvent insert() {
+        List<ChangeEvent> events = run("INSERT INTO my_table (key, c_int, c_bigint, c_text, c_ascii, c_uuid, c_timeuuid, "
+                + "c_timestamp, c_blob, c_decimal, c_varint, c_double, c_float, c_boolean, c_smallint, c_tinyint, "
+                + "c_date, c_time, c_inet, c_list, c_set, c_map, c_int_map, c_tuple) VALUES ("
+                + "'key', 1, 9223372036854775807, 'テキスト \"quoted\"', 'ascii', 5132b130-ae79-11e4-ab27-0800200c9a66, "
+                + "50554d6e-29bb-11e5-b345-feff819cdc9f, '2019-03-01 12:34:56+0000', 0xcafebabe, 12.345, "
+                + "123456789012345678901234567890, 1.5, 2.5, true, 3, 4, '2019-03-01', '12:34:56.789', '127.0.0.1', "
+                + "[1, 2, 3], {'a', 'b'}, {'x': 10, 'y': 20}, {1: 'one'}, (1, 'a'))");
+        return events.get(events.size() - 1);
+    }
+
+    private static JsonNode withCodecs(ChangeEvent event) throws IOException {
+        return MAPPER.readTree(JsonOutput.toJson(event)).get("row");
+    }
+
+    private static JsonNode withDeserializedValues(ChangeEvent event) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = MAPPER.getFactory().createGenerator(out)) {
+            json.writeObject(event.getRow().getColumns());
+        }
+        return MAPPER.readTree(out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Codecs write the same values as deserialized objects")
+    void testSameAsDeserialized() throws IOException {
+        ChangeEvent event = insert();
+        assertFalse(event.getRow().getSerializedColumns().isEmpty());
+        JsonNode expected = withDeserializedValues(event);
+        JsonNode actual = withCodecs(event);
+
+        for (Map.Entry<String, Object> column : event.getRow().getColumns().entrySet()) {
+            if (column.getKey().equals("c_tuple")) {
+                continue;
+            }
+            assertEquals(expected.get(column.getKey()), actual.get(column.getKey()), column.getKey());
+        }
+        assertEquals(expected.size(), actual.size());
+    }
+
+    @Test
+    @DisplayName("Codecs write values without deserializing them")
+    void testWithoutDeserialization() throws IOException {
+        ChangeEvent event = insert();
+        JsonNode row = withCodecs(event);
+        assertEquals("テキスト \"quoted\"", row.get("c_text").asText());
+        assertEquals(1551443696000L, row.get("c_timestamp").asLong());
+        assertEquals("yv66vg==", row.get("c_blob").asText());
+        assertEquals(20, row.get("c_map").get("y").asInt());
+        assertEquals("one", row.get("c_int_map").get("1").asText());
+        // tuple is written as array instead of base64 of serialized bytes
+        assertEquals(1, row.get("c_tuple").get(0).asInt());
+        assertEquals("a", row.get("c_tuple").get(1).asText());
+    }
+
+    @Test
+    @DisplayName("Codec is cached per type, and unsupported types have none")
+    void testCodecFor() {
+        assertSame(ValueCodecs.codecFor(Int32Type.instance),
+                ValueCodecs.codecFor(Int32Type.instance));
+        assertNull(ValueCodecs.codecFor(InetAddressType.instance));
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE my_table (key text PRIMARY KEY, c_int int, c_bigint bigint, "
+                + "c_text text, c_ascii ascii, c_uuid uuid, c_timeuuid timeuuid, c_timestamp timestamp, c_blob blob, "
+                + "c_decimal decimal, c_varint varint, c_double double, c_float float, c_boolean boolean, "
+                + "c_smallint smallint, c_tinyint tinyint, c_date date, c_time time, c_inet inet, "
+                + "c_list frozen<list<int>>, c_set set<text>, c_map map<text, bigint>, c_int_map map<int, text>, "
+                + "c_tuple tuple<int, text>)");
+    }
+}
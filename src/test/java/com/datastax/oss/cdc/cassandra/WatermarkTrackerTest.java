@@ -0,0 +1,107 @@
+package com.datastax.oss.cdc.cassandra;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.cassandra.db.Mutation;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test for event-time watermarks")
+class WatermarkTrackerTest extends CqlToChangeEventTest {
+
+    @Test
+    @DisplayName("Watermark is held by sources without writes and by mutations in flight")
+    void testWatermark() throws IOException {
+        List<Object> output = new ArrayList<>();
+        ChangeEventSink sink = new ChangeEventSink() {
+            @Override
+            public void write(ChangeEvent event) {
+                output.add(event);
+            }
+
+            @Override
+            public void writeWatermark(Instant watermark) {
+                output.add(watermark);
+            }
+        };
+        List<Instant> notified = new ArrayList<>();
+        try (WatermarkTracker tracker = new WatermarkTracker(sink, 1, 0)) {
+            tracker.addListener(notified::add);
+            assertFalse(tracker.emit());
+
+            WatermarkTracker.Source snapshot = tracker.open("snapshot");
+            CommitLogHandler handler = new CommitLogHandler(null, null, sink);
+            handler.setWatermarks(tracker);
+            toPartitionUpdates("INSERT INTO tbl (id, val) VALUES (1, 1)", 10_000L)
+                    .forEach(update -> handler.handleMutation(new Mutation(update), 0, 0, null));
+            // held by snapshot
+            assertFalse(tracker.emit());
+            snapshot.close();
+
+            assertTrue(tracker.emit());
+            assertEquals(Instant.ofEpochMilli(9_999), tracker.getWatermark());
+            assertEquals(Arrays.asList(output.get(0), Instant.ofEpochMilli(9_999)), output);
+            assertEquals(Collections.singletonList(Instant.ofEpochMilli(9_999)), notified);
+            // not advanced
+            assertFalse(tracker.emit());
+
+            WatermarkTracker.Source source = tracker.open("test");
+            source.begin(20_000_000L);
+            source.end(30_000_000L);
+            // a mutation in flight holds the watermark below its timestamp
+            source.begin(15_000_000L);
+            handler.handleMutation(new Mutation(
+                    toPartitionUpdates("INSERT INTO tbl (id, val) VALUES (2, 2)", 40_000L).get(0)), 0, 0, null);
+            assertTrue(tracker.emit());
+            assertEquals(Instant.ofEpochMilli(14_999), tracker.getWatermark());
+            source.end(15_000_000L);
+            assertTrue(tracker.emit());
+            assertEquals(Instant.ofEpochMilli(29_999), tracker.getWatermark());
+
+            long late = CDCMetrics.registry.counter("Watermark.LateMutations").getCount();
+            source.begin(1_000_000L);
+            source.end(1_000_000L);
+            assertEquals(late + 1, CDCMetrics.registry.counter("Watermark.LateMutations").getCount());
+        }
+    }
+
+    @Test
+    @DisplayName("Encoders write watermarks between events")
+    void testEncoders() throws IOException {
+        ChangeEvent event = run("INSERT INTO tbl (id, val) VALUES (3, 3)").get(0);
+        Instant watermark = Instant.ofEpochMilli(1_580_000_000_000L);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder binary = new BinaryEncoder();
+        binary.encodeWatermark(watermark, out);
+        binary.encode(event, out);
+        binary.encodeWatermark(watermark.plusMillis(1), out);
+        BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(event.getEventTimestamp(), decoder.read().getEventTimestamp());
+        assertEquals(watermark, decoder.getWatermark());
+        assertNull(decoder.read());
+        assertEquals(watermark.plusMillis(1), decoder.getWatermark());
+
+        out.reset();
+        JacksonEncoder json = new JacksonEncoder(JacksonEncoder.Format.JSON);
+        json.encode(event, out);
+        json.encodeWatermark(watermark, out);
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertEquals(2, lines.length);
+        JsonNode node = new ObjectMapper().readTree(lines[1]);
+        assertEquals(watermark.toString(), node.get("watermark").asText());
+    }
+
+    @Override
+    List<String> createTableStatement() {
+        return Collections.singletonList("CREATE TABLE tbl (id int PRIMARY KEY, val int)");
+    }
+}